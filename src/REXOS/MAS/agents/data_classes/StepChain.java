@@ -0,0 +1,227 @@
+/**
+ * @file src/REXOS/MAS/agents/data_classes/StepChain.java
+ * @brief A chain of steps indexed by their id.
+ * @date Created: 2013-10-18
+ *
+ * @section LICENSE
+ * License: newBSD
+ *
+ * Copyright © 2013, HU University of Applied Sciences Utrecht.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * - Neither the name of the HU University of Applied Sciences Utrecht nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE HU UNIVERSITY OF APPLIED SCIENCES UTRECHT
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+package agents.data_classes;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import org.bson.types.ObjectId;
+
+/**
+ * A chain of steps indexed by their id. The order of the steps is determined by following the next step ids from the
+ * first step, which is the step no other step refers to. Steps that cannot be reached from the first step, e.g. because
+ * the chain is broken, are placed after the reachable steps in the order they were added.
+ * The order is computed once in linear time and kept until a step is added, removed or linked differently, so updating
+ * the status of a step does not reorder the chain.
+ * 
+ * @param <T> The type of the steps.
+ */
+public class StepChain<T extends ChainedStep> {
+	/**
+	 * @var LinkedHashMap<ObjectId, T> steps
+	 *      The steps by their id, in the order they were added.
+	 */
+	private LinkedHashMap<ObjectId, T> steps;
+
+	/**
+	 * @var ArrayList<ObjectId> order
+	 *      The ids of the steps in chain order, or null if the order has to be computed again.
+	 */
+	private ArrayList<ObjectId> order;
+
+	/**
+	 * Constructs an empty chain.
+	 */
+	public StepChain() {
+		steps = new LinkedHashMap<ObjectId, T>();
+	}
+
+	/**
+	 * Constructs a chain of the specified steps.
+	 * 
+	 * @param steps the steps in any order.
+	 */
+	public StepChain(T[] steps) {
+		this();
+		for(T step : steps) {
+			this.steps.put(step.getId(), step);
+		}
+	}
+
+	/**
+	 * Constructs a chain of the specified steps.
+	 * 
+	 * @param steps the steps in any order.
+	 */
+	public StepChain(Collection<T> steps) {
+		this();
+		for(T step : steps) {
+			this.steps.put(step.getId(), step);
+		}
+	}
+
+	/**
+	 * Adds a step or replaces the step with the same id, e.g. after its status changed. The order is only computed again
+	 * when the step is new or links to a different next step.
+	 * 
+	 * @param step the step to add or replace.
+	 */
+	public void put(T step) {
+		T previous = steps.put(step.getId(), step);
+		if(previous == null || !equals(previous.getNextStepId(), step.getNextStepId())) {
+			order = null;
+		}
+	}
+
+	/**
+	 * Replaces all steps of the chain, e.g. after reading them from a blackboard again. The order is only computed
+	 * again when steps were added, removed or linked differently.
+	 * 
+	 * @param newSteps the steps in any order.
+	 */
+	public void replaceAll(Collection<T> newSteps) {
+		HashSet<ObjectId> ids = new HashSet<ObjectId>();
+		for(T step : newSteps) {
+			ids.add(step.getId());
+			put(step);
+		}
+		Iterator<ObjectId> iterator = steps.keySet().iterator();
+		while(iterator.hasNext()) {
+			if(!ids.contains(iterator.next())) {
+				iterator.remove();
+				order = null;
+			}
+		}
+	}
+
+	/**
+	 * Removes the step with the specified id.
+	 * 
+	 * @param id the id of the step to remove.
+	 */
+	public void remove(ObjectId id) {
+		if(steps.remove(id) != null) {
+			order = null;
+		}
+	}
+
+	/**
+	 * Returns the step with the specified id.
+	 * 
+	 * @param id the id of the step.
+	 * @return the step, or null if the chain does not contain it.
+	 */
+	public T get(ObjectId id) {
+		return steps.get(id);
+	}
+
+	/**
+	 * Returns the first step of the chain.
+	 * 
+	 * @return the first step, or null if the chain is empty.
+	 */
+	public T getFirst() {
+		ArrayList<ObjectId> order = getOrder();
+		return order.isEmpty() ? null : steps.get(order.get(0));
+	}
+
+	/**
+	 * Returns the steps in chain order.
+	 * 
+	 * @param array an array of the type of the steps. It is used if it is large enough, otherwise a new array is
+	 *            allocated.
+	 * @return the steps in chain order.
+	 */
+	public T[] toArray(T[] array) {
+		ArrayList<T> ordered = new ArrayList<T>(steps.size());
+		for(ObjectId id : getOrder()) {
+			ordered.add(steps.get(id));
+		}
+		return ordered.toArray(array);
+	}
+
+	/**
+	 * Returns the amount of steps in the chain.
+	 * 
+	 * @return the amount of steps.
+	 */
+	public int size() {
+		return steps.size();
+	}
+
+	/**
+	 * Returns the ids of the steps in chain order, computing the order if needed.
+	 * 
+	 * @return the ids in chain order.
+	 */
+	private ArrayList<ObjectId> getOrder() {
+		if(order == null) {
+			HashSet<ObjectId> referenced = new HashSet<ObjectId>();
+			for(T step : steps.values()) {
+				if(step.getNextStepId() != null) {
+					referenced.add(step.getNextStepId());
+				}
+			}
+
+			ArrayList<ObjectId> newOrder = new ArrayList<ObjectId>(steps.size());
+			HashSet<ObjectId> visited = new HashSet<ObjectId>();
+			for(ObjectId id : steps.keySet()) {
+				if(!referenced.contains(id)) {
+					// follow the chain from the first step
+					ObjectId next = id;
+					while(next != null && steps.containsKey(next) && visited.add(next)) {
+						newOrder.add(next);
+						next = steps.get(next).getNextStepId();
+					}
+					break;
+				}
+			}
+			for(ObjectId id : steps.keySet()) {
+				if(visited.add(id)) {
+					newOrder.add(id);
+				}
+			}
+			order = newOrder;
+		}
+		return order;
+	}
+
+	/**
+	 * Compares two ids, either of which may be null.
+	 * 
+	 * @param a the first id.
+	 * @param b the second id.
+	 * @return whether the ids are equal.
+	 */
+	private static boolean equals(ObjectId a, ObjectId b) {
+		return a == null ? b == null : a.equals(b);
+	}
+}
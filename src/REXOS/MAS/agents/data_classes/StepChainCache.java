@@ -0,0 +1,141 @@
+/**
+ * @file src/REXOS/MAS/agents/data_classes/StepChainCache.java
+ * @brief Cache of the chains of steps belonging to a parent step.
+ * @date Created: 2013-10-18
+ *
+ * @section LICENSE
+ * License: newBSD
+ *
+ * Copyright © 2013, HU University of Applied Sciences Utrecht.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * - Neither the name of the HU University of Applied Sciences Utrecht nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE HU UNIVERSITY OF APPLIED SCIENCES UTRECHT
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+package agents.data_classes;
+
+import java.util.Collection;
+import java.util.HashMap;
+
+import libraries.blackboard_client.data_classes.GeneralMongoException;
+import libraries.blackboard_client.data_classes.InvalidDBNamespaceException;
+
+import org.bson.types.ObjectId;
+
+/**
+ * Cache of the chains of steps belonging to a parent step, e.g. the equiplet steps of a service step. A chain is read
+ * from the blackboard the first time its first step is requested and kept up to date with the status changes of its
+ * steps afterwards. Implementations read the steps of a parent step and know the parent step of a step.
+ * 
+ * @param <T> the type of the steps in the chains.
+ */
+public abstract class StepChainCache<T extends ChainedStep> {
+	/**
+	 * @var HashMap<ObjectId, StepChain<T>> chains
+	 *      The cached chains by the id of their parent step. Guarded by itself.
+	 */
+	private HashMap<ObjectId, StepChain<T>> chains;
+
+	/**
+	 * Constructs an empty cache.
+	 */
+	public StepChainCache() {
+		chains = new HashMap<ObjectId, StepChain<T>>();
+	}
+
+	/**
+	 * Reads the steps of a parent step from the blackboard.
+	 * 
+	 * @param parentId the id of the parent step.
+	 * @return the steps in any order.
+	 */
+	protected abstract Collection<T> readSteps(ObjectId parentId) throws InvalidDBNamespaceException,
+			GeneralMongoException;
+
+	/**
+	 * Returns the id of the parent step of a step.
+	 * 
+	 * @param step the step.
+	 * @return the id of its parent step.
+	 */
+	protected abstract ObjectId getParentId(T step);
+
+	/**
+	 * Returns the first step of a parent step. The chain is read from the blackboard only if it is not cached.
+	 * 
+	 * @param parentId the id of the parent step.
+	 * @return the first step, or null if the parent step has no steps.
+	 */
+	public T getFirst(ObjectId parentId) throws InvalidDBNamespaceException, GeneralMongoException {
+		synchronized(chains) {
+			StepChain<T> chain = chains.get(parentId);
+			if(chain == null) {
+				chain = new StepChain<T>(readSteps(parentId));
+				if(chain.size() == 0) {
+					return null;
+				}
+				chains.put(parentId, chain);
+			}
+			return chain.getFirst();
+		}
+	}
+
+	/**
+	 * Returns the steps of a parent step in the order they are performed. The steps are read from the blackboard again,
+	 * so they are up to date, but the order of a cached chain is reused.
+	 * 
+	 * @param parentId the id of the parent step.
+	 * @param array an array of the type of the steps. It is used if it is large enough, otherwise a new array is
+	 *            allocated.
+	 * @return the steps in order.
+	 */
+	public T[] getSorted(ObjectId parentId, T[] array) throws InvalidDBNamespaceException, GeneralMongoException {
+		Collection<T> steps = readSteps(parentId);
+		synchronized(chains) {
+			StepChain<T> chain = chains.get(parentId);
+			if(chain == null) {
+				return new StepChain<T>(steps).toArray(array);
+			}
+			chain.replaceAll(steps);
+			return chain.toArray(array);
+		}
+	}
+
+	/**
+	 * Updates the cached chain containing the given step, if any, after its status changed.
+	 * 
+	 * @param step the changed step.
+	 */
+	public void update(T step) {
+		synchronized(chains) {
+			StepChain<T> chain = chains.get(getParentId(step));
+			if(chain != null) {
+				chain.put(step);
+			}
+		}
+	}
+
+	/**
+	 * Removes the cached chain of a parent step.
+	 * 
+	 * @param parentId the id of the parent step.
+	 */
+	public void remove(ObjectId parentId) {
+		synchronized(chains) {
+			chains.remove(parentId);
+		}
+	}
+}
@@ -0,0 +1,199 @@
+/**
+ * @file src/REXOS/MAS/agents/equiplet_agent/ConversationTable.java
+ * @brief Constant time table of the conversations of an equiplet and their product steps.
+ * @date Created: 2013-10-18
+ *
+ * @section LICENSE
+ * License: newBSD
+ *
+ * Copyright © 2013, HU University of Applied Sciences Utrecht.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * - Neither the name of the HU University of Applied Sciences Utrecht nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE HU UNIVERSITY OF APPLIED SCIENCES UTRECHT
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+package agents.equiplet_agent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.bson.types.ObjectId;
+
+/**
+ * Bidirectional table of the conversations of an equiplet agent and the product steps they are about.
+ * Both directions are hash maps, so looking up a conversation id or a product step id takes constant time. Lookups do
+ * not lock and may be done from the agent thread and the blackboard callback thread at the same time. Every lookup
+ * marks the relation as used, which allows relations that are no longer used to be expired.
+ **/
+public class ConversationTable {
+	/**
+	 * A relation between a conversation and a product step.
+	 **/
+	private static class Relation {
+		/**
+		 * @var String conversationId
+		 *      The conversation about the product step.
+		 */
+		private final String conversationId;
+
+		/**
+		 * @var ObjectId productStepId
+		 *      The product step on the blackboard of the equiplet.
+		 */
+		private final ObjectId productStepId;
+
+		/**
+		 * @var long lastUsed
+		 *      The moment the relation was last added or looked up, in milliseconds.
+		 */
+		private volatile long lastUsed;
+
+		/**
+		 * Constructs a relation.
+		 * 
+		 * @param conversationId The conversation about the product step.
+		 * @param productStepId The product step on the blackboard of the equiplet.
+		 */
+		Relation(String conversationId, ObjectId productStepId) {
+			this.conversationId = conversationId;
+			this.productStepId = productStepId;
+			this.lastUsed = System.currentTimeMillis();
+		}
+	}
+
+	/**
+	 * @var ConcurrentHashMap<String, Relation> byConversationId
+	 *      The relations by conversation id.
+	 */
+	private ConcurrentHashMap<String, Relation> byConversationId;
+
+	/**
+	 * @var ConcurrentHashMap<ObjectId, Relation> byProductStepId
+	 *      The relations by product step id.
+	 */
+	private ConcurrentHashMap<ObjectId, Relation> byProductStepId;
+
+	/**
+	 * Constructs an empty table.
+	 */
+	public ConversationTable() {
+		byConversationId = new ConcurrentHashMap<String, Relation>();
+		byProductStepId = new ConcurrentHashMap<ObjectId, Relation>();
+	}
+
+	/**
+	 * Adds a relation between a conversation and a product step. Earlier relations of the conversation or the product
+	 * step are replaced.
+	 * 
+	 * @param conversationId the conversationId in the new relation.
+	 * @param productStepId the objectId in the new relation.
+	 */
+	public synchronized void put(String conversationId, ObjectId productStepId) {
+		Relation relation = new Relation(conversationId, productStepId);
+		Relation previous = byConversationId.put(conversationId, relation);
+		if(previous != null && !previous.productStepId.equals(productStepId)) {
+			byProductStepId.remove(previous.productStepId, previous);
+		}
+		previous = byProductStepId.put(productStepId, relation);
+		if(previous != null && !previous.conversationId.equals(conversationId)) {
+			byConversationId.remove(previous.conversationId, previous);
+		}
+	}
+
+	/**
+	 * Returns the product step of a conversation.
+	 * 
+	 * @param conversationId the conversationId of which the related objectId is needed.
+	 * @return the related product step id or null if the relation does not exist.
+	 */
+	public ObjectId getProductStepId(String conversationId) {
+		if(conversationId == null) {
+			return null;
+		}
+		Relation relation = byConversationId.get(conversationId);
+		if(relation == null) {
+			return null;
+		}
+		relation.lastUsed = System.currentTimeMillis();
+		return relation.productStepId;
+	}
+
+	/**
+	 * Returns the conversation about a product step.
+	 * 
+	 * @param productStepId the ObjectId for which the related conversationId is needed.
+	 * @return the related conversationId or null if the relation does not exist.
+	 */
+	public String getConversationId(ObjectId productStepId) {
+		if(productStepId == null) {
+			return null;
+		}
+		Relation relation = byProductStepId.get(productStepId);
+		if(relation == null) {
+			return null;
+		}
+		relation.lastUsed = System.currentTimeMillis();
+		return relation.conversationId;
+	}
+
+	/**
+	 * Removes the relation of a product step.
+	 * 
+	 * @param productStepId the product step of which the relation should be removed.
+	 * @return the conversation id of the removed relation or null if the relation did not exist.
+	 */
+	public synchronized String remove(ObjectId productStepId) {
+		Relation relation = byProductStepId.remove(productStepId);
+		if(relation == null) {
+			return null;
+		}
+		byConversationId.remove(relation.conversationId, relation);
+		return relation.conversationId;
+	}
+
+	/**
+	 * Removes the relations that have not been used for a while and whose product step is not booked in the schedule.
+	 * A booked step can legitimately wait a long time for its time slot, so it is never expired.
+	 * 
+	 * @param maxIdleTime the time in milliseconds after which an unused relation is stale.
+	 * @param scheduleIndex the steps booked on the equiplet, or null to expire booked steps as well.
+	 * @return the product step ids of the expired relations.
+	 */
+	public synchronized List<ObjectId> expire(long maxIdleTime, ScheduleIndex scheduleIndex) {
+		long staleBefore = System.currentTimeMillis() - maxIdleTime;
+		List<ObjectId> expired = new ArrayList<ObjectId>();
+		for(Relation relation : byProductStepId.values()) {
+			if(relation.lastUsed < staleBefore
+					&& (scheduleIndex == null || scheduleIndex.getBooking(relation.productStepId) == null)) {
+				expired.add(relation.productStepId);
+			}
+		}
+		for(ObjectId productStepId : expired) {
+			remove(productStepId);
+		}
+		return expired;
+	}
+
+	/**
+	 * Returns the amount of relations.
+	 * 
+	 * @return the amount of conversations in the table.
+	 */
+	public int size() {
+		return byProductStepId.size();
+	}
+}
@@ -60,11 +60,10 @@ import jade.wrapper.StaleProxyException;
 import java.io.IOException;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map.Entry;
 
 import libraries.blackboard_client.BlackboardClient;
+import libraries.blackboard_client.BlackboardCollection;
 import libraries.blackboard_client.data_classes.BlackboardSubscriber;
 import libraries.blackboard_client.data_classes.FieldUpdateSubscription;
 import libraries.blackboard_client.data_classes.GeneralMongoException;
@@ -73,6 +72,7 @@ import libraries.blackboard_client.data_classes.MongoOperation;
 import libraries.blackboard_client.data_classes.OplogEntry;
 import libraries.blackboard_client.data_classes.FieldUpdateSubscription.MongoUpdateLogOperation;
 import libraries.knowledgedb_client.KeyNotFoundException;
+import libraries.knowledgedb_client.KnowledgeCache;
 import libraries.knowledgedb_client.KnowledgeDBClient;
 import libraries.knowledgedb_client.KnowledgeException;
 import libraries.knowledgedb_client.Queries;
@@ -91,6 +91,7 @@ import agents.data_classes.ProductStep;
 import agents.data_classes.ScheduleData;
 import agents.data_classes.StepStatusCode;
 import agents.equiplet_agent.behaviours.AbortStep;
+import agents.equiplet_agent.behaviours.ExpireConversations;
 import agents.equiplet_agent.behaviours.InitialisationFinished;
 import agents.equiplet_agent.behaviours.ServiceAgentDied;
 
@@ -147,25 +148,46 @@ public class EquipletAgent extends Agent implements BlackboardSubscriber {
 	private String timeDataName = Configuration.getProperty(ConfigurationFiles.MONGO_DB_PROPERTIES, "timeDataCollectionName");
 
 	/**
-	 * @var BlackboardClient collectiveBBClient
-	 *      Object for communication with the collective blackboard.
+	 * @var BlackboardClient equipletDbClient
+	 *      Client for the equiplet database, shared by all collections on that database.
 	 */
-	private BlackboardClient collectiveBBClient;
+	private BlackboardClient equipletDbClient;
 
 	/**
-	 * @var BlackboardClient productStepBBClient
-	 *      Object for communication with the equiplet blackboard.
+	 * @var BlackboardClient collectiveDbClient
+	 *      Client for the collective database, shared by all collections on that database.
 	 */
-	private BlackboardClient productStepBBClient;
+	private BlackboardClient collectiveDbClient;
 
 	/**
-	 * @var BlackboardClient stateStepBBClient
-	 *      The blackboard client for the state blackboard.
+	 * @var BlackboardCollection collectiveBBClient
+	 *      The equiplet directory on the collective blackboard.
 	 */
-	private BlackboardClient stateBBClient;
-	private BlackboardClient desiredStateBBClient;
+	private BlackboardCollection collectiveBBClient;
 
-	private BlackboardClient planningBlackBoard;
+	/**
+	 * @var BlackboardCollection productStepBBClient
+	 *      The product steps on the equiplet blackboard.
+	 */
+	private BlackboardCollection productStepBBClient;
+
+	/**
+	 * @var BlackboardCollection stateBBClient
+	 *      The state collection on the state blackboard.
+	 */
+	private BlackboardCollection stateBBClient;
+
+	/**
+	 * @var BlackboardCollection desiredStateBBClient
+	 *      The command collection on the state blackboard.
+	 */
+	private BlackboardCollection desiredStateBBClient;
+
+	/**
+	 * @var BlackboardCollection planningBlackBoard
+	 *      The planning collection on the equiplet blackboard.
+	 */
+	private BlackboardCollection planningBlackBoard;
 	
 	private FieldUpdateSubscription statusSubscription;
 
@@ -178,25 +200,25 @@ public class EquipletAgent extends Agent implements BlackboardSubscriber {
 	private ArrayList<Integer> capabilities;
 
 	/**
-	 * @var HashMap<String, ObjectId> communicationTable
+	 * @var ConversationTable communicationTable
 	 *      Table with the combinations conversationID and ObjectId.
 	 */
-	private HashMap<String, ObjectId> communicationTable;
-
-	private ArrayList<Behaviour> behaviours;
+	private ConversationTable communicationTable;
 
 	/**
-	 * @var NextProductStepTimer timer
-	 *      Timer used to trigger when the next used time slot is ready to
-	 *      start.
+	 * @var ScheduleIndex scheduleIndex
+	 *      The time slots booked by the product steps planned on this equiplet.
 	 */
-	private NextProductStepTimer timer;
+	private ScheduleIndex scheduleIndex;
+
+	private ArrayList<Behaviour> behaviours;
 
 	/**
-	 * @var ObjectId nextProductStep
-	 *      The next product step.
+	 * @var ProductStepDispatcher dispatcher
+	 *      Dispatcher that starts the planned product steps when their time
+	 *      slot is ready to start.
 	 */
-	private ObjectId nextProductStep;
+	private ProductStepDispatcher dispatcher;
 
 	/**
 	 * @var DbData dbData
@@ -273,15 +295,17 @@ public class EquipletAgent extends Agent implements BlackboardSubscriber {
 		 	
 			Logger.log(LogLevel.DEBUG, "EquipletAgent created.");
 			
-			communicationTable = new HashMap<String, ObjectId>();
+			communicationTable = new ConversationTable();
+			// The product steps blackboard is emptied below, so the equiplet starts without bookings.
+			scheduleIndex = new ScheduleIndex();
 			behaviours = new ArrayList<Behaviour>();
 			
 			AID logisticsAgent = new AID(Configuration.getProperty(ConfigurationFiles.EQUIPLET_DB_PROPERTIES, "LogisticsAgentAID", getAID().getLocalName()), AID.ISGUID);
 
 			capabilities = new ArrayList<Integer>();
-			KnowledgeDBClient client = KnowledgeDBClient.getClient();
+			KnowledgeCache knowledgeCache = KnowledgeDBClient.getClient().getCache();
 			// Register modules
-			Row[] steps = client.executeSelectQuery(Queries.POSSIBLE_STEPS_PER_EQUIPLET, getAID().getLocalName());
+			Row[] steps = knowledgeCache.executeSelectQuery(Queries.POSSIBLE_STEPS_PER_EQUIPLET, getAID().getLocalName());
 			for(Row step : steps) {
 				capabilities.add((int) step.get("id"));
 			}
@@ -293,7 +317,7 @@ public class EquipletAgent extends Agent implements BlackboardSubscriber {
 
 			dbData = new DbData(equipletDbIp, equipletDbPort, equipletDbName);
 
-			Row[] equipletEntrys = client.executeSelectQuery(Queries.SELECT_EQUIPLET_ID, getLocalName());
+			Row[] equipletEntrys = knowledgeCache.executeSelectQuery(Queries.SELECT_EQUIPLET_ID, getLocalName());
 			equipletId = (int) equipletEntrys[0].get("id");
 
 			Object[] arguments = new Object[] {
@@ -305,10 +329,13 @@ public class EquipletAgent extends Agent implements BlackboardSubscriber {
 			serviceAgentCnt.start();
 			serviceAgent = new AID(serviceAgentCnt.getName(), AID.ISGUID);
 
-			// makes connection with the equiplet blackboard.
-			productStepBBClient = new BlackboardClient(equipletDbIp, equipletDbPort);
-			productStepBBClient.setDatabase(equipletDbName);
-			productStepBBClient.setCollection(productStepsName);
+			// makes connection with the equiplet blackboard and the collective blackboard.
+			equipletDbClient = new BlackboardClient(equipletDbIp, equipletDbPort);
+			equipletDbClient.setMaterializedDocuments(true);
+			collectiveDbClient = new BlackboardClient(collectiveDbIp, collectiveDbPort);
+			collectiveDbClient.setMaterializedDocuments(true);
+
+			productStepBBClient = equipletDbClient.getCollection(equipletDbName, productStepsName);
 
 			// subscribes on changes of the status field on the equiplet blackboard.
 			statusSubscription = new FieldUpdateSubscription("status", this);
@@ -316,36 +343,29 @@ public class EquipletAgent extends Agent implements BlackboardSubscriber {
 			productStepBBClient.subscribe(statusSubscription);
 			productStepBBClient.removeDocuments(new BasicDBObject());
 
-			stateBBClient = new BlackboardClient(collectiveDbIp, collectiveDbPort);
-			stateBBClient.setDatabase(Configuration.getProperty(ConfigurationFiles.MONGO_DB_PROPERTIES, "stateBlackBoardName"));
-			stateBBClient.setCollection(Configuration.getProperty(ConfigurationFiles.MONGO_DB_PROPERTIES, "equipletStateCollectionName"));
+			String stateBlackBoardName = Configuration.getProperty(ConfigurationFiles.MONGO_DB_PROPERTIES, "stateBlackBoardName");
+			stateBBClient = collectiveDbClient.getCollection(stateBlackBoardName,
+					Configuration.getProperty(ConfigurationFiles.MONGO_DB_PROPERTIES, "equipletStateCollectionName"));
 
 			modeUpdateSubscription = new FieldUpdateSubscription("mode", this);
 			modeUpdateSubscription.addOperation(MongoUpdateLogOperation.SET);
 			stateBBClient.subscribe(modeUpdateSubscription);
 
-			desiredStateBBClient = new BlackboardClient(collectiveDbIp, collectiveDbPort);
-			desiredStateBBClient.setDatabase(Configuration.getProperty(ConfigurationFiles.MONGO_DB_PROPERTIES, "stateBlackBoardName"));
-			desiredStateBBClient.setCollection(Configuration.getProperty(ConfigurationFiles.MONGO_DB_PROPERTIES, "equipletCommandCollectionName"));
+			desiredStateBBClient = collectiveDbClient.getCollection(stateBlackBoardName,
+					Configuration.getProperty(ConfigurationFiles.MONGO_DB_PROPERTIES, "equipletCommandCollectionName"));
 
-			planningBlackBoard = new BlackboardClient(equipletDbIp, equipletDbPort);
-			planningBlackBoard.setDatabase(equipletDbName);
-			planningBlackBoard.setCollection(planningName);
-			
-			// makes connection with the collective blackboard.
-			collectiveBBClient = new BlackboardClient(collectiveDbIp, collectiveDbPort);
-			collectiveBBClient.setDatabase(collectiveDbName);
-			collectiveBBClient.setCollection(timeDataName);
+			planningBlackBoard = equipletDbClient.getCollection(equipletDbName, planningName);
 
 			// gets the timedata for synchronizing from the collective blackboard.
-			BasicDBObject timeData = (BasicDBObject) collectiveBBClient.findDocuments(new BasicDBObject()).get(0);
+			BlackboardCollection timeDataCollection = collectiveDbClient.getCollection(collectiveDbName, timeDataName);
+			BasicDBObject timeData = (BasicDBObject) timeDataCollection.findDocuments(new BasicDBObject()).get(0);
 
 			timeSlotLength = timeData.getInt("timeSlotLength");
 			firstTimeSlot = timeData.getLong("firstTimeSlot");
-			// initiates the timer to the next product step.
-			timer = new NextProductStepTimer(timeData.getLong("firstTimeSlot"), timeData.getInt("timeSlotLength"), this);
+			// initiates the dispatcher of the planned product steps.
+			dispatcher = new ProductStepDispatcher(timeData.getLong("firstTimeSlot"), timeData.getInt("timeSlotLength"), this);
 
-			collectiveBBClient.setCollection(equipletDirectoryName);
+			collectiveBBClient = collectiveDbClient.getCollection(collectiveDbName, equipletDirectoryName);
 		} catch(GeneralMongoException | InvalidDBNamespaceException | UnknownHostException | StaleProxyException
 				| KnowledgeException | KeyNotFoundException  e) {
 			Logger.log(LogLevel.CRITICAL, "Could not spawn Equiplet", e);
@@ -363,6 +383,9 @@ public class EquipletAgent extends Agent implements BlackboardSubscriber {
 
 		// starts the behaviour for receiving message initialization finished.
 		addBehaviour(new AbortStep(this));
+
+		// starts the behaviour for removing the conversations that are no longer used.
+		addBehaviour(new ExpireConversations(this));
 	}
 
 	/**
@@ -374,6 +397,9 @@ public class EquipletAgent extends Agent implements BlackboardSubscriber {
 	public void takeDown() {
 		try {
 			Logger.log(LogLevel.WARNING, "EquipletAgent called TakeDown.");
+			if(dispatcher != null) {
+				dispatcher.shutdown();
+			}
 			
 			// Removes himself from the collective blackboard equiplet directory.
 			collectiveBBClient.removeDocuments(new BasicDBObject("AID", getAID().getName()));
@@ -391,7 +417,7 @@ public class EquipletAgent extends Agent implements BlackboardSubscriber {
 			
 			productStepBBClient.removeDocuments(new BasicDBObject());
 			productStepBBClient.unsubscribe(statusSubscription);
-		} catch(InvalidDBNamespaceException | GeneralMongoException | IOException e) {
+		} catch(GeneralMongoException | IOException e) {
 			Logger.log(LogLevel.CRITICAL, "Database connection lost!", e);
 		}
 
@@ -406,12 +432,14 @@ public class EquipletAgent extends Agent implements BlackboardSubscriber {
 			// TODO cancel all behaviours started specific for this productStep
 			
 			Logger.log(LogLevel.WARNING, "ProductStep #%s cancelled because %s.", productStepId.toString(), reason);
+			scheduleIndex.release(productStepId);
+			dispatcher.cancel(productStepId);
 			
 			productStepBBClient.updateDocuments(
 					new BasicDBObject("_id", productStepId),
 					new BasicDBObject("$set", new BasicDBObject("status", StepStatusCode.ABORTED.name()).append(
 							"statusData", new BasicDBObject("reason", reason))));
-		} catch(InvalidDBNamespaceException | GeneralMongoException e) {
+		} catch(GeneralMongoException e) {
 			Logger.log(LogLevel.CRITICAL, "Database connection lost!", e);
 		}
 	}
@@ -428,7 +456,7 @@ public class EquipletAgent extends Agent implements BlackboardSubscriber {
 				case "ProductStepsBlackBoard":
 					// Get the productstep.
 					ObjectId productStepId = entry.getTargetObjectId();
-					ProductStep productStep = new ProductStep((BasicDBObject) productStepBBClient.findDocumentById(productStepId));
+					ProductStep productStep = new ProductStep((BasicDBObject) productStepBBClient.findDocument(entry));
 
 					// Gets the conversationId
 					String conversationId = getConversationId(productStepId);
@@ -443,17 +471,9 @@ public class EquipletAgent extends Agent implements BlackboardSubscriber {
 					// Depending on the changed status fills in the responseMessage and sends it to the product agent.
 						case PLANNED:
 							try {
-								// If the start time of the newly planned productStep is earlier then the next used time
-								// slot make it the next used timeslot.
+								// Queues the newly planned productStep for its start time slot.
 								ScheduleData scheduleData = productStep.getScheduleData();
-//								if(timer.getNextUsedTimeSlot() == 0
-//										|| scheduleData.getStartTime() < timer.getNextUsedTimeSlot()) {
-//									timer.setNextUsedTimeSlot(scheduleData.getStartTime());
-//									nextProductStep = productStep.getId();
-//								}
-								if(timer.getNextUsedTimeSlot() == -1 || scheduleData.getStartTime() < timer.getNextUsedTimeSlot()){
-									timer.rescheduleTimer();
-								}
+								dispatcher.schedule(productStep.getId(), scheduleData.getStartTime());
 
 								responseMessage.setOntology("Planned");
 								responseMessage.setPerformative(ACLMessage.CONFIRM);
@@ -480,6 +500,8 @@ public class EquipletAgent extends Agent implements BlackboardSubscriber {
 						case DONE:
 							setDesiredEquipletState(EquipletState.STANDBY);
 							removeCommunicationRelation(productStepId);
+							scheduleIndex.release(productStepId);
+							dispatcher.cancel(productStepId);
 
 							responseMessage.setOntology("StatusUpdate");
 							responseMessage.setPerformative(ACLMessage.CONFIRM);
@@ -491,6 +513,8 @@ public class EquipletAgent extends Agent implements BlackboardSubscriber {
 						case DELETED:
 							setDesiredEquipletState(EquipletState.STANDBY);
 							removeCommunicationRelation(productStepId);
+							scheduleIndex.release(productStepId);
+							dispatcher.cancel(productStepId);
 
 							responseMessage.setOntology("StatusUpdate");
 							responseMessage.setPerformative(ACLMessage.CONFIRM);
@@ -506,8 +530,7 @@ public class EquipletAgent extends Agent implements BlackboardSubscriber {
 					break;
 				case "equipletState":
 					EquipletStateEntry stateEntry =
-							new EquipletStateEntry((BasicDBObject) stateBBClient.findDocumentById(entry
-									.getTargetObjectId()));
+							new EquipletStateEntry((BasicDBObject) stateBBClient.findDocument(entry));
 					
 					EquipletMode mode = stateEntry.getEquipletMode();
 					switch(mode) {
@@ -580,12 +603,21 @@ public class EquipletAgent extends Agent implements BlackboardSubscriber {
 		behaviours.remove(behaviour);
 	}
 
+	/**
+	 * Getter for the index of the time slots booked on this equiplet.
+	 * 
+	 * @return the scheduleIndex.
+	 */
+	public ScheduleIndex getScheduleIndex() {
+		return scheduleIndex;
+	}
+
 	/**
 	 * Getter for the collectiveBBClient
 	 * 
 	 * @return the collectiveBBClient.
 	 */
-	public BlackboardClient getCollectiveBBClient() {
+	public BlackboardCollection getCollectiveBBClient() {
 		return collectiveBBClient;
 	}
 
@@ -594,14 +626,14 @@ public class EquipletAgent extends Agent implements BlackboardSubscriber {
 	 * 
 	 * @return the productStepBBClient.
 	 */
-	public BlackboardClient getProductStepBBClient() {
+	public BlackboardCollection getProductStepBBClient() {
 		return productStepBBClient;
 	}
 
 	/**
 	 * @return the stateBBClient
 	 */
-	public BlackboardClient getStateBBClient() {
+	public BlackboardCollection getStateBBClient() {
 		return stateBBClient;
 	}
 
@@ -615,6 +647,15 @@ public class EquipletAgent extends Agent implements BlackboardSubscriber {
 		communicationTable.put(conversationId, objectId);
 	}
 
+	/**
+	 * Getter for the table with the combinations conversationId and ObjectId.
+	 * 
+	 * @return the communicationTable.
+	 */
+	public ConversationTable getConversationTable() {
+		return communicationTable;
+	}
+
 	/**
 	 * Getter for getting the objectId by a conversationId.
 	 * 
@@ -622,7 +663,7 @@ public class EquipletAgent extends Agent implements BlackboardSubscriber {
 	 * @return ObjectId for the given conversationId.
 	 */
 	public ObjectId getRelatedObjectId(String conversationId) {
-		return communicationTable.get(conversationId);
+		return communicationTable.getProductStepId(conversationId);
 	}
 
 	/**
@@ -632,23 +673,16 @@ public class EquipletAgent extends Agent implements BlackboardSubscriber {
 	 * @return the related conversationId or null if the relation does not exist.
 	 */
 	public String getConversationId(ObjectId productStepId) {
-		for(Entry<String, ObjectId> tableEntry : communicationTable.entrySet()) {
-			if(tableEntry.getValue().equals(productStepId)) {
-				return tableEntry.getKey();
-			}
-		}
-		return null;
+		return communicationTable.getConversationId(productStepId);
 	}
 
+	/**
+	 * Removes the relation between the given ObjectId and its conversationId.
+	 * 
+	 * @param productStepId the ObjectId of which the relation should be removed.
+	 */
 	public void removeCommunicationRelation(ObjectId productStepId) {
-		String conversationId = null;
-		for(Entry<String, ObjectId> tableEntry : communicationTable.entrySet()) {
-			if(tableEntry.getValue().equals(productStepId)) {
-				conversationId = tableEntry.getKey();
-				break;
-			}
-		}
-		communicationTable.remove(conversationId);
+		communicationTable.remove(productStepId);
 	}
 
 	/**
@@ -661,30 +695,12 @@ public class EquipletAgent extends Agent implements BlackboardSubscriber {
 	}
 
 	/**
-	 * Getter for the timer that handles the next product step.
-	 * 
-	 * @return the timer.
-	 */
-	public NextProductStepTimer getTimer() {
-		return timer;
-	}
-
-	/**
-	 * Getter for the next product step.
-	 * 
-	 * @return the nextProductStep
-	 */
-	public ObjectId getNextProductStep() {
-		return nextProductStep;
-	}
-
-	/**
-	 * Setter for the next product step
+	 * Getter for the dispatcher that starts the planned product steps.
 	 * 
-	 * @param nextProductStep The new next product step
+	 * @return the dispatcher.
 	 */
-	public void setNextProductStep(ObjectId nextProductStep) {
-		this.nextProductStep = nextProductStep;
+	public ProductStepDispatcher getDispatcher() {
+		return dispatcher;
 	}
 
 	/**
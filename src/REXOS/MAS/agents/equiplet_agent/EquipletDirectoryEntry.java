@@ -114,4 +114,20 @@ public class EquipletDirectoryEntry implements MongoSaveable {
 	public AID getAID() {
 		return AID;
 	}
+
+	/**
+	 * Getter for the capabilities
+	 * @return the capabilities
+	 */
+	public ArrayList<Integer> getCapabilities() {
+		return capabilities;
+	}
+
+	/**
+	 * Getter for the information about the database
+	 * @return the db
+	 */
+	public DbData getDb() {
+		return db;
+	}
 }
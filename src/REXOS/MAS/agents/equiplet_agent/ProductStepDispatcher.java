@@ -0,0 +1,343 @@
+/**
+ * @file src/REXOS/MAS/agents/equiplet_agent/ProductStepDispatcher.java
+ * @brief Dispatches the planned product steps of an equiplet.
+ * @date Created: 2013-10-18
+ *
+ * @section LICENSE
+ * License: newBSD
+ *
+ * Copyright © 2013, HU University of Applied Sciences Utrecht.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * - Neither the name of the HU University of Applied Sciences Utrecht nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE HU UNIVERSITY OF APPLIED SCIENCES UTRECHT
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+package agents.equiplet_agent;
+
+import jade.lang.acl.ACLMessage;
+
+import java.util.HashMap;
+import java.util.PriorityQueue;
+
+import libraries.utillities.log.LogLevel;
+import libraries.utillities.log.Logger;
+import libraries.utillities.metrics.LatencyHistogram;
+import libraries.utillities.metrics.MetricsReporter;
+
+import org.bson.types.ObjectId;
+
+/**
+ * Dispatches the planned product steps of an equiplet at the start of their time slot.
+ * The planned steps are kept in a priority queue ordered by start time slot, so planning, moving or cancelling a step
+ * never requires reading the blackboard. The start of a time slot is converted to System.nanoTime() once, so waiting
+ * for a step is not affected by changes of the wall clock and errors do not accumulate. A step whose time slot has
+ * already started is dispatched immediately and its lateness is recorded.
+ **/
+public class ProductStepDispatcher {
+	/**
+	 * A planned product step in the queue.
+	 **/
+	private static class QueuedStep implements Comparable<QueuedStep> {
+		/**
+		 * @var ObjectId productStepId
+		 *      The planned product step.
+		 */
+		private final ObjectId productStepId;
+
+		/**
+		 * @var long startTimeSlot
+		 *      The time slot in which the step starts.
+		 */
+		private final long startTimeSlot;
+
+		/**
+		 * @var long sequence
+		 *      Orders steps with the same start time slot by the moment they were queued.
+		 */
+		private final long sequence;
+
+		/**
+		 * Constructs a queued step.
+		 * 
+		 * @param productStepId The planned product step.
+		 * @param startTimeSlot The time slot in which the step starts.
+		 * @param sequence Orders steps with the same start time slot.
+		 */
+		QueuedStep(ObjectId productStepId, long startTimeSlot, long sequence) {
+			this.productStepId = productStepId;
+			this.startTimeSlot = startTimeSlot;
+			this.sequence = sequence;
+		}
+
+		/**
+		 * @see Comparable#compareTo(Object)
+		 */
+		@Override
+		public int compareTo(QueuedStep other) {
+			if(startTimeSlot != other.startTimeSlot) {
+				return startTimeSlot < other.startTimeSlot ? -1 : 1;
+			}
+			return Long.compare(sequence, other.sequence);
+		}
+	}
+
+	/**
+	 * @var EquipletAgent equipletAgent
+	 *      The equipletAgent to which the dispatcher belongs.
+	 */
+	private EquipletAgent equipletAgent;
+
+	/**
+	 * @var long firstTimeSlot
+	 *      The first time slot of the grid, in milliseconds since the epoch.
+	 */
+	private long firstTimeSlot;
+
+	/**
+	 * @var long timeSlotLength
+	 *      The length of a time slot in milliseconds.
+	 */
+	private long timeSlotLength;
+
+	/**
+	 * @var long firstTimeSlotNanos
+	 *      The first time slot of the grid expressed in System.nanoTime().
+	 */
+	private long firstTimeSlotNanos;
+
+	/**
+	 * @var PriorityQueue<QueuedStep> queue
+	 *      The planned steps, earliest first. Guarded by this.
+	 */
+	private PriorityQueue<QueuedStep> queue;
+
+	/**
+	 * @var HashMap<ObjectId, QueuedStep> queuedSteps
+	 *      The queued entry of every planned step. Guarded by this.
+	 */
+	private HashMap<ObjectId, QueuedStep> queuedSteps;
+
+	/**
+	 * @var long sequence
+	 *      The sequence number of the next queued step. Guarded by this.
+	 */
+	private long sequence;
+
+	/**
+	 * @var boolean running
+	 *      Whether the dispatcher thread should keep running. Guarded by this.
+	 */
+	private boolean running;
+
+	/**
+	 * @var LatencyHistogram lateness
+	 *      The time in milliseconds between the start of the time slot of a step and its dispatch.
+	 */
+	private LatencyHistogram lateness;
+
+	/**
+	 * @var Thread thread
+	 *      The thread that waits for the next step and dispatches it.
+	 */
+	private Thread thread;
+
+	/**
+	 * Constructs and starts the dispatcher of an equiplet.
+	 * 
+	 * @param firstTimeSlot
+	 *            the first time slot from the grid/equiplet.
+	 * @param timeSlotLength
+	 *            the length of a time slot.
+	 * @param agent
+	 *            The equipletAgent to which the dispatcher belongs.
+	 */
+	public ProductStepDispatcher(long firstTimeSlot, int timeSlotLength, EquipletAgent agent) {
+		this.firstTimeSlot = firstTimeSlot;
+		this.timeSlotLength = timeSlotLength;
+		this.equipletAgent = agent;
+		this.firstTimeSlotNanos = System.nanoTime() - (System.currentTimeMillis() - firstTimeSlot) * 1000000L;
+		this.queue = new PriorityQueue<QueuedStep>();
+		this.queuedSteps = new HashMap<ObjectId, QueuedStep>();
+		this.lateness = MetricsReporter.register(new LatencyHistogram("product step dispatch lateness", "ms"));
+		this.running = true;
+
+		thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				dispatchSteps();
+			}
+		}, "ProductStepDispatcher-" + agent.getLocalName());
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Queues a planned step, or moves it when it was queued before.
+	 * 
+	 * @param productStepId The planned product step.
+	 * @param startTimeSlot The time slot in which the step starts.
+	 */
+	public synchronized void schedule(ObjectId productStepId, long startTimeSlot) {
+		QueuedStep previous = queuedSteps.remove(productStepId);
+		if(previous != null) {
+			queue.remove(previous);
+		}
+		QueuedStep step = new QueuedStep(productStepId, startTimeSlot, sequence++);
+		queue.add(step);
+		queuedSteps.put(productStepId, step);
+		notifyAll();
+	}
+
+	/**
+	 * Removes a step from the queue.
+	 * 
+	 * @param productStepId The product step that should no longer be dispatched.
+	 * @return true if the step was queued.
+	 */
+	public synchronized boolean cancel(ObjectId productStepId) {
+		QueuedStep step = queuedSteps.remove(productStepId);
+		if(step == null) {
+			return false;
+		}
+		queue.remove(step);
+		notifyAll();
+		return true;
+	}
+
+	/**
+	 * Returns the start time slot of the next step.
+	 * 
+	 * @return the next used time slot, or -1 if no step is queued.
+	 */
+	public synchronized long getNextUsedTimeSlot() {
+		QueuedStep next = queue.peek();
+		return next == null ? -1 : next.startTimeSlot;
+	}
+
+	/**
+	 * Returns the amount of queued steps.
+	 * 
+	 * @return the amount of steps waiting to be dispatched.
+	 */
+	public synchronized int size() {
+		return queue.size();
+	}
+
+	/**
+	 * Function for getting the timeSlotLength
+	 * 
+	 * @return the timeSlotLength
+	 */
+	public long getTimeSlotLength() {
+		return timeSlotLength;
+	}
+
+	/**
+	 * Getter for the first time slot
+	 * 
+	 * @return the first time slot
+	 */
+	public long getFirstTimeSlot() {
+		return firstTimeSlot;
+	}
+
+	/**
+	 * Returns the time in milliseconds between the start of the time slot of a step and its dispatch.
+	 * 
+	 * @return the lateness histogram.
+	 */
+	public LatencyHistogram getLatenessHistogram() {
+		return lateness;
+	}
+
+	/**
+	 * Stops the dispatcher. Queued steps are no longer dispatched.
+	 */
+	public synchronized void shutdown() {
+		running = false;
+		notifyAll();
+	}
+
+	/**
+	 * Waits for the queued steps and dispatches them in order of their start time slot.
+	 */
+	private void dispatchSteps() {
+		while(true) {
+			QueuedStep step;
+			long late;
+			synchronized(this) {
+				step = queue.peek();
+				long now = System.nanoTime();
+				while(running && (step == null || startOf(step) - now > 0)) {
+					try {
+						if(step == null) {
+							wait();
+						} else {
+							long remaining = startOf(step) - now;
+							wait(remaining / 1000000L, (int) (remaining % 1000000L));
+						}
+					} catch(InterruptedException e) {
+						return;
+					}
+					step = queue.peek();
+					now = System.nanoTime();
+				}
+				if(!running) {
+					return;
+				}
+				queue.poll();
+				queuedSteps.remove(step.productStepId);
+				late = (now - startOf(step)) / 1000000L;
+			}
+
+			lateness.record(late);
+			if(late > timeSlotLength) {
+				Logger.log(LogLevel.WARNING, "Product step %s dispatched %d ms after the start of its time slot.",
+						step.productStepId, late);
+			}
+			dispatch(step.productStepId);
+		}
+	}
+
+	/**
+	 * Returns the start of the time slot of a step in System.nanoTime().
+	 * 
+	 * @param step The queued step.
+	 * @return the moment the step should be dispatched.
+	 */
+	private long startOf(QueuedStep step) {
+		return firstTimeSlotNanos + step.startTimeSlot * timeSlotLength * 1000000L;
+	}
+
+	/**
+	 * Asks the equiplet agent to start the product step.
+	 * 
+	 * @param productStepId The product step that should be started.
+	 */
+	private void dispatch(ObjectId productStepId) {
+		String conversationId = equipletAgent.getConversationId(productStepId);
+		if(conversationId == null) {
+			Logger.log(LogLevel.WARNING, "No conversation for product step %s, not starting it.", productStepId);
+			return;
+		}
+
+		ACLMessage message = new ACLMessage(ACLMessage.QUERY_IF);
+		message.setConversationId(conversationId);
+		message.addReceiver(equipletAgent.getAID());
+		message.setOntology("StartStep");
+		equipletAgent.send(message);
+	}
+}
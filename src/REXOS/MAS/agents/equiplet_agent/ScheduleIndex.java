@@ -0,0 +1,230 @@
+/**
+ * @file src/REXOS/MAS/agents/equiplet_agent/ScheduleIndex.java
+ * @brief In-memory index of the time slots booked on an equiplet.
+ * @date Created: 2013-10-18
+ *
+ * @section LICENSE
+ * License: newBSD
+ *
+ * Copyright © 2013, HU University of Applied Sciences Utrecht.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * - Neither the name of the HU University of Applied Sciences Utrecht nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE HU UNIVERSITY OF APPLIED SCIENCES UTRECHT
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+package agents.equiplet_agent;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.bson.types.ObjectId;
+
+/**
+ * In-memory index of the time slots booked on an equiplet.
+ * The booked slots never overlap, so ordering them by start time is enough to find the only slot that could overlap
+ * a requested one. Booking and releasing slots is atomic and takes O(log n) without reading the blackboard.
+ **/
+public class ScheduleIndex {
+	/**
+	 * A booked range of time slots. Both the start and the end slot are part of the booking.
+	 **/
+	public static class Booking {
+		/**
+		 * @var ObjectId productStepId
+		 *      The product step for which the slots are booked.
+		 */
+		private final ObjectId productStepId;
+
+		/**
+		 * @var long start
+		 *      The first booked time slot.
+		 */
+		private final long start;
+
+		/**
+		 * @var long end
+		 *      The last booked time slot.
+		 */
+		private final long end;
+
+		/**
+		 * Constructs a booking.
+		 * 
+		 * @param productStepId The product step for which the slots are booked.
+		 * @param start The first booked time slot.
+		 * @param end The last booked time slot.
+		 */
+		Booking(ObjectId productStepId, long start, long end) {
+			this.productStepId = productStepId;
+			this.start = start;
+			this.end = end;
+		}
+
+		/**
+		 * @return the product step for which the slots are booked.
+		 */
+		public ObjectId getProductStepId() {
+			return productStepId;
+		}
+
+		/**
+		 * @return the first booked time slot.
+		 */
+		public long getStart() {
+			return start;
+		}
+
+		/**
+		 * @return the last booked time slot.
+		 */
+		public long getEnd() {
+			return end;
+		}
+	}
+
+	/**
+	 * @var TreeMap<Long, Booking> bookingsByStart
+	 *      The bookings ordered by their first time slot.
+	 */
+	private TreeMap<Long, Booking> bookingsByStart;
+
+	/**
+	 * @var HashMap<ObjectId, Booking> bookingsByStep
+	 *      The bookings keyed by the product step they belong to.
+	 */
+	private HashMap<ObjectId, Booking> bookingsByStep;
+
+	/**
+	 * Constructs an empty schedule index.
+	 */
+	public ScheduleIndex() {
+		bookingsByStart = new TreeMap<Long, Booking>();
+		bookingsByStep = new HashMap<ObjectId, Booking>();
+	}
+
+	/**
+	 * Returns the booking that overlaps the specified time slots.
+	 * 
+	 * @param start The first requested time slot.
+	 * @param duration The amount of requested time slots.
+	 * @return The overlapping booking, or null if the time slots are free.
+	 */
+	public synchronized Booking findConflict(long start, long duration) {
+		Map.Entry<Long, Booking> candidate = bookingsByStart.floorEntry(start + duration);
+		if(candidate != null && candidate.getValue().end >= start) {
+			return candidate.getValue();
+		}
+		return null;
+	}
+
+	/**
+	 * Books the specified time slots for a product step if none of them is booked yet. A previous booking of the
+	 * product step is replaced.
+	 * 
+	 * @param productStepId The product step for which the slots are booked.
+	 * @param start The first requested time slot.
+	 * @param duration The amount of requested time slots.
+	 * @return true if the slots were booked, false if they overlap another booking.
+	 */
+	public synchronized boolean tryBook(ObjectId productStepId, long start, long duration) {
+		Booking previous = release(productStepId);
+		if(findConflict(start, duration) != null) {
+			if(previous != null) {
+				add(previous);
+			}
+			return false;
+		}
+		add(new Booking(productStepId, start, start + duration));
+		return true;
+	}
+
+	/**
+	 * Books the specified time slots for several product steps at once. Either all steps are booked or, when one of
+	 * them overlaps another booking or another step of the request, none is. Previous bookings of the product steps
+	 * are replaced.
+	 * 
+	 * @param productStepIds The product steps for which the slots are booked.
+	 * @param starts The first requested time slot of every product step.
+	 * @param durations The amount of requested time slots of every product step.
+	 * @return true if the slots of all steps were booked, false if nothing was booked.
+	 */
+	public synchronized boolean tryBookAll(ObjectId[] productStepIds, long[] starts, long[] durations) {
+		Booking[] previous = new Booking[productStepIds.length];
+		for(int i = 0; i < productStepIds.length; i++) {
+			previous[i] = release(productStepIds[i]);
+		}
+
+		for(int i = 0; i < productStepIds.length; i++) {
+			if(findConflict(starts[i], durations[i]) != null) {
+				for(int j = 0; j < i; j++) {
+					release(productStepIds[j]);
+				}
+				for(Booking booking : previous) {
+					if(booking != null) {
+						add(booking);
+					}
+				}
+				return false;
+			}
+			add(new Booking(productStepIds[i], starts[i], starts[i] + durations[i]));
+		}
+		return true;
+	}
+
+	/**
+	 * Releases the time slots booked for a product step.
+	 * 
+	 * @param productStepId The product step of which the booking is released.
+	 * @return The released booking, or null if the product step had no booking.
+	 */
+	public synchronized Booking release(ObjectId productStepId) {
+		Booking booking = bookingsByStep.remove(productStepId);
+		if(booking != null) {
+			bookingsByStart.remove(booking.start);
+		}
+		return booking;
+	}
+
+	/**
+	 * Returns the booking of a product step.
+	 * 
+	 * @param productStepId The product step.
+	 * @return The booking of the product step, or null if it has none.
+	 */
+	public synchronized Booking getBooking(ObjectId productStepId) {
+		return bookingsByStep.get(productStepId);
+	}
+
+	/**
+	 * Returns the amount of bookings.
+	 * 
+	 * @return The amount of booked product steps.
+	 */
+	public synchronized int size() {
+		return bookingsByStep.size();
+	}
+
+	/**
+	 * Adds a booking that does not overlap any other booking.
+	 * 
+	 * @param booking The booking to add.
+	 */
+	private void add(Booking booking) {
+		bookingsByStart.put(booking.start, booking);
+		bookingsByStep.put(booking.productStepId, booking);
+	}
+}
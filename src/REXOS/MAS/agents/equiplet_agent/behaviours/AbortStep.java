@@ -50,7 +50,6 @@ package agents.equiplet_agent.behaviours;
 import jade.lang.acl.ACLMessage;
 import jade.lang.acl.MessageTemplate;
 import libraries.blackboard_client.data_classes.GeneralMongoException;
-import libraries.blackboard_client.data_classes.InvalidDBNamespaceException;
 import libraries.utillities.log.LogLevel;
 import libraries.utillities.log.Logger;
 
@@ -119,17 +118,16 @@ public class AbortStep extends ReceiveBehaviour {
 						(BasicDBObject) equipletAgent.getProductStepBBClient().findDocumentById(productStepEntryId);
 				ProductStep productStep = new ProductStep(step);
 	
-				//if the status is planned reschedule the timer
+				//if the status is planned cancel it, which also removes it from the dispatcher
 				if(productStep.getStatus() == StepStatusCode.PLANNED) {
 					equipletAgent.cancelProductStep(productStepEntryId, "productagent canceled");
-					equipletAgent.getTimer().rescheduleTimer();
 					
 				} else {
 					ACLMessage reply = message.createReply();
 					reply.setPerformative(ACLMessage.FAILURE);
 					myAgent.send(reply);
 				}
-			} catch(InvalidDBNamespaceException | GeneralMongoException e) {
+			} catch(GeneralMongoException e) {
 				Logger.log(LogLevel.ERROR, "", e);
 				equipletAgent.doDelete();
 			}
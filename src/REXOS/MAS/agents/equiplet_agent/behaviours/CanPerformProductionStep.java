@@ -36,9 +36,8 @@ import java.io.Serializable;
 
 import jade.lang.acl.ACLMessage;
 import jade.lang.acl.MessageTemplate;
-import libraries.blackboard_client.BlackboardClient;
+import libraries.blackboard_client.BlackboardCollection;
 import libraries.blackboard_client.data_classes.GeneralMongoException;
-import libraries.blackboard_client.data_classes.InvalidDBNamespaceException;
 import libraries.utillities.log.LogLevel;
 import libraries.utillities.log.Logger;
 
@@ -71,10 +70,10 @@ public class CanPerformProductionStep extends ReceiveBehaviour {
 	 */
 	private EquipletAgent equipletAgent;
 	/**
-	 * @var BlackboardClient productStepsBlackboard
-	 * 		BlackboardClient for the product step blackboard.
+	 * @var BlackboardCollection productStepsBlackboard
+	 * 		BlackboardCollection for the product step blackboard.
 	 */
-	private BlackboardClient productStepsBlackboard;
+	private BlackboardCollection productStepsBlackboard;
 
 	/**
 	 * @var ParentBehaviourCallback parentBehaviourCallback
@@ -100,11 +99,11 @@ public class CanPerformProductionStep extends ReceiveBehaviour {
 	 * @param equipletAgent
 	 *      The agent for this behaviour
 	 * @param productStepBlackBoard
-	 * 		BlackboardClient for the product step blackboard.            
+	 * 		BlackboardCollection for the product step blackboard.            
 	 * @throws IOException Throws IOException when contentObject cannot be serialized
 	 */
 	public CanPerformProductionStep(EquipletAgent equipletAgent,
-			BlackboardClient productStepsBlackboard, ParentBehaviourCallback parentBehaviourCallback,
+			BlackboardCollection productStepsBlackboard, ParentBehaviourCallback parentBehaviourCallback,
 			String conversationID, ObjectId objectId){
 		super(equipletAgent, MESSAGE_TEMPLATE);
 		this.equipletAgent =  equipletAgent;
@@ -149,7 +148,7 @@ public class CanPerformProductionStep extends ReceiveBehaviour {
 				try{
 				productStepsBlackboard.removeDocuments(new BasicDBObject("_id",
 						productStepEntryId));
-				}catch (GeneralMongoException | InvalidDBNamespaceException e) {
+				}catch (GeneralMongoException e) {
 					Logger.log(LogLevel.ERROR, "", e);
 				}
 			}
@@ -53,9 +53,8 @@ import jade.lang.acl.UnreadableException;
 
 import java.io.IOException;
 
-import libraries.blackboard_client.BlackboardClient;
+import libraries.blackboard_client.BlackboardCollection;
 import libraries.blackboard_client.data_classes.GeneralMongoException;
-import libraries.blackboard_client.data_classes.InvalidDBNamespaceException;
 import libraries.utillities.log.LogLevel;
 import libraries.utillities.log.Logger;
 
@@ -103,10 +102,10 @@ public class CanPerformStep extends ReceiveBehaviour implements ParentBehaviourC
 	private EquipletAgent equipletAgent;
 
 	/**
-	 * @var BlackboardClient productStepsBlackBoard
+	 * @var BlackboardCollection productStepsBlackBoard
 	 *      The productStepsBlackBoard client for the Equiplet.
 	 **/
-	private BlackboardClient productStepsBlackboard;
+	private BlackboardCollection productStepsBlackboard;
 
 	/**
 	 * @var ProductStep currentProductStep
@@ -118,9 +117,9 @@ public class CanPerformStep extends ReceiveBehaviour implements ParentBehaviourC
 	 * Instantiates a new can perform step.
 	 * 
 	 * @param equipletAgent The agent for this behaviour
-	 * @param productStepsBlackBoard The BlackboardClient for the EquipletBlackboard.
+	 * @param productStepsBlackBoard The BlackboardCollection for the EquipletBlackboard.
 	 */
-	public CanPerformStep(EquipletAgent equipletAgent, BlackboardClient productStepsBlackBoard) {
+	public CanPerformStep(EquipletAgent equipletAgent, BlackboardCollection productStepsBlackBoard) {
 		super(equipletAgent, MESSAGE_TEMPLATE);
 		this.equipletAgent = equipletAgent;
 		this.productStepsBlackboard = productStepsBlackBoard;
@@ -177,7 +176,7 @@ public class CanPerformStep extends ReceiveBehaviour implements ParentBehaviourC
 				
 				
 				
-			} catch(InvalidDBNamespaceException | GeneralMongoException | NullPointerException e) {
+			} catch(GeneralMongoException | NullPointerException e) {
 				Logger.log(LogLevel.ERROR, "", e);
 				ACLMessage errorResponse = message.createReply();
 				errorResponse.setPerformative(ACLMessage.FAILURE);
@@ -0,0 +1,91 @@
+/**
+ * @file src/REXOS/MAS/agents/equiplet_agent/behaviours/ExpireConversations.java
+ * @brief Removes the stale conversations of an equiplet agent.
+ * @date Created: 2013-10-18
+ *
+ * @section LICENSE
+ * License: newBSD
+ *
+ * Copyright © 2013, HU University of Applied Sciences Utrecht.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * - Neither the name of the HU University of Applied Sciences Utrecht nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE HU UNIVERSITY OF APPLIED SCIENCES UTRECHT
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+package agents.equiplet_agent.behaviours;
+
+import jade.core.behaviours.TickerBehaviour;
+
+import java.util.List;
+
+import libraries.utillities.log.LogLevel;
+import libraries.utillities.log.Logger;
+
+import org.bson.types.ObjectId;
+
+import agents.equiplet_agent.EquipletAgent;
+
+/**
+ * Periodically removes the conversations of an equiplet agent that are no longer used, e.g. because the product agent
+ * asked whether a step could be performed and then planned it on another equiplet.
+ */
+public class ExpireConversations extends TickerBehaviour {
+	/**
+	 * @var long serialVersionUID
+	 *      The serialVersionUID for this class.
+	 **/
+	private static final long serialVersionUID = 4712730150953126791L;
+
+	/**
+	 * @var long EXPIRE_INTERVAL
+	 *      The time in milliseconds between two expiry runs.
+	 */
+	private static final long EXPIRE_INTERVAL = 60000;
+
+	/**
+	 * @var long MAX_IDLE_TIME
+	 *      The time in milliseconds after which an unused conversation about an unplanned step is stale.
+	 */
+	private static final long MAX_IDLE_TIME = 600000;
+
+	/**
+	 * @var EquipletAgent equipletAgent
+	 *      The equipletAgent related to this behaviour.
+	 */
+	private EquipletAgent equipletAgent;
+
+	/**
+	 * Instantiates a new expire conversations behaviour.
+	 * 
+	 * @param equipletAgent The equipletAgent of which the conversations are expired.
+	 */
+	public ExpireConversations(EquipletAgent equipletAgent) {
+		super(equipletAgent, EXPIRE_INTERVAL);
+		this.equipletAgent = equipletAgent;
+	}
+
+	/**
+	 * Removes the stale conversations. Steps booked in the schedule of the equiplet are kept.
+	 */
+	@Override
+	protected void onTick() {
+		List<ObjectId> expired =
+				equipletAgent.getConversationTable().expire(MAX_IDLE_TIME, equipletAgent.getScheduleIndex());
+		if(!expired.isEmpty()) {
+			Logger.log(LogLevel.DEBUG, "Expired %d stale conversations: %s", expired.size(), expired);
+		}
+	}
+}
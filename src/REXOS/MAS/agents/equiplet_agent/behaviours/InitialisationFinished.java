@@ -79,6 +79,13 @@ public class InitialisationFinished extends ReceiveOnceBehaviour implements Blac
 	 */
 	private static final long serialVersionUID = 1L;
 
+	/**
+	 * @var int INITIALISATION_TIMEOUT
+	 *      The time in milliseconds the service and hardware agents get to initialize, including loading the software of
+	 *      the modules and services.
+	 */
+	private static final int INITIALISATION_TIMEOUT = 30000;
+
 	/**
 	 * @var MessageTemplate MESSAGE_TEMPLATE
 	 *      The messageTemplate this behaviour listens to.
@@ -100,7 +107,7 @@ public class InitialisationFinished extends ReceiveOnceBehaviour implements Blac
 	 * @param equipletAgent The agent for this behaviour
 	 */
 	public InitialisationFinished(EquipletAgent equipletAgent) {
-		super(equipletAgent, 3000, MESSAGE_TEMPLATE);
+		super(equipletAgent, INITIALISATION_TIMEOUT, MESSAGE_TEMPLATE);
 		this.equipletAgent = equipletAgent;
 		stateUpdateSubscription = new FieldUpdateSubscription("state", this);
 		stateUpdateSubscription.addOperation(MongoUpdateLogOperation.SET);
@@ -141,6 +148,9 @@ public class InitialisationFinished extends ReceiveOnceBehaviour implements Blac
 			// starts the behaviour for receiving messages with the Ontology ScheduleStep.
 			equipletAgent.addBehaviour(new ScheduleStep(equipletAgent, equipletAgent.getProductStepBBClient()));
 
+			// starts the behaviour for receiving messages with the Ontology ScheduleSteps.
+			equipletAgent.addBehaviour(new ScheduleSteps(equipletAgent, equipletAgent.getProductStepBBClient()));
+
 			// starts the behaviour for receiving messages with the Ontology StartStep.
 			equipletAgent.addBehaviour(new StartStep(equipletAgent));
 			
@@ -154,7 +164,7 @@ public class InitialisationFinished extends ReceiveOnceBehaviour implements Blac
 	public void onMessage(MongoOperation operation, OplogEntry entry) {
 		try {
 			// inserts himself on the collective blackboard equiplet directory.
-			DBObject dbObject = equipletAgent.getStateBBClient().findDocumentById(entry.getTargetObjectId());
+			DBObject dbObject = equipletAgent.getStateBBClient().findDocument(entry);
 			EquipletStateEntry state = new EquipletStateEntry((BasicDBObject) dbObject);
 			switch(state.getEquipletState()) {
 				case STANDBY:
@@ -171,7 +181,7 @@ public class InitialisationFinished extends ReceiveOnceBehaviour implements Blac
 					Logger.log(LogLevel.DEBUG, "EquipletState changed to %s%n", state.getEquipletState().name());
 					break;
 			}
-		} catch(InvalidDBNamespaceException | GeneralMongoException e) {
+		} catch(GeneralMongoException e) {
 			Logger.log(LogLevel.ERROR, "", e);
 			// Cannot add myself on the collective BB, so remove the agent since it cannot be found by product agents 
 			equipletAgent.doDelete();
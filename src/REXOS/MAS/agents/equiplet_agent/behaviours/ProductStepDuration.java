@@ -39,9 +39,8 @@ import jade.lang.acl.MessageTemplate;
 import java.io.IOException;
 import java.io.Serializable;
 
-import libraries.blackboard_client.BlackboardClient;
+import libraries.blackboard_client.BlackboardCollection;
 import libraries.blackboard_client.data_classes.GeneralMongoException;
-import libraries.blackboard_client.data_classes.InvalidDBNamespaceException;
 import libraries.utillities.log.LogLevel;
 import libraries.utillities.log.Logger;
 
@@ -83,10 +82,10 @@ public class ProductStepDuration extends ReceiveBehaviour {
 	private EquipletAgent equipletAgent;
 
 	/**
-	 * @var BlackboardClient productStepsBlackboard
+	 * @var BlackboardCollection productStepsBlackboard
 	 *      The blackboardclient for this equiplet's producutStepBlackboard.
 	 **/
-	private BlackboardClient productStepsBlackboard;
+	private BlackboardCollection productStepsBlackboard;
 
 	/**
 	 * @var ParentBehaviourCallback parentBehaviourCallback
@@ -114,7 +113,7 @@ public class ProductStepDuration extends ReceiveBehaviour {
 	 * @param productStepsBlackboard
 	 *            the productStepsblackboard of the equiplet.
 	 */
-	public ProductStepDuration(EquipletAgent equipletAgent, BlackboardClient productStepsBlackboard, ParentBehaviourCallback parentBehaviourCallback,
+	public ProductStepDuration(EquipletAgent equipletAgent, BlackboardCollection productStepsBlackboard, ParentBehaviourCallback parentBehaviourCallback,
 			String conversationID, ObjectId objectId) {
 		super(equipletAgent, MESSAGE_TEMPLATE);
 		this.equipletAgent =  equipletAgent;
@@ -167,7 +166,7 @@ public class ProductStepDuration extends ReceiveBehaviour {
 				parentBehaviourCallback.callback(message, scheduleArguments);
 				equipletAgent.removeBehaviour(this);
 				
-			} catch(InvalidDBNamespaceException | GeneralMongoException e) {
+			} catch(GeneralMongoException e) {
 				Logger.log(LogLevel.ERROR, "", e);
 				equipletAgent.doDelete();
 			}
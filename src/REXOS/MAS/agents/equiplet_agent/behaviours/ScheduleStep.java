@@ -38,24 +38,20 @@ import jade.lang.acl.MessageTemplate;
 import jade.lang.acl.UnreadableException;
 
 import java.io.IOException;
-import java.util.List;
 
-import libraries.blackboard_client.BlackboardClient;
+import libraries.blackboard_client.BlackboardCollection;
 import libraries.blackboard_client.data_classes.GeneralMongoException;
-import libraries.blackboard_client.data_classes.InvalidDBNamespaceException;
 import libraries.utillities.log.LogLevel;
 import libraries.utillities.log.Logger;
 
 import org.bson.types.ObjectId;
 
-import agents.data_classes.ProductStep;
 import agents.data_classes.ScheduleData;
 import agents.equiplet_agent.EquipletAgent;
+import agents.equiplet_agent.ScheduleIndex;
 import agents.shared_behaviours.ReceiveBehaviour;
 
 import com.mongodb.BasicDBObject;
-import com.mongodb.DBObject;
-import com.mongodb.QueryBuilder;
 
 /**
  * Receive behaviour for receiving messages with the ontology: "ScheduleStep".
@@ -84,10 +80,10 @@ public class ScheduleStep extends ReceiveBehaviour {
 	private EquipletAgent equipletAgent;
 
 	/**
-	 * @var BlackboardClient productStepsBlackboard
+	 * @var BlackboardCollection productStepsBlackboard
 	 *      The productStepsBlackboard for this behaviour.
 	 */
-	private BlackboardClient productStepsBlackboard;
+	private BlackboardCollection productStepsBlackboard;
 
 	/**
 	 * Instantiates a new schedule step.
@@ -97,7 +93,7 @@ public class ScheduleStep extends ReceiveBehaviour {
 	 * @param productStepsBlackboard
 	 * 		The blackboardClient for the productStepsBlackboard.
 	 */
-	public ScheduleStep(EquipletAgent equipletAgent, BlackboardClient productStepsBlackboard) {
+	public ScheduleStep(EquipletAgent equipletAgent, BlackboardCollection productStepsBlackboard) {
 		super(equipletAgent, MESSAGE_TEMPLATE);
 		this.equipletAgent = equipletAgent;
 		this.productStepsBlackboard = productStepsBlackboard;
@@ -128,55 +124,28 @@ public class ScheduleStep extends ReceiveBehaviour {
 			long end = start + scheduleData.getDuration();
 			Logger.log(LogLevel.DEBUG, "start: " + start + " duration: " + scheduleData.getDuration() + " end: " + end);
 
-			// Gets planned steps
-			List<DBObject> plannedSteps =
-					productStepsBlackboard.findDocuments(QueryBuilder.start("scheduleData.startTime").greaterThan(-1).get());
-
-			boolean fitsInSchedule = true;
-
-			Logger.log(LogLevel.DEBUG, "I currently have " + plannedSteps.size() + " planned steps.");
-			// check if other steps not are scheduled.
-			for(DBObject plannedStep : plannedSteps) {
-				ProductStep productStep = new ProductStep((BasicDBObject) plannedStep);
-				ScheduleData stepScheduleData = productStep.getScheduleData();
-
-				long scheduledStepStart = stepScheduleData.getStartTime();
-				long scheduledStepEnd = scheduledStepStart + stepScheduleData.getDuration();
-
-				if(start >= scheduledStepStart && start <= scheduledStepEnd) 
-				{
-					Logger.log(LogLevel.ERROR, "FitInSchedule is false!\nstart: " + start + " scheduledStepStart: " + scheduledStepStart +
-							"\nend: " + end + " scheduledStepEnd: " +  scheduledStepEnd + " \nend - start: " + (end - start) + 
-							"\nscheduledEnd - scheduledStart " + (scheduledStepEnd - scheduledStepStart) +
-							"\nend - scheduledStepEnd: " + (end - scheduledStepEnd) + 
-							"\nstart - scheduledStepStart: " + (start - scheduledStepStart));
-					fitsInSchedule = false;
-				} 
-				else if(end >= scheduledStepStart && end <= scheduledStepEnd) 
-				{
-					Logger.log(LogLevel.ERROR, "FitInSchedule is false!\nstart: " + start + " scheduledStepStart: " + scheduledStepStart +
-							"\nend: " + end + " scheduledStepEnd: " +  scheduledStepEnd + " \nend - start: " + (end - start) + 
-							"\nscheduledEnd - scheduledStart " + (scheduledStepEnd - scheduledStepStart) +
-							"\nend - scheduledStepEnd: " + (end - scheduledStepEnd) + 
-							"\nstart - scheduledStepStart: " + (start - scheduledStepStart));
-					fitsInSchedule = false;
-				} 
-				else if(start <= scheduledStepStart && end >= scheduledStepEnd) 
-				{
-					Logger.log(LogLevel.ERROR, "FitInSchedule is false!\nstart: " + start + " scheduledStepStart: " + scheduledStepStart +
-							"\nend: " + end + " scheduledStepEnd: " +  scheduledStepEnd + " \nend - start: " + (end - start) + 
-							"\nscheduledEnd - scheduledStart " + (scheduledStepEnd - scheduledStepStart) +
-							"\nend - scheduledStepEnd: " + (end - scheduledStepEnd) + 
-							"\nstart - scheduledStepStart: " + (start - scheduledStepStart));
-					fitsInSchedule = false;
+			// Books the time slots, which fails if another planned step overlaps them.
+			ScheduleIndex scheduleIndex = equipletAgent.getScheduleIndex();
+			boolean fitsInSchedule = scheduleIndex.tryBook(productStepId, start, scheduleData.getDuration());
+
+			Logger.log(LogLevel.DEBUG, "I currently have " + scheduleIndex.size() + " planned steps.");
+			if(!fitsInSchedule) {
+				ScheduleIndex.Booking conflict = scheduleIndex.findConflict(start, scheduleData.getDuration());
+				if(conflict != null) {
+					Logger.log(LogLevel.ERROR, "FitInSchedule is false!\nstart: " + start + " scheduledStepStart: " + conflict.getStart() +
+							"\nend: " + end + " scheduledStepEnd: " + conflict.getEnd());
 				}
-				
 			}
 			
 			if(fitsInSchedule) {
 				scheduleData.setStartTime(start);
-				productStepsBlackboard.updateDocuments(new BasicDBObject("_id", productStepId), new BasicDBObject("$set",
-						new BasicDBObject("scheduleData", scheduleData.toBasicDBObject())));
+				try {
+					productStepsBlackboard.updateDocuments(new BasicDBObject("_id", productStepId), new BasicDBObject("$set",
+							new BasicDBObject("scheduleData", scheduleData.toBasicDBObject())));
+				} catch(GeneralMongoException e) {
+					scheduleIndex.release(productStepId);
+					throw e;
+				}
 
 				ACLMessage scheduleMessage = new ACLMessage(ACLMessage.REQUEST);
 				scheduleMessage.addReceiver(equipletAgent.getServiceAgent());
@@ -194,7 +163,7 @@ public class ScheduleStep extends ReceiveBehaviour {
 				myAgent.send(reply);
 			}
 		}
-		catch(IOException | InvalidDBNamespaceException | GeneralMongoException | UnreadableException e) 
+		catch(IOException | GeneralMongoException | UnreadableException e) 
 		{
 			Logger.log(LogLevel.ERROR, "", e);
 			myAgent.doDelete();
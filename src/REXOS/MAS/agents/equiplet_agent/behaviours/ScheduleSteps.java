@@ -0,0 +1,198 @@
+/**
+ * @file src/REXOS/MAS/agents/equiplet_agent/behaviours/ScheduleSteps.java
+ * @brief Behaviour for handling the messages with the ontology ScheduleSteps
+ * @date Created: 2013-10-18
+ *
+ * @section LICENSE
+ * License: newBSD
+ *
+ * Copyright © 2013, HU University of Applied Sciences Utrecht.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * - Neither the name of the HU University of Applied Sciences Utrecht nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE HU UNIVERSITY OF APPLIED SCIENCES UTRECHT
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+package agents.equiplet_agent.behaviours;
+
+import jade.lang.acl.ACLMessage;
+import jade.lang.acl.MessageTemplate;
+import jade.lang.acl.UnreadableException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import libraries.blackboard_client.BlackboardBatch;
+import libraries.blackboard_client.BlackboardCollection;
+import libraries.blackboard_client.data_classes.GeneralMongoException;
+import libraries.utillities.log.LogLevel;
+import libraries.utillities.log.Logger;
+
+import org.bson.types.ObjectId;
+
+import agents.data_classes.ScheduleData;
+import agents.equiplet_agent.EquipletAgent;
+import agents.equiplet_agent.ScheduleIndex;
+import agents.shared_behaviours.ReceiveBehaviour;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+/**
+ * Receive behaviour for receiving messages with the ontology: "ScheduleSteps".
+ * The message contains the start time slot of several product steps of the same product, keyed by the conversationId
+ * of every step. The steps are planned together: when one of them does not fit in the schedule none is planned and an
+ * <code>ACLMessage.DISCONFIRM</code> is sent back. Otherwise the blackboard is updated in one batch and the service
+ * agent is asked to schedule every step, after which every step is confirmed with a "Planned" message.
+ */
+public class ScheduleSteps extends ReceiveBehaviour {
+	/**
+	 * @var static final long serialVersionUID
+	 *      The serial version UID for this class
+	 */
+	private static final long serialVersionUID = 3914520818034171209L;
+
+	/**
+	 * @var MessageTemplate MESSAGE_TEMPLATE
+	 *      The messageTemplate this behaviour listens to. This behaviour
+	 *      listens to the ontology: ScheduleSteps.
+	 */
+	private static MessageTemplate MESSAGE_TEMPLATE = MessageTemplate.MatchOntology("ScheduleSteps");
+
+	/**
+	 * @var EquipletAgent equipletAgent
+	 *      The equipletAgent related to this behaviour.
+	 */
+	private EquipletAgent equipletAgent;
+
+	/**
+	 * @var BlackboardCollection productStepsBlackboard
+	 *      The productStepsBlackboard for this behaviour.
+	 */
+	private BlackboardCollection productStepsBlackboard;
+
+	/**
+	 * Instantiates a new schedule steps behaviour.
+	 * 
+	 * @param equipletAgent
+	 *      The equipletAgent for this behaviour
+	 * @param productStepsBlackboard
+	 * 		The blackboardClient for the productStepsBlackboard.
+	 */
+	public ScheduleSteps(EquipletAgent equipletAgent, BlackboardCollection productStepsBlackboard) {
+		super(equipletAgent, MESSAGE_TEMPLATE);
+		this.equipletAgent = equipletAgent;
+		this.productStepsBlackboard = productStepsBlackboard;
+	}
+
+	/**
+	 * Function to handle the incoming messages for this behaviour. Books all requested steps at once and asks the
+	 * service agent to schedule them.
+	 * 
+	 * @param message
+	 *            - The received message.
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	public void handle(ACLMessage message) 
+	{
+		try 
+		{
+			HashMap<String, Long> requestedStarts = (HashMap<String, Long>) message.getContentObject();
+			Logger.log(LogLevel.INFORMATION, "Equiplet agent received request to schedule %d steps.%n", requestedStarts.size());
+
+			int count = requestedStarts.size();
+			String[] conversationIds = new String[count];
+			ObjectId[] productStepIds = new ObjectId[count];
+			long[] starts = new long[count];
+			long[] durations = new long[count];
+
+			int index = 0;
+			for(Map.Entry<String, Long> requestedStart : requestedStarts.entrySet()) {
+				conversationIds[index] = requestedStart.getKey();
+				productStepIds[index] = equipletAgent.getRelatedObjectId(requestedStart.getKey());
+				starts[index] = requestedStart.getValue();
+				index++;
+			}
+
+			// Gets the scheduledata of all steps in one query.
+			ArrayList<ObjectId> idList = new ArrayList<ObjectId>();
+			for(ObjectId productStepId : productStepIds) {
+				idList.add(productStepId);
+			}
+			HashMap<ObjectId, ScheduleData> scheduleData = new HashMap<ObjectId, ScheduleData>();
+			for(DBObject productStep : productStepsBlackboard.findDocuments(
+					new BasicDBObject("_id", new BasicDBObject("$in", idList)))) {
+				scheduleData.put((ObjectId) productStep.get("_id"),
+						new ScheduleData((BasicDBObject) productStep.get("scheduleData")));
+			}
+
+			boolean fitsInSchedule = true;
+			for(int i = 0; i < count && fitsInSchedule; i++) {
+				if(productStepIds[i] == null || !scheduleData.containsKey(productStepIds[i])) {
+					Logger.log(LogLevel.ERROR, "Unknown product step for conversation " + conversationIds[i]);
+					fitsInSchedule = false;
+				} else {
+					durations[i] = scheduleData.get(productStepIds[i]).getDuration();
+				}
+			}
+
+			ScheduleIndex scheduleIndex = equipletAgent.getScheduleIndex();
+			fitsInSchedule = fitsInSchedule && scheduleIndex.tryBookAll(productStepIds, starts, durations);
+
+			if(fitsInSchedule) {
+				try {
+					BlackboardBatch batch = productStepsBlackboard.createBatch();
+					for(int i = 0; i < count; i++) {
+						ScheduleData stepScheduleData = scheduleData.get(productStepIds[i]);
+						stepScheduleData.setStartTime(starts[i]);
+						batch.update(new BasicDBObject("_id", productStepIds[i]), new BasicDBObject("$set",
+								new BasicDBObject("scheduleData", stepScheduleData.toBasicDBObject())));
+					}
+					batch.commit();
+				} catch(GeneralMongoException e) {
+					for(ObjectId productStepId : productStepIds) {
+						scheduleIndex.release(productStepId);
+					}
+					throw e;
+				}
+
+				for(int i = 0; i < count; i++) {
+					ACLMessage scheduleMessage = new ACLMessage(ACLMessage.REQUEST);
+					scheduleMessage.addReceiver(equipletAgent.getServiceAgent());
+					scheduleMessage.setOntology("ScheduleStep");
+					scheduleMessage.setContentObject(productStepIds[i]);
+					scheduleMessage.setConversationId(conversationIds[i]);
+					equipletAgent.send(scheduleMessage);
+				}
+				Logger.log(LogLevel.DEBUG, "All %d steps fit in my schedule.%n", count);
+			}
+			else 
+			{
+				Logger.log(LogLevel.ERROR, "ScheduleSteps disconfirm");
+				ACLMessage reply = message.createReply();
+				reply.setPerformative(ACLMessage.DISCONFIRM);
+				myAgent.send(reply);
+			}
+		}
+		catch(IOException | GeneralMongoException | UnreadableException e) 
+		{
+			Logger.log(LogLevel.ERROR, "", e);
+			myAgent.doDelete();
+		}
+	}
+}
@@ -36,11 +36,10 @@ package agents.equiplet_agent.behaviours;
 import jade.core.Agent;
 import jade.lang.acl.ACLMessage;
 import jade.lang.acl.MessageTemplate;
-import libraries.blackboard_client.BlackboardClient;
+import libraries.blackboard_client.BlackboardCollection;
 import libraries.blackboard_client.data_classes.BlackboardSubscriber;
 import libraries.blackboard_client.data_classes.FieldUpdateSubscription;
 import libraries.blackboard_client.data_classes.GeneralMongoException;
-import libraries.blackboard_client.data_classes.InvalidDBNamespaceException;
 import libraries.blackboard_client.data_classes.MongoOperation;
 import libraries.blackboard_client.data_classes.OplogEntry;
 import libraries.blackboard_client.data_classes.FieldUpdateSubscription.MongoUpdateLogOperation;
@@ -91,7 +90,7 @@ public class StartStep extends ReceiveBehaviour implements BlackboardSubscriber
 	 * Instantiates a new can perform step.
 	 * 
 	 * @param equipletAgent The agent for this behaviour
-	 * @param equipletBBClient The BlackboardClient for this equiplet's blackboard.
+	 * @param equipletBBClient The BlackboardCollection for this equiplet's blackboard.
 	 */
 	public StartStep(EquipletAgent equipletAgent) {
 		super(equipletAgent, MESSAGE_TEMPLATE);
@@ -118,16 +117,12 @@ public class StartStep extends ReceiveBehaviour implements BlackboardSubscriber
 				//equipletAgent.setDesiredEquipletState(EquipletState.NORMAL);
 				equipletAgent.getProductStepBBClient().updateDocuments(new BasicDBObject("_id", productStepId),
 						new BasicDBObject("$set", new BasicDBObject("status", StepStatusCode.WAITING.name())));
-				
-				equipletAgent.getTimer().rescheduleTimer();
 			} else {
 				Logger.log(LogLevel.DEBUG, "%d Equiplet Agent-Starting prod. step.%n", equipletAgent.getCurrentTimeSlot());
 				equipletAgent.getProductStepBBClient().updateDocuments(new BasicDBObject("_id", productStepId),
 						new BasicDBObject("$set", new BasicDBObject("status", StepStatusCode.WAITING.name())));
-				
-				equipletAgent.getTimer().rescheduleTimer();
 			}
-		} catch(InvalidDBNamespaceException | GeneralMongoException e) {
+		} catch(GeneralMongoException e) {
 			Logger.log(LogLevel.ERROR, "", e);
 			//TODO handle error
 			equipletAgent.doDelete();
@@ -139,7 +134,7 @@ public class StartStep extends ReceiveBehaviour implements BlackboardSubscriber
 	@Override
 	public void onMessage(MongoOperation operation, OplogEntry entry) {
 		try {
-			BlackboardClient stateBBClient = equipletAgent.getStateBBClient();
+			BlackboardCollection stateBBClient = equipletAgent.getStateBBClient();
 			DBObject dbObject = stateBBClient.findDocumentById(entry.getTargetObjectId());
 			if(dbObject != null) {
 				EquipletStateEntry state = new EquipletStateEntry((BasicDBObject) dbObject);
@@ -149,12 +144,10 @@ public class StartStep extends ReceiveBehaviour implements BlackboardSubscriber
 					equipletAgent.getProductStepBBClient().updateDocuments(new BasicDBObject("_id", productStepId),
 							new BasicDBObject("$set", new BasicDBObject("status", StepStatusCode.WAITING.name())));
 
-					equipletAgent.getTimer().rescheduleTimer();
-					
 					stateBBClient.unsubscribe(stateUpdateSubscription);
 				}
 			}
-		} catch(InvalidDBNamespaceException | GeneralMongoException e) {
+		} catch(GeneralMongoException e) {
 			Logger.log(LogLevel.ERROR, "", e);
 			//TODO handle error
 		}
@@ -38,7 +38,9 @@ package agents.hardware_agent;
 
 import org.bson.types.ObjectId;
 
+import agents.data_classes.ChainedStep;
 import agents.data_classes.MongoSaveable;
+import agents.data_classes.StepChain;
 import agents.data_classes.StepStatusCode;
 
 import com.mongodb.BasicDBObject;
@@ -47,7 +49,7 @@ import com.mongodb.BasicDBObject;
  * EquipletStep class containing all the data for a message on the
  * EquipletStepBlackboard.
  */
-public class EquipletStep implements MongoSaveable {
+public class EquipletStep implements MongoSaveable, ChainedStep {
 	/**
 	 * @var ObjectId _id
 	 *      The id of this step.
@@ -176,6 +178,14 @@ public class EquipletStep implements MongoSaveable {
 		return nextStep;
 	}
 
+	/**
+	 * @see agents.data_classes.ChainedStep#getNextStepId()
+	 */
+	@Override
+	public ObjectId getNextStepId() {
+		return getNextEquipletStep();
+	}
+
 	/**
 	 * Getter for the module id
 	 * 
@@ -323,40 +333,14 @@ public class EquipletStep implements MongoSaveable {
 
 	/**
 	 * Sorts the EquipletStepMessage in the specified array bases on their nextStep field. The last step is the one of
-	 * which the nextStep field is null.
+	 * which the nextStep field is null. The steps are indexed by their id, so sorting takes linear time.
 	 * 
 	 * @param unsortedSteps an array of steps to be sorted.
 	 * @return an array of EquipletStep in the right order.
 	 */
 	public static EquipletStep[] sort(EquipletStep[] unsortedSteps) {
 		if(unsortedSteps.length > 0){
-			// Find the first step
-			EquipletStep firstServiceStep = null;
-			outer: for(EquipletStep serviceStep : unsortedSteps) {
-				for(EquipletStep equipletStep2 : unsortedSteps) {
-					if(equipletStep2.getNextEquipletStep() != null && equipletStep2.getNextEquipletStep().equals(serviceStep.getId())) {
-						continue outer;
-					}
-				}
-				firstServiceStep = serviceStep;
-				break;
-			}
-	
-			// sort all steps beginning with the one found above
-			int stepsCount = unsortedSteps.length;
-			ObjectId nextStepId;
-			EquipletStep[] sortedSteps = new EquipletStep[stepsCount];
-			sortedSteps[0] = firstServiceStep;
-			for(int i = 1; i < stepsCount; i++) {
-				nextStepId = sortedSteps[i - 1].getNextEquipletStep();
-				for(EquipletStep serviceStep : unsortedSteps) {
-					if(serviceStep.getId().equals(nextStepId)) {
-						sortedSteps[i] = serviceStep;
-						break;
-					}
-				}
-			}
-			return sortedSteps;
+			return new StepChain<EquipletStep>(unsortedSteps).toArray(new EquipletStep[unsortedSteps.length]);
 		}
 		return unsortedSteps;
 	}
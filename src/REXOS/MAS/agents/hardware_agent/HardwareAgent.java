@@ -70,6 +70,7 @@ import libraries.blackboard_client.data_classes.MongoOperation;
 import libraries.blackboard_client.data_classes.OplogEntry;
 import libraries.blackboard_client.data_classes.FieldUpdateSubscription.MongoUpdateLogOperation;
 import libraries.knowledgedb_client.KeyNotFoundException;
+import libraries.knowledgedb_client.KnowledgeCache;
 import libraries.knowledgedb_client.KnowledgeDBClient;
 import libraries.knowledgedb_client.KnowledgeException;
 import libraries.knowledgedb_client.Queries;
@@ -80,12 +81,15 @@ import libraries.utillities.log.Logger;
 import org.bson.types.ObjectId;
 
 import agents.data_classes.DbData;
+import agents.data_classes.StepChainCache;
 import agents.data_classes.StepStatusCode;
 import agents.hardware_agent.behaviours.RemoveEquipletStepBehaviour;
 import agents.hardware_agent.behaviours.RequiredModulesPresent;
+import agents.hardware_agent.behaviours.EvaluateDryRunDuration;
 import agents.hardware_agent.behaviours.EvaluateDuration;
 import agents.hardware_agent.behaviours.FillPlaceholders;
 import agents.hardware_agent.behaviours.ServiceAgentDied;
+import agents.service_agent.DurationCache;
 import agents.service_agent.ServiceStep;
 
 import com.mongodb.BasicDBObject;
@@ -128,6 +132,12 @@ public class HardwareAgent extends Agent implements BlackboardSubscriber, Module
 	 */
 	private HashMap<Integer, Integer> leadingModules;
 
+	/**
+	 * @var StepChainCache<EquipletStep> equipletStepChains
+	 *      The chains of equiplet steps per service step, kept up to date with the status changes of the steps.
+	 */
+	private StepChainCache<EquipletStep> equipletStepChains;
+
 	/**
 	 * @var ModuleFactory moduleFactory
 	 *      The moduleFactory of this agent.
@@ -188,6 +198,24 @@ public class HardwareAgent extends Agent implements BlackboardSubscriber, Module
 	public void setup() {
 		Logger.log(LogLevel.NOTIFICATION, "" + this.getAID().getLocalName() + " spawned as an hardware agent.");
 		leadingModules = new HashMap<Integer, Integer>();
+		equipletStepChains = new StepChainCache<EquipletStep>() {
+			@Override
+			protected ArrayList<EquipletStep> readSteps(ObjectId serviceStepId) throws InvalidDBNamespaceException,
+					GeneralMongoException {
+				List<DBObject> dbEquipletSteps =
+						equipletStepBBClient.findDocuments(new BasicDBObject("serviceStepID", serviceStepId));
+				ArrayList<EquipletStep> equipletSteps = new ArrayList<EquipletStep>(dbEquipletSteps.size());
+				for(DBObject dbEquipletStep : dbEquipletSteps) {
+					equipletSteps.add(new EquipletStep((BasicDBObject) dbEquipletStep));
+				}
+				return equipletSteps;
+			}
+
+			@Override
+			protected ObjectId getParentId(EquipletStep equipletStep) {
+				return equipletStep.getServiceStepID();
+			}
+		};
 
 		// gets the modulefactory and subscribes to updates.
 		moduleFactory = new ModuleFactory();
@@ -212,23 +240,19 @@ public class HardwareAgent extends Agent implements BlackboardSubscriber, Module
 
 		// configure the blackboards
 		try {
-			// Send a message to the serviceAgent that the hardware agent is ready.
-			ACLMessage startedMessage = new ACLMessage(ACLMessage.INFORM);
-			startedMessage.addReceiver(serviceAgentAID);
-			startedMessage.setOntology("InitialisationFinished");
-			send(startedMessage);
-
 			stepStatusSubscription = new FieldUpdateSubscription("status", this);
 			stepStatusSubscription.addOperation(MongoUpdateLogOperation.SET);
 
 			serviceStepBBClient = new BlackboardClient(dbData.getIp());
 			serviceStepBBClient.setDatabase(dbData.getName());
 			serviceStepBBClient.setCollection(Configuration.getProperty(ConfigurationFiles.EQUIPLET_DB_PROPERTIES, "ServiceStepsBlackBoardName", equipletAgentAID.getLocalName()));
+			serviceStepBBClient.setMaterializedDocuments(true);
 			serviceStepBBClient.subscribe(stepStatusSubscription);
 
 			equipletStepBBClient = new BlackboardClient(dbData.getIp());
 			equipletStepBBClient.setDatabase(dbData.getName());
 			equipletStepBBClient.setCollection(Configuration.getProperty(ConfigurationFiles.EQUIPLET_DB_PROPERTIES, "EquipletStepsBlackBoardName", equipletAgentAID.getLocalName()));
+			equipletStepBBClient.setMaterializedDocuments(true);
 			equipletStepBBClient.subscribe(stepStatusSubscription);
 
 			equipletStepBBClient.removeDocuments(new BasicDBObject());
@@ -242,6 +266,9 @@ public class HardwareAgent extends Agent implements BlackboardSubscriber, Module
 		// Start the evaluateDurationBehaviour
 		addBehaviour(new EvaluateDuration(this, moduleFactory));
 
+		// Start the behaviour evaluating durations of steps that are not on the blackboard
+		addBehaviour(new EvaluateDryRunDuration(this, moduleFactory));
+
 		// Start the fillPlaceholdersBehaviour
 		addBehaviour(new FillPlaceholders(this, moduleFactory));
 
@@ -253,19 +280,31 @@ public class HardwareAgent extends Agent implements BlackboardSubscriber, Module
 		
 		addBehaviour(new RemoveEquipletStepBehaviour(this));
 
-		// Get the modules for the equiplet and register the modules
+		// Get the modules for the equiplet, load their software concurrently and register the modules
 		try {
-			KnowledgeDBClient client = KnowledgeDBClient.getClient();
-			Row[] rows = client.executeSelectQuery(Queries.MODULES_PER_EQUIPLET, equipletAgentAID.getLocalName());
-			Module module;
-			int id;
+			KnowledgeCache cache = KnowledgeDBClient.getClient().getCache();
+			Row[] rows = cache.executeSelectQuery(Queries.MODULES_PER_EQUIPLET, equipletAgentAID.getLocalName());
+			ArrayList<Integer> moduleIds = new ArrayList<Integer>();
 			for(Row row : rows) {
-				id = (int) row.get("module");
+				moduleIds.add((int) row.get("module"));
+			}
+			moduleFactory.preloadModules(moduleIds);
+			
+			Module module;
+			for(int id : moduleIds) {
 				module = moduleFactory.getModuleById(id);
-				for(int step : module.isLeadingForServices()) {
-					registerLeadingModule(step, id);
+				if(module != null) {
+					for(int step : module.isLeadingForServices()) {
+						registerLeadingModule(step, id);
+					}
 				}
 			}
+			
+			// Send a message to the serviceAgent that the hardware agent is ready, now the software of its modules is loaded.
+			ACLMessage startedMessage = new ACLMessage(ACLMessage.INFORM);
+			startedMessage.addReceiver(serviceAgentAID);
+			startedMessage.setOntology("InitialisationFinished");
+			send(startedMessage);
 		}
 		catch(KnowledgeException | KeyNotFoundException e) 
 		{
@@ -279,6 +318,7 @@ public class HardwareAgent extends Agent implements BlackboardSubscriber, Module
 	 */
 	@Override
 	public void takeDown() {
+		Logger.log(LogLevel.NOTIFICATION, "Module software cache of %s: %s", getLocalName(), moduleFactory.getModuleCache());
 		try {
 			// Clears his own blackboard and removes his subscription on that blackboard.
 			for(DBObject object : serviceStepBBClient.findDocuments(new BasicDBObject())) {
@@ -311,6 +351,7 @@ public class HardwareAgent extends Agent implements BlackboardSubscriber, Module
 					new BasicDBObject("$set", new BasicDBObject("status", StepStatusCode.DELETED.name()).append(
 							"statusData", new BasicDBObject("reason", reason).append("log", buildLog(serviceStepId)))));
 			equipletStepBBClient.removeDocuments(new BasicDBObject("serviceStepID", serviceStepId));
+			equipletStepChains.remove(serviceStepId);
 		} catch(InvalidDBNamespaceException | GeneralMongoException e) {
 			Logger.log(LogLevel.ERROR, "", e);
 		}
@@ -325,7 +366,7 @@ public class HardwareAgent extends Agent implements BlackboardSubscriber, Module
 			DBObject dbObject;
 			switch(entry.getNamespace().split("\\.")[1]) {
 				case "ServiceStepsBlackBoard":
-					dbObject = serviceStepBBClient.findDocumentById(entry.getTargetObjectId());
+					dbObject = serviceStepBBClient.findDocument(entry);
 					if(dbObject != null) {
 						ServiceStep serviceStep = new ServiceStep((BasicDBObject) dbObject);
 						StepStatusCode status = serviceStep.getServiceStepStatus();
@@ -341,6 +382,7 @@ public class HardwareAgent extends Agent implements BlackboardSubscriber, Module
 												.name()).append("statusData.log", buildLog(serviceStep.getId()))));
 								equipletStepBBClient.removeDocuments(new BasicDBObject("serviceStepID", serviceStep
 										.getId()));
+								equipletStepChains.remove(serviceStep.getId());
 
 								break;
 							case PLANNED:
@@ -349,17 +391,9 @@ public class HardwareAgent extends Agent implements BlackboardSubscriber, Module
 												"$set", new BasicDBObject("status", status.name())));
 								break;
 							case WAITING:
-								List<DBObject> dbObjects =
-										equipletStepBBClient.findDocuments(new BasicDBObject("serviceStepID",
-												serviceStep.getId()));
-								if(dbObjects.size() > 0) {
-									EquipletStep[] unsortedSteps = new EquipletStep[dbObjects.size()];
-									for(int i = 0; i < dbObjects.size(); i++) {
-										unsortedSteps[i] = new EquipletStep((BasicDBObject) dbObjects.get(i));
-									}
-									ObjectId id = EquipletStep.sort(unsortedSteps)[0].getId();
-
-									equipletStepBBClient.updateDocuments(new BasicDBObject("_id", id),
+								EquipletStep firstStep = equipletStepChains.getFirst(serviceStep.getId());
+								if(firstStep != null) {
+									equipletStepBBClient.updateDocuments(new BasicDBObject("_id", firstStep.getId()),
 											new BasicDBObject("$set", new BasicDBObject("status", status.name())));
 								}
 								break;
@@ -369,9 +403,10 @@ public class HardwareAgent extends Agent implements BlackboardSubscriber, Module
 					}
 					break;
 				case "EquipletStepsBlackBoard":
-					dbObject = equipletStepBBClient.findDocumentById(entry.getTargetObjectId());
+					dbObject = equipletStepBBClient.findDocument(entry);
 					if(dbObject != null) {
 						EquipletStep equipletStep = new EquipletStep((BasicDBObject) dbObject);
+						equipletStepChains.update(equipletStep);
 						ServiceStep serviceStep =
 								new ServiceStep((BasicDBObject) serviceStepBBClient.findDocumentById(equipletStep
 										.getServiceStepID()));
@@ -391,6 +426,7 @@ public class HardwareAgent extends Agent implements BlackboardSubscriber, Module
 											new BasicDBObject("$set", new BasicDBObject("statusData",
 													buildLog(serviceStep.getId())).append("status",
 													StepStatusCode.DONE.name())));
+									equipletStepChains.remove(serviceStep.getId());
 									Logger.log(LogLevel.DEBUG, "setting service step on DONE");
 								} else {
 									equipletStepBBClient
@@ -428,6 +464,7 @@ public class HardwareAgent extends Agent implements BlackboardSubscriber, Module
 	public void removeEquipletStepsByServiceStepId(ObjectId serviceStepId) throws InvalidDBNamespaceException, GeneralMongoException{
 		
 		int removedSteps = equipletStepBBClient.removeDocuments(new BasicDBObject("serviceStepID", serviceStepId));
+		equipletStepChains.remove(serviceStepId);
 		Logger.log(LogLevel.DEBUG, "Removing equiplet steps: " + removedSteps);
 	}
 	
@@ -444,6 +481,8 @@ public class HardwareAgent extends Agent implements BlackboardSubscriber, Module
 		for(int step : newSoftware.isLeadingForServices()) {
 			leadingModules.put(step, moduleId);
 		}
+		// durations evaluated with the old software are no longer valid.
+		DurationCache.forEquiplet(equipletAgentAID.getLocalName()).invalidateAll();
 	}
 
 	/**
@@ -455,15 +494,8 @@ public class HardwareAgent extends Agent implements BlackboardSubscriber, Module
 	 */
 	public BasicDBObject buildLog(ObjectId serviceStep) {
 		BasicDBObject log = new BasicDBObject();
-		List<DBObject> dbEquipletSteps;
 		try {
-			dbEquipletSteps = equipletStepBBClient.findDocuments(new BasicDBObject("serviceStepID", serviceStep));
-
-			EquipletStep[] equipletSteps = new EquipletStep[dbEquipletSteps.size()];
-			for(int i = 0; i < dbEquipletSteps.size(); i++) {
-				equipletSteps[i] = new EquipletStep((BasicDBObject) dbEquipletSteps.get(i));
-			}
-			equipletSteps = EquipletStep.sort(equipletSteps);
+			EquipletStep[] equipletSteps = equipletStepChains.getSorted(serviceStep, new EquipletStep[0]);
 
 			// append all equipletsteps to the log
 			for(int i = 0; i < equipletSteps.length; i++) {
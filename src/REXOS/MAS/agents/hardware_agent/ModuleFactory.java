@@ -30,11 +30,15 @@
 package agents.hardware_agent;
 
 import java.util.ArrayList;
-import java.util.Hashtable;
+import java.util.Collection;
+
+import configuration.Configuration;
+import configuration.ConfigurationFiles;
 
 import libraries.dynamicloader.DynamicClassDescription;
 import libraries.dynamicloader.DynamicClassFactory;
 import libraries.dynamicloader.InstantiateClassException;
+import libraries.dynamicloader.SoftwareCache;
 import libraries.knowledgedb_client.KeyNotFoundException;
 import libraries.knowledgedb_client.KnowledgeDBClient;
 import libraries.knowledgedb_client.KnowledgeException;
@@ -46,13 +50,27 @@ import libraries.utillities.log.Logger;
 /**
  * Creates and caches instances of the software required for modules.
  * This class makes sure that when a module is requested, an object of the latest version (according to the knowledge database) is returned.
+ * Cached modules are returned without querying the knowledge database; they are checked for a newer version in the
+ * background once the revalidation interval has passed or the knowledge database changed.
  **/
 public class ModuleFactory {
 	/**
-	 * @var Hashtable<Long, Module> moduleCache
-	 * Hashtable containing instances of already instantiated modules.
+	 * @var int DEFAULT_REVALIDATION_INTERVAL
+	 * The time in milliseconds after which a cached module is checked for a newer version, if not configured.
+	 **/
+	private static final int DEFAULT_REVALIDATION_INTERVAL = 30000;
+	
+	/**
+	 * @var SoftwareCache<Integer, Module> moduleCache
+	 * Cache containing instances of already instantiated modules.
 	 **/
-	private Hashtable<Integer, Module> moduleCache;
+	private SoftwareCache<Integer, Module> moduleCache;
+	
+	/**
+	 * @var long knowledgeGeneration
+	 * The generation of the knowledge cache when the module cache was last told to revalidate.
+	 **/
+	private long knowledgeGeneration;
 	
 	/**
 	 * @var DynamicClassFactory<Module> factory
@@ -72,49 +90,70 @@ public class ModuleFactory {
 	public ModuleFactory() {
 		factory = new DynamicClassFactory<Module>(Module.class);
 		updateSubscribers = new ArrayList<ModuleUpdateListener>();
-		moduleCache = new Hashtable<Integer, Module>();
+		
+		int interval = Configuration.getPropertyInt(ConfigurationFiles.KNOWLEDGE_DB_PROPERTIES, "softwareRevalidationInterval");
+		moduleCache = new SoftwareCache<Integer, Module>(new ModuleLoader(),
+				interval > 0 ? interval : DEFAULT_REVALIDATION_INTERVAL);
+		knowledgeGeneration = -1;
 	}
 	
 	/**
-	 * Updates the moduleCache with the latest version retrieved from the knowledge database.
-	 * @param moduleId The id of the module that should be updated.
+	 * Loads the latest version of the software for modules from the knowledge database.
 	 **/
-	private void updateModuleInCache(int moduleId) {
-		try {
-			KnowledgeDBClient knowledgeClient = KnowledgeDBClient.getClient();
-		
-			Row[] rows = knowledgeClient.executeSelectQuery(
-					Queries.SOFTWARE_FOR_MODULE,
-					new Object[]{moduleId});
-			
-			if (rows.length > 0) {
-				DynamicClassDescription description = new DynamicClassDescription(
-						new Long((Integer)rows[0].get("id")),
-						(String)rows[0].get("name"),
-						(String)rows[0].get("description"),
-						(String)rows[0].get("class_name"),
-						(String)rows[0].get("jar_location"));
-				
-				Module oldSoftware = moduleCache.get(moduleId);
-				Module newSoftware = factory.createNewObjectIfOutdated(description, oldSoftware);
-				moduleCache.put(moduleId, newSoftware);
+	private class ModuleLoader implements SoftwareCache.Loader<Integer, Module> {
+		/**
+		 * Returns the latest version of the software for the module according to the knowledge database.
+		 * A revalidation queries the knowledge database directly, because the knowledge cache may hold the row for
+		 * longer than the revalidation interval.
+		 * @param moduleId The id of the module.
+		 * @param oldSoftware The cached software of the module, or null if there is none.
+		 * @return The latest software, or oldSoftware if it could not be loaded.
+		 **/
+		@Override
+		public Module load(Integer moduleId, Module oldSoftware) {
+			try {
+				KnowledgeDBClient client = KnowledgeDBClient.getClient();
+				Row[] rows;
+				if (oldSoftware == null) {
+					rows = client.getCache().executeSelectQuery(Queries.SOFTWARE_FOR_MODULE, moduleId);
+				} else {
+					rows = client.executeSelectQuery(Queries.SOFTWARE_FOR_MODULE, moduleId);
+				}
 				
-				if (oldSoftware != newSoftware) {
-					newSoftware.setId(moduleId);
-					newSoftware.setName(description.getName());
-					newSoftware.setModuleFactory(this);
+				if (rows.length > 0) {
+					DynamicClassDescription description = new DynamicClassDescription(
+							new Long((Integer)rows[0].get("id")),
+							(String)rows[0].get("name"),
+							(String)rows[0].get("description"),
+							(String)rows[0].get("class_name"),
+							(String)rows[0].get("jar_location"));
 					
-					// Notify subscribers if the software was updated.
-					// If no previous version exists, this is not considered an updated.
-					if (oldSoftware != null) {
-						for (ModuleUpdateListener sub : updateSubscribers) {
-							sub.onModuleUpdate(moduleId, oldSoftware, newSoftware);
-						}
+					Module newSoftware = factory.createNewObjectIfOutdated(description, oldSoftware);
+					if (oldSoftware != newSoftware) {
+						newSoftware.setId(moduleId);
+						newSoftware.setName(description.getName());
+						newSoftware.setModuleFactory(ModuleFactory.this);
 					}
+					return newSoftware;
 				}
+			} catch (InstantiateClassException | KnowledgeException | KeyNotFoundException e) {
+				Logger.log(LogLevel.ERROR, "Error at moduleFactory", e);
+			}
+			return oldSoftware;
+		}
+		
+		/**
+		 * Notifies the subscribers that the software of a module was updated.
+		 * The first time software is loaded is not considered an update, so this is only called for replaced software.
+		 * @param moduleId The id of the module.
+		 * @param oldSoftware The software that was replaced.
+		 * @param newSoftware The software that replaced it.
+		 **/
+		@Override
+		public void updated(Integer moduleId, Module oldSoftware, Module newSoftware) {
+			for (ModuleUpdateListener sub : updateSubscribers) {
+				sub.onModuleUpdate(moduleId, oldSoftware, newSoftware);
 			}
-		} catch (InstantiateClassException | KnowledgeException | KeyNotFoundException e) {
-			Logger.log(LogLevel.ERROR, "Error at moduleFactory", e);
 		}
 	}
 	
@@ -125,10 +164,37 @@ public class ModuleFactory {
 	 *
 	 **/
 	public Module getModuleById(int moduleId) {
-		updateModuleInCache(moduleId);
+		try {
+			long generation = KnowledgeDBClient.getClient().getCache().getGeneration();
+			if (generation != knowledgeGeneration) {
+				if (knowledgeGeneration != -1) {
+					moduleCache.revalidateAll();
+				}
+				knowledgeGeneration = generation;
+			}
+		} catch (KnowledgeException e) {
+			Logger.log(LogLevel.ERROR, "Error at moduleFactory", e);
+		}
 		return moduleCache.get(moduleId);
 	}
 	
+	/**
+	 * Loads the software for the specified modules concurrently, so looking them up later does not wait for the
+	 * knowledge database or jar downloads. The load time of every module is logged.
+	 * @param moduleIds The modules for which software should be loaded.
+	 **/
+	public void preloadModules(Collection<Integer> moduleIds) {
+		factory.preload(moduleCache, moduleIds, "module");
+	}
+	
+	/**
+	 * Returns the cache of module software, e.g. to read its hit and revalidation counts.
+	 * @return The cache of module software.
+	 **/
+	public SoftwareCache<Integer, Module> getModuleCache() {
+		return moduleCache;
+	}
+	
 	/**
 	 * Subscribe to software updates.
 	 * The subscriber will be notified whenever a new version is loaded of a certain module.
@@ -0,0 +1,140 @@
+/**
+ * @file src/REXOS/MAS/agents/hardware_agent/behaviours/EvaluateDryRunDuration.java
+ * @brief Evaluates the duration of service steps without writing them to the blackboards.
+ * @date Created: 2013-10-18
+ *
+ * @section LICENSE
+ * License: newBSD
+ *
+ * Copyright © 2013, HU University of Applied Sciences Utrecht.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * - Neither the name of the HU University of Applied Sciences Utrecht nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE HU UNIVERSITY OF APPLIED SCIENCES UTRECHT
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+package agents.hardware_agent.behaviours;
+
+import jade.lang.acl.ACLMessage;
+import jade.lang.acl.MessageTemplate;
+import jade.lang.acl.UnreadableException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+import libraries.utillities.log.LogLevel;
+import libraries.utillities.log.Logger;
+import agents.hardware_agent.EquipletStep;
+import agents.hardware_agent.HardwareAgent;
+import agents.hardware_agent.Module;
+import agents.hardware_agent.ModuleFactory;
+import agents.service_agent.ServiceStep;
+import agents.shared_behaviours.ReceiveBehaviour;
+
+import com.mongodb.BasicDBObject;
+
+/**
+ * Evaluates the duration of service steps that are not on the blackboard. The equiplet steps are generated in memory
+ * only to sum their durations, so quoting a product step writes nothing. Answers with an INFORM containing the total
+ * duration, or a FAILURE containing the reason when a service step can not be performed.
+ */
+public class EvaluateDryRunDuration extends ReceiveBehaviour {
+	/**
+	 * @var long serialVersionUID
+	 *      The serialVersionUID
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * @var MessageTemplate MESSAGE_TEMPLATE
+	 *      The messageTemplate to match the messages.
+	 */
+	private static MessageTemplate MESSAGE_TEMPLATE = MessageTemplate.MatchOntology("DryRunDuration");
+
+	/**
+	 * @var HardwareAgent hardwareAgent
+	 *      The hardwareAgent of this behaviour.
+	 */
+	private HardwareAgent hardwareAgent;
+
+	/**
+	 * @var ModuleFactory moduleFactory
+	 *      The moduleFactory for this behaviour.
+	 */
+	private ModuleFactory moduleFactory;
+
+	/**
+	 * Constructor
+	 * 
+	 * @param hardwareAgent The hardwareAgent
+	 * @param moduleFactory The moduleFactory
+	 */
+	public EvaluateDryRunDuration(HardwareAgent hardwareAgent, ModuleFactory moduleFactory) {
+		super(hardwareAgent, MESSAGE_TEMPLATE);
+		this.hardwareAgent = hardwareAgent;
+		this.moduleFactory = moduleFactory;
+	}
+
+	/**
+	 * @see ReceiveBehaviour#handle(ACLMessage)
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	public void handle(ACLMessage message) {
+		ACLMessage reply = message.createReply();
+		reply.setOntology("DryRunDuration");
+		try {
+			ArrayList<BasicDBObject> serviceSteps = (ArrayList<BasicDBObject>) message.getContentObject();
+			Logger.log(LogLevel.DEBUG, "%s received message from %s (%s: %d steps)%n", hardwareAgent.getLocalName(),
+					message.getSender().getLocalName(), message.getOntology(), serviceSteps.size());
+
+			long duration = 0;
+			String reason = null;
+			for(BasicDBObject dbServiceStep : serviceSteps) {
+				ServiceStep serviceStep = new ServiceStep(dbServiceStep);
+				Module module = moduleFactory.getModuleById(hardwareAgent.getLeadingModule(serviceStep.getServiceId()));
+				module.setConfiguration(hardwareAgent.getConfiguration());
+				EquipletStep[] equipletSteps =
+						module.getEquipletSteps(serviceStep.getServiceStepType(), serviceStep.getParameters());
+				if(equipletSteps.length == 0) {
+					reason = String.format("%s.getEquipletSteps(%d, %s) returned no steps.", module,
+							serviceStep.getServiceStepType(), serviceStep.getParameters());
+					break;
+				}
+				for(EquipletStep equipletStep : equipletSteps) {
+					duration += equipletStep.getTimeData().getDuration();
+				}
+			}
+
+			if(reason == null) {
+				reply.setPerformative(ACLMessage.INFORM);
+				reply.setContentObject(duration);
+			} else {
+				reply.setPerformative(ACLMessage.FAILURE);
+				reply.setContent(reason);
+			}
+			hardwareAgent.send(reply);
+		} catch(UnreadableException e) {
+			// Answer anyway, so the service agent does not wait for its timeout.
+			Logger.log(LogLevel.ERROR, "", e);
+			reply.setPerformative(ACLMessage.FAILURE);
+			reply.setContent("The service steps could not be read.");
+			hardwareAgent.send(reply);
+		} catch(IOException e) {
+			Logger.log(LogLevel.ERROR, "", e);
+			hardwareAgent.doDelete();
+		}
+	}
+}
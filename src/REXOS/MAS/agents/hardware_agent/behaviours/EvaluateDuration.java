@@ -53,7 +53,7 @@ import jade.lang.acl.UnreadableException;
 
 import java.io.IOException;
 
-import libraries.blackboard_client.BlackboardClient;
+import libraries.blackboard_client.BlackboardBatch;
 import libraries.blackboard_client.data_classes.GeneralMongoException;
 import libraries.blackboard_client.data_classes.InvalidDBNamespaceException;
 import libraries.utillities.log.LogLevel;
@@ -160,7 +160,8 @@ public class EvaluateDuration extends ReceiveBehaviour {
 			
 			if(equipletSteps.length > 0) 
 			{
-				BlackboardClient equipletStepsBBClient = hardwareAgent.getEquipletStepsBBClient();
+				// the steps are written in a single batch, which is committed before the serviceStep is updated.
+				BlackboardBatch equipletStepsBatch = hardwareAgent.getEquipletStepsBBClient().createBatch();
 				ObjectId next = null;
 				
 				// calculate the duration and put the steps on the blackboard
@@ -170,8 +171,9 @@ public class EvaluateDuration extends ReceiveBehaviour {
 					stepDuration += equipletStep.getTimeData().getDuration();
 					equipletStep.setServiceStepID(serviceStepId);
 					equipletStep.setNextEquipletStep(next);
-					next = equipletStepsBBClient.insertDocumentUnsafe(equipletStep.toBasicDBObject());
+					next = equipletStepsBatch.insert(equipletStep.toBasicDBObject());
 				}
+				equipletStepsBatch.commit();
 				
 				// get the scheduleData and add the duration.
 				ScheduleData schedule = serviceStep.getScheduleData();
@@ -55,6 +55,7 @@ import jade.lang.acl.UnreadableException;
 
 import java.util.List;
 
+import libraries.blackboard_client.BlackboardBatch;
 import libraries.blackboard_client.BlackboardClient;
 import libraries.blackboard_client.data_classes.GeneralMongoException;
 import libraries.blackboard_client.data_classes.InvalidDBNamespaceException;
@@ -160,11 +161,13 @@ public class FillPlaceholders extends ReceiveBehaviour {
 			equipletSteps = module.fillPlaceHolders(equipletSteps, serviceStep.getParameters());
 			Logger.log(LogLevel.DEBUG, "Saving updated instructionData of %d equipletSteps%n", equipletSteps.length);
 			
+			BlackboardBatch equipletStepBatch = equipletStepBBClient.createBatch();
 			for(EquipletStep step : equipletSteps)
 			{
-				equipletStepBBClient.updateDocumentsUnsafe(new BasicDBObject("_id", step.getId()), new BasicDBObject("$set",
+				equipletStepBatch.update(new BasicDBObject("_id", step.getId()), new BasicDBObject("$set",
 						new BasicDBObject("instructionData", step.getInstructionData().toBasicDBObject())));
 			}
+			equipletStepBatch.commit();
 			
 			// if the serviceStep has a nextStep fill the placeholders for that one to.
 			if(serviceStep.getNextServiceStep() != null) 
@@ -44,6 +44,7 @@ import jade.lang.acl.UnreadableException;
 import java.util.ArrayList;
 
 import libraries.knowledgedb_client.KeyNotFoundException;
+import libraries.knowledgedb_client.KnowledgeCache;
 import libraries.knowledgedb_client.KnowledgeDBClient;
 import libraries.knowledgedb_client.KnowledgeException;
 import libraries.knowledgedb_client.Queries;
@@ -94,9 +95,9 @@ public class RequiredModulesPresent extends ReceiveBehaviour {
 		ArrayList<Integer> availableModules = new ArrayList<Integer>();
 		try {
 			// get the availablemoduleGroups
-			KnowledgeDBClient client = KnowledgeDBClient.getClient();
+			KnowledgeCache cache = KnowledgeDBClient.getClient().getCache();
 			Row[] rows =
-					client.executeSelectQuery(Queries.MODULES_PER_EQUIPLET, hardwareAgent.getEquipletAgentAID()
+					cache.executeSelectQuery(Queries.MODULES_PER_EQUIPLET, hardwareAgent.getEquipletAgentAID()
 							.getLocalName());
 			for(Row row : rows) {
 				availableModules.add((Integer) row.get("groupId"));
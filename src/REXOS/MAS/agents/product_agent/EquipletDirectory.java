@@ -0,0 +1,292 @@
+/**
+ * @file src/REXOS/MAS/agents/product_agent/EquipletDirectory.java
+ * @brief Process-wide equiplet directory kept up to date from the oplog.
+ * @date Created: 2013-10-18
+ *
+ * @section LICENSE
+ * License: newBSD
+ *
+ * Copyright © 2013, HU University of Applied Sciences Utrecht.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * - Neither the name of the HU University of Applied Sciences Utrecht nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE HU UNIVERSITY OF APPLIED SCIENCES UTRECHT
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+package agents.product_agent;
+
+import jade.core.AID;
+
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import libraries.blackboard_client.BlackboardClient;
+import libraries.blackboard_client.BlackboardCollection;
+import libraries.blackboard_client.data_classes.BasicOperationSubscription;
+import libraries.blackboard_client.data_classes.BlackboardSubscriber;
+import libraries.blackboard_client.data_classes.GeneralMongoException;
+import libraries.blackboard_client.data_classes.InvalidDBNamespaceException;
+import libraries.blackboard_client.data_classes.MongoOperation;
+import libraries.blackboard_client.data_classes.OplogEntry;
+import libraries.utillities.log.LogLevel;
+import libraries.utillities.log.Logger;
+
+import org.bson.types.ObjectId;
+
+import agents.equiplet_agent.EquipletDirectoryEntry;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+import configuration.Configuration;
+import configuration.ConfigurationFiles;
+
+/**
+ * Process-wide copy of the equiplet directory on the collective blackboard.
+ * The directory is read once when it is first used and is kept up to date by subscribing to the inserts, updates and
+ * deletes of the directory collection. Subscriptions deliver the resulting document, so the product agents in this
+ * process look up equiplets without reading from the collective database.
+ * 
+ * Lookups read an immutable snapshot and do not lock. The snapshot is replaced on every change of the directory,
+ * which happens far less often than a lookup.
+ **/
+public class EquipletDirectory implements BlackboardSubscriber {
+	/**
+	 * Immutable state of the directory.
+	 **/
+	private static class Snapshot {
+		/**
+		 * @var Map<ObjectId, EquipletDirectoryEntry> byId
+		 *      The entries by the id of their document.
+		 */
+		private final Map<ObjectId, EquipletDirectoryEntry> byId;
+
+		/**
+		 * @var Map<String, EquipletDirectoryEntry> byAID
+		 *      The entries by the name of the AID of their equiplet.
+		 */
+		private final Map<String, EquipletDirectoryEntry> byAID;
+
+		/**
+		 * @var Map<Long, List<EquipletDirectoryEntry>> byCapability
+		 *      The entries of the equiplets having a capability.
+		 */
+		private final Map<Long, List<EquipletDirectoryEntry>> byCapability;
+
+		/**
+		 * Builds the indices of a snapshot.
+		 * 
+		 * @param byId The entries by the id of their document.
+		 */
+		Snapshot(Map<ObjectId, EquipletDirectoryEntry> byId) {
+			HashMap<String, EquipletDirectoryEntry> aids = new HashMap<String, EquipletDirectoryEntry>();
+			HashMap<Long, List<EquipletDirectoryEntry>> capabilities = new HashMap<Long, List<EquipletDirectoryEntry>>();
+			for(EquipletDirectoryEntry entry : byId.values()) {
+				aids.put(entry.getAID().getName(), entry);
+				for(Object capability : entry.getCapabilities()) {
+					Long key = ((Number) capability).longValue();
+					List<EquipletDirectoryEntry> entries = capabilities.get(key);
+					if(entries == null) {
+						entries = new ArrayList<EquipletDirectoryEntry>();
+						capabilities.put(key, entries);
+					}
+					entries.add(entry);
+				}
+			}
+			for(Map.Entry<Long, List<EquipletDirectoryEntry>> capability : capabilities.entrySet()) {
+				capability.setValue(Collections.unmodifiableList(capability.getValue()));
+			}
+			this.byId = byId;
+			this.byAID = aids;
+			this.byCapability = capabilities;
+		}
+	}
+
+	/**
+	 * @var EquipletDirectory instance
+	 *      The directory shared by the agents in this process.
+	 */
+	private static EquipletDirectory instance;
+
+	/**
+	 * @var BlackboardCollection directory
+	 *      The equiplet directory on the collective blackboard.
+	 */
+	private BlackboardCollection directory;
+
+	/**
+	 * @var Snapshot snapshot
+	 *      The current state of the directory.
+	 */
+	private volatile Snapshot snapshot;
+
+	/**
+	 * @var HashSet<ObjectId> changedWhileLoading
+	 *      The entries changed by the subscriptions while the contents were being read, or null once they are read.
+	 *      Guarded by this.
+	 */
+	private HashSet<ObjectId> changedWhileLoading;
+
+	/**
+	 * Returns the directory shared by the agents in this process. The directory is read and subscribed to the first
+	 * time this function is called.
+	 * 
+	 * @return the equiplet directory.
+	 * @throws UnknownHostException
+	 * @throws GeneralMongoException
+	 * @throws InvalidDBNamespaceException
+	 */
+	public static synchronized EquipletDirectory getInstance()
+			throws UnknownHostException, GeneralMongoException, InvalidDBNamespaceException {
+		if(instance == null) {
+			BlackboardClient client = new BlackboardClient(
+					Configuration.getProperty(ConfigurationFiles.MONGO_DB_PROPERTIES, "collectiveDbIp"),
+					Configuration.getPropertyInt(ConfigurationFiles.MONGO_DB_PROPERTIES, "collectiveDbPort"));
+			client.setMaterializedDocuments(true);
+			instance = new EquipletDirectory(client.getCollection(
+					Configuration.getProperty(ConfigurationFiles.MONGO_DB_PROPERTIES, "collectiveDbName"),
+					Configuration.getProperty(ConfigurationFiles.MONGO_DB_PROPERTIES, "equipletDirectoryName")));
+		}
+		return instance;
+	}
+
+	/**
+	 * Subscribes to the changes of the equiplet directory and reads its current contents. The subscriptions are made
+	 * first, so no change is missed. An entry changed by a subscription while the contents are read keeps the state of
+	 * that change.
+	 * 
+	 * @param directory The equiplet directory on the collective blackboard.
+	 * @throws GeneralMongoException
+	 */
+	EquipletDirectory(BlackboardCollection directory) throws GeneralMongoException {
+		this.directory = directory;
+		this.snapshot = new Snapshot(new HashMap<ObjectId, EquipletDirectoryEntry>());
+		this.changedWhileLoading = new HashSet<ObjectId>();
+
+		directory.subscribe(new BasicOperationSubscription(MongoOperation.INSERT, this));
+		directory.subscribe(new BasicOperationSubscription(MongoOperation.UPDATE, this));
+		directory.subscribe(new BasicOperationSubscription(MongoOperation.DELETE, this));
+
+		List<DBObject> documents = directory.findDocuments(new BasicDBObject());
+		synchronized(this) {
+			HashMap<ObjectId, EquipletDirectoryEntry> byId =
+					new HashMap<ObjectId, EquipletDirectoryEntry>(snapshot.byId);
+			for(DBObject document : documents) {
+				EquipletDirectoryEntry entry = toEntry(document);
+				if(entry != null && !changedWhileLoading.contains(document.get("_id"))) {
+					byId.put((ObjectId) document.get("_id"), entry);
+				}
+			}
+			snapshot = new Snapshot(byId);
+			changedWhileLoading = null;
+		}
+		Logger.log(LogLevel.DEBUG, "Equiplet directory loaded with %d equiplets.", documents.size());
+	}
+
+	/**
+	 * Returns the equiplets having a capability.
+	 * 
+	 * @param capability The capability, i.e. the type of production step.
+	 * @return the entries of the equiplets having the capability, possibly empty.
+	 */
+	public List<EquipletDirectoryEntry> getEquipletsWithCapability(long capability) {
+		List<EquipletDirectoryEntry> entries = snapshot.byCapability.get(capability);
+		if(entries == null) {
+			return Collections.emptyList();
+		}
+		return entries;
+	}
+
+	/**
+	 * Returns the entry of an equiplet.
+	 * 
+	 * @param aid The AID of the equiplet agent.
+	 * @return the entry of the equiplet, or null if it is not in the directory.
+	 */
+	public EquipletDirectoryEntry getEquiplet(AID aid) {
+		return snapshot.byAID.get(aid.getName());
+	}
+
+	/**
+	 * Returns the amount of equiplets in the directory.
+	 * 
+	 * @return the amount of equiplets.
+	 */
+	public int size() {
+		return snapshot.byId.size();
+	}
+
+	/**
+	 * Applies a change of the equiplet directory. Called on the oplog thread.
+	 * 
+	 * @see libraries.blackboard_client.data_classes.BlackboardSubscriber#onMessage(MongoOperation, OplogEntry)
+	 */
+	@Override
+	public void onMessage(MongoOperation operation, OplogEntry entry) {
+		ObjectId id = entry.getTargetObjectId();
+		if(id == null) {
+			return;
+		}
+
+		EquipletDirectoryEntry directoryEntry = null;
+		if(operation != MongoOperation.DELETE) {
+			try {
+				DBObject document = directory.findDocument(entry);
+				if(document != null) {
+					directoryEntry = toEntry(document);
+				}
+			} catch(GeneralMongoException e) {
+				Logger.log(LogLevel.ERROR, "Could not read equiplet directory entry " + id, e);
+				return;
+			}
+		}
+
+		synchronized(this) {
+			HashMap<ObjectId, EquipletDirectoryEntry> byId =
+					new HashMap<ObjectId, EquipletDirectoryEntry>(snapshot.byId);
+			if(directoryEntry == null) {
+				byId.remove(id);
+			} else {
+				byId.put(id, directoryEntry);
+			}
+			if(changedWhileLoading != null) {
+				changedWhileLoading.add(id);
+			}
+			snapshot = new Snapshot(byId);
+		}
+	}
+
+	/**
+	 * Converts a document of the equiplet directory to an entry.
+	 * 
+	 * @param document The document of the equiplet directory.
+	 * @return the entry, or null if the document is not a valid entry.
+	 */
+	private static EquipletDirectoryEntry toEntry(DBObject document) {
+		BasicDBObject copy = new BasicDBObject(document.toMap());
+		copy.remove("_id");
+		try {
+			return new EquipletDirectoryEntry(copy);
+		} catch(IllegalArgumentException | ClassCastException | NullPointerException e) {
+			Logger.log(LogLevel.WARNING, "Ignoring invalid equiplet directory entry " + document.get("_id"));
+			return null;
+		}
+	}
+}
@@ -0,0 +1,172 @@
+/**
+ * @file src/REXOS/MAS/agents/product_agent/FreeSlotFinder.java
+ * @brief Finds the earliest gap in the schedule of an equiplet.
+ * @date Created: 2013-10-18
+ *
+ * @section LICENSE
+ * License: newBSD
+ *
+ * Copyright © 2013, HU University of Applied Sciences Utrecht.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * - Neither the name of the HU University of Applied Sciences Utrecht nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE HU UNIVERSITY OF APPLIED SCIENCES UTRECHT
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+package agents.product_agent;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+/**
+ * Finds the earliest gap in the schedule of an equiplet that fits a production step.
+ * A schedule is a set of booked ranges of time slots, where both the start and the end slot are booked, like the
+ * schedule checked by the equiplet when a step is scheduled.
+ * The ranges are sorted on start time and the running maximum of their end times is kept, so all ranges that end
+ * before the requested start are skipped with a binary search.
+ **/
+public class FreeSlotFinder {
+	/**
+	 * @var long[] starts
+	 * The first time slot of every booked range, in ascending order.
+	 **/
+	private long[] starts;
+
+	/**
+	 * @var long[] ends
+	 * The last time slot of every booked range, in the order of starts.
+	 **/
+	private long[] ends;
+
+	/**
+	 * @var long[] maxEnds
+	 * The largest end of the booked ranges up to and including every index, which is ascending.
+	 **/
+	private long[] maxEnds;
+
+	/**
+	 * Constructs a finder for the booked ranges with the specified start times and durations.
+	 * 
+	 * @param starts the first time slot of every booked range, in any order.
+	 * @param durations the duration in time slots of every booked range.
+	 **/
+	public FreeSlotFinder(long[] starts, long[] durations) {
+		int count = starts.length;
+		long[][] ranges = new long[count][];
+		for (int i = 0; i < count; i++) {
+			ranges[i] = new long[] { starts[i], starts[i] + durations[i] };
+		}
+		Arrays.sort(ranges, new Comparator<long[]>() {
+			@Override
+			public int compare(long[] a, long[] b) {
+				return Long.compare(a[0], b[0]);
+			}
+		});
+
+		this.starts = new long[count];
+		this.ends = new long[count];
+		this.maxEnds = new long[count];
+		long maxEnd = Long.MIN_VALUE;
+		for (int i = 0; i < count; i++) {
+			this.starts[i] = ranges[i][0];
+			this.ends[i] = ranges[i][1];
+			maxEnd = Math.max(maxEnd, ranges[i][1]);
+			this.maxEnds[i] = maxEnd;
+		}
+	}
+
+	/**
+	 * Constructs a finder for the planned product steps of an equiplet, as stored on its product steps blackboard.
+	 * 
+	 * @param plannedSteps the product steps with a start time.
+	 * @return the finder for the schedule of the equiplet.
+	 **/
+	public static FreeSlotFinder fromProductSteps(List<DBObject> plannedSteps) {
+		long[] starts = new long[plannedSteps.size()];
+		long[] durations = new long[plannedSteps.size()];
+		for (int i = 0; i < starts.length; i++) {
+			BasicDBObject scheduleData = (BasicDBObject) plannedSteps.get(i).get("scheduleData");
+			starts[i] = scheduleData.getLong("startTime");
+			durations[i] = scheduleData.getLong("duration");
+		}
+		return new FreeSlotFinder(starts, durations);
+	}
+
+	/**
+	 * Returns the earliest time slot from which the requested amount of time slots is free.
+	 * 
+	 * @param from the earliest time slot the step may start.
+	 * @param duration the duration of the step in time slots.
+	 * @return the first time slot of the earliest fitting gap, which is never before from.
+	 **/
+	public long findEarliestFit(long from, long duration) {
+		long candidate = from;
+		// Every range before the first with a maximum end at or after from ends before the candidate.
+		for (int i = firstRelevantRange(from); i < starts.length; i++) {
+			if (ends[i] < candidate) {
+				continue;
+			}
+			if (candidate + duration < starts[i]) {
+				return candidate;
+			}
+			candidate = ends[i] + 1;
+		}
+		return candidate;
+	}
+
+	/**
+	 * Returns whether the requested time slots overlap none of the booked ranges.
+	 * 
+	 * @param start the first requested time slot.
+	 * @param duration the duration of the step in time slots.
+	 * @return true if the time slots are free.
+	 **/
+	public boolean isFree(long start, long duration) {
+		return findEarliestFit(start, duration) == start;
+	}
+
+	/**
+	 * Returns the amount of booked ranges.
+	 * 
+	 * @return the size of the schedule.
+	 **/
+	public int size() {
+		return starts.length;
+	}
+
+	/**
+	 * Returns the index of the first range whose running maximum end is at or after the specified time slot.
+	 * 
+	 * @param from the time slot.
+	 * @return the index of the first range that may overlap from or a later time slot.
+	 **/
+	private int firstRelevantRange(long from) {
+		int low = 0;
+		int high = maxEnds.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (maxEnds[middle] < from) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+}
@@ -0,0 +1,331 @@
+/**
+ * @file src/REXOS/MAS/agents/product_agent/InformerConcurrencyLimit.java
+ * @brief Adaptive limit of the concurrent conversations of the informer behaviours.
+ * @date Created: 2013-10-18
+ *
+ * @section LICENSE
+ * License: newBSD
+ *
+ * Copyright © 2013, HU University of Applied Sciences Utrecht.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * - Neither the name of the HU University of Applied Sciences Utrecht nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE HU UNIVERSITY OF APPLIED SCIENCES UTRECHT
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+package agents.product_agent;
+
+import jade.core.AID;
+import jade.core.behaviours.Behaviour;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+
+import libraries.utillities.metrics.LatencyHistogram;
+import libraries.utillities.metrics.MetricsReporter;
+import configuration.Configuration;
+import configuration.ConfigurationFiles;
+
+/**
+ * Limits the amount of equiplets the product agents in this process are informing at the same time.
+ * The limit adapts to the equiplets: every conversation that is answered within the latency target raises the limit by
+ * one divided by the limit, so the limit grows by about one per round of conversations. A slow answer lowers the limit
+ * by ten percent and a timeout halves it. The limit never exceeds the configured ceiling, and a single equiplet is
+ * never informed by more than the configured amount of conversations at once, so one busy equiplet can not hold all
+ * permits. Behaviours waiting for a permit are restarted whenever a permit is returned.
+ **/
+public class InformerConcurrencyLimit {
+	/**
+	 * @var int DEFAULT_MAX_CONCURRENCY
+	 *      The ceiling of the limit when none is configured.
+	 */
+	private static final int DEFAULT_MAX_CONCURRENCY = 32;
+
+	/**
+	 * @var int DEFAULT_MAX_PER_EQUIPLET
+	 *      The maximum amount of conversations with one equiplet when none is configured.
+	 */
+	private static final int DEFAULT_MAX_PER_EQUIPLET = 4;
+
+	/**
+	 * @var int DEFAULT_LATENCY_TARGET
+	 *      The round trip time in milliseconds above which an answer is slow when none is configured.
+	 */
+	private static final int DEFAULT_LATENCY_TARGET = 2000;
+
+	/**
+	 * @var double INITIAL_LIMIT
+	 *      The limit before any conversation has finished.
+	 */
+	private static final double INITIAL_LIMIT = 5;
+
+	/**
+	 * @var double MIN_LIMIT
+	 *      The lowest limit, so informing always makes progress.
+	 */
+	private static final double MIN_LIMIT = 1;
+
+	/**
+	 * @var double SLOW_BACKOFF
+	 *      The factor with which the limit is multiplied after a slow answer.
+	 */
+	private static final double SLOW_BACKOFF = 0.9;
+
+	/**
+	 * @var double TIMEOUT_BACKOFF
+	 *      The factor with which the limit is multiplied after a timeout.
+	 */
+	private static final double TIMEOUT_BACKOFF = 0.5;
+
+	/**
+	 * @var InformerConcurrencyLimit instance
+	 *      The limit shared by the product agents in this process.
+	 */
+	private static InformerConcurrencyLimit instance;
+
+	/**
+	 * @var int maxConcurrency
+	 *      The ceiling of the limit.
+	 */
+	private int maxConcurrency;
+
+	/**
+	 * @var int maxPerEquiplet
+	 *      The maximum amount of conversations with one equiplet.
+	 */
+	private int maxPerEquiplet;
+
+	/**
+	 * @var long latencyTarget
+	 *      The round trip time in milliseconds above which an answer is slow.
+	 */
+	private long latencyTarget;
+
+	/**
+	 * @var double limit
+	 *      The current amount of conversations that may run at the same time. Guarded by this.
+	 */
+	private double limit;
+
+	/**
+	 * @var int inflight
+	 *      The amount of running conversations. Guarded by this.
+	 */
+	private int inflight;
+
+	/**
+	 * @var HashMap<AID, Integer> inflightPerEquiplet
+	 *      The amount of running conversations per equiplet. Guarded by this.
+	 */
+	private HashMap<AID, Integer> inflightPerEquiplet;
+
+	/**
+	 * @var LinkedHashSet<Behaviour> waiters
+	 *      The behaviours that are restarted when the next permit is returned. Guarded by this.
+	 */
+	private LinkedHashSet<Behaviour> waiters;
+
+	/**
+	 * @var long timeouts
+	 *      The amount of conversations that timed out. Guarded by this.
+	 */
+	private long timeouts;
+
+	/**
+	 * @var LatencyHistogram roundTripTimes
+	 *      The time in milliseconds between informing an equiplet and receiving its last answer.
+	 */
+	private LatencyHistogram roundTripTimes;
+
+	/**
+	 * Returns the limit shared by the product agents in this process, configured from the mongo db properties.
+	 * 
+	 * @return the informer concurrency limit.
+	 */
+	public static synchronized InformerConcurrencyLimit getInstance() {
+		if(instance == null) {
+			instance = new InformerConcurrencyLimit(
+					Configuration.getPropertyInt(ConfigurationFiles.MONGO_DB_PROPERTIES, "informerMaxConcurrency"),
+					Configuration.getPropertyInt(ConfigurationFiles.MONGO_DB_PROPERTIES, "informerMaxPerEquiplet"),
+					Configuration.getPropertyInt(ConfigurationFiles.MONGO_DB_PROPERTIES, "informerLatencyTarget"));
+		}
+		return instance;
+	}
+
+	/**
+	 * Constructs a limit. Values that are not positive are replaced by their default.
+	 * 
+	 * @param maxConcurrency The ceiling of the limit.
+	 * @param maxPerEquiplet The maximum amount of conversations with one equiplet.
+	 * @param latencyTarget The round trip time in milliseconds above which an answer is slow.
+	 */
+	public InformerConcurrencyLimit(int maxConcurrency, int maxPerEquiplet, int latencyTarget) {
+		this.maxConcurrency = maxConcurrency > 0 ? maxConcurrency : DEFAULT_MAX_CONCURRENCY;
+		this.maxPerEquiplet = maxPerEquiplet > 0 ? maxPerEquiplet : DEFAULT_MAX_PER_EQUIPLET;
+		this.latencyTarget = latencyTarget > 0 ? latencyTarget : DEFAULT_LATENCY_TARGET;
+		this.limit = Math.min(INITIAL_LIMIT, this.maxConcurrency);
+		this.inflightPerEquiplet = new HashMap<AID, Integer>();
+		this.waiters = new LinkedHashSet<Behaviour>();
+		this.roundTripTimes = MetricsReporter.register(new LatencyHistogram("informer round trip", "ms"));
+	}
+
+	/**
+	 * Takes a permit for a conversation with an equiplet if both the limit and the limit of the equiplet allow it.
+	 * 
+	 * @param equiplet The equiplet that should be informed.
+	 * @return true if the conversation may start, in which case release must be called when it ends.
+	 */
+	public synchronized boolean tryAcquire(AID equiplet) {
+		if(inflight >= (int) limit) {
+			return false;
+		}
+		Integer equipletInflight = inflightPerEquiplet.get(equiplet);
+		int count = equipletInflight == null ? 0 : equipletInflight;
+		if(count >= maxPerEquiplet) {
+			return false;
+		}
+		inflightPerEquiplet.put(equiplet, count + 1);
+		inflight++;
+		return true;
+	}
+
+	/**
+	 * Restarts a blocked behaviour when the next permit is returned. A behaviour should block before registering and
+	 * call tryAcquire after registering, so a permit returned in between is not missed.
+	 * 
+	 * @param waiter The behaviour waiting for a permit.
+	 */
+	public synchronized void await(Behaviour waiter) {
+		waiters.add(waiter);
+	}
+
+	/**
+	 * Returns the permit of a finished conversation and adapts the limit to its outcome.
+	 * 
+	 * @param equiplet The equiplet that was informed.
+	 * @param roundTripTime The time in milliseconds the conversation took.
+	 * @param timedOut Whether the equiplet did not answer in time.
+	 */
+	public void release(AID equiplet, long roundTripTime, boolean timedOut) {
+		ArrayList<Behaviour> woken;
+		synchronized (this) {
+			woken = free(equiplet);
+			if(timedOut) {
+				timeouts++;
+				limit = Math.max(MIN_LIMIT, limit * TIMEOUT_BACKOFF);
+			} else {
+				roundTripTimes.record(roundTripTime);
+				if(roundTripTime > latencyTarget) {
+					limit = Math.max(MIN_LIMIT, limit * SLOW_BACKOFF);
+				} else {
+					limit = Math.min(maxConcurrency, limit + 1 / limit);
+				}
+			}
+		}
+		wake(woken);
+	}
+
+	/**
+	 * Returns the permit of a conversation that was abandoned without changing the limit.
+	 * 
+	 * @param equiplet The equiplet that was being informed.
+	 */
+	public void cancel(AID equiplet) {
+		ArrayList<Behaviour> woken;
+		synchronized (this) {
+			woken = free(equiplet);
+		}
+		wake(woken);
+	}
+
+	/**
+	 * Returns the amount of conversations that may currently run at the same time.
+	 * 
+	 * @return the current limit.
+	 */
+	public synchronized int getLimit() {
+		return (int) limit;
+	}
+
+	/**
+	 * Returns the amount of running conversations.
+	 * 
+	 * @return the amount of permits taken.
+	 */
+	public synchronized int getInflight() {
+		return inflight;
+	}
+
+	/**
+	 * Returns the amount of conversations that timed out.
+	 * 
+	 * @return the amount of timeouts.
+	 */
+	public synchronized long getTimeouts() {
+		return timeouts;
+	}
+
+	/**
+	 * Returns the time in milliseconds between informing an equiplet and receiving its last answer.
+	 * 
+	 * @return the round trip time histogram.
+	 */
+	public LatencyHistogram getRoundTripHistogram() {
+		return roundTripTimes;
+	}
+
+	/**
+	 * Returns the limit, the running conversations and the timeouts, e.g. for logging.
+	 * 
+	 * @return a short summary of the state of the limit.
+	 */
+	@Override
+	public synchronized String toString() {
+		return String.format("limit=%d inflight=%d timeouts=%d", (int) limit, inflight, timeouts);
+	}
+
+	/**
+	 * Frees the permit of a conversation with an equiplet. Guarded by this.
+	 * 
+	 * @param equiplet The equiplet of the conversation.
+	 * @return the behaviours waiting for a permit, which should be restarted without holding the lock.
+	 */
+	private ArrayList<Behaviour> free(AID equiplet) {
+		Integer equipletInflight = inflightPerEquiplet.get(equiplet);
+		if(equipletInflight != null) {
+			if(equipletInflight <= 1) {
+				inflightPerEquiplet.remove(equiplet);
+			} else {
+				inflightPerEquiplet.put(equiplet, equipletInflight - 1);
+			}
+			inflight--;
+		}
+		ArrayList<Behaviour> woken = new ArrayList<Behaviour>(waiters);
+		waiters.clear();
+		return woken;
+	}
+
+	/**
+	 * Restarts the behaviours that were waiting for a permit.
+	 * 
+	 * @param woken The behaviours that should be restarted.
+	 */
+	private static void wake(ArrayList<Behaviour> woken) {
+		for(Behaviour waiter : woken) {
+			waiter.restart();
+		}
+	}
+}
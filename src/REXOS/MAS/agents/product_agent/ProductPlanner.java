@@ -0,0 +1,182 @@
+/**
+ * @file src/REXOS/MAS/agents/product_agent/ProductPlanner.java
+ * @brief Plans all production steps of a product in one pass.
+ * @date Created: 2013-10-18
+ *
+ * @section LICENSE
+ * License: newBSD
+ *
+ * Copyright © 2013, HU University of Applied Sciences Utrecht.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * - Neither the name of the HU University of Applied Sciences Utrecht nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE HU UNIVERSITY OF APPLIED SCIENCES UTRECHT
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+package agents.product_agent;
+
+import jade.core.AID;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import agents.data_classes.ProductionEquipletMapper;
+import agents.data_classes.ProductionStep;
+
+/**
+ * Plans all production steps of a product in one pass.
+ * The steps are performed in order, so every step starts after the previous step has finished. Each step is put on
+ * the candidate equiplet where it finishes first, which gives the smallest makespan for a chain of steps: finishing
+ * a step earlier never delays a later step, and the slots booked by a step end before any later step may start, so
+ * they never block a later step on the same equiplet.
+ **/
+public class ProductPlanner {
+	/**
+	 * The planned time slots of a production step on an equiplet.
+	 **/
+	public static class Assignment {
+		/**
+		 * @var ProductionStep step
+		 * The planned production step.
+		 **/
+		private ProductionStep step;
+
+		/**
+		 * @var AID equiplet
+		 * The equiplet that performs the step.
+		 **/
+		private AID equiplet;
+
+		/**
+		 * @var long start
+		 * The first time slot of the step.
+		 **/
+		private long start;
+
+		/**
+		 * @var long duration
+		 * The amount of time slots the step takes on the equiplet.
+		 **/
+		private long duration;
+
+		/**
+		 * Constructs an assignment.
+		 * 
+		 * @param step the planned production step.
+		 * @param equiplet the equiplet that performs the step.
+		 * @param start the first time slot of the step.
+		 * @param duration the amount of time slots the step takes on the equiplet.
+		 **/
+		public Assignment(ProductionStep step, AID equiplet, long start, long duration) {
+			this.step = step;
+			this.equiplet = equiplet;
+			this.start = start;
+			this.duration = duration;
+		}
+
+		/**
+		 * @return the planned production step.
+		 **/
+		public ProductionStep getStep() {
+			return step;
+		}
+
+		/**
+		 * @return the equiplet that performs the step.
+		 **/
+		public AID getEquiplet() {
+			return equiplet;
+		}
+
+		/**
+		 * @return the first time slot of the step.
+		 **/
+		public long getStart() {
+			return start;
+		}
+
+		/**
+		 * @return the amount of time slots the step takes on the equiplet.
+		 **/
+		public long getDuration() {
+			return duration;
+		}
+
+		/**
+		 * @return the last time slot of the step.
+		 **/
+		public long getEnd() {
+			return start + duration;
+		}
+	}
+
+	/**
+	 * Plans the production steps in the specified order.
+	 * 
+	 * @param steps the production steps, in the order in which they have to be performed.
+	 * @param mapper the candidate equiplets and durations of every step.
+	 * @param schedules the current schedule of every candidate equiplet.
+	 * @param from the earliest time slot the first step may start.
+	 * @return the assignment of every step in the order of the steps, or null if a step has no candidate equiplet
+	 *         with a known schedule.
+	 **/
+	public static List<Assignment> plan(List<ProductionStep> steps, ProductionEquipletMapper mapper,
+			Map<AID, FreeSlotFinder> schedules, long from) {
+		ArrayList<Assignment> assignments = new ArrayList<Assignment>();
+		long earliestStart = from;
+		for (ProductionStep step : steps) {
+			Assignment best = null;
+			for (AID equiplet : mapper.getEquipletsForProductionStep(step.getId()).keySet()) {
+				FreeSlotFinder schedule = schedules.get(equiplet);
+				if (schedule == null) {
+					continue;
+				}
+				long duration = mapper.getTimeSlotsForEquiplet(step.getId(), equiplet);
+				long start = schedule.findEarliestFit(earliestStart, duration);
+				if (best == null || start + duration < best.getEnd()) {
+					best = new Assignment(step, equiplet, start, duration);
+				}
+			}
+			if (best == null) {
+				return null;
+			}
+			assignments.add(best);
+			earliestStart = best.getEnd() + 1;
+		}
+		return assignments;
+	}
+
+	/**
+	 * Groups assignments per equiplet, so all bookings of an equiplet can be sent in one message.
+	 * 
+	 * @param assignments the assignments.
+	 * @return the start time slot of every step keyed by its conversation id with the equiplet, per equiplet.
+	 **/
+	public static Map<AID, HashMap<String, Long>> groupByEquiplet(List<Assignment> assignments) {
+		HashMap<AID, HashMap<String, Long>> bookings = new HashMap<AID, HashMap<String, Long>>();
+		for (Assignment assignment : assignments) {
+			HashMap<String, Long> equipletBookings = bookings.get(assignment.getEquiplet());
+			if (equipletBookings == null) {
+				equipletBookings = new HashMap<String, Long>();
+				bookings.put(assignment.getEquiplet(), equipletBookings);
+			}
+			equipletBookings.put(assignment.getStep().getConversationIdForEquiplet(assignment.getEquiplet()),
+					assignment.getStart());
+		}
+		return bookings;
+	}
+}
@@ -45,6 +45,8 @@ import jade.core.behaviours.ParallelBehaviour;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.Queue;
 
@@ -57,6 +59,7 @@ import agents.data_classes.ProductionEquipletMapper;
 import agents.data_classes.ProductionStep;
 import agents.data_classes.StepStatusCode;
 import agents.product_agent.BehaviourCallback;
+import agents.product_agent.InformerConcurrencyLimit;
 import agents.product_agent.ProductAgent;
 
 
@@ -90,8 +93,8 @@ public class InformerBehaviour extends Behaviour {
 
 	// private HashMap<SubInformerBehaviour, Boolean> _subInformerBehaviours;
 
-	private int _currentRunningSubInformerBehaviours = 0;
-	private int MAX_RUNNING_SUB_BEHAVIOURS = 5;
+	private HashSet<SubInformerBehaviour> _runningSubInformerBehaviours;
+	private InformerConcurrencyLimit _concurrencyLimit;
 
 	/**
 	 * COnstructs the InformerBehavior
@@ -102,6 +105,8 @@ public class InformerBehaviour extends Behaviour {
 		super(myAgent);
 		this._bc = bc;
 		_subInformerBehaviours = new LinkedList<SubInformerBehaviour>();
+		_runningSubInformerBehaviours = new HashSet<SubInformerBehaviour>();
+		_concurrencyLimit = InformerConcurrencyLimit.getInstance();
 	}
 
 	/**
@@ -166,11 +171,21 @@ public class InformerBehaviour extends Behaviour {
 		try {
 			if (!_subInformerBehaviours.isEmpty()) 
 			{
-				if (_currentRunningSubInformerBehaviours < MAX_RUNNING_SUB_BEHAVIOURS) {
-					SubInformerBehaviour sib = _subInformerBehaviours.poll();
-					sib.restartTimer();
-					_parBehaviour.addSubBehaviour(sib);
-					_currentRunningSubInformerBehaviours++;
+				// Blocked until a sub informer finishes or the limit, which is shared with the other product agents, returns
+				// a permit. Registering before trying makes a permit returned in between wake this behaviour as well.
+				block();
+				_concurrencyLimit.await(this);
+
+				// Start every waiting sub informer the limit allows, skipping the ones whose equiplet is busy.
+				Iterator<SubInformerBehaviour> waiting = _subInformerBehaviours.iterator();
+				while (waiting.hasNext()) {
+					SubInformerBehaviour sib = waiting.next();
+					if (_concurrencyLimit.tryAcquire(sib.getTargetEquiplet())) {
+						waiting.remove();
+						sib.restartTimer();
+						_parBehaviour.addSubBehaviour(sib);
+						_runningSubInformerBehaviours.add(sib);
+					}
 				}
 			} 
 			else 
@@ -180,6 +195,8 @@ public class InformerBehaviour extends Behaviour {
 					_production.setProductionEquipletMapping(_prodEQmap);
 					_product.setProduction(_production);
 					_productAgent.setProduct(_product);
+					Logger.log(LogLevel.NOTIFICATION, "Informer concurrency: %s, %s", _concurrencyLimit,
+							_concurrencyLimit.getRoundTripHistogram());
 					this._bc.handleCallback(BehaviourStatus.COMPLETED, null);
 					_isCompleted = true;
 				} 
@@ -188,6 +205,11 @@ public class InformerBehaviour extends Behaviour {
 					this._bc.handleCallback(BehaviourStatus.ERROR, null);
 					_isCompleted = true;
 				}
+				else
+				{
+					// Woken by callbackSubInformerBehaviour.
+					block();
+				}
 			}
 			//block();
 		} catch (NullPointerException e) {
@@ -203,6 +225,10 @@ public class InformerBehaviour extends Behaviour {
 		_isCompleted = false;
 		_subInformersCompleted = 0;
 		_totalSubinformers = 0;
+		for (SubInformerBehaviour sib : _runningSubInformerBehaviours) {
+			_concurrencyLimit.cancel(sib.getTargetEquiplet());
+		}
+		_runningSubInformerBehaviours.clear();
 	}
 
 	/**
@@ -232,13 +258,20 @@ public class InformerBehaviour extends Behaviour {
 			Logger.log(LogLevel.ERROR, "callbackSubInformerBehaviour ended with error!");
 		}
 		
+		if (!_runningSubInformerBehaviours.remove(subBehaviour)) 
+		{
+			// A sub informer that already reported its result.
+			return;
+		}
+		_concurrencyLimit.release(subBehaviour.getTargetEquiplet(), subBehaviour.getRoundTripTime(), subBehaviour.isTimedOut());
+		
 		_parBehaviour.removeSubBehaviour(subBehaviour);
-		_currentRunningSubInformerBehaviours--;
 		_subInformersCompleted++;
 		
 		if(_subInformersCompleted == _totalSubinformers) 
 		{
 			_isDone = true;
 		}
+		restart();
 	}
 }
\ No newline at end of file
@@ -42,6 +42,8 @@ import jade.core.Agent;
 import jade.core.behaviours.Behaviour;
 import jade.core.behaviours.ParallelBehaviour;
 import jade.core.behaviours.SequentialBehaviour;
+import configuration.Configuration;
+import configuration.ConfigurationFiles;
 import libraries.utillities.log.LogLevel;
 import libraries.utillities.log.Logger;
 import agents.data_classes.AgentStatus;
@@ -52,6 +54,13 @@ import agents.product_agent.ProductAgent;
 public class OverviewBehaviour extends Behaviour implements BehaviourCallback {
 
 	private static final long serialVersionUID = 1L;
+
+	/**
+	 * @var boolean DEFAULT_PLAN_WHOLE_PRODUCT
+	 * Scheduling mode used when schedulerPlanWholeProduct is missing from the configuration.
+	 */
+	private static final boolean DEFAULT_PLAN_WHOLE_PRODUCT = true;
+
 	private ProductAgent _productAgent;
 
 	/* Behaviour */
@@ -86,6 +95,18 @@ public class OverviewBehaviour extends Behaviour implements BehaviourCallback {
 		_productAgent.setStatus(AgentStatus.DONE_INITIALIZING);
 	}
 
+	/**
+	 * Reads whether the scheduler plans all production steps of the product in one pass or one step at a time.
+	 * @return true when the whole product is planned at once.
+	 */
+	private static boolean isPlanWholeProduct() {
+		String value = Configuration.getProperty(ConfigurationFiles.MONGO_DB_PROPERTIES, "schedulerPlanWholeProduct");
+		if(value == null || value.trim().isEmpty()) {
+			return DEFAULT_PLAN_WHOLE_PRODUCT;
+		}
+		return Boolean.parseBoolean(value.trim());
+	}
+
 	/**
 	 * Initialize the sub behaviors
 	 */
@@ -102,7 +123,7 @@ public class OverviewBehaviour extends Behaviour implements BehaviourCallback {
 
 		_informerBehaviour = new InformerBehaviour(myAgent, this);
 
-		_schedulerBehaviour = new SchedulerBehaviour(myAgent, this);
+		_schedulerBehaviour = new SchedulerBehaviour(myAgent, this, isPlanWholeProduct());
 
 		_produceBehaviour = new ProduceBehaviour(myAgent, this);
 
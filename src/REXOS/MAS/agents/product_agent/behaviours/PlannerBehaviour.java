@@ -47,9 +47,7 @@ import jade.core.behaviours.Behaviour;
 
 import java.net.UnknownHostException;
 import java.util.ArrayList;
-import java.util.List;
 
-import libraries.blackboard_client.BlackboardClient;
 import libraries.blackboard_client.data_classes.GeneralMongoException;
 import libraries.blackboard_client.data_classes.InvalidDBNamespaceException;
 import libraries.utillities.log.LogLevel;
@@ -60,14 +58,11 @@ import agents.data_classes.Production;
 import agents.data_classes.ProductionEquipletMapper;
 import agents.data_classes.ProductionStep;
 import agents.data_classes.StepStatusCode;
+import agents.equiplet_agent.EquipletDirectoryEntry;
 import agents.product_agent.BehaviourCallback;
+import agents.product_agent.EquipletDirectory;
 import agents.product_agent.ProductAgent;
 
-import com.mongodb.DBObject;
-import com.mongodb.QueryBuilder;
-
-import configuration.Configuration;
-import configuration.ConfigurationFiles;
 
 public class PlannerBehaviour extends Behaviour {
 
@@ -98,14 +93,9 @@ public class PlannerBehaviour extends Behaviour {
 		try {
 			_productAgent = (ProductAgent) myAgent;
 
-			BlackboardClient bbc = new BlackboardClient(
-					Configuration.getProperty(ConfigurationFiles.MONGO_DB_PROPERTIES, "collectiveDbIp"), 
-					Configuration.getPropertyInt(ConfigurationFiles.MONGO_DB_PROPERTIES, "collectiveDbPort"));
-			
-			bbc.setDatabase(Configuration.getProperty(ConfigurationFiles.MONGO_DB_PROPERTIES, "collectiveDbName"));
-			bbc.setCollection(Configuration.getProperty(ConfigurationFiles.MONGO_DB_PROPERTIES, "equipletDirectoryName"));
-			
-			
+			// The directory is shared by the product agents in this process, so planning does not read the collective blackboard.
+			EquipletDirectory equipletDirectory = EquipletDirectory.getInstance();
+
 			Product product = this._productAgent.getProduct();
 			Production production = product.getProduction();
 			ArrayList<ProductionStep> psa = production.getProductionSteps();
@@ -121,14 +111,9 @@ public class PlannerBehaviour extends Behaviour {
 					prodEQmap.addProductionStep(PA_id);
 					// Get the type of production step, aka capability
 					long PA_capability = prodStep.getCapability();
-					// Create the select query for the blackboard
-					DBObject equipletCapabilityQuery = QueryBuilder
-							.start("capabilities").is(PA_capability).get();
-					List<DBObject> equipletDirectory = bbc
-							.findDocuments(equipletCapabilityQuery);
-					for (DBObject DBobj : equipletDirectory) {
-						DBObject aid = (DBObject) DBobj.get("db");
-						String name = aid.get("name").toString();
+					for (EquipletDirectoryEntry entry : equipletDirectory
+							.getEquipletsWithCapability(PA_capability)) {
+						String name = entry.getDb().getName();
 						prodEQmap.addEquipletToProductionStep(PA_id, new AID(
 								name, AID.ISLOCALNAME));
 					}
@@ -47,22 +47,43 @@ import jade.lang.acl.ACLMessage;
 import jade.lang.acl.MessageTemplate;
 
 import java.io.IOException;
+import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import libraries.blackboard_client.BlackboardClient;
+import libraries.blackboard_client.BlackboardCollection;
 import libraries.blackboard_client.data_classes.GeneralMongoException;
 import libraries.blackboard_client.data_classes.InvalidDBNamespaceException;
 import libraries.utillities.log.LogLevel;
 import libraries.utillities.log.Logger;
+import libraries.utillities.metrics.LatencyHistogram;
+import libraries.utillities.metrics.MetricsReporter;
 import agents.data_classes.BehaviourStatus;
 import agents.data_classes.DbData;
 import agents.data_classes.Product;
 import agents.data_classes.Production;
+import agents.data_classes.ProductionEquipletMapper;
 import agents.data_classes.ProductionStep;
 import agents.data_classes.StepStatusCode;
+import agents.equiplet_agent.EquipletDirectoryEntry;
 import agents.product_agent.BehaviourCallback;
+import agents.product_agent.EquipletDirectory;
+import agents.product_agent.FreeSlotFinder;
+import agents.product_agent.ProductPlanner;
 import agents.product_agent.ProductAgent;
 
 import com.mongodb.BasicDBObject;
@@ -75,6 +96,39 @@ import configuration.ConfigurationFiles;
 @SuppressWarnings("serial")
 public class SchedulerBehaviour extends Behaviour {
 
+	/**
+	 * @var long PLANNED_TIMEOUT
+	 * The time in milliseconds an equiplet may take to confirm a requested time slot.
+	 */
+	private static final long PLANNED_TIMEOUT = 10000;
+
+	/**
+	 * @var int MAX_PLAN_ATTEMPTS
+	 * The amount of times a whole product is planned before scheduling fails, when equiplets reject the planned
+	 * slots because other products booked them first.
+	 */
+	private static final int MAX_PLAN_ATTEMPTS = 3;
+
+	/**
+	 * @var ExecutorService slotSearchExecutor
+	 * The threads that query the blackboards of the candidate equiplets, shared by all product agents.
+	 */
+	private static final ExecutorService slotSearchExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "SchedulerSlotSearch");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	/**
+	 * @var LatencyHistogram schedulingLatency
+	 * The time in milliseconds between starting the search for a production step and its confirmation.
+	 */
+	private static final LatencyHistogram schedulingLatency =
+			MetricsReporter.register(new LatencyHistogram("production step scheduling", "ms"));
+
 	private ProductAgent _productAgent;
 	private ProductionStep _prodStep;
 
@@ -86,31 +140,90 @@ public class SchedulerBehaviour extends Behaviour {
 	private int _schedulersStarted = 0;
 	private int _schedulersCompleted = 0;
 
+	private LinkedList<ProductionStep> _stepsToSchedule = new LinkedList<ProductionStep>();
+	private List<Future<FreeTimeSlot>> _slotSearches = null;
+	private MessageTemplate _plannedTemplate = null;
+	private long _plannedDeadline;
+	private long _stepStartTime;
+
+	private boolean _planWholeProduct;
+	private int _planAttempts = 0;
+	private Map<AID, Future<FreeSlotFinder>> _scheduleLoads = null;
+	private List<ProductPlanner.Assignment> _plan = null;
+	private Map<String, ProductPlanner.Assignment> _pendingAssignments = new HashMap<String, ProductPlanner.Assignment>();
+	private Map<String, AID> _pendingBatches = new HashMap<String, AID>();
+	private List<ProductPlanner.Assignment> _confirmedAssignments = new ArrayList<ProductPlanner.Assignment>();
+	private boolean _planRejected = false;
+	private MessageTemplate _planRepliesTemplate = MessageTemplate.or(MessageTemplate.MatchOntology("Planned"),
+			MessageTemplate.MatchOntology("ScheduleSteps"));
+
+	private BlackboardClient _collectiveClient;
+	private EquipletDirectory _equipletDirectory;
+	private long _firstTimeSlot;
+	private int _timeSlotLength;
+	private Map<String, BlackboardClient> _equipletClients = new ConcurrentHashMap<String, BlackboardClient>();
+
 	/**
 	 * Construct scheudler behavior
 	 * @param myAgent
 	 * @param bc
 	 */
 	public SchedulerBehaviour(Agent myAgent, BehaviourCallback bc) {
+		this(myAgent, bc, false);
+	}
+
+	/**
+	 * Construct scheduler behavior
+	 * @param myAgent
+	 * @param bc
+	 * @param planWholeProduct whether all production steps are planned in one pass, in their order, with one
+	 *        request per equiplet instead of one request per step.
+	 */
+	public SchedulerBehaviour(Agent myAgent, BehaviourCallback bc, boolean planWholeProduct) {
 		super(myAgent);
 		this._bc = bc;
+		this._planWholeProduct = planWholeProduct;
+	}
+
+	/**
+	 * Returns the time in milliseconds between starting the search for a production step and its confirmation,
+	 * for all product agents in this JVM.
+	 * @return the scheduling latency histogram.
+	 */
+	public static LatencyHistogram getSchedulingLatencyHistogram() {
+		return schedulingLatency;
 	}
 
 	/**
-	 * Performs the schedule algorithm
+	 * Collects the production steps that have to be scheduled. The steps are scheduled one after another by action(),
+	 * so a step is planned before the free time slots for the next step are searched.
 	 */
 	@Override
 	public void onStart() {
 		try {
 			// Shedule the PA with the equiplet agents in the current list.
 			_productAgent = (ProductAgent) myAgent;
-			_productAgent.getProduct().getProduction()
-					.getProductionEquipletMapping();
 
 			Product product = this._productAgent.getProduct();
 			Production production = product.getProduction();
 			ArrayList<ProductionStep> psa = production.getProductionSteps();
 
+			if (_collectiveClient == null) {
+				_collectiveClient = new BlackboardClient(
+						Configuration.getProperty(ConfigurationFiles.MONGO_DB_PROPERTIES, "collectiveDbIp"), 
+						Integer.parseInt(Configuration.getProperty(ConfigurationFiles.MONGO_DB_PROPERTIES, "collectiveDbPort")));
+				String collectiveDbName = Configuration.getProperty(ConfigurationFiles.MONGO_DB_PROPERTIES, "collectiveDbName");
+
+				BlackboardCollection timeData = _collectiveClient.getCollection(collectiveDbName,
+						Configuration.getProperty(ConfigurationFiles.MONGO_DB_PROPERTIES, "timeDataCollectionName"));
+				_equipletDirectory = EquipletDirectory.getInstance();
+
+				BasicDBObject dbObject = (BasicDBObject) timeData.findDocuments(new BasicDBObject()).get(0);
+				_firstTimeSlot = dbObject.getLong("firstTimeSlot");
+				_timeSlotLength = dbObject.getInt("timeSlotLength");
+				Logger.log(LogLevel.INFORMATION, "First Timeslot: " + _firstTimeSlot + " timeslotLength: " + _timeSlotLength);
+			}
+
 			// Notify the OverviewBehaviour that the scheduler is running. The
 			// overview behaviour will start the produceBehaviour so it's
 			// possible to
@@ -118,20 +231,14 @@ public class SchedulerBehaviour extends Behaviour {
 			this._bc.handleCallback(BehaviourStatus.RUNNING, null);
 
 			for (ProductionStep ps : psa) {
-				Logger.log(LogLevel.DEBUG, "Trying to schedule a new step (id "
-						+ ps.getId() + "). status: " + ps.getStatus());
-
 				if ((ps.getStatus() == StepStatusCode.EVALUATING || ps
 						.getStatus() == StepStatusCode.RESCHEDULE)
 						&& _isError == false) {
-					int PS_Id = ps.getId();
-					java.util.HashMap<AID, Long> equiplets = production.getProductionEquipletMapping().getEquipletsForProductionStep(PS_Id);
+					java.util.HashMap<AID, Long> equiplets = production.getProductionEquipletMapping().getEquipletsForProductionStep(ps.getId());
 
 					if (equiplets != null && equiplets.size() != 0) 
 					{
-						Logger.log(LogLevel.INFORMATION, "Added scheduler");
-						Scheduler(equiplets.keySet(), ps);
-						_schedulersStarted++;
+						_stepsToSchedule.add(ps);
 					} 
 					else 
 					{
@@ -143,17 +250,36 @@ public class SchedulerBehaviour extends Behaviour {
 		} 
 		catch (Exception e) 
 		{
-			Logger.log(LogLevel.ERROR, "", e.toString());
+			Logger.log(LogLevel.ERROR, "Exception at starting the scheduler", e);
+			_isError = true;
 		}
 	}
 
 	/**
-	 * Sets the status of the behavior
+	 * Advances the scheduling without blocking the agent: starts the slot search for the next step, requests the
+	 * earliest finishing slot once all candidate equiplets have answered and handles the confirmation.
 	 */
 	@Override
 	public void action() {
+		if (_isError == false && _planWholeProduct) {
+			if (_pendingAssignments.isEmpty() == false || _pendingBatches.isEmpty() == false) {
+				receivePlanReplies();
+			} else if (_scheduleLoads != null) {
+				submitPlan();
+			} else if (_stepsToSchedule.isEmpty() == false) {
+				startScheduleLoads();
+			}
+		} else if (_isError == false) {
+			if (_plannedTemplate != null) {
+				receivePlanned();
+			} else if (_slotSearches != null) {
+				requestEarliestSlot();
+			} else if (_stepsToSchedule.isEmpty() == false) {
+				startSlotSearch(_stepsToSchedule.removeFirst());
+			}
+		}
 
-		if (_schedulersStarted == _schedulersCompleted && _isError == false) {
+		if (_schedulersStarted == _schedulersCompleted && _stepsToSchedule.isEmpty() && _isError == false) {
 			Logger.log(LogLevel.INFORMATION, "Setting scheduler to complete");
 			this._bc.handleCallback(BehaviourStatus.COMPLETED, null);
 			_isCompleted = true;
@@ -180,173 +306,416 @@ public class SchedulerBehaviour extends Behaviour {
 
 		_schedulersStarted = 0;
 		_schedulersCompleted = 0;
+
+		if (_slotSearches != null) {
+			for (Future<FreeTimeSlot> search : _slotSearches) {
+				search.cancel(true);
+			}
+		}
+		if (_scheduleLoads != null) {
+			for (Future<FreeSlotFinder> load : _scheduleLoads.values()) {
+				load.cancel(true);
+			}
+		}
+		_stepsToSchedule.clear();
+		_slotSearches = null;
+		_plannedTemplate = null;
+		_planAttempts = 0;
+		_scheduleLoads = null;
+		_plan = null;
+		_pendingAssignments.clear();
+		_pendingBatches.clear();
+		_confirmedAssignments.clear();
+		_planRejected = false;
 	}
 
 	/**
-	 * Scheduler function schedules the given production step
+	 * Starts searching the free time slot of every candidate equiplet of the production step concurrently.
 	 * 
-	 * @param equipletList
-	 * @param productionStep
-	 * @throws Exception
+	 * @param productionStep the production step to schedule.
 	 */
-	public void Scheduler(Set<AID> equipletList,
-			final ProductionStep productionstep) {
-		try {
-			this._prodStep = productionstep;
-	
-			List<AID> equipletlist = new ArrayList<AID>(equipletList);
-	
-			BlackboardClient bbc = new BlackboardClient(
-					Configuration.getProperty(ConfigurationFiles.MONGO_DB_PROPERTIES, "collectiveDbIp"), 
-					Integer.parseInt(Configuration.getProperty(ConfigurationFiles.MONGO_DB_PROPERTIES, "collectiveDbPort")));
-			
-			bbc.setDatabase(Configuration.getProperty(ConfigurationFiles.MONGO_DB_PROPERTIES, "collectiveDbName"));
-			bbc.setCollection(Configuration.getProperty(ConfigurationFiles.MONGO_DB_PROPERTIES, "timeDataCollectionName"));
-			
-			BasicDBObject dbObject = (BasicDBObject) bbc.findDocuments(new BasicDBObject()).get(0);
-			
-			long firstTimeSlot = dbObject.getLong("firstTimeSlot");
-			int timeSlotLength = dbObject.getInt("timeSlotLength");
-	
-			Logger.log(LogLevel.INFORMATION, "First Timeslot: " + firstTimeSlot + " timeslotLength: " + timeSlotLength);
-			
-			ArrayList<FreeTimeSlot> freetimeslots = new ArrayList<FreeTimeSlot>();
-			DbData dbData = null;
-			// Change this
-			for (AID aid : equipletlist) 
-			{
-				Logger.log(LogLevel.INFORMATION, "Trying to reach equiplet: " + aid.getLocalName() + "");
-				
-				bbc = new BlackboardClient(Configuration.getProperty(ConfigurationFiles.MONGO_DB_PROPERTIES, "collectiveDbIp"));
-				bbc.setDatabase(Configuration.getProperty(ConfigurationFiles.MONGO_DB_PROPERTIES, "collectiveDbName"));
-				bbc.setCollection(Configuration.getProperty(ConfigurationFiles.MONGO_DB_PROPERTIES, "equipletDirectoryName"));
-	
-				QueryBuilder qb = QueryBuilder.start("AID").is(aid.getName());
-	
-				List<DBObject> aidInfo = bbc.findDocuments(qb.get());
-	
-				if (aidInfo.size() > 0) 
-				{
-					dbData = new DbData((BasicDBObject) aidInfo.get(0).get("db"));
-				} 
-				else 
-				{
-					Logger.log(LogLevel.ERROR, "There doesnt seem to be any equiplet available..");
-				}
-	
-				ArrayList<Schedule> schedules = new ArrayList<Schedule>();
-				ProductAgent prodAgent = (ProductAgent) myAgent;
-	
-				bbc = new BlackboardClient(dbData.getIp(), dbData.getPort());
-				bbc.setDatabase(dbData.getName());
-				bbc.setCollection(Configuration.getProperty(ConfigurationFiles.EQUIPLET_DB_PROPERTIES, "ProductStepsBlackBoardName", aid.getLocalName()));
-	
-				int requiredTimeSlots = (int) prodAgent.getProduct()
-						.getProduction().getProductionEquipletMapping()
-						.getTimeSlotsForEquiplet(_prodStep.getId(), aid);
-	
-				// Gets planned steps TODO: improve query
-				DBObject query = QueryBuilder.start("scheduleData.startTime")
-						.greaterThan(-1).put("scheduleData.startTime")
-						.get();
-				
-				BasicDBObject orderby = new BasicDBObject("scheduleData",
-						new BasicDBObject("startTime", "1"));
-				
-				BasicDBObject findquery = new BasicDBObject("$query", query)
-						.append("$orderby", orderby);
-				
-				List<DBObject> plannedSteps = bbc.findDocuments(findquery);
-				
-				Logger.log(LogLevel.INFORMATION, "Planned steps count: " + plannedSteps.size() + " requiredSlots: " + requiredTimeSlots);
-				
-				for (int i = 0; i < plannedSteps.size(); i++) 
-				{
-					long startTime = ((BasicDBObject) plannedSteps.get(i).get("scheduleData")).getLong("startTime");
-					int duration = ((BasicDBObject) plannedSteps.get(i).get("scheduleData")).getInt("duration");
-					schedules.add(new Schedule(startTime, duration, aid));
-					Logger.log(LogLevel.NOTIFICATION, "@ SchedulerBehaviour duration ... : " + duration);
-				}
-	
-				// check within every schedule of the 'schedules' array for free
-				// timeslots and add them to the 'freetimeslot' array
-				
-				if (schedules.size() > 0) {
-					for (int index = 0; index < schedules.size(); index++) {
-						if (schedules.size() > (index + 1)) 
-						{
-							// if((schedules.get((index+1)).getStartTime() -
-							// schedules.get(index).getDeadline()) >
-							// requiredTimeSlots) {
-							// freetimeslots.add(new
-							// FreeTimeSlot(schedules.get(index).getDeadline(),
-							// requiredTimeSlots, aid));
-							// }
-						} 
-						else 
-						{
-							Schedule lastSchedule = schedules.get(index);
-							freetimeslots.add(new FreeTimeSlot(lastSchedule.getDeadline(), requiredTimeSlots * timeSlotLength, aid));
-							Logger.log(LogLevel.INFORMATION, "Adding new timeslot to freetimeslot start: " + lastSchedule.getDeadline() + " timeslots: " + requiredTimeSlots);
-						}
+	private void startSlotSearch(ProductionStep productionStep) {
+		Logger.log(LogLevel.DEBUG, "Trying to schedule a new step (id "
+				+ productionStep.getId() + "). status: " + productionStep.getStatus());
+
+		this._prodStep = productionStep;
+		_schedulersStarted++;
+		_stepStartTime = System.currentTimeMillis();
+
+		Set<AID> equiplets = _productAgent.getProduct().getProduction().getProductionEquipletMapping()
+				.getEquipletsForProductionStep(productionStep.getId()).keySet();
+		_slotSearches = new ArrayList<Future<FreeTimeSlot>>();
+		for (final AID aid : equiplets) {
+			final int requiredTimeSlots = (int) _productAgent.getProduct().getProduction().getProductionEquipletMapping()
+					.getTimeSlotsForEquiplet(productionStep.getId(), aid);
+			_slotSearches.add(slotSearchExecutor.submit(new Callable<FreeTimeSlot>() {
+				@Override
+				public FreeTimeSlot call() throws Exception {
+					try {
+						return findFreeTimeSlot(aid, requiredTimeSlots);
+					} finally {
+						SchedulerBehaviour.this.restart();
 					}
-				} 
-				else 
-				{
-					freetimeslots.add(new FreeTimeSlot((System.currentTimeMillis() - firstTimeSlot) / timeSlotLength + (1000 / timeSlotLength),
-							requiredTimeSlots, aid));
-					Logger.log(LogLevel.INFORMATION, "Adding new timeslot to freetimeslot start: " + ( (System.currentTimeMillis() - firstTimeSlot) / timeSlotLength + (1000 / timeSlotLength) )+ " timeslots: " + requiredTimeSlots + 
-							" length: " + requiredTimeSlots);
 				}
-			}
-			
-			FreeTimeSlot freetimeslotEq = null;
-	
-			// calculate freetime slot and asign them to the above intialized values
-			if (freetimeslots.size() > 0) 
-			{
-				for (FreeTimeSlot fts : freetimeslots)
-				{
-					if (freetimeslotEq == null) 
-					{
-						freetimeslotEq = fts;
-					} 
-					else 
-					{
-						Logger.log(LogLevel.ERROR, "FreeTimeSlotEq != null");
-					}
+			}));
+		}
+	}
+
+	/**
+	 * Sends the schedule request for the earliest finishing free time slot once all slot searches are done.
+	 * Blocks the behaviour until then.
+	 */
+	private void requestEarliestSlot() {
+		if (blockUntilDone(_slotSearches) == false) {
+			return;
+		}
+
+		FreeTimeSlot freetimeslotEq = null;
+		for (Future<FreeTimeSlot> search : _slotSearches) {
+			try {
+				FreeTimeSlot fts = search.get();
+				if (fts != null && (freetimeslotEq == null
+						|| fts.getStartTime() + fts.getDuration() < freetimeslotEq.getStartTime() + freetimeslotEq.getDuration())) {
+					freetimeslotEq = fts;
 				}
+			} catch (InterruptedException | ExecutionException e) {
+				Logger.log(LogLevel.ERROR, "Database exception at scheduling", e);
 			}
-	
+		}
+		_slotSearches = null;
+
+		if (freetimeslotEq == null) {
+			Logger.log(LogLevel.ERROR, "There doesnt seem to be any equiplet available..");
+			_isError = true;
+			return;
+		}
+
+		try {
+			String conversationId = this._prodStep.getConversationIdForEquiplet(freetimeslotEq.getEquipletName());
 			ACLMessage msg = new ACLMessage(ACLMessage.REQUEST);
-			msg.setConversationId(this._prodStep.getConversationIdForEquiplet(freetimeslotEq.getEquipletName()));
+			msg.setConversationId(conversationId);
 			msg.setOntology("ScheduleStep");
 			msg.setContentObject(freetimeslotEq.getStartTime());
 			msg.addReceiver(freetimeslotEq.getEquipletName());
 			myAgent.send(msg);
 
-			ACLMessage returnMsg = myAgent.blockingReceive(MessageTemplate.MatchOntology("Planned"), 10000);
-			if (returnMsg != null){
-				if (returnMsg.getPerformative() == ACLMessage.CONFIRM) {
-					_prodStep.setStatus(StepStatusCode.PLANNED);
-					_prodStep.setUsedEquiplet(returnMsg.getSender());
-				} else if (returnMsg.getPerformative() == ACLMessage.DISCONFIRM) {
-					_isError = true;
-					_bc.handleCallback(BehaviourStatus.ERROR, null);
-				}	
+			_plannedTemplate = MessageTemplate.and(MessageTemplate.MatchOntology("Planned"),
+					MessageTemplate.MatchConversationId(conversationId));
+			_plannedDeadline = System.currentTimeMillis() + PLANNED_TIMEOUT;
+		} catch (IOException e) {
+			Logger.log(LogLevel.ERROR, "Message content exception at scheduling", e);
+			_isError = true;
+		}
+	}
+
+	/**
+	 * Blocks the behaviour until all tasks are done. Every task restarts the behaviour when it finishes, so the
+	 * tasks are checked again after blocking; a task that finished in between would otherwise not wake it up.
+	 * 
+	 * @param tasks the tasks running on the slot search threads.
+	 * @return true if all tasks are done and the behaviour was not blocked, false otherwise.
+	 */
+	private boolean blockUntilDone(Collection<? extends Future<?>> tasks) {
+		if (isDone(tasks)) {
+			return true;
+		}
+		block();
+		if (isDone(tasks)) {
+			restart();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Checks whether all tasks are done.
+	 * 
+	 * @param tasks the tasks running on the slot search threads.
+	 * @return true if all tasks are done, false otherwise.
+	 */
+	private static boolean isDone(Collection<? extends Future<?>> tasks) {
+		for (Future<?> task : tasks) {
+			if (task.isDone() == false) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Handles the answer of the equiplet to the schedule request. Blocks the behaviour until the answer arrives or
+	 * the equiplet has not answered in time.
+	 */
+	private void receivePlanned() {
+		ACLMessage returnMsg = myAgent.receive(_plannedTemplate);
+		if (returnMsg == null) {
+			long remaining = _plannedDeadline - System.currentTimeMillis();
+			if (remaining > 0) {
+				block(remaining);
+			} else {
+				Logger.log(LogLevel.ERROR, "Equiplet did not answer the schedule request of step " + _prodStep.getId());
+				_plannedTemplate = null;
+				_isError = true;
+			}
+			return;
+		}
+		_plannedTemplate = null;
+
+		if (returnMsg.getPerformative() == ACLMessage.CONFIRM) {
+			_prodStep.setStatus(StepStatusCode.PLANNED);
+			_prodStep.setUsedEquiplet(returnMsg.getSender());
+			schedulingLatency.record(System.currentTimeMillis() - _stepStartTime);
+		} else if (returnMsg.getPerformative() == ACLMessage.DISCONFIRM) {
+			_isError = true;
+		}
+		_prodStep.setConversationId(returnMsg.getConversationId());
+		_schedulersCompleted++;
+	}
+
+	/**
+	 * Starts loading the schedule of every candidate equiplet of the remaining steps concurrently.
+	 */
+	private void startScheduleLoads() {
+		_planAttempts++;
+		_stepStartTime = System.currentTimeMillis();
+		ProductionEquipletMapper mapper = _productAgent.getProduct().getProduction().getProductionEquipletMapping();
+
+		_scheduleLoads = new HashMap<AID, Future<FreeSlotFinder>>();
+		for (ProductionStep step : _stepsToSchedule) {
+			for (final AID aid : mapper.getEquipletsForProductionStep(step.getId()).keySet()) {
+				if (_scheduleLoads.containsKey(aid) == false) {
+					_scheduleLoads.put(aid, slotSearchExecutor.submit(new Callable<FreeSlotFinder>() {
+						@Override
+						public FreeSlotFinder call() throws Exception {
+							try {
+								return loadSchedule(aid);
+							} finally {
+								SchedulerBehaviour.this.restart();
+							}
+						}
+					}));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Plans the remaining steps once all schedules are loaded and sends the planned slots to every equiplet in one
+	 * message. Blocks the behaviour until the schedules are loaded.
+	 */
+	private void submitPlan() {
+		if (blockUntilDone(_scheduleLoads.values()) == false) {
+			return;
+		}
+
+		HashMap<AID, FreeSlotFinder> schedules = new HashMap<AID, FreeSlotFinder>();
+		for (Map.Entry<AID, Future<FreeSlotFinder>> load : _scheduleLoads.entrySet()) {
+			try {
+				FreeSlotFinder schedule = load.getValue().get();
+				if (schedule != null) {
+					schedules.put(load.getKey(), schedule);
+				}
+			} catch (InterruptedException | ExecutionException e) {
+				Logger.log(LogLevel.ERROR, "Database exception at scheduling", e);
+			}
+		}
+		_scheduleLoads = null;
+
+		// The first step may start one second from now at the earliest.
+		long from = (System.currentTimeMillis() - _firstTimeSlot) / _timeSlotLength + (1000 / _timeSlotLength);
+		_plan = ProductPlanner.plan(_stepsToSchedule, _productAgent.getProduct().getProduction().getProductionEquipletMapping(),
+				schedules, from);
+		if (_plan == null) {
+			Logger.log(LogLevel.ERROR, "There doesnt seem to be any equiplet available..");
+			_isError = true;
+			return;
+		}
+
+		try {
+			for (ProductPlanner.Assignment assignment : _plan) {
+				_pendingAssignments.put(assignment.getStep().getConversationIdForEquiplet(assignment.getEquiplet()), assignment);
+			}
+			for (Map.Entry<AID, HashMap<String, Long>> bookings : ProductPlanner.groupByEquiplet(_plan).entrySet()) {
+				String batchConversationId = myAgent.getLocalName() + "-plan-" + _planAttempts + "-" + bookings.getKey().getLocalName();
+				ACLMessage msg = new ACLMessage(ACLMessage.REQUEST);
+				msg.setConversationId(batchConversationId);
+				msg.setOntology("ScheduleSteps");
+				msg.setContentObject(bookings.getValue());
+				msg.addReceiver(bookings.getKey());
+				myAgent.send(msg);
+				_pendingBatches.put(batchConversationId, bookings.getKey());
+			}
+			Logger.log(LogLevel.INFORMATION, "Planned " + _plan.size() + " steps on " + _pendingBatches.size() + " equiplets.");
+		} catch (IOException e) {
+			Logger.log(LogLevel.ERROR, "Message content exception at scheduling", e);
+			_isError = true;
+			return;
+		}
+
+		_schedulersStarted += _plan.size();
+		_stepsToSchedule.clear();
+		_plannedDeadline = System.currentTimeMillis() + PLANNED_TIMEOUT;
+	}
+
+	/**
+	 * Handles the confirmations of the planned steps and the rejections of whole requests. When an equiplet rejected
+	 * its steps, the steps that were planned are aborted and the product is planned again once all equiplets have
+	 * answered.
+	 */
+	private void receivePlanReplies() {
+		ACLMessage reply = myAgent.receive(_planRepliesTemplate);
+		if (reply == null) {
+			long remaining = _plannedDeadline - System.currentTimeMillis();
+			if (remaining > 0) {
+				block(remaining);
+			} else {
+				Logger.log(LogLevel.ERROR, "Equiplets did not answer the schedule requests of " + _pendingAssignments.size() + " steps");
+				_isError = true;
+			}
+			return;
+		}
+
+		if (reply.getOntology().equals("ScheduleSteps")) {
+			AID equiplet = _pendingBatches.remove(reply.getConversationId());
+			if (equiplet != null && reply.getPerformative() == ACLMessage.DISCONFIRM) {
+				Logger.log(LogLevel.WARNING, "Equiplet " + equiplet.getLocalName() + " rejected the planned steps.");
+				_planRejected = true;
+				Iterator<ProductPlanner.Assignment> iterator = _pendingAssignments.values().iterator();
+				while (iterator.hasNext()) {
+					if (iterator.next().getEquiplet().equals(equiplet)) {
+						iterator.remove();
+					}
+				}
+			}
+		} else {
+			ProductPlanner.Assignment assignment = _pendingAssignments.remove(reply.getConversationId());
+			if (assignment != null) {
+				ProductionStep step = assignment.getStep();
+				if (reply.getPerformative() == ACLMessage.CONFIRM) {
+					step.setStatus(StepStatusCode.PLANNED);
+					step.setUsedEquiplet(reply.getSender());
+					step.setConversationId(reply.getConversationId());
+					_confirmedAssignments.add(assignment);
+					_schedulersCompleted++;
+				} else {
+					_planRejected = true;
+				}
+			}
+			// All steps of an equiplet are confirmed, so no rejection can follow.
+			Iterator<Map.Entry<String, AID>> batches = _pendingBatches.entrySet().iterator();
+			while (batches.hasNext()) {
+				AID equiplet = batches.next().getValue();
+				boolean waiting = false;
+				for (ProductPlanner.Assignment pending : _pendingAssignments.values()) {
+					waiting = waiting || pending.getEquiplet().equals(equiplet);
+				}
+				if (waiting == false) {
+					batches.remove();
+				}
 			}
-			else{
-				//TODO: error handling
+		}
+
+		if (_pendingAssignments.isEmpty() && _pendingBatches.isEmpty()) {
+			if (_planRejected) {
+				retryPlan();
+			} else {
+				schedulingLatency.record(System.currentTimeMillis() - _stepStartTime);
+				_confirmedAssignments.clear();
 			}
-			_prodStep.setConversationId(returnMsg.getConversationId());
-			_schedulersCompleted++;
+		}
+	}
+
+	/**
+	 * Aborts the confirmed steps of a rejected plan and plans the whole product again, unless it has been tried too
+	 * often.
+	 */
+	private void retryPlan() {
+		for (ProductPlanner.Assignment assignment : _confirmedAssignments) {
+			ProductionStep step = assignment.getStep();
+			ACLMessage message = new ACLMessage(ACLMessage.INFORM);
+			message.addReceiver(step.getUsedEquiplet());
+			message.setOntology("AbortStep");
+			message.setConversationId(step.getConversationId());
+			myAgent.send(message);
+			step.setStatus(StepStatusCode.RESCHEDULE);
+		}
+
+		_schedulersStarted -= _plan.size();
+		_schedulersCompleted -= _confirmedAssignments.size();
+		_confirmedAssignments.clear();
+		_planRejected = false;
+		for (ProductPlanner.Assignment assignment : _plan) {
+			_stepsToSchedule.add(assignment.getStep());
+		}
+		_plan = null;
+
+		if (_planAttempts >= MAX_PLAN_ATTEMPTS) {
+			Logger.log(LogLevel.ERROR, "Could not plan the product in " + _planAttempts + " attempts.");
+			_isError = true;
+		}
+	}
+
+	/**
+	 * Finds the free time slot of an equiplet for a step. Called on the slot search threads.
+	 * 
+	 * @param aid the equiplet.
+	 * @param requiredTimeSlots the amount of time slots the step takes on the equiplet.
+	 * @return the free time slot, or null if the equiplet is not in the equiplet directory.
+	 * @throws InvalidDBNamespaceException
+	 * @throws GeneralMongoException
+	 * @throws UnknownHostException
+	 */
+	private FreeTimeSlot findFreeTimeSlot(AID aid, int requiredTimeSlots)
+			throws InvalidDBNamespaceException, GeneralMongoException, UnknownHostException {
+		FreeSlotFinder schedule = loadSchedule(aid);
+		if (schedule == null) {
+			return null;
+		}
+
+		// The step may start one second from now at the earliest.
+		long from = (System.currentTimeMillis() - _firstTimeSlot) / _timeSlotLength + (1000 / _timeSlotLength);
+		long start = schedule.findEarliestFit(from, requiredTimeSlots);
+		Logger.log(LogLevel.INFORMATION, "Adding new timeslot to freetimeslot start: " + start + " timeslots: " + requiredTimeSlots);
+		return new FreeTimeSlot(start, requiredTimeSlots, aid);
+	}
+
+	/**
+	 * Loads the schedule of an equiplet from its product steps blackboard. Called on the slot search threads.
+	 * 
+	 * @param aid the equiplet.
+	 * @return the schedule of the equiplet, or null if the equiplet is not in the equiplet directory.
+	 * @throws InvalidDBNamespaceException
+	 * @throws GeneralMongoException
+	 * @throws UnknownHostException
+	 */
+	private FreeSlotFinder loadSchedule(AID aid)
+			throws InvalidDBNamespaceException, GeneralMongoException, UnknownHostException {
+		Logger.log(LogLevel.INFORMATION, "Trying to reach equiplet: " + aid.getLocalName() + "");
+		
+		EquipletDirectoryEntry directoryEntry = _equipletDirectory.getEquiplet(aid);
+		if (directoryEntry == null) 
+		{
+			Logger.log(LogLevel.ERROR, "Equiplet " + aid.getLocalName() + " is not in the equiplet directory.");
+			return null;
+		}
+		DbData dbData = directoryEntry.getDb();
 
-		} catch (InvalidDBNamespaceException
-				| GeneralMongoException e) {
-			Logger.log(LogLevel.ERROR, "Database exception at scheduling", e);
-		} catch (IOException e1){
-			Logger.log(LogLevel.ERROR, "Message content exception at scheduling", e1);
+		String clientKey = dbData.getIp() + ":" + dbData.getPort();
+		BlackboardClient client = _equipletClients.get(clientKey);
+		if (client == null) {
+			client = new BlackboardClient(dbData.getIp(), dbData.getPort());
+			_equipletClients.put(clientKey, client);
 		}
+		BlackboardCollection productSteps = client.getCollection(dbData.getName(),
+				Configuration.getProperty(ConfigurationFiles.EQUIPLET_DB_PROPERTIES, "ProductStepsBlackBoardName", aid.getLocalName()));
+
+		// Gets planned steps, the finder sorts them itself.
+		DBObject query = QueryBuilder.start("scheduleData.startTime")
+				.greaterThan(-1).get();
+		List<DBObject> plannedSteps = productSteps.findDocuments(query);
+		
+		Logger.log(LogLevel.INFORMATION, "Planned steps count: " + plannedSteps.size() + " on " + aid.getLocalName());
+		return FreeSlotFinder.fromProductSteps(plannedSteps);
 	}
 
 	private class FreeTimeSlot {
@@ -400,76 +769,4 @@ public class SchedulerBehaviour extends Behaviour {
 					+ "}";
 		}
 	}
-
-	private class Schedule {
-		private long startTime = -1;
-		private int duration = -1;
-		private long deadline = -1;
-		private AID equipletName;
-
-		/**
-		 * Constructs Schedule object
-		 * @param start
-		 * @param dura
-		 * @param equiplet
-		 */
-		public Schedule(long start, int dura, AID equiplet) {
-			this.startTime = start;
-			this.duration = dura;
-			this.deadline = start + dura + 1;
-			this.equipletName = equiplet;
-		}
-
-		/**
-		 * get starting time
-		 * @return
-		 */
-		public long getStartTime() {
-			return this.startTime;
-		}
-
-		/**
-		 * Set starting time
-		 * @param newStartTime
-		 */
-		@SuppressWarnings("unused")
-		public void setStartTime(int newStartTime) {
-			this.startTime = newStartTime;
-		}
-
-		/**
-		 * Gets equiplet name
-		 * @return
-		 */
-		public AID getEquipletName() {
-			return this.equipletName;
-		}
-		
-		/**
-		 * Gets deadline time
-		 * @return
-		 */
-		public long getDeadline() {
-			return this.deadline;
-		}
-
-		/**
-		 * Sets the deadline time
-		 * @param newDeadline
-		 */
-		@SuppressWarnings("unused")
-		public void setDeadline(int newDeadline) {
-			this.deadline = newDeadline;
-		}
-
-		/**
-		 * ToString Annotation
-		 */
-		@Override
-		public String toString() {
-			return "{ startTime:" + startTime + ", duration:" + duration
-					+ ", deadline:" + deadline + ", EquipletName:"
-					+ equipletName + getEquipletName() + " }";
-		}
-	}
 }
@@ -27,6 +27,8 @@ public class SubInformerBehaviour extends agents.shared_behaviours.ReceiveBehavi
 	private static int SUBINFORMER_TIMEOUT = 10000;
 
 	private int _currentState = 0;
+	private long _startTime;
+	private boolean _timedOut = false;
 
 	/**
 	 * Constructs SubInformerbehavior
@@ -62,6 +64,7 @@ public class SubInformerBehaviour extends agents.shared_behaviours.ReceiveBehavi
 	@Override
 	public void onStart() {
 		super.onStart();
+		_startTime = System.currentTimeMillis();
 		try {
 			ACLMessage message = new ACLMessage(ACLMessage.QUERY_IF);
 			message.setConversationId(_conversationId);
@@ -121,6 +124,7 @@ public class SubInformerBehaviour extends agents.shared_behaviours.ReceiveBehavi
 				}
 			} else {
 				Logger.log(LogLevel.ERROR, "Message can't be null!");
+				_timedOut = true;
 				_parentBehaviour.callbackSubInformerBehaviour(BehaviourStatus.ERROR, this);
 			}
 		} catch (IOException | UnreadableException e) {
@@ -137,6 +141,22 @@ public class SubInformerBehaviour extends agents.shared_behaviours.ReceiveBehavi
 		return _timeslotDuration;
 	}
 
+	/**
+	 * Gets the time in milliseconds since the equiplet was informed, i.e. the round trip time once the behaviour reported its result
+	 * @return
+	 */
+	public long getRoundTripTime() {
+		return System.currentTimeMillis() - _startTime;
+	}
+
+	/**
+	 * Returns true when the equiplet did not answer in time
+	 * @return
+	 */
+	public boolean isTimedOut() {
+		return _timedOut;
+	}
+
 	/**
 	 * Gets the target AID of the equiplet which needs to perform the current production step
 	 * @return
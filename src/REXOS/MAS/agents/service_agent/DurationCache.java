@@ -0,0 +1,242 @@
+/**
+ * @file src/REXOS/MAS/agents/service_agent/DurationCache.java
+ * @brief Cache of the evaluated durations of product steps.
+ * @date Created: 2013-10-18
+ *
+ * @section LICENSE
+ * License: newBSD
+ *
+ * Copyright © 2013, HU University of Applied Sciences Utrecht.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * - Neither the name of the HU University of Applied Sciences Utrecht nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE HU UNIVERSITY OF APPLIED SCIENCES UTRECHT
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+package agents.service_agent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cache of the durations of the product steps an equiplet has evaluated.
+ * Evaluating a duration decomposes a product step into service steps and lets the hardware agent generate the
+ * equiplet steps of each of them, while the duration only depends on the service, the type of the step and its
+ * parameters. A duration is stored under a canonical key of those three, so an identical step of another product is
+ * answered from the cache. The cache of an equiplet is shared by its service agent and hardware agent and is cleared whenever the
+ * software of one of its modules or services is updated, and when its service agent is set up or taken down.
+ **/
+public class DurationCache {
+	/**
+	 * @var int MAX_SIZE
+	 *      The amount of durations after which the least recently used duration is evicted.
+	 */
+	private static final int MAX_SIZE = 1024;
+
+	/**
+	 * @var ConcurrentHashMap<String, DurationCache> caches
+	 *      The caches of the equiplets in this process by the local name of the equiplet agent.
+	 */
+	private static final ConcurrentHashMap<String, DurationCache> caches = new ConcurrentHashMap<String, DurationCache>();
+
+	/**
+	 * @var LinkedHashMap<String, Long> durations
+	 *      The durations by their key, in order of use. Guarded by this.
+	 */
+	private LinkedHashMap<String, Long> durations;
+
+	/**
+	 * @var long generation
+	 *      Incremented on every invalidation. Guarded by this.
+	 */
+	private long generation;
+
+	/**
+	 * @var long hits
+	 *      The amount of lookups that found a duration. Guarded by this.
+	 */
+	private long hits;
+
+	/**
+	 * @var long misses
+	 *      The amount of lookups that did not find a duration. Guarded by this.
+	 */
+	private long misses;
+
+	/**
+	 * Returns the cache of an equiplet, creating it when needed.
+	 * 
+	 * @param equipletName The local name of the equiplet agent.
+	 * @return the duration cache of the equiplet.
+	 */
+	public static DurationCache forEquiplet(String equipletName) {
+		DurationCache cache = caches.get(equipletName);
+		if(cache == null) {
+			caches.putIfAbsent(equipletName, new DurationCache());
+			cache = caches.get(equipletName);
+		}
+		return cache;
+	}
+
+	/**
+	 * Constructs an empty cache.
+	 */
+	private DurationCache() {
+		durations = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+				return size() > MAX_SIZE;
+			}
+		};
+	}
+
+	/**
+	 * Returns the key of a product step. Parameters that are equal but were built in a different order, or with a
+	 * different numeric type for the same value, result in the same key.
+	 * 
+	 * @param serviceId The id of the service performing the step.
+	 * @param stepType The type of the product step.
+	 * @param parameters The parameters of the product step.
+	 * @return the canonical key of the step.
+	 */
+	public static String keyFor(int serviceId, int stepType, Map<?, ?> parameters) {
+		StringBuilder key = new StringBuilder();
+		key.append(serviceId).append(':').append(stepType).append(':');
+		appendCanonical(key, parameters);
+		return key.toString();
+	}
+
+	/**
+	 * Returns the duration of a product step.
+	 * 
+	 * @param key The key of the step.
+	 * @return the duration in time slots, or null if it is not cached.
+	 */
+	public synchronized Long get(String key) {
+		Long duration = durations.get(key);
+		if(duration == null) {
+			misses++;
+		} else {
+			hits++;
+		}
+		return duration;
+	}
+
+	/**
+	 * Returns the generation of the cache, to be passed to put when the evaluated duration is known.
+	 * 
+	 * @return the current generation.
+	 */
+	public synchronized long getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * Stores the duration of a product step, unless the cache was invalidated since the evaluation started.
+	 * 
+	 * @param key The key of the step.
+	 * @param duration The evaluated duration in time slots.
+	 * @param evaluatedGeneration The generation returned by getGeneration when the evaluation started.
+	 */
+	public synchronized void put(String key, long duration, long evaluatedGeneration) {
+		if(evaluatedGeneration == generation) {
+			durations.put(key, duration);
+		}
+	}
+
+	/**
+	 * Removes all durations, e.g. because the software of a module or service was updated.
+	 */
+	public synchronized void invalidateAll() {
+		generation++;
+		durations.clear();
+	}
+
+	/**
+	 * Returns the amount of lookups that found a duration.
+	 * 
+	 * @return the amount of hits.
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Returns the amount of lookups that did not find a duration.
+	 * 
+	 * @return the amount of misses.
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Returns the amount of cached durations.
+	 * 
+	 * @return the size of the cache.
+	 */
+	public synchronized int size() {
+		return durations.size();
+	}
+
+	/**
+	 * Appends the canonical form of a parameter value: documents with their keys sorted, lists in order and numbers
+	 * without their type.
+	 * 
+	 * @param key The key that is being built.
+	 * @param value The value to append.
+	 */
+	private static void appendCanonical(StringBuilder key, Object value) {
+		if(value instanceof Map) {
+			Map<?, ?> map = (Map<?, ?>) value;
+			List<String> names = new ArrayList<String>();
+			for(Object name : map.keySet()) {
+				names.add(String.valueOf(name));
+			}
+			Collections.sort(names);
+			key.append('{');
+			for(String name : names) {
+				key.append('"').append(name).append("\":");
+				appendCanonical(key, map.get(name));
+				key.append(',');
+			}
+			key.append('}');
+		} else if(value instanceof List) {
+			key.append('[');
+			for(Object element : (List<?>) value) {
+				appendCanonical(key, element);
+				key.append(',');
+			}
+			key.append(']');
+		} else if(value instanceof Number) {
+			double number = ((Number) value).doubleValue();
+			if(number == Math.rint(number) && !Double.isInfinite(number)) {
+				key.append((long) number);
+			} else {
+				key.append(number);
+			}
+		} else if(value instanceof String) {
+			key.append('"').append(((String) value).replace("\"", "\\\"")).append('"');
+		} else {
+			key.append(value);
+		}
+	}
+}
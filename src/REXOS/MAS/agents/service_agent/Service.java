@@ -34,6 +34,7 @@ package agents.service_agent;
 import java.util.HashMap;
 
 import libraries.knowledgedb_client.KeyNotFoundException;
+import libraries.knowledgedb_client.KnowledgeCache;
 import libraries.knowledgedb_client.KnowledgeDBClient;
 import libraries.knowledgedb_client.KnowledgeException;
 import libraries.knowledgedb_client.Queries;
@@ -81,8 +82,8 @@ public abstract class Service {
 	 */
 	public int[] getModuleGroupIds(int productStepType, BasicDBObject parameters) {
 		try {
-			KnowledgeDBClient client = KnowledgeDBClient.getClient();
-			Row[] moduleGroups = client.executeSelectQuery(Queries.MODULEGROUPS_REQUIRED_PER_SERVICE, name);
+			KnowledgeCache cache = KnowledgeDBClient.getClient().getCache();
+			Row[] moduleGroups = cache.executeSelectQuery(Queries.MODULEGROUPS_REQUIRED_PER_SERVICE, name);
 			int[] moduleIds = new int[moduleGroups.length];
 			for(int i = 0; i < moduleGroups.length; i++) {
 				moduleIds[i] = (int) moduleGroups[i].get("module_id");
@@ -47,8 +47,10 @@ import java.io.IOException;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
 
 import libraries.blackboard_client.BlackboardClient;
 import libraries.blackboard_client.data_classes.BlackboardSubscriber;
@@ -66,8 +68,10 @@ import org.bson.types.ObjectId;
 import agents.data_classes.DbData;
 import agents.data_classes.Part;
 import agents.data_classes.ProductStep;
+import agents.data_classes.StepChainCache;
 import agents.data_classes.StepStatusCode;
 import agents.service_agent.behaviours.CanPerformProductionStep;
+import agents.service_agent.behaviours.ExpireDeferredDecompositions;
 import agents.service_agent.behaviours.ProductStepDuration;
 import agents.service_agent.behaviours.InitialisationFinished;
 import agents.service_agent.behaviours.RemoveServiceStepBehaviour;
@@ -146,6 +150,26 @@ public class ServiceAgent extends Agent implements BlackboardSubscriber {
 	private HashMap<String, Service> convIdServiceMapping;
 	private HashMap<String, ObjectId> convIdProductStepIdMapping;
 
+	/**
+	 * @var DurationCache durationCache
+	 *      The evaluated durations of the product steps of this equiplet.
+	 */
+	private DurationCache durationCache;
+
+	/**
+	 * @var ConcurrentHashMap<ObjectId, Long> deferredDecompositions
+	 *      The product steps whose duration has been evaluated and that have not been decomposed into service steps on
+	 *      the blackboard yet, with the time they were evaluated. They are decomposed when they are scheduled. Changed
+	 *      by the agent thread as well as by the blackboard callbacks.
+	 */
+	private ConcurrentHashMap<ObjectId, Long> deferredDecompositions;
+
+	/**
+	 * @var StepChainCache<ServiceStep> serviceStepChains
+	 *      The chains of service steps per product step, kept up to date with the status changes of the steps.
+	 */
+	private StepChainCache<ServiceStep> serviceStepChains;
+
 	private ArrayList<Behaviour> behaviours;
 
 	/**
@@ -188,12 +212,14 @@ public class ServiceAgent extends Agent implements BlackboardSubscriber {
 			productStepBBClient = new BlackboardClient(dbData.getIp());
 			productStepBBClient.setDatabase(dbData.getName());
 			productStepBBClient.setCollection(Configuration.getProperty(ConfigurationFiles.EQUIPLET_DB_PROPERTIES, "ProductStepsBlackBoardName", equipletAgentAID.getLocalName()));
+			productStepBBClient.setMaterializedDocuments(true);
 			productStepBBClient.subscribe(statusSubscription);
 
 			// Needs to react on status changes
 			serviceStepBBClient = new BlackboardClient(dbData.getIp());
 			serviceStepBBClient.setDatabase(dbData.getName());
 			serviceStepBBClient.setCollection(Configuration.getProperty(ConfigurationFiles.EQUIPLET_DB_PROPERTIES, "ServiceStepsBlackBoardName", equipletAgentAID.getLocalName()));
+			serviceStepBBClient.setMaterializedDocuments(true);
 			serviceStepBBClient.subscribe(statusSubscription);
 			serviceStepBBClient.removeDocuments(new BasicDBObject());
 		} catch(UnknownHostException | GeneralMongoException | InvalidDBNamespaceException e) {
@@ -204,6 +230,28 @@ public class ServiceAgent extends Agent implements BlackboardSubscriber {
 		convIdServiceMapping = new HashMap<String, Service>();
 		convIdProductStepIdMapping = new HashMap<String, ObjectId>();
 		serviceFactory = new ServiceFactory(equipletAgentAID.getLocalName());
+		durationCache = DurationCache.forEquiplet(equipletAgentAID.getLocalName());
+		// The cache outlives this agent, so durations left by an earlier run of the equiplet in this process are dropped.
+		durationCache.invalidateAll();
+		deferredDecompositions = new ConcurrentHashMap<ObjectId, Long>();
+		serviceStepChains = new StepChainCache<ServiceStep>() {
+			@Override
+			protected ArrayList<ServiceStep> readSteps(ObjectId productStepId) throws InvalidDBNamespaceException,
+					GeneralMongoException {
+				List<DBObject> dbServiceSteps =
+						serviceStepBBClient.findDocuments(new BasicDBObject("productStepId", productStepId));
+				ArrayList<ServiceStep> serviceSteps = new ArrayList<ServiceStep>(dbServiceSteps.size());
+				for(DBObject dbServiceStep : dbServiceSteps) {
+					serviceSteps.add(new ServiceStep((BasicDBObject) dbServiceStep));
+				}
+				return serviceSteps;
+			}
+
+			@Override
+			protected ObjectId getParentId(ServiceStep serviceStep) {
+				return serviceStep.getProductStepId();
+			}
+		};
 		behaviours = new ArrayList<Behaviour>();
 
 		// Add behaviours
@@ -212,6 +260,7 @@ public class ServiceAgent extends Agent implements BlackboardSubscriber {
 		addBehaviour(new ProductStepDuration(this));
 		addBehaviour(new ScheduleStep(this));
 		addBehaviour(new RemoveServiceStepBehaviour(this));
+		addBehaviour(new ExpireDeferredDecompositions(this));
 	}
 
 	/**
@@ -222,6 +271,12 @@ public class ServiceAgent extends Agent implements BlackboardSubscriber {
 	@Override
 	public void takeDown() {
 		Logger.log(LogLevel.DEBUG, "ServiceAgent takedown");
+		if(serviceFactory != null) {
+			Logger.log(LogLevel.NOTIFICATION, "Service software cache of %s: %s", getLocalName(), serviceFactory.getServiceCache());
+		}
+		if(durationCache != null) {
+			durationCache.invalidateAll();
+		}
 		
 		productStepBBClient.unsubscribe(statusSubscription);
 		serviceStepBBClient.unsubscribe(statusSubscription);
@@ -297,8 +352,7 @@ public class ServiceAgent extends Agent implements BlackboardSubscriber {
 			switch(entry.getNamespace().split("\\.")[1]) {
 				case "ProductStepsBlackBoard":
 					ProductStep productionStep =
-							new ProductStep((BasicDBObject) productStepBBClient.findDocumentById(entry
-									.getTargetObjectId()));
+							new ProductStep((BasicDBObject) productStepBBClient.findDocument(entry));
 					switch(operation) {
 						case UPDATE:
 							StepStatusCode status = productionStep.getStatus();
@@ -308,22 +362,18 @@ public class ServiceAgent extends Agent implements BlackboardSubscriber {
 							switch(status) {
 								case WAITING:
 
-									// fetch and sort all serviceSteps
-									List<DBObject> dbServiceSteps =
-											serviceStepBBClient.findDocuments(new BasicDBObject("productStepId",
-													productionStep.getId()));
-									ServiceStep[] serviceSteps = new ServiceStep[dbServiceSteps.size()];
-									for(int i = 0; i < dbServiceSteps.size(); i++) {
-										serviceSteps[i] = new ServiceStep((BasicDBObject) dbServiceSteps.get(i));
+									// find the first serviceStep
+									ServiceStep firstStep = serviceStepChains.getFirst(productionStep.getId());
+									if(firstStep == null) {
+										break;
 									}
-									serviceSteps = ServiceStep.sort(serviceSteps);
 
 									Logger.log(LogLevel.DEBUG, "setting status of serv.Step %s to %s%n",
-											serviceSteps[0].getId(), status);
+											firstStep.getId(), status);
 
 									// update the status of the first serviceStep to WAITING
 									serviceStepBBClient.updateDocuments(
-											new BasicDBObject("_id", serviceSteps[0].getId()),
+											new BasicDBObject("_id", firstStep.getId()),
 											new BasicDBObject("$set", new BasicDBObject("status", status.name())
 													.append("statusData", productionStep.getStatusData())));
 									break;
@@ -334,6 +384,10 @@ public class ServiceAgent extends Agent implements BlackboardSubscriber {
 									cancelAllStepsForProductStep(entry.getTargetObjectId(), productionStep
 											.getStatusData().getString("reason"));
 									break;
+								case DELETED:
+									// A quoted step that is deleted before it is scheduled is never decomposed.
+									deferredDecompositions.remove(productionStep.getId());
+									break;
 								default:
 									break;
 							}
@@ -345,8 +399,9 @@ public class ServiceAgent extends Agent implements BlackboardSubscriber {
 				case "ServiceStepsBlackBoard":
 					ObjectId serviceStepId = entry.getTargetObjectId();
 					ServiceStep serviceStep =
-							new ServiceStep((BasicDBObject) serviceStepBBClient.findDocumentById(serviceStepId));
+							new ServiceStep((BasicDBObject) serviceStepBBClient.findDocument(entry));
 					ObjectId productStepId = serviceStep.getProductStepId();
+					serviceStepChains.update(serviceStep);
 					switch(operation) {
 						case UPDATE:
 							StepStatusCode status = serviceStep.getServiceStepStatus();
@@ -369,6 +424,7 @@ public class ServiceAgent extends Agent implements BlackboardSubscriber {
 																"reason")).append("log", buildLog(productStepId)))));
 										serviceStepBBClient.removeDocuments(new BasicDBObject("productStepId",
 												productStepId));
+										serviceStepChains.remove(productStepId);
 									}
 									break;
 								case DONE:
@@ -389,6 +445,7 @@ public class ServiceAgent extends Agent implements BlackboardSubscriber {
 											new BasicDBObject("$set", new BasicDBObject("status", status.name())
 													.append("statusData", new BasicDBObject("log",
 															buildLog(productStepId)))));
+									serviceStepChains.remove(productStepId);
 									break;
 								case SUSPENDED_OR_WARNING:
 								case FAILED:
@@ -430,14 +487,7 @@ public class ServiceAgent extends Agent implements BlackboardSubscriber {
 	 * @return the log as a BasicDBObject
 	 */
 	public BasicDBObject buildLog(ObjectId productStep) throws InvalidDBNamespaceException, GeneralMongoException {
-		List<DBObject> dbServiceSteps =
-				serviceStepBBClient.findDocuments(new BasicDBObject("productStepID", productStep));
-
-		ServiceStep[] serviceSteps = new ServiceStep[dbServiceSteps.size()];
-		for(int i = 0; i < dbServiceSteps.size(); i++) {
-			serviceSteps[i] = new ServiceStep((BasicDBObject) dbServiceSteps.get(i));
-		}
-		serviceSteps = ServiceStep.sort(serviceSteps);
+		ServiceStep[] serviceSteps = serviceStepChains.getSorted(productStep, new ServiceStep[0]);
 
 		// append all serviceSteps to the log
 		BasicDBObject log = new BasicDBObject();
@@ -483,6 +533,58 @@ public class ServiceAgent extends Agent implements BlackboardSubscriber {
 	public void removeAllMappingsForProductStepId(ObjectId productStepId) {
 		String conversationId = getConvIdforProductStepId(productStepId);
 		removeConvIdProductStepIdMapping(conversationId);
+		deferredDecompositions.remove(productStepId);
+		serviceStepChains.remove(productStepId);
+	}
+
+	/**
+	 * Returns the evaluated durations of the product steps of this equiplet.
+	 * 
+	 * @return the duration cache.
+	 */
+	public DurationCache getDurationCache() {
+		return durationCache;
+	}
+
+	/**
+	 * Marks a product step whose duration has been evaluated without putting its service steps on the blackboard, so it
+	 * is decomposed when it is scheduled.
+	 * 
+	 * @param productStepId the product step that has not been decomposed.
+	 */
+	public void deferDecomposition(ObjectId productStepId) {
+		deferredDecompositions.put(productStepId, System.currentTimeMillis());
+	}
+
+	/**
+	 * Removes the mark of a product step that has not been decomposed yet.
+	 * 
+	 * @param productStepId the product step that is about to be decomposed.
+	 * @return true if the product step still had to be decomposed.
+	 */
+	public boolean takeDeferredDecomposition(ObjectId productStepId) {
+		return deferredDecompositions.remove(productStepId) != null;
+	}
+
+	/**
+	 * Removes the marks of the product steps that were evaluated too long ago, e.g. because they were scheduled on
+	 * another equiplet.
+	 * 
+	 * @param maxAge the time in milliseconds after which a mark is removed.
+	 * @return the product steps of which the mark was removed.
+	 */
+	public List<ObjectId> expireDeferredDecompositions(long maxAge) {
+		long now = System.currentTimeMillis();
+		List<ObjectId> expired = new ArrayList<ObjectId>();
+		Iterator<Entry<ObjectId, Long>> iterator = deferredDecompositions.entrySet().iterator();
+		while(iterator.hasNext()) {
+			Entry<ObjectId, Long> deferred = iterator.next();
+			if(now - deferred.getValue() > maxAge) {
+				iterator.remove();
+				expired.add(deferred.getKey());
+			}
+		}
+		return expired;
 	}
 
 	public ArrayList<ObjectId> getServiceStepIdsByProductStepId(ObjectId productStepId) throws InvalidDBNamespaceException, GeneralMongoException{
@@ -494,6 +596,27 @@ public class ServiceAgent extends Agent implements BlackboardSubscriber {
 		return serviceSteps;
 	}
 	
+	/**
+	 * Decomposes a product step into service steps and puts them on the service step blackboard, linked in order of
+	 * execution.
+	 * 
+	 * @param service the service performing the product step.
+	 * @param productStep the product step to decompose.
+	 * @return the id of the first service step, or null if the service returned no steps.
+	 * @throws InvalidDBNamespaceException
+	 * @throws GeneralMongoException
+	 */
+	public ObjectId createServiceSteps(Service service, ProductStep productStep) throws InvalidDBNamespaceException, GeneralMongoException {
+		ServiceStep[] serviceSteps = service.getServiceSteps(productStep.getType(), productStep.getParameters());
+		ObjectId serviceStepId = null;
+		for(int i = serviceSteps.length - 1; i >= 0; i--) {
+			serviceSteps[i].setProductStepId(productStep.getId());
+			serviceSteps[i].setNextServiceStep(serviceStepId);
+			serviceStepId = serviceStepBBClient.insertDocument(serviceSteps[i].toBasicDBObject());
+		}
+		return serviceStepId;
+	}
+
 	public void removeServiceStepsByProductStepId(ObjectId productStepId) throws InvalidDBNamespaceException, GeneralMongoException{
 		
 		int removedSteps = serviceStepBBClient.removeDocuments(new BasicDBObject("productStepId", productStepId));
@@ -30,12 +30,16 @@
 package agents.service_agent;
 
 import java.util.ArrayList;
-import java.util.Hashtable;
+
+import configuration.Configuration;
+import configuration.ConfigurationFiles;
 
 import libraries.dynamicloader.DynamicClassDescription;
 import libraries.dynamicloader.DynamicClassFactory;
 import libraries.dynamicloader.InstantiateClassException;
+import libraries.dynamicloader.SoftwareCache;
 import libraries.knowledgedb_client.KeyNotFoundException;
+import libraries.knowledgedb_client.KnowledgeCache;
 import libraries.knowledgedb_client.KnowledgeDBClient;
 import libraries.knowledgedb_client.KnowledgeException;
 import libraries.knowledgedb_client.Queries;
@@ -45,8 +49,16 @@ import libraries.utillities.log.Logger;
 
 /**
  * Helper class for creating Service objects based on knowledgebase data.
+ * Cached services are returned without loading their software; they are checked for a newer version in the background
+ * once the revalidation interval has passed or the knowledge database changed.
  **/
 public class ServiceFactory {
+	/**
+	 * @var int DEFAULT_REVALIDATION_INTERVAL
+	 * The time in milliseconds after which a cached service is checked for a newer version, if not configured.
+	 */
+	private static final int DEFAULT_REVALIDATION_INTERVAL = 30000;
+	
 	/**
 	 * @var DynamicClassFactory<Service> factory
 	 * The DynamicClassFactory used to instantiate Services.
@@ -54,10 +66,16 @@ public class ServiceFactory {
 	private DynamicClassFactory<Service>factory;
 	
 	/**
-	 * Hashtable<Long, Service> serviceCache
-	 * A cache of instantiated services. This cache stores the latest instantiated version of a Service.
+	 * @var SoftwareCache<Integer, Service> serviceCache
+	 * A cache of instantiated services by their serviceID. This cache stores the latest instantiated version of a Service.
 	 */
-	private Hashtable<Long, Service> serviceCache;
+	private SoftwareCache<Integer, Service> serviceCache;
+	
+	/**
+	 * @var long knowledgeGeneration
+	 * The generation of the knowledge cache when the service cache was last told to revalidate.
+	 */
+	private long knowledgeGeneration;
 	
 	/**
 	 * @var String equipletAID
@@ -71,8 +89,74 @@ public class ServiceFactory {
 	 */
 	public ServiceFactory(String equipletAID) {
 		this.equipletAID = equipletAID;
-		serviceCache = new Hashtable<Long, Service>();
 		this.factory = new DynamicClassFactory<Service>(Service.class);
+		
+		int interval = Configuration.getPropertyInt(ConfigurationFiles.KNOWLEDGE_DB_PROPERTIES, "softwareRevalidationInterval");
+		serviceCache = new SoftwareCache<Integer, Service>(new ServiceLoader(),
+				interval > 0 ? interval : DEFAULT_REVALIDATION_INTERVAL);
+		knowledgeGeneration = -1;
+	}
+	
+	/**
+	 * Loads the latest version of the software for services from the knowledge database.
+	 */
+	private class ServiceLoader implements SoftwareCache.Loader<Integer, Service> {
+		/**
+		 * Returns the latest version of the software for the service according to the knowledge database.
+		 * A revalidation queries the knowledge database directly, because the knowledge cache may hold the row for
+		 * longer than the revalidation interval.
+		 * @param serviceID The serviceID of the service.
+		 * @param oldService The cached service, or null if there is none.
+		 * @return The latest service, or oldService if it could not be loaded.
+		 */
+		@Override
+		public Service load(Integer serviceID, Service oldService) {
+			try {
+				KnowledgeDBClient client = KnowledgeDBClient.getClient();
+				Row[] rows;
+				if (oldService == null) {
+					rows = client.getCache().executeSelectQuery(Queries.SOFTWARE_FOR_SERVICE, serviceID);
+				} else {
+					rows = client.executeSelectQuery(Queries.SOFTWARE_FOR_SERVICE, serviceID);
+				}
+				if (rows.length > 0) {
+					DynamicClassDescription description = new DynamicClassDescription(
+							new Long((Integer)rows[0].get("id")),
+							(String)rows[0].get("name"),
+							(String)rows[0].get("description"),
+							(String)rows[0].get("class_name"),
+							(String)rows[0].get("jar_location"));
+					Service service = factory.createNewObjectIfOutdated(description, oldService);
+					if (service != oldService) {
+						service.setId(serviceID);
+						service.setName(description.getName());
+					}
+					return service;
+				}
+			} catch (KnowledgeException | InstantiateClassException | KeyNotFoundException e) {
+				Logger.log(LogLevel.ERROR, "", e);
+			}
+			return oldService;
+		}
+		
+		/**
+		 * Invalidates the durations of the equiplet, as durations evaluated with the old software are no longer valid.
+		 * @param serviceID The serviceID of the service.
+		 * @param oldService The service that was replaced.
+		 * @param newService The service that replaced it.
+		 */
+		@Override
+		public void updated(Integer serviceID, Service oldService, Service newService) {
+			DurationCache.forEquiplet(equipletAID).invalidateAll();
+		}
+	}
+	
+	/**
+	 * Returns the cache of service software, e.g. to read its hit and revalidation counts.
+	 * @return The cache of service software.
+	 */
+	public SoftwareCache<Integer, Service> getServiceCache() {
+		return serviceCache;
 	}
 	
 	/**
@@ -81,27 +165,38 @@ public class ServiceFactory {
 	 * @return The Service object for the given serviceID.
 	 */
 	private Service	getServiceByServiceID(int serviceID) {
-		Service service = null;
 		try {
-			KnowledgeDBClient knowledgeClient = KnowledgeDBClient.getClient();
-			Row[] rows = knowledgeClient.executeSelectQuery(Queries.SOFTWARE_FOR_SERVICE, serviceID);
-			if (rows.length > 0) {
-				DynamicClassDescription description = new DynamicClassDescription(
-						new Long((Integer)rows[0].get("id")),
-						(String)rows[0].get("name"),
-						(String)rows[0].get("description"),
-						(String)rows[0].get("class_name"),
-						(String)rows[0].get("jar_location"));
-				service = factory.createNewObjectIfOutdated(description, serviceCache.get(description.getId()));
-				service.setId(serviceID);
-				service.setName(description.getName());
-				serviceCache.put(description.getId(), service);
+			long generation = KnowledgeDBClient.getClient().getCache().getGeneration();
+			if (generation != knowledgeGeneration) {
+				if (knowledgeGeneration != -1) {
+					serviceCache.revalidateAll();
+				}
+				knowledgeGeneration = generation;
+			}
+		} catch (KnowledgeException e) {
+			Logger.log(LogLevel.ERROR, "", e);
+		}
+		return serviceCache.get(serviceID);
+	}
+	
+	/**
+	 * Loads the software for all services the equiplet can perform concurrently, so the first quotes do not wait for
+	 * the knowledge database or jar downloads. The load time of every service is logged.
+	 */
+	public void preloadServices() {
+		ArrayList<Integer> serviceIDs = new ArrayList<Integer>();
+		try {
+			KnowledgeCache knowledgeCache = KnowledgeDBClient.getClient().getCache();
+			Row[] rows = knowledgeCache.executeSelectQuery(Queries.POSSIBLE_SERVICES_PER_EQUIPLET, equipletAID);
+			for (Row row : rows) {
+				serviceIDs.add((int)row.get("id"));
 			}
-		} catch (KnowledgeException | InstantiateClassException | KeyNotFoundException e) {
+		} catch (KnowledgeException | KeyNotFoundException e) {
 			Logger.log(LogLevel.ERROR, "", e);
+			return;
 		}
 		
-		return service;
+		factory.preload(serviceCache, serviceIDs, "service");
 	}
 	
 	/**
@@ -112,17 +207,15 @@ public class ServiceFactory {
 	public Service[] getServicesForStep(int stepType) {
 		ArrayList<Service> servicesForStep = new ArrayList<Service>();
 		try {
-			KnowledgeDBClient knowledgeClient = KnowledgeDBClient.getClient();
-			Row[] rows = knowledgeClient.executeSelectQuery(
+			KnowledgeCache knowledgeCache = KnowledgeDBClient.getClient().getCache();
+			Row[] rows = knowledgeCache.executeSelectQuery(
 					Queries.SERVICES_FOR_STEP_FOR_EQUIPLET,
 					equipletAID, stepType);
 			
 			for (int i = 0 ; i < rows.length ; ++i) {
-				
-				if(getServiceByServiceID((int)rows[i].get("id")) != null){
-				
-					servicesForStep.add(getServiceByServiceID((int)rows[i].get("id")));
-					
+				Service service = getServiceByServiceID((int)rows[i].get("id"));
+				if(service != null){
+					servicesForStep.add(service);
 				}
 			}
 		} catch (KnowledgeException | KeyNotFoundException e) {
@@ -35,8 +35,10 @@ package agents.service_agent;
 
 import org.bson.types.ObjectId;
 
+import agents.data_classes.ChainedStep;
 import agents.data_classes.MongoSaveable;
 import agents.data_classes.ScheduleData;
+import agents.data_classes.StepChain;
 import agents.data_classes.StepStatusCode;
 
 import com.mongodb.BasicDBObject;
@@ -49,7 +51,7 @@ import com.mongodb.BasicDBObjectBuilder;
  * 
  * @author Peter Bonnema
  */
-public class ServiceStep implements MongoSaveable {
+public class ServiceStep implements MongoSaveable, ChainedStep {
 	/**
 	 * @var ObjectId _id
 	 *      The MongoDb ObjectId of this serviceStep.
@@ -162,40 +164,14 @@ public class ServiceStep implements MongoSaveable {
 
 	/**
 	 * Sorts the ServiceStepMessages in the specified array bases on their nextStep field. The last step is the one of
-	 * which the nextStep field is null.
+	 * which the nextStep field is null. The steps are indexed by their id, so sorting takes linear time.
 	 * 
 	 * @param unsortedSteps an array of steps to be sorted.
 	 * @return an array of ServiceStep in the right order.
 	 */
 	public static ServiceStep[] sort(ServiceStep[] unsortedSteps) {
 		if(unsortedSteps.length > 0){
-			// Find the first step
-			ServiceStep firstServiceStep = null;
-			outer: for(ServiceStep serviceStep : unsortedSteps) {
-				for(ServiceStep serviceStep2 : unsortedSteps) {
-					if(serviceStep2.getNextServiceStep() != null && serviceStep2.getNextServiceStep().equals(serviceStep.getId())) {
-						continue outer;
-					}
-				}
-				firstServiceStep = serviceStep;
-				break;
-			}
-	
-			// sort all steps beginning with the one found above
-			int stepsCount = unsortedSteps.length;
-			ObjectId nextStepId;
-			ServiceStep[] sortedSteps = new ServiceStep[stepsCount];
-			sortedSteps[0] = firstServiceStep;
-			for(int i = 1; i < stepsCount; i++) {
-				nextStepId = sortedSteps[i - 1].getNextServiceStep();
-				for(ServiceStep serviceStep : unsortedSteps) {
-					if(serviceStep.getId().equals(nextStepId)) {
-						sortedSteps[i] = serviceStep;
-						break;
-					}
-				}
-			}
-			return sortedSteps;
+			return new StepChain<ServiceStep>(unsortedSteps).toArray(new ServiceStep[unsortedSteps.length]);
 		}
 		return unsortedSteps;
 	}
@@ -269,6 +245,14 @@ public class ServiceStep implements MongoSaveable {
 		return nextServiceStep;
 	}
 
+	/**
+	 * @see agents.data_classes.ChainedStep#getNextStepId()
+	 */
+	@Override
+	public ObjectId getNextStepId() {
+		return getNextServiceStep();
+	}
+
 	/**
 	 * Sets the ObjectId of the next step to be executed. Use this to setup the linked list as a sequence of steps to be
 	 * executed one after another.
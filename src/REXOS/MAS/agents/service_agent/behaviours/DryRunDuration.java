@@ -0,0 +1,209 @@
+/**
+ * @file src/REXOS/MAS/agents/service_agent/behaviours/DryRunDuration.java
+ * @brief Evaluates the duration of a product step without writing its service steps.
+ * @date Created: 2013-10-18
+ *
+ * @section LICENSE
+ * License: newBSD
+ *
+ * Copyright © 2013, HU University of Applied Sciences Utrecht.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * - Neither the name of the HU University of Applied Sciences Utrecht nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE HU UNIVERSITY OF APPLIED SCIENCES UTRECHT
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+package agents.service_agent.behaviours;
+
+import jade.lang.acl.ACLMessage;
+import jade.lang.acl.MessageTemplate;
+import jade.lang.acl.UnreadableException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+import libraries.blackboard_client.data_classes.GeneralMongoException;
+import libraries.blackboard_client.data_classes.InvalidDBNamespaceException;
+import libraries.utillities.log.LogLevel;
+import libraries.utillities.log.Logger;
+import agents.data_classes.BehaviourCallbackItem;
+import agents.data_classes.ParentBehaviourCallback;
+import agents.data_classes.ProductStep;
+import agents.data_classes.StepStatusCode;
+import agents.service_agent.ServiceAgent;
+import agents.service_agent.ServiceStep;
+import agents.shared_behaviours.ReceiveBehaviour;
+
+import com.mongodb.BasicDBObject;
+
+/**
+ * Asks the hardware agent for the duration of the service steps of a product step without putting them on the
+ * blackboard. The evaluated duration is stored in the duration cache and passed to the parent behaviour, which
+ * answers the equiplet agent. The service steps are put on the blackboard once the product step is scheduled.
+ */
+public class DryRunDuration extends ReceiveBehaviour {
+	/**
+	 * @var long serialVersionUID
+	 *      The serialVersionUID of this class.
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * @var int DRY_RUN_TIMEOUT
+	 *      The time in milliseconds the hardware agent may take to evaluate the service steps.
+	 */
+	private static final int DRY_RUN_TIMEOUT = 10000;
+
+	/**
+	 * @var ServiceAgent agent
+	 *      The service agent this behaviour belongs to.
+	 */
+	private ServiceAgent serviceAgent;
+
+	/**
+	 * @var ParentBehaviourCallback parentBehaviourCallback
+	 * 		The parentbehaviour callback this redirect calls back to
+	 */
+	private ParentBehaviourCallback parentBehaviourCallback;
+
+	/**
+	 * @var String conversationId
+	 * 		The conversationId used for the message
+	 */
+	private String conversationId;
+
+	/**
+	 * @var ProductStep productStep
+	 * 		The product step of which the duration is evaluated
+	 */
+	private ProductStep productStep;
+
+	/**
+	 * @var ServiceStep[] serviceSteps
+	 * 		The service steps of the product step, in order of execution
+	 */
+	private ServiceStep[] serviceSteps;
+
+	/**
+	 * @var String durationKey
+	 * 		The key under which the evaluated duration is stored in the duration cache
+	 */
+	private String durationKey;
+
+	/**
+	 * @var long cacheGeneration
+	 * 		The generation of the duration cache when the evaluation started
+	 */
+	private long cacheGeneration;
+
+	/**
+	 * Creates a new DryRunDuration instance with the specified parameters.
+	 * 
+	 * @param serviceAgent the service agent this behaviour belongs to.
+	 * @param parentBehaviourCallback the parentbehaviour this behaviour calls back to
+	 * @param conversationId the conversationId that any messages sent or received by this behaviour will have.
+	 * @param productStep the product step of which the duration is evaluated
+	 * @param serviceSteps the service steps of the product step, in order of execution
+	 * @param durationKey the key under which the duration is stored in the duration cache
+	 * @param cacheGeneration the generation of the duration cache when the evaluation started
+	 */
+	public DryRunDuration(ServiceAgent serviceAgent, ParentBehaviourCallback parentBehaviourCallback,
+			String conversationId, ProductStep productStep, ServiceStep[] serviceSteps, String durationKey,
+			long cacheGeneration) {
+		super(serviceAgent, DRY_RUN_TIMEOUT, MessageTemplate.and(MessageTemplate.MatchOntology("DryRunDuration"),
+				MessageTemplate.MatchConversationId(conversationId)));
+		this.serviceAgent = serviceAgent;
+		this.parentBehaviourCallback = parentBehaviourCallback;
+		this.conversationId = conversationId;
+		this.productStep = productStep;
+		this.serviceSteps = serviceSteps;
+		this.durationKey = durationKey;
+		this.cacheGeneration = cacheGeneration;
+	}
+
+	@Override
+	public void onStart() {
+		ArrayList<BasicDBObject> content = new ArrayList<BasicDBObject>();
+		for(ServiceStep serviceStep : serviceSteps) {
+			content.add(serviceStep.toBasicDBObject());
+		}
+
+		ACLMessage message = new ACLMessage(ACLMessage.QUERY_REF);
+		message.addReceiver(serviceAgent.getHardwareAgentAID());
+		message.setConversationId(conversationId);
+		message.setOntology("DryRunDuration");
+		try {
+			message.setContentObject(content);
+		} catch(IOException e) {
+			Logger.log(LogLevel.ERROR, "", e);
+		}
+		serviceAgent.send(message);
+	}
+
+	/**
+	 * Handles the answer of the hardware agent. On an INFORM the duration is stored and passed to the parent
+	 * behaviour. On a FAILURE, an unreadable answer or a timeout the product step can not be evaluated and is deleted,
+	 * like it is when a service step on the blackboard can not be evaluated. The behaviour is removed in every case.
+	 * 
+	 * @param message the message to handle or null on timeout.
+	 */
+	@Override
+	public void handle(ACLMessage message) {
+		serviceAgent.removeBehaviour(this);
+		if(message == null) {
+			Logger.log(LogLevel.WARNING, "%s - DryRunDuration timeout for prod. step %s%n", serviceAgent.getLocalName(),
+					productStep.getId());
+			deleteProductStep("The hardware agent did not evaluate the service steps in time.");
+			return;
+		}
+		if(message.getPerformative() != ACLMessage.INFORM) {
+			Logger.log(LogLevel.DEBUG, "%s could not evaluate prod. step %s: %s%n", serviceAgent.getLocalName(),
+					productStep.getId(), message.getContent());
+			deleteProductStep(message.getContent());
+			return;
+		}
+
+		long duration;
+		try {
+			duration = (Long) message.getContentObject();
+		} catch(UnreadableException e) {
+			Logger.log(LogLevel.ERROR, "", e);
+			deleteProductStep("The duration of the service steps could not be read.");
+			return;
+		}
+		serviceAgent.getDurationCache().put(durationKey, duration, cacheGeneration);
+
+		BehaviourCallbackItem arguments = new BehaviourCallbackItem();
+		arguments.addArgument("productStep", productStep);
+		arguments.addArgument("duration", duration);
+		parentBehaviourCallback.callback(message, arguments);
+	}
+
+	/**
+	 * Deletes the product step because its duration can not be evaluated.
+	 * 
+	 * @param reason the reason stored in the status data of the product step.
+	 */
+	private void deleteProductStep(String reason) {
+		try {
+			serviceAgent.getProductStepBBClient().updateDocuments(
+					new BasicDBObject("_id", productStep.getId()),
+					new BasicDBObject("$set", new BasicDBObject("status", StepStatusCode.DELETED.name()).append(
+							"statusData", new BasicDBObject("reason", reason))));
+		} catch(InvalidDBNamespaceException | GeneralMongoException e) {
+			Logger.log(LogLevel.ERROR, "", e);
+		}
+	}
+}
@@ -79,7 +79,8 @@ public class InitialisationFinished extends ReceiveBehaviour {
 
 	/**
 	 * Handles an incoming message from the hardwareAgent. The hardwareAgent sends this message to indicate that it's
-	 * completely initialized. Then the same message is send to the equipletAgent to indicate the same.
+	 * completely initialized. The software of the services is then loaded, after which the same message is send to
+	 * the equipletAgent to indicate the same.
 	 * 
 	 * @param message the message to handle or null on timeout.
 	 */
@@ -89,6 +90,8 @@ public class InitialisationFinished extends ReceiveBehaviour {
 			Logger.log(LogLevel.DEBUG, "%s received message from %s%n", myAgent.getLocalName(), message.getSender().getLocalName(),
 					message.getOntology());
 
+			serviceAgent.getServiceFactory().preloadServices();
+
 			ACLMessage response = new ACLMessage(ACLMessage.CONFIRM);
 			response.addReceiver(serviceAgent.getEquipletAgentAID());
 			response.setOntology("InitialisationFinished");
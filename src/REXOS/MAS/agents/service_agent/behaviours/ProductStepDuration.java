@@ -41,7 +41,6 @@ import jade.lang.acl.UnreadableException;
 
 import java.io.IOException;
 
-import libraries.blackboard_client.BlackboardClient;
 import libraries.blackboard_client.data_classes.GeneralMongoException;
 import libraries.blackboard_client.data_classes.InvalidDBNamespaceException;
 import libraries.utillities.log.LogLevel;
@@ -52,6 +51,8 @@ import org.bson.types.ObjectId;
 import agents.data_classes.BehaviourCallbackItem;
 import agents.data_classes.ParentBehaviourCallback;
 import agents.data_classes.ProductStep;
+import agents.data_classes.ScheduleData;
+import agents.service_agent.DurationCache;
 import agents.service_agent.Service;
 import agents.service_agent.ServiceAgent;
 import agents.service_agent.ServiceStep;
@@ -97,10 +98,11 @@ public class ProductStepDuration extends ReceiveBehaviour implements ParentBehav
 
 	/**
 	 * Handles an incoming message from the equipletAgent. The equipletAgent sends this message to ask for the duration
-	 * of the serviceStep and all serviceSteps linked to it specified by the ObjectId in the message. First the service
-	 * object generated in CanDoProductStep is retrieved from the serviceAgent to generate serviceSteps. The generated
-	 * serviceSteps are stored on the serviceStepBlackBoard and a GetServiceStepDuration message is send to the
-	 * hardwareAgent. Finally a GetServiceStepsDurationResponse behaviour is started to handle the answer.
+	 * of the serviceStep and all serviceSteps linked to it specified by the ObjectId in the message. When an identical
+	 * step was evaluated before, its duration is taken from the duration cache. Otherwise the service object generated
+	 * in CanDoProductStep is retrieved from the serviceAgent to generate serviceSteps, whose duration is evaluated by
+	 * the hardwareAgent without putting them on the blackboard. In both cases the serviceSteps are only put on the
+	 * blackboard once the productStep is scheduled.
 	 * 
 	 * @param message the message to handle or null on timeout.
 	 */
@@ -116,8 +118,22 @@ public class ProductStepDuration extends ReceiveBehaviour implements ParentBehav
 					productStepType);
 
 			Service service = serviceAgent.getServiceForConvId(message.getConversationId());
-			BasicDBObject parameters = productStep.getParameters();
-			ServiceStep[] serviceSteps = service.getServiceSteps(productStepType, parameters);
+			DurationCache durationCache = serviceAgent.getDurationCache();
+			String durationKey = DurationCache.keyFor(service.getId(), productStepType, productStep.getParameters());
+			Long duration = durationCache.get(durationKey);
+			if(duration != null) {
+				// An identical step was evaluated before.
+				Logger.log(LogLevel.DEBUG, "%s answering duration %d of step type %s from cache%n", serviceAgent.getLocalName(),
+						duration, productStepType);
+				BehaviourCallbackItem arguments = new BehaviourCallbackItem();
+				arguments.addArgument("productStep", productStep);
+				arguments.addArgument("duration", duration);
+				callback(message, arguments);
+				return;
+			}
+
+			long cacheGeneration = durationCache.getGeneration();
+			ServiceStep[] serviceSteps = service.getServiceSteps(productStepType, productStep.getParameters());
 			for(ServiceStep serviceStep : serviceSteps) {
 				serviceStep.setProductStepId(productStepId);
 			}
@@ -125,14 +141,8 @@ public class ProductStepDuration extends ReceiveBehaviour implements ParentBehav
 			Logger.log(LogLevel.DEBUG, "%s asking %s for duration of %d steps%n", serviceAgent.getLocalName(), serviceAgent.getHardwareAgentAID()
 					.getLocalName(), serviceSteps.length);
 
-			ObjectId serviceStepId = null;
-			BlackboardClient serviceStepBB = serviceAgent.getServiceStepBBClient();
-			for(int i = serviceSteps.length - 1; i >= 0; i--) {
-				serviceSteps[i].setNextServiceStep(serviceStepId);
-				serviceStepId = serviceStepBB.insertDocument(serviceSteps[i].toBasicDBObject());
-			}
-
-			serviceAgent.addBehaviour(new ServiceStepDuration(serviceAgent, this, message.getConversationId(), serviceStepId));
+			serviceAgent.addBehaviour(new DryRunDuration(serviceAgent, this, message.getConversationId(), productStep,
+					serviceSteps, durationKey, cacheGeneration));
 			
 	//		ACLMessage askMessage = new ACLMessage(ACLMessage.QUERY_IF);
 	//		askMessage.addReceiver(serviceAgent.getHardwareAgentAID());
@@ -146,8 +156,28 @@ public class ProductStepDuration extends ReceiveBehaviour implements ParentBehav
 		}
 	}
 
+	/**
+	 * Saves the duration in the productStep and informs the equipletAgent. The productStep is not decomposed on the
+	 * blackboards until it is scheduled.
+	 * 
+	 * @param result the message containing the conversation id.
+	 * @param arguments the productStep and its duration.
+	 */
 	@Override
 	public void callback(ACLMessage result, BehaviourCallbackItem arguments) {
+		ProductStep productStep = (ProductStep) arguments.getArgument("productStep");
+		ScheduleData scheduleData = productStep.getScheduleData();
+		scheduleData.setDuration((Long) arguments.getArgument("duration"));
+		try {
+			serviceAgent.getProductStepBBClient().updateDocuments(new BasicDBObject("_id", productStep.getId()),
+					new BasicDBObject("$set", new BasicDBObject("scheduleData", scheduleData.toBasicDBObject())));
+		} catch(InvalidDBNamespaceException | GeneralMongoException e) {
+			Logger.log(LogLevel.ERROR, "", e);
+			serviceAgent.doDelete();
+			return;
+		}
+		serviceAgent.deferDecomposition(productStep.getId());
+
 		ACLMessage answer = new ACLMessage(ACLMessage.INFORM);
 		answer.addReceiver(serviceAgent.getEquipletAgentAID());
 		answer.setConversationId(result.getConversationId());
@@ -53,6 +53,7 @@ import org.bson.types.ObjectId;
 import agents.data_classes.BehaviourCallbackItem;
 import agents.data_classes.ParentBehaviourCallback;
 import agents.data_classes.ProductStep;
+import agents.service_agent.Service;
 import agents.service_agent.ServiceAgent;
 import agents.shared_behaviours.ReceiveBehaviour;
 
@@ -100,7 +101,8 @@ public class ScheduleStep extends ReceiveBehaviour implements ParentBehaviourCal
 	 * that were generated from the productStep specified in the message. To update the parameters additional
 	 * information is required from the logisticsAgent so first a conversation is initiated by sending a
 	 * ArePartsAvailable message. Also a behaviour is started to handle the answer. This causes a string of messages to
-	 * be send and received and in the end all serviceSteps are scheduled.
+	 * be send and received and in the end all serviceSteps are scheduled. A productStep whose serviceSteps are not on the
+	 * blackboard yet is first decomposed, after which the hardwareAgent puts its equipletSteps on the blackboard.
 	 * 
 	 * @param message the message to handle or null on timeout.
 	 */
@@ -116,7 +118,15 @@ public class ScheduleStep extends ReceiveBehaviour implements ParentBehaviourCal
 				
 				serviceAgent.mapConvIdWithProductStepId(message.getConversationId(), productStep.getId());
 
-				serviceAgent.addBehaviour(new ArePartsAvailable(serviceAgent, this, message.getConversationId(), productStep));
+				if(serviceAgent.takeDeferredDecomposition(productStep.getId())) {
+					// The duration was evaluated without the service steps, so they do not exist yet.
+					Service service = serviceAgent.getServiceForConvId(message.getConversationId());
+					ObjectId serviceStepId = serviceAgent.createServiceSteps(service, productStep);
+					serviceAgent.addBehaviour(new ServiceStepDuration(serviceAgent, this, message.getConversationId(),
+							serviceStepId, false));
+				} else {
+					serviceAgent.addBehaviour(new ArePartsAvailable(serviceAgent, this, message.getConversationId(), productStep));
+				}
 			//	ACLMessage sendMsg = new ACLMessage(ACLMessage.QUERY_IF);
 			//	sendMsg.setConversationId(message.getConversationId());
 			//	sendMsg.addReceiver(agent.getLogisticsAID());
@@ -135,6 +145,11 @@ public class ScheduleStep extends ReceiveBehaviour implements ParentBehaviourCal
 		
 		switch(result.getOntology()){
 			
+		case "ServiceStepDuration":
+			serviceAgent.addBehaviour(new ArePartsAvailable(serviceAgent, this, result.getConversationId(),
+					(ProductStep) arguments.getArgument("productStep")));
+			break;
+			
 		case "ArePartsAvailable":
 			serviceAgent.addBehaviour(new ArePartsAvailableInTime(serviceAgent, this, result.getConversationId(),
 					(ProductStep) arguments.getArgument("productStep")));
@@ -49,6 +49,7 @@ import libraries.utillities.log.Logger;
 
 import org.bson.types.ObjectId;
 
+import agents.data_classes.BehaviourCallbackItem;
 import agents.data_classes.ParentBehaviourCallback;
 import agents.data_classes.ProductStep;
 import agents.data_classes.ScheduleData;
@@ -97,6 +98,12 @@ public class ServiceStepDuration extends ReceiveBehaviour {
 	 */
 	private String conversationId;
 
+	/**
+	 * @var boolean saveDuration
+	 * 		Whether the evaluated duration is saved in the productStep
+	 */
+	private boolean saveDuration;
+
 	/**
 	 * Creates a new ServiceStepDuration instance with the specified parameters.
 	 * 
@@ -107,6 +114,20 @@ public class ServiceStepDuration extends ReceiveBehaviour {
 	 */
 	public ServiceStepDuration(ServiceAgent serviceAgent, ParentBehaviourCallback parentBehaviourCallback,
 			String conversationId, ObjectId objectId) {
+		this(serviceAgent, parentBehaviourCallback, conversationId, objectId, true);
+	}
+
+	/**
+	 * Creates a new ServiceStepDuration instance with the specified parameters.
+	 * 
+	 * @param serviceAgent the service agent this behaviour belongs to.
+	 * @param parentBehaviourCallback the parentbehaviour this behaviour calls back to 
+	 * @param conversationId the conversationId that any messages sent or received by this behaviour will have.
+	 * @param objectId The objectId used to check the duration
+	 * @param saveDuration Whether the duration is saved in the productStep, false when it is already known
+	 */
+	public ServiceStepDuration(ServiceAgent serviceAgent, ParentBehaviourCallback parentBehaviourCallback,
+			String conversationId, ObjectId objectId, boolean saveDuration) {
 		super(serviceAgent, MessageTemplate.MatchOntology("ServiceStepDuration"));
 		this.serviceAgent = serviceAgent;
 		
@@ -114,6 +135,7 @@ public class ServiceStepDuration extends ReceiveBehaviour {
 		
 		this.objectId = objectId;
 		this.conversationId = conversationId;
+		this.saveDuration = saveDuration;
 	}
 
 	@Override
@@ -161,14 +183,18 @@ public class ServiceStepDuration extends ReceiveBehaviour {
 				ObjectId productStepId = serviceStep.getProductStepId();
 				ProductStep productStep =
 						new ProductStep((BasicDBObject) serviceAgent.getProductStepBBClient().findDocumentById(productStepId));
-				ScheduleData scheduleData = productStep.getScheduleData();
-				scheduleData.setDuration(duration);
+				if(saveDuration) {
+					ScheduleData scheduleData = productStep.getScheduleData();
+					scheduleData.setDuration(duration);
 
-				Logger.log(LogLevel.DEBUG, "Saving duration of %d in prod. step %s%n", duration, productStepId);
-				serviceAgent.getProductStepBBClient().updateDocuments(new BasicDBObject("_id", productStepId),
-						new BasicDBObject("$set", new BasicDBObject("scheduleData", scheduleData.toBasicDBObject())));
+					Logger.log(LogLevel.DEBUG, "Saving duration of %d in prod. step %s%n", duration, productStepId);
+					serviceAgent.getProductStepBBClient().updateDocuments(new BasicDBObject("_id", productStepId),
+							new BasicDBObject("$set", new BasicDBObject("scheduleData", scheduleData.toBasicDBObject())));
+				}
 
-				parentBehaviourCallback.callback(message, null);
+				BehaviourCallbackItem arguments = new BehaviourCallbackItem();
+				arguments.addArgument("productStep", productStep);
+				parentBehaviourCallback.callback(message, arguments);
 				serviceAgent.removeBehaviour(this);
 				
 			} catch(InvalidDBNamespaceException | GeneralMongoException | UnreadableException e) {
@@ -0,0 +1,194 @@
+/**
+ * @file src/REXOS/MAS/benchmarks/agents/data_classes/StepChainBenchmark.java
+ * @brief Micro-benchmark for the StepChain.
+ * @date Created: 2013-10-18
+ *
+ * @section LICENSE
+ * License: newBSD
+ *
+ * Copyright © 2013, HU University of Applied Sciences Utrecht.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * - Neither the name of the HU University of Applied Sciences Utrecht nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE HU UNIVERSITY OF APPLIED SCIENCES UTRECHT
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+package agents.data_classes;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+import libraries.utillities.metrics.LatencyHistogram;
+
+import org.bson.types.ObjectId;
+
+/**
+ * Micro-benchmark for the StepChain.
+ * Builds a shuffled chain of steps and prints the time taken to order it with a new chain, to order it again with a
+ * cached chain after the status of a step changed, and to order it with the nested loops the steps were sorted with
+ * before. The orders are checked against each other while measuring.
+ * Usage: java agents.data_classes.StepChainBenchmark [chain length] [rounds]
+ */
+public class StepChainBenchmark {
+	/**
+	 * @var int DEFAULT_CHAIN_LENGTH
+	 *      The amount of steps per chain when no length is specified.
+	 */
+	private static final int DEFAULT_CHAIN_LENGTH = 2000;
+
+	/**
+	 * @var int DEFAULT_ROUNDS
+	 *      The amount of measured rounds when no amount is specified.
+	 */
+	private static final int DEFAULT_ROUNDS = 200;
+
+	/**
+	 * @var int WARM_UP_ROUNDS
+	 *      The amount of unmeasured rounds run first, so the measured code has been compiled.
+	 */
+	private static final int WARM_UP_ROUNDS = 50;
+
+	/**
+	 * A step that only consists of the links of the chain.
+	 */
+	private static class LinkedStep implements ChainedStep {
+		/**
+		 * @var ObjectId id
+		 *      The id of the step.
+		 */
+		private ObjectId id;
+
+		/**
+		 * @var ObjectId nextStepId
+		 *      The id of the next step.
+		 */
+		private ObjectId nextStepId;
+
+		/**
+		 * Constructs a step.
+		 * 
+		 * @param id the id of the step.
+		 * @param nextStepId the id of the next step.
+		 */
+		public LinkedStep(ObjectId id, ObjectId nextStepId) {
+			this.id = id;
+			this.nextStepId = nextStepId;
+		}
+
+		@Override
+		public ObjectId getId() {
+			return id;
+		}
+
+		@Override
+		public ObjectId getNextStepId() {
+			return nextStepId;
+		}
+	}
+
+	/**
+	 * Runs the benchmark.
+	 * 
+	 * @param args the optional chain length and amount of rounds.
+	 */
+	public static void main(String[] args) {
+		int length = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_CHAIN_LENGTH;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_ROUNDS;
+		Random random = new Random(42);
+
+		ObjectId[] ids = new ObjectId[length];
+		for(int i = 0; i < length; i++) {
+			ids[i] = new ObjectId();
+		}
+		ArrayList<LinkedStep> steps = new ArrayList<LinkedStep>(length);
+		for(int i = 0; i < length; i++) {
+			steps.add(new LinkedStep(ids[i], i + 1 < length ? ids[i + 1] : null));
+		}
+		Collections.shuffle(steps, random);
+		LinkedStep[] shuffled = steps.toArray(new LinkedStep[length]);
+
+		LatencyHistogram buildTime = new LatencyHistogram("order new chain (" + length + " steps)", "us");
+		LatencyHistogram cachedTime = new LatencyHistogram("order cached chain after update (" + length + " steps)", "us");
+		LatencyHistogram nestedTime = new LatencyHistogram("order with nested loops (" + length + " steps)", "us");
+
+		StepChain<LinkedStep> cached = new StepChain<LinkedStep>(shuffled);
+		long checksum = 0;
+		for(int round = 0; round < WARM_UP_ROUNDS + rounds; round++) {
+			boolean measured = round >= WARM_UP_ROUNDS;
+
+			long buildStart = System.nanoTime();
+			LinkedStep[] built = new StepChain<LinkedStep>(shuffled).toArray(new LinkedStep[length]);
+			long cachedStart = System.nanoTime();
+			LinkedStep updated = shuffled[random.nextInt(length)];
+			cached.put(new LinkedStep(updated.getId(), updated.getNextStepId()));
+			LinkedStep[] reordered = cached.toArray(new LinkedStep[length]);
+			long nestedStart = System.nanoTime();
+			LinkedStep[] nested = sortWithNestedLoops(shuffled);
+			long nestedEnd = System.nanoTime();
+
+			for(int i = 0; i < length; i++) {
+				if(!built[i].getId().equals(ids[i]) || !reordered[i].getId().equals(ids[i])
+						|| !nested[i].getId().equals(ids[i])) {
+					throw new IllegalStateException("Step " + i + " is out of order");
+				}
+			}
+			if(measured) {
+				buildTime.record((cachedStart - buildStart) / 1000);
+				cachedTime.record((nestedStart - cachedStart) / 1000);
+				nestedTime.record((nestedEnd - nestedStart) / 1000);
+			}
+			checksum += built[0].getId().hashCode() + reordered[length - 1].getId().hashCode();
+		}
+
+		System.out.println(buildTime);
+		System.out.println(cachedTime);
+		System.out.println(nestedTime);
+		System.out.println("checksum: " + checksum);
+	}
+
+	/**
+	 * Sorts steps the way EquipletStep.sort and ServiceStep.sort did before they used a StepChain: the first step is
+	 * found by checking every step against every other step, and every next step by searching all steps.
+	 * 
+	 * @param unsortedSteps the steps in any order.
+	 * @return the steps in chain order.
+	 */
+	private static LinkedStep[] sortWithNestedLoops(LinkedStep[] unsortedSteps) {
+		LinkedStep firstStep = null;
+		outer: for(LinkedStep step : unsortedSteps) {
+			for(LinkedStep step2 : unsortedSteps) {
+				if(step2.getNextStepId() != null && step2.getNextStepId().equals(step.getId())) {
+					continue outer;
+				}
+			}
+			firstStep = step;
+			break;
+		}
+
+		LinkedStep[] sortedSteps = new LinkedStep[unsortedSteps.length];
+		sortedSteps[0] = firstStep;
+		for(int i = 1; i < unsortedSteps.length; i++) {
+			ObjectId nextStepId = sortedSteps[i - 1].getNextStepId();
+			for(LinkedStep step : unsortedSteps) {
+				if(step.getId().equals(nextStepId)) {
+					sortedSteps[i] = step;
+					break;
+				}
+			}
+		}
+		return sortedSteps;
+	}
+}
@@ -0,0 +1,212 @@
+/**
+ * @file src/REXOS/MAS/benchmarks/agents/product_agent/FreeSlotFinderBenchmark.java
+ * @brief Micro-benchmark for the FreeSlotFinder.
+ * @date Created: 2013-10-18
+ *
+ * @section LICENSE
+ * License: newBSD
+ *
+ * Copyright © 2013, HU University of Applied Sciences Utrecht.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * - Neither the name of the HU University of Applied Sciences Utrecht nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE HU UNIVERSITY OF APPLIED SCIENCES UTRECHT
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+package agents.product_agent;
+
+import java.util.Random;
+
+import libraries.utillities.metrics.LatencyHistogram;
+
+/**
+ * Micro-benchmark for the FreeSlotFinder.
+ * Builds a random schedule with small gaps between the booked ranges and prints the time taken to build a finder and
+ * to find a fitting gap, next to the time taken by a sweep over all ranges. The results of the finder are checked
+ * against a brute force search on small schedules first and against the sweep while measuring.
+ * Usage: java agents.product_agent.FreeSlotFinderBenchmark [schedule size] [queries]
+ **/
+public class FreeSlotFinderBenchmark {
+	/**
+	 * @var int DEFAULT_SCHEDULE_SIZE
+	 * The amount of booked ranges per schedule when no size is specified.
+	 **/
+	private static final int DEFAULT_SCHEDULE_SIZE = 10000;
+
+	/**
+	 * @var int DEFAULT_QUERIES
+	 * The amount of measured searches when no amount is specified.
+	 **/
+	private static final int DEFAULT_QUERIES = 100000;
+
+	/**
+	 * @var int WARM_UP_ROUNDS
+	 * The amount of unmeasured rounds run first, so the measured code has been compiled.
+	 **/
+	private static final int WARM_UP_ROUNDS = 3;
+
+	/**
+	 * Runs the benchmark.
+	 * 
+	 * @param args the optional schedule size and amount of queries.
+	 **/
+	public static void main(String[] args) {
+		int size = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_SCHEDULE_SIZE;
+		int queries = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_QUERIES;
+		Random random = new Random(42);
+
+		verify(random);
+
+		long[] starts = new long[size];
+		long[] durations = new long[size];
+		createSchedule(random, starts, durations);
+		long horizon = starts[size - 1] + durations[size - 1];
+
+		LatencyHistogram buildTime = new LatencyHistogram("build finder (" + size + " ranges)", "us");
+		LatencyHistogram searchTime = new LatencyHistogram("find earliest fit (" + size + " ranges)", "ns");
+		LatencyHistogram sweepTime = new LatencyHistogram("sweep all ranges (" + size + " ranges)", "ns");
+
+		long checksum = 0;
+		for (int round = 0; round <= WARM_UP_ROUNDS; round++) {
+			boolean measured = round == WARM_UP_ROUNDS;
+
+			long buildStart = System.nanoTime();
+			FreeSlotFinder finder = new FreeSlotFinder(starts, durations);
+			if (measured) {
+				buildTime.record((System.nanoTime() - buildStart) / 1000);
+			}
+
+			for (int i = 0; i < queries; i++) {
+				long from = (long) (random.nextDouble() * horizon);
+				long duration = 1 + random.nextInt(20);
+
+				long searchStart = System.nanoTime();
+				long fit = finder.findEarliestFit(from, duration);
+				long searchEnd = System.nanoTime();
+				long swept = sweep(starts, durations, from, duration);
+				long sweepEnd = System.nanoTime();
+
+				if (fit != swept) {
+					throw new IllegalStateException("Finder returned " + fit + " instead of " + swept);
+				}
+				if (measured) {
+					searchTime.record(searchEnd - searchStart);
+					sweepTime.record(sweepEnd - searchEnd);
+				}
+				checksum += fit;
+			}
+		}
+
+		System.out.println(buildTime);
+		System.out.println(searchTime);
+		System.out.println(sweepTime);
+		System.out.println("checksum: " + checksum);
+	}
+
+	/**
+	 * Fills a schedule with consecutive booked ranges separated by gaps of zero to ten time slots.
+	 * 
+	 * @param random the random generator.
+	 * @param starts receives the start of every range.
+	 * @param durations receives the duration of every range.
+	 **/
+	private static void createSchedule(Random random, long[] starts, long[] durations) {
+		long time = 0;
+		for (int i = 0; i < starts.length; i++) {
+			time += random.nextInt(11);
+			starts[i] = time;
+			durations[i] = 1 + random.nextInt(10);
+			time += durations[i] + 1;
+		}
+	}
+
+	/**
+	 * Compares the finder with a brute force search on small random schedules, including overlapping ranges.
+	 * 
+	 * @param random the random generator.
+	 **/
+	private static void verify(Random random) {
+		for (int round = 0; round < 10000; round++) {
+			int size = random.nextInt(20);
+			long[] starts = new long[size];
+			long[] durations = new long[size];
+			for (int i = 0; i < size; i++) {
+				starts[i] = random.nextInt(200);
+				durations[i] = random.nextInt(15);
+			}
+			FreeSlotFinder finder = new FreeSlotFinder(starts, durations);
+			long from = random.nextInt(220);
+			long duration = random.nextInt(15);
+			long fit = finder.findEarliestFit(from, duration);
+			long expected = bruteForce(starts, durations, from, duration);
+			if (fit != expected) {
+				throw new IllegalStateException("Finder returned " + fit + " instead of " + expected);
+			}
+		}
+	}
+
+	/**
+	 * Finds the earliest fit by walking through all ranges of a schedule that is sorted on start time, which is what
+	 * the finder does without skipping the ranges that end before the requested start.
+	 * 
+	 * @param starts the start of every range, in ascending order.
+	 * @param durations the duration of every range.
+	 * @param from the earliest time slot the step may start.
+	 * @param duration the duration of the step.
+	 * @return the earliest fitting start.
+	 **/
+	private static long sweep(long[] starts, long[] durations, long from, long duration) {
+		long candidate = from;
+		for (int i = 0; i < starts.length; i++) {
+			long end = starts[i] + durations[i];
+			if (end < candidate) {
+				continue;
+			}
+			if (candidate + duration < starts[i]) {
+				return candidate;
+			}
+			candidate = end + 1;
+		}
+		return candidate;
+	}
+
+	/**
+	 * Finds the earliest fit by trying every candidate start against every booked range.
+	 * Candidates are only the requested start and the slot after every range, which is where a gap can begin.
+	 * 
+	 * @param starts the start of every range.
+	 * @param durations the duration of every range.
+	 * @param from the earliest time slot the step may start.
+	 * @param duration the duration of the step.
+	 * @return the earliest fitting start.
+	 **/
+	private static long bruteForce(long[] starts, long[] durations, long from, long duration) {
+		long best = Long.MAX_VALUE;
+		for (int c = -1; c < starts.length; c++) {
+			long candidate = c < 0 ? from : starts[c] + durations[c] + 1;
+			if (candidate < from || candidate >= best) {
+				continue;
+			}
+			boolean free = true;
+			for (int i = 0; i < starts.length && free; i++) {
+				free = starts[i] > candidate + duration || starts[i] + durations[i] < candidate;
+			}
+			if (free) {
+				best = candidate;
+			}
+		}
+		return best;
+	}
+}
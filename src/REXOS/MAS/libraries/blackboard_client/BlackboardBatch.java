@@ -0,0 +1,323 @@
+/**
+ * @file src/REXOS/MAS/libraries/blackboard_client/BlackboardBatch.java
+ * @brief Write-behind batch of inserts and updates on a collection.
+ * @date Created: 2013-10-18
+ *
+ * @section LICENSE
+ * License: newBSD
+ *
+ * Copyright © 2013, HU University of Applied Sciences Utrecht.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * - Neither the name of the HU University of Applied Sciences Utrecht nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE HU UNIVERSITY OF APPLIED SCIENCES UTRECHT
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+package libraries.blackboard_client;
+
+import java.util.ArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import libraries.blackboard_client.data_classes.GeneralMongoException;
+import libraries.utillities.log.LogLevel;
+import libraries.utillities.log.Logger;
+import libraries.utillities.metrics.LatencyHistogram;
+
+import org.bson.types.ObjectId;
+
+import com.mongodb.DB;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.MongoException;
+import com.mongodb.WriteConcern;
+
+/**
+ * Write-behind batch of inserts and updates on a single collection.
+ * Writes are collected in the order they were made and sent to the database when the batch is flushed, which
+ * happens when the batch reaches its maximum size, when the oldest pending write has waited for the maximum delay,
+ * or when flush or commit is called. Consecutive inserts are sent as a single bulk insert. All writes of a flush are
+ * sent over one connection, in order, and only the last one waits for the acknowledgement of the server, so a flush
+ * costs a single round trip.
+ *
+ * Since only the last write is acknowledged, an error caused by an earlier write of the same flush is not reported.
+ * Errors of flushes triggered by the timer are rethrown by the next call to flush or commit.
+ *
+ * Batches are thread-safe. A batch is obtained from {@link BlackboardClient#createBatch()} and is bound to the
+ * collection that was selected at that moment.
+ **/
+public class BlackboardBatch {
+	/**
+	 * @var ScheduledExecutorService flushTimer
+	 * Timer thread shared by all batches for flushing batches after their maximum delay.
+	 **/
+	private static final ScheduledExecutorService flushTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "BlackboardBatchFlusher");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	/**
+	 * Simple data object used to store a pending write.
+	 **/
+	private static class Write {
+		/**
+		 * @var DBObject document
+		 * The document to insert, or null if this is an update.
+		 **/
+		DBObject document;
+
+		/**
+		 * @var DBObject searchQuery
+		 * The query used to select the documents to update.
+		 **/
+		DBObject searchQuery;
+
+		/**
+		 * @var DBObject updateQuery
+		 * The query used to update the selected documents.
+		 **/
+		DBObject updateQuery;
+	}
+
+	/**
+	 * @var DBCollection collection
+	 * The collection the writes are made in.
+	 **/
+	private DBCollection collection;
+
+	/**
+	 * @var WriteConcern writeConcern
+	 * The write concern used for the last write of every flush.
+	 **/
+	private WriteConcern writeConcern;
+
+	/**
+	 * @var int maxSize
+	 * The amount of pending writes at which the batch is flushed.
+	 **/
+	private int maxSize;
+
+	/**
+	 * @var long maxDelay
+	 * The maximum time in milliseconds a write stays pending.
+	 **/
+	private long maxDelay;
+
+	/**
+	 * @var LatencyHistogram flushLatency
+	 * Histogram in which the duration of every flush is recorded, in microseconds.
+	 **/
+	private LatencyHistogram flushLatency;
+
+	/**
+	 * @var ArrayList<Write> pending
+	 * The writes that have not been sent yet, in the order they were made.
+	 **/
+	private ArrayList<Write> pending;
+
+	/**
+	 * @var ScheduledFuture<?> scheduledFlush
+	 * The timed flush for the currently pending writes, or null if none is scheduled.
+	 **/
+	private ScheduledFuture<?> scheduledFlush;
+
+	/**
+	 * @var GeneralMongoException timedFlushError
+	 * The error of the last flush triggered by the timer, which has not been reported yet.
+	 **/
+	private GeneralMongoException timedFlushError;
+
+	/**
+	 * @var boolean committed
+	 * Whether this batch has been committed and no longer accepts writes.
+	 **/
+	private boolean committed;
+
+	/**
+	 * Constructs a batch on the specified collection.
+	 * @param collection The collection the writes are made in.
+	 * @param writeConcern The write concern used for the last write of every flush.
+	 * @param maxSize The amount of pending writes at which the batch is flushed.
+	 * @param maxDelay The maximum time in milliseconds a write stays pending. A value of 0 or less disables the timer.
+	 * @param flushLatency Histogram in which the duration of every flush is recorded, in microseconds.
+	 **/
+	BlackboardBatch(DBCollection collection, WriteConcern writeConcern, int maxSize, long maxDelay, LatencyHistogram flushLatency) {
+		this.collection = collection;
+		this.writeConcern = writeConcern;
+		this.maxSize = Math.max(1, maxSize);
+		this.maxDelay = maxDelay;
+		this.flushLatency = flushLatency;
+		this.pending = new ArrayList<Write>();
+		this.committed = false;
+	}
+
+	/**
+	 * Adds an insert to the batch. The id of the document is assigned immediately, so it can be referred to by
+	 * other writes before the batch is flushed.
+	 * @param document The document that should be inserted.
+	 * @return ObjectId of the document that will be inserted.
+	 * @throws GeneralMongoException The batch was flushed because it reached its maximum size and a MongoException occurred.
+	 **/
+	public synchronized ObjectId insert(DBObject document) throws GeneralMongoException {
+		if (document.get("_id") == null) {
+			document.put("_id", new ObjectId());
+		}
+		Write write = new Write();
+		write.document = document;
+		add(write);
+		return ObjectId.massageToObjectId(document.get("_id"));
+	}
+
+	/**
+	 * Adds an update of all documents matching the search query to the batch.
+	 * @param searchQuery The query that should be used to select the target documents.
+	 * @param updateQuery The query that should be used to update the target documents.
+	 * @throws GeneralMongoException The batch was flushed because it reached its maximum size and a MongoException occurred.
+	 **/
+	public synchronized void update(DBObject searchQuery, DBObject updateQuery) throws GeneralMongoException {
+		Write write = new Write();
+		write.searchQuery = searchQuery;
+		write.updateQuery = updateQuery;
+		add(write);
+	}
+
+	/**
+	 * Returns the amount of writes that have not been sent yet.
+	 * @return The amount of pending writes.
+	 **/
+	public synchronized int getPendingCount() {
+		return pending.size();
+	}
+
+	/**
+	 * Adds a write to the pending writes and flushes or schedules a flush when needed.
+	 * @param write The write that should be added.
+	 * @throws GeneralMongoException The batch was flushed and a MongoException occurred.
+	 **/
+	private void add(Write write) throws GeneralMongoException {
+		if (committed) {
+			throw new IllegalStateException("Batch has already been committed.");
+		}
+		pending.add(write);
+		if (pending.size() >= maxSize) {
+			flush();
+		} else if (scheduledFlush == null && maxDelay > 0) {
+			scheduledFlush = flushTimer.schedule(new Runnable() {
+				@Override
+				public void run() {
+					timedFlush();
+				}
+			}, maxDelay, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Flushes the batch from the timer thread and stores the error, if any, for the next explicit flush.
+	 **/
+	private synchronized void timedFlush() {
+		scheduledFlush = null;
+		try {
+			send();
+		} catch (GeneralMongoException ex) {
+			Logger.log(LogLevel.ERROR, "Timed flush of batch on %s failed:\n%s\n", collection.getFullName(), ex.getMessage());
+			timedFlushError = ex;
+		}
+	}
+
+	/**
+	 * Sends all pending writes to the database and waits for the acknowledgement of the last one.
+	 * @throws GeneralMongoException A MongoException occurred, either now or during an earlier timed flush.
+	 **/
+	public synchronized void flush() throws GeneralMongoException {
+		if (scheduledFlush != null) {
+			scheduledFlush.cancel(false);
+			scheduledFlush = null;
+		}
+		GeneralMongoException error = timedFlushError;
+		timedFlushError = null;
+		send();
+		if (error != null) {
+			throw error;
+		}
+	}
+
+	/**
+	 * Flushes the batch and closes it. Writes added after a commit are rejected.
+	 * @throws GeneralMongoException A MongoException occurred.
+	 **/
+	public synchronized void commit() throws GeneralMongoException {
+		flush();
+		committed = true;
+	}
+
+	/**
+	 * Sends the pending writes over a single connection, grouping consecutive inserts into bulk inserts.
+	 * @throws GeneralMongoException A MongoException occurred.
+	 **/
+	private void send() throws GeneralMongoException {
+		if (pending.isEmpty()) {
+			return;
+		}
+
+		long start = System.nanoTime();
+		ArrayList<Write> writes = pending;
+		pending = new ArrayList<Write>();
+
+		DB db = collection.getDB();
+		db.requestStart();
+		try {
+			int i = 0;
+			while (i < writes.size()) {
+				if (writes.get(i).document != null) {
+					int end = i;
+					while (end < writes.size() && writes.get(end).document != null) {
+						end++;
+					}
+					DBObject[] documents = new DBObject[end - i];
+					for (int j = i; j < end; j++) {
+						documents[j - i] = writes.get(j).document;
+					}
+					collection.insert(documents, concernFor(end == writes.size()));
+					i = end;
+				} else {
+					Write write = writes.get(i);
+					collection.update(write.searchQuery, write.updateQuery, false, true, concernFor(i == writes.size() - 1));
+					i++;
+				}
+			}
+		} catch (MongoException mongoException) {
+			throw new GeneralMongoException("An error occurred attempting to flush a batch.", mongoException);
+		} finally {
+			db.requestDone();
+			flushLatency.record((System.nanoTime() - start) / 1000);
+		}
+	}
+
+	/**
+	 * Returns the write concern for a write within a flush.
+	 * @param last Whether the write is the last one of the flush.
+	 * @return The write concern of the batch for the last write, otherwise an unacknowledged write concern.
+	 **/
+	private WriteConcern concernFor(boolean last) {
+		return last ? writeConcern : WriteConcern.NORMAL;
+	}
+}
@@ -43,6 +43,9 @@ import libraries.blackboard_client.data_classes.GeneralMongoException;
 import libraries.blackboard_client.data_classes.InvalidDBNamespaceException;
 import libraries.blackboard_client.data_classes.InvalidJSONException;
 import libraries.blackboard_client.data_classes.MongoDBConnection;
+import libraries.blackboard_client.data_classes.OplogEntry;
+import libraries.utillities.metrics.LatencyHistogram;
+import libraries.utillities.metrics.MetricsReporter;
 
 import org.bson.types.ObjectId;
 
@@ -51,40 +54,29 @@ import com.mongodb.DBCollection;
 import com.mongodb.DBObject;
 import com.mongodb.Mongo;
 import com.mongodb.MongoException;
-import com.mongodb.QueryBuilder;
 import com.mongodb.ServerAddress;
 import com.mongodb.WriteConcern;
-import com.mongodb.WriteResult;
 import com.mongodb.util.JSON;
 import com.mongodb.util.JSONParseException;
 
+import configuration.Configuration;
+import configuration.ConfigurationFiles;
+
 /**
  * Client class for a mongodb blackboard.
  **/
 public class BlackboardClient {
 	/**
-	 * @var String OPLOG_COLLECTION_NAME
-	 * Operation log collection name of MongoDB.
-	 **/
-	private static final String OPLOG_COLLECTION_NAME = "oplog.rs";
-
-	/**
-	 * @var String OPLOG_DATABASE_NAME
-	 * Local database name of MongoDB.
+	 * @var int DEFAULT_BATCH_MAX_SIZE
+	 * The default amount of pending writes at which a batch is flushed.
 	 **/
-	private static final String OPLOG_DATABASE_NAME = "local";
-
-	/**
-	 * @var String oplogUser
-	 * The username for the oplog database.
-	 **/
-	private String oplogUser = null;
+	private static final int DEFAULT_BATCH_MAX_SIZE = 100;
 	
 	/**
-	 * @var String oplogPassword
-	 * The password to be used for the oplog database.
+	 * @var int DEFAULT_BATCH_MAX_DELAY
+	 * The default maximum time in milliseconds a write in a batch stays pending.
 	 **/
-	private String oplogPassword = null;
+	private static final int DEFAULT_BATCH_MAX_DELAY = 50;
 	
 	/**
 	 * @var Mongo mongo
@@ -93,28 +85,72 @@ public class BlackboardClient {
 	private Mongo mongo;
 
 	/**
-	 * @var ArrayList<BlackboardSubscription> subscriptions
-	 * ArrayList containing all the subscriptions for this blackboard.
+	 * @var ArrayList<OplogRegistration> registrations
+	 * ArrayList containing all the subscriptions for this blackboard, together with the namespace they were made in.
 	 **/
-	private ArrayList<BlackboardSubscription> subscriptions;
+	private ArrayList<OplogRegistration> registrations;
 
 	/**
 	 * @var DB currentDatabase
 	 * Database object of the currently used database
 	 **/
-	private DB currentDatabase;
+	private volatile DB currentDatabase;
 
 	/**
-	 * @var DBCollection currentCollection
-	 * DBCollection object of the currently used collection
+	 * @var BlackboardCollection currentCollection
+	 * Handle of the currently used collection
 	 **/
-	private DBCollection currentCollection;
+	private volatile BlackboardCollection currentCollection;
 
 	/**
-	 * @var OplogMonitorThread oplogMonitorThread
-	 * Thread for tracking tailable cursor on operation log of MongoDB
+	 * @var OplogMultiplexer oplogMultiplexer
+	 * The oplog tail shared by all clients connected to the same host.
+	 **/
+	private OplogMultiplexer oplogMultiplexer;
+	
+	/**
+	 * @var LatencyHistogram oplogLatency
+	 * Time in milliseconds between the oplog timestamp of an entry and the invocation of the subscriber callback.
+	 * Because oplog timestamps have a resolution of seconds, individual values may be off by up to a second.
+	 **/
+	private LatencyHistogram oplogLatency;
+	
+	/**
+	 * @var LatencyHistogram dispatchLatency
+	 * Time in microseconds between reading an entry from the oplog and the invocation of the subscriber callback.
+	 **/
+	private LatencyHistogram dispatchLatency;
+	
+	/**
+	 * @var boolean materializedDocuments
+	 * Whether subscriptions made by this client deliver entries carrying the resulting document.
 	 **/
-	private OplogMonitorThread oplogMonitorThread;
+	private volatile boolean materializedDocuments;
+	
+	/**
+	 * @var LatencyHistogram batchLatency
+	 * Time in microseconds it takes to flush a batch of writes.
+	 **/
+	private LatencyHistogram batchLatency;
+	
+	/**
+	 * @var int batchMaxSize
+	 * The amount of pending writes at which a batch created by this client is flushed.
+	 **/
+	private int batchMaxSize;
+	
+	/**
+	 * @var int batchMaxDelay
+	 * The maximum time in milliseconds a write in a batch created by this client stays pending.
+	 **/
+	private int batchMaxDelay;
+	
+	/**
+	 * @var WriteConcern writeConcern
+	 * The write concern used by this client for writes that do not specify one. The collections themselves are
+	 * never modified, so writes with different concerns can be made concurrently.
+	 **/
+	private volatile WriteConcern writeConcern;
 	
 	/**
 	 * Constructs a BlackboardClient for the server at the specified host.
@@ -124,8 +160,7 @@ public class BlackboardClient {
 	 * @throws UnknownHostException The IP address of a host could not be determined.
 	 **/
 	public BlackboardClient(String host) throws UnknownHostException, GeneralMongoException {
-		this.subscriptions = new ArrayList<BlackboardSubscription>();
-		this.mongo = MongoDBConnection.getInstanceForHost(new ServerAddress(host)).getMongoClient();
+		this(MongoDBConnection.getInstanceForHost(new ServerAddress(host)));
 	}
 
 	/**
@@ -137,20 +172,125 @@ public class BlackboardClient {
 	 * @throws UnknownHostException The IP address of a host could not be determined.
 	 **/
 	public BlackboardClient(String host, int port) throws UnknownHostException, GeneralMongoException {
-		this.subscriptions = new ArrayList<BlackboardSubscription>();
-		this.mongo = MongoDBConnection.getInstanceForHost(new ServerAddress(host, port)).getMongoClient();
+		this(MongoDBConnection.getInstanceForHost(new ServerAddress(host, port)));
+	}
+	
+	/**
+	 * Constructs a BlackboardClient using the specified connection.
+	 * 
+	 * @param connection The connection to the MongoDB host.
+	 **/
+	private BlackboardClient(MongoDBConnection connection) {
+		this.registrations = new ArrayList<OplogRegistration>();
+		this.mongo = connection.getMongoClient();
+		this.oplogMultiplexer = OplogMultiplexer.getInstanceForConnection(connection);
+		this.oplogLatency = MetricsReporter.register(new LatencyHistogram("oplog ts -> callback", "ms"));
+		this.dispatchLatency = MetricsReporter.register(new LatencyHistogram("oplog read -> callback", "us"));
+		this.batchLatency = MetricsReporter.register(new LatencyHistogram("batch flush", "us"));
+		this.writeConcern = mongo.getWriteConcern();
+		
+		this.batchMaxSize = Configuration.getPropertyInt(ConfigurationFiles.MONGO_DB_PROPERTIES, "batchMaxSize");
+		if (batchMaxSize <= 0) {
+			batchMaxSize = DEFAULT_BATCH_MAX_SIZE;
+		}
+		this.batchMaxDelay = Configuration.getPropertyInt(ConfigurationFiles.MONGO_DB_PROPERTIES, "batchMaxDelay");
+		if (batchMaxDelay <= 0) {
+			batchMaxDelay = DEFAULT_BATCH_MAX_DELAY;
+		}
+	}
+	
+	/**
+	 * Returns the histogram of the time in milliseconds between the oplog timestamp of an entry and
+	 * the invocation of the subscriber callback. Oplog timestamps have a resolution of seconds.
+	 * @return The oplog to callback latency histogram.
+	 **/
+	public LatencyHistogram getOplogLatencyHistogram() {
+		return oplogLatency;
+	}
+	
+	/**
+	 * Returns the histogram of the time in microseconds between reading an entry from the oplog and
+	 * the invocation of the subscriber callback.
+	 * @return The oplog read to callback latency histogram.
+	 **/
+	public LatencyHistogram getDispatchLatencyHistogram() {
+		return dispatchLatency;
+	}
+	
+	/**
+	 * Sets the write concern used by this client for writes that do not specify one.
+	 * Only affects this client; other clients and the shared collections are left untouched.
+	 * @param concern The default write concern for this client.
+	 **/
+	public void setWriteConcern(WriteConcern concern) {
+		this.writeConcern = concern;
+	}
+	
+	/**
+	 * Returns the write concern used by this client for writes that do not specify one.
+	 * @return The default write concern for this client.
+	 **/
+	public WriteConcern getWriteConcern() {
+		return writeConcern;
+	}
+	
+	/**
+	 * Returns the histogram of the time in microseconds it takes to flush a batch of writes created by this client.
+	 * @return The batch flush latency histogram.
+	 **/
+	public LatencyHistogram getBatchLatencyHistogram() {
+		return batchLatency;
+	}
+	
+	/**
+	 * Returns the current amount of callbacks waiting to be executed.
+	 * The callback queue is shared by all clients connected to the same host.
+	 * @return The current amount of pending callbacks.
+	 **/
+	public int getCallbackQueueDepth() {
+		return oplogMultiplexer.getCallbackDispatcher().getQueueDepth();
+	}
+	
+	/**
+	 * Returns the histogram of the time in microseconds callbacks spend waiting for a worker.
+	 * The callback queue is shared by all clients connected to the same host.
+	 * @return The callback wait time histogram.
+	 **/
+	public LatencyHistogram getCallbackWaitTimeHistogram() {
+		return oplogMultiplexer.getCallbackDispatcher().getWaitTimeHistogram();
 	}
 	
 	/**
 	 * Sets the username and password that will be used for connecting to the Oplog database.
 	 * If authentication is required, these credentials should be set before any subscriptions are added.
 	 * The client defaults to no authentication, in which case both username and password are set to null.
+	 * Since the oplog tail is shared by all clients connected to the same host, only the first credentials
+	 * set for a host are used.
 	 * @param username Username for the oplog database.
 	 * @param password Password for the oplog database.
 	 **/
 	public void setOplogCredentials(String username, String password) {
-		this.oplogUser = username;
-		this.oplogPassword = password;
+		oplogMultiplexer.setOplogCredentials(username, password);
+	}
+
+	/**
+	 * Enables or disables materialized documents for subscriptions made after this call.
+	 * When enabled, a local view of the subscribed collection is kept up to date from the oplog and every
+	 * delivered OplogEntry carries the resulting document, which is available through OplogEntry.getDocument().
+	 * Subscribers then no longer have to query the blackboard for the document that was changed.
+	 * The view is shared by all clients connected to the same host and is seeded with a single query.
+	 * @param enabled Whether materialized documents should be enabled.
+	 **/
+	public void setMaterializedDocuments(boolean enabled) {
+		this.materializedDocuments = enabled;
+	}
+	
+	/**
+	 * Returns whether subscriptions made by this client deliver entries carrying the resulting document.
+	 * @return Whether materialized documents are enabled.
+	 **/
+	public boolean isMaterializedDocuments() {
+		return materializedDocuments;
 	}
 
 	/**
@@ -214,7 +354,40 @@ public class BlackboardClient {
 		if (currentDatabase == null) {
 			throw new InvalidDBNamespaceException("No database selected");
 		}
-		currentCollection = currentDatabase.getCollection(collection);
+		currentCollection = new BlackboardCollection(this, currentDatabase.getCollection(collection));
+	}
+
+	/**
+	 * Returns a handle to the specified collection. Handles are thread-safe and share the connection and the oplog
+	 * tail of this client, so a single client can serve any number of collections concurrently.
+	 *
+	 * @param database The name of the database.
+	 * @param collection The name of the collection.
+	 * @return The handle to the collection.
+	 * @throws InvalidDBNamespaceException Database or collection name is empty.
+	 **/
+	public BlackboardCollection getCollection(String database, String collection) throws InvalidDBNamespaceException {
+		if (database == null || database.isEmpty()) {
+			throw new InvalidDBNamespaceException("Database name cannot be empty.");
+		}
+		if (collection == null || collection.isEmpty()) {
+			throw new InvalidDBNamespaceException("Collection name cannot be empty.");
+		}
+		return new BlackboardCollection(this, mongo.getDB(database).getCollection(collection));
+	}
+	
+	/**
+	 * Returns the handle to the currently selected collection.
+	 *
+	 * @return The handle to the currently selected collection.
+	 * @throws InvalidDBNamespaceException No collection has been selected.
+	 **/
+	public BlackboardCollection getCurrentCollection() throws InvalidDBNamespaceException {
+		BlackboardCollection collection = currentCollection;
+		if (collection == null) {
+			throw new InvalidDBNamespaceException("No collection has been selected.");
+		}
+		return collection;
 	}
 
 	/**
@@ -226,15 +399,20 @@ public class BlackboardClient {
 	 * @throws GeneralMongoException A MongoException occurred.
 	 **/
 	public ObjectId insertDocument(DBObject obj) throws InvalidDBNamespaceException, GeneralMongoException {
-		if (currentCollection == null) {
-			throw new InvalidDBNamespaceException("No collection has been selected.");
-		}
-		try {
-			currentCollection.insert(obj);
-		} catch (MongoException mongoException) {
-			throw new GeneralMongoException("An error occurred attempting to insert.", mongoException);
-		}
-		return ObjectId.massageToObjectId(obj.get("_id"));
+		return getCurrentCollection().insertDocument(obj);
+	}
+	
+	/**
+	 * Inserts a document into the currently selected collection using the specified write concern.
+	 * 
+	 * @param obj DBObject representing the document to be inserted.
+	 * @param concern The write concern for this insert.
+	 * @return ObjectId of the inserted object.
+	 * @throws InvalidDBNamespaceException No collection has been selected.
+	 * @throws GeneralMongoException A MongoException occurred.
+	 **/
+	public ObjectId insertDocument(DBObject obj, WriteConcern concern) throws InvalidDBNamespaceException, GeneralMongoException {
+		return getCurrentCollection().insertDocument(obj, concern);
 	}
 	
 	/**
@@ -247,18 +425,7 @@ public class BlackboardClient {
 	 * @throws GeneralMongoException A MongoException occurred.
 	 **/
 	public ObjectId insertDocumentUnsafe(DBObject obj) throws InvalidDBNamespaceException, GeneralMongoException {
-		if (currentCollection == null) {
-			throw new InvalidDBNamespaceException("No collection has been selected.");
-		}
-		try {
-			WriteConcern oldConcern = currentCollection.getWriteConcern();
-			currentCollection.setWriteConcern(WriteConcern.NORMAL);
-			currentCollection.insert(obj);
-			currentCollection.setWriteConcern(oldConcern);
-		} catch (MongoException mongoException) {
-			throw new GeneralMongoException("An error occurred attempting to insert.", mongoException);
-		}
-		return ObjectId.massageToObjectId(obj.get("_id"));
+		return getCurrentCollection().insertDocumentUnsafe(obj);
 	}
 	
 	/**
@@ -269,14 +436,19 @@ public class BlackboardClient {
 	 * @throws GeneralMongoException A MongoException occurred.
 	 **/
 	public void insertDocuments(DBObject... objs) throws InvalidDBNamespaceException, GeneralMongoException {
-		if (currentCollection == null) {
-			throw new InvalidDBNamespaceException("No collection has been selected.");
-		}
-		try {
-			currentCollection.insert(objs);
-		} catch (MongoException mongoException) {
-			throw new GeneralMongoException("An error occurred attempting to insert.", mongoException);
-		}
+		getCurrentCollection().insertDocuments(objs);
+	}
+	
+	/**
+	 * Inserts a number of documents into the currently selected collection using the specified write concern.
+	 * 
+	 * @param concern The write concern for this insert.
+	 * @param objs DBObjects that should be inserted into the database.
+	 * @throws InvalidDBNamespaceException No collection has been selected.
+	 * @throws GeneralMongoException A MongoException occurred.
+	 **/
+	public void insertDocuments(WriteConcern concern, DBObject... objs) throws InvalidDBNamespaceException, GeneralMongoException {
+		getCurrentCollection().insertDocuments(concern, objs);
 	}
 	
 	/**
@@ -288,17 +460,7 @@ public class BlackboardClient {
 	 * @throws GeneralMongoException A MongoException occurred.
 	 **/
 	public void insertDocumentsUnsafe(DBObject... objs) throws InvalidDBNamespaceException, GeneralMongoException {
-		if (currentCollection == null) {
-			throw new InvalidDBNamespaceException("No collection has been selected.");
-		}
-		try {
-			WriteConcern oldConcern = currentCollection.getWriteConcern();
-			currentCollection.setWriteConcern(WriteConcern.NORMAL);
-			currentCollection.insert(objs);
-			currentCollection.setWriteConcern(oldConcern);
-		} catch (MongoException mongoException) {
-			throw new GeneralMongoException("An error occurred attempting to insert.", mongoException);
-		}
+		getCurrentCollection().insertDocumentsUnsafe(objs);
 	}
 	
 	/**
@@ -311,8 +473,51 @@ public class BlackboardClient {
 	 * @throws GeneralMongoException A MongoException occurred.
 	 **/
 	public ObjectId insertDocument(String json) throws InvalidJSONException, InvalidDBNamespaceException, GeneralMongoException {
-		DBObject obj = parseJSONWithCheckedException(json);
-		return insertDocument(obj);
+		return getCurrentCollection().insertDocument(json);
+	}
+	
+	/**
+	 * Creates a write-behind batch on the currently selected collection, using the configured maximum size and delay.
+	 * 
+	 * @return The created batch.
+	 * @throws InvalidDBNamespaceException No collection has been selected.
+	 **/
+	public BlackboardBatch createBatch() throws InvalidDBNamespaceException {
+		return getCurrentCollection().createBatch();
+	}
+	
+	/**
+	 * Creates a write-behind batch on the currently selected collection.
+	 * 
+	 * @param maxSize The amount of pending writes at which the batch is flushed.
+	 * @param maxDelay The maximum time in milliseconds a write stays pending. A value of 0 or less only flushes on size or commit.
+	 * @return The created batch.
+	 * @throws InvalidDBNamespaceException No collection has been selected.
+	 **/
+	public BlackboardBatch createBatch(int maxSize, long maxDelay) throws InvalidDBNamespaceException {
+		return getCurrentCollection().createBatch(maxSize, maxDelay);
+	}
+	
+	/**
+	 * Creates a write-behind batch on the specified collection, using the configured maximum size and delay.
+	 * 
+	 * @param collection The collection the batch writes to.
+	 * @return The created batch.
+	 **/
+	BlackboardBatch createBatch(DBCollection collection) {
+		return createBatch(collection, batchMaxSize, batchMaxDelay);
+	}
+	
+	/**
+	 * Creates a write-behind batch on the specified collection.
+	 * 
+	 * @param collection The collection the batch writes to.
+	 * @param maxSize The amount of pending writes at which the batch is flushed.
+	 * @param maxDelay The maximum time in milliseconds a write stays pending. A value of 0 or less only flushes on size or commit.
+	 * @return The created batch.
+	 **/
+	BlackboardBatch createBatch(DBCollection collection, int maxSize, long maxDelay) {
+		return new BlackboardBatch(collection, writeConcern, maxSize, maxDelay, batchLatency);
 	}
 
 	/**
@@ -324,17 +529,20 @@ public class BlackboardClient {
 	 * @throws GeneralMongoException A MongoException occurred.
 	 **/
 	public int removeDocuments(DBObject query) throws InvalidDBNamespaceException, GeneralMongoException {
-		if (currentCollection == null) {
-			throw new InvalidDBNamespaceException("No collection has been selected.");
-		}
-		
-		try {
-			WriteResult res = currentCollection.remove(query);
-			return res.getN();
-		} catch (MongoException mongoException) {
-			throw new GeneralMongoException("An error occurred attempting to remove.", mongoException);
-		}
-		
+		return getCurrentCollection().removeDocuments(query);
+	}
+	
+	/**
+	 * Removes all documents matching the provided query from the currently selected collection using the specified write concern.
+	 * 
+	 * @param query DBObject representing the query used for deleting documents.
+	 * @param concern The write concern for this remove.
+	 * @return The amount of records that have been removed, or -1 if the write concern does not wait for the server.
+	 * @throws InvalidDBNamespaceException No collection has been selected.
+	 * @throws GeneralMongoException A MongoException occurred.
+	 **/
+	public int removeDocuments(DBObject query, WriteConcern concern) throws InvalidDBNamespaceException, GeneralMongoException {
+		return getCurrentCollection().removeDocuments(query, concern);
 	}
 	
 	/**
@@ -346,18 +554,7 @@ public class BlackboardClient {
 	 * @throws GeneralMongoException A MongoException occurred.
 	 **/
 	public void removeDocumentsUnsafe(DBObject query) throws InvalidDBNamespaceException, GeneralMongoException {
-		if (currentCollection == null) {
-			throw new InvalidDBNamespaceException("No collection has been selected.");
-		}
-		
-		try {
-			WriteConcern oldConcern = currentCollection.getWriteConcern();
-			currentCollection.setWriteConcern(WriteConcern.NORMAL);
-			currentCollection.remove(query);
-			currentCollection.setWriteConcern(oldConcern);
-		} catch (MongoException mongoException) {
-			throw new GeneralMongoException("An error occurred attempting to remove.", mongoException);
-		}
+		getCurrentCollection().removeDocumentsUnsafe(query);
 	}
 	
 	/**
@@ -370,8 +567,7 @@ public class BlackboardClient {
 	 * @throws GeneralMongoException A MongoException occurred.
 	 **/
 	public int removeDocuments(String queryAsJSON) throws InvalidJSONException, InvalidDBNamespaceException, GeneralMongoException {
-		DBObject query = parseJSONWithCheckedException(queryAsJSON);
-		return removeDocuments(query);
+		return getCurrentCollection().removeDocuments(queryAsJSON);
 	}
 	
 	/**
@@ -383,17 +579,20 @@ public class BlackboardClient {
 	 * @throws GeneralMongoException A MongoException occurred.
 	 **/
 	public DBObject findDocumentById(ObjectId objId) throws InvalidDBNamespaceException, GeneralMongoException {
-		if (currentCollection == null) {
-			throw new InvalidDBNamespaceException("No collection has been selected.");
-		}
-		
-		try {
-			DBObject found = currentCollection.findOne(QueryBuilder.start("_id").is(objId).get());
-			return found;
-		} catch (MongoException mongoException){
-			throw new GeneralMongoException("An error occurred attempting to remove.", mongoException);
-		}
-		
+		return getCurrentCollection().findDocumentById(objId);
+	}
+	
+	/**
+	 * Retrieves the target document of an oplog entry, as it was after the operation.
+	 * The document carried by the entry is used when available; otherwise it is read from the currently selected collection.
+	 *
+	 * @param entry The oplog entry of which the target document is requested.
+	 * @return The target document, or null if no such document was found.
+	 * @throws InvalidDBNamespaceException No collection has been selected.
+	 * @throws GeneralMongoException A MongoException occurred.
+	 **/
+	public DBObject findDocument(OplogEntry entry) throws InvalidDBNamespaceException, GeneralMongoException {
+		return getCurrentCollection().findDocument(entry);
 	}
 	
 	/**
@@ -405,16 +604,7 @@ public class BlackboardClient {
 	 * @throws GeneralMongoException A MongoException occurred.
 	 **/
 	public List<DBObject> findDocuments(DBObject query) throws InvalidDBNamespaceException, GeneralMongoException {
-		if (currentCollection == null) {
-			throw new InvalidDBNamespaceException("No collection has been selected.");
-		}
-		
-		try {
-			List<DBObject> found = currentCollection.find(query).toArray();
-			return found;
-		} catch (MongoException mongoException) {
-			throw new GeneralMongoException("An error occurred attempting to execute find query.", mongoException);
-		}
+		return getCurrentCollection().findDocuments(query);
 	}
 	
 	/**
@@ -427,8 +617,7 @@ public class BlackboardClient {
 	 * @throws GeneralMongoException A MongoException occurred.
 	 **/
 	public List<DBObject> findDocuments(String queryAsJSON) throws InvalidJSONException, InvalidDBNamespaceException, GeneralMongoException {
-		DBObject query = parseJSONWithCheckedException(queryAsJSON);
-		return findDocuments(query);
+		return getCurrentCollection().findDocuments(queryAsJSON);
 	}
 	
 	/**
@@ -437,20 +626,11 @@ public class BlackboardClient {
 	 * @param distinctField The field for which to return the distinct values.
 	 * @param query DBObject representing the query.
 	 * @return Object array containing the distinct values of the specified field.
-	 * @throws InvalidJSONException The provided JSON contains errors.
 	 * @throws InvalidDBNamespaceException No collection has been selected.
 	 * @throws GeneralMongoException A MongoException occurred.
 	 **/
 	public Object[] findDistinctValues(String distinctField, DBObject query) throws InvalidDBNamespaceException, GeneralMongoException {
-		if (currentCollection == null) {
-			throw new InvalidDBNamespaceException("No collection has been selected.");
-		}
-		
-		try {
-			return currentCollection.distinct(distinctField, query).toArray(); 
-		} catch (MongoException mongoException) {
-			throw new GeneralMongoException("An error occurred attempting to execute distinct query.", mongoException);
-		}
+		return getCurrentCollection().findDistinctValues(distinctField, query);
 	}
 	
 	/**
@@ -464,8 +644,7 @@ public class BlackboardClient {
 	 * @throws GeneralMongoException A MongoException occurred.
 	 **/
 	public Object[] findDistinctValues(String distinctField, String queryAsJSON) throws InvalidJSONException, InvalidDBNamespaceException, GeneralMongoException {
-		DBObject query = parseJSONWithCheckedException(queryAsJSON);
-		return findDistinctValues(distinctField, query);
+		return getCurrentCollection().findDistinctValues(distinctField, queryAsJSON);
 	}
 	
 	/**
@@ -479,16 +658,22 @@ public class BlackboardClient {
 	 * @throws GeneralMongoException A MongoException occurred.
 	 **/
 	public int updateDocuments(DBObject searchQuery, DBObject updateQuery) throws InvalidDBNamespaceException, GeneralMongoException {
-		if (currentCollection == null) {
-			throw new InvalidDBNamespaceException("No collection has been selected.");
-		}
-		
-		try {
-			WriteResult res = currentCollection.updateMulti(searchQuery, updateQuery);
-			return res.getN();
-		} catch (MongoException mongoException) {
-			throw new GeneralMongoException("An error occurred attempting to update.", mongoException);
-		}
+		return getCurrentCollection().updateDocuments(searchQuery, updateQuery);
+	}
+	
+	/**
+	 * Updates all documents matching the provided search query within the currently selected collection using the specified write concern.
+	 * Documents are updated according to the query specified in updateQuery.
+	 * 
+	 * @param searchQuery The query that should be used to select the target documents.
+	 * @param updateQuery The query that should be used to update the target documents.
+	 * @param concern The write concern for this update.
+	 * @return The amount of documents that have been updated, or -1 if the write concern does not wait for the server.
+	 * @throws InvalidDBNamespaceException No collection has been selected.
+	 * @throws GeneralMongoException A MongoException occurred.
+	 **/
+	public int updateDocuments(DBObject searchQuery, DBObject updateQuery, WriteConcern concern) throws InvalidDBNamespaceException, GeneralMongoException {
+		return getCurrentCollection().updateDocuments(searchQuery, updateQuery, concern);
 	}
 	
 	/**
@@ -498,23 +683,11 @@ public class BlackboardClient {
 	 * 
 	 * @param searchQuery The query that should be used to select the target documents.
 	 * @param updateQuery The query that should be used to update the target documents.
-	 * @return The amount of documents that have been updated.
 	 * @throws InvalidDBNamespaceException No collection has been selected.
 	 * @throws GeneralMongoException A MongoException occurred.
 	 **/
 	public void updateDocumentsUnsafe(DBObject searchQuery, DBObject updateQuery) throws InvalidDBNamespaceException, GeneralMongoException {
-		if (currentCollection == null) {
-			throw new InvalidDBNamespaceException("No collection has been selected.");
-		}
-		
-		try {
-			WriteConcern oldConcern = currentCollection.getWriteConcern();
-			currentCollection.setWriteConcern(WriteConcern.NORMAL);
-			currentCollection.updateMulti(searchQuery, updateQuery);
-			currentCollection.setWriteConcern(oldConcern);
-		} catch (MongoException mongoException) {
-			throw new GeneralMongoException("An error occurred attempting to update.", mongoException);
-		}
+		getCurrentCollection().updateDocumentsUnsafe(searchQuery, updateQuery);
 	}
 	
 	/**
@@ -529,10 +702,7 @@ public class BlackboardClient {
 	 * @throws GeneralMongoException A MongoException occurred.
 	 **/
 	public int updateDocuments(String searchQueryAsJSON, String updateQueryAsJSON) throws InvalidJSONException, InvalidDBNamespaceException, GeneralMongoException {
-		DBObject searchQuery = parseJSONWithCheckedException(searchQueryAsJSON);
-		DBObject updateQuery = parseJSONWithCheckedException(updateQueryAsJSON);
-		
-		return updateDocuments(searchQuery, updateQuery);
+		return getCurrentCollection().updateDocuments(searchQueryAsJSON, updateQueryAsJSON);
 	}
 	
 	/**
@@ -543,18 +713,28 @@ public class BlackboardClient {
 	 * @return true if subscription was successful. false otherwise.
 	 **/
 	public boolean subscribe(BlackboardSubscription sub) throws InvalidDBNamespaceException {
-		if (currentCollection == null) {
-			throw new InvalidDBNamespaceException("No collection selected");
-		}
-		subscriptions.add(sub);
+		return getCurrentCollection().subscribe(sub);
+	}
+	
+	/**
+	 * Subscribes to the specified CRUD operation in the specified namespace.
+	 * 
+	 * @param namespace The namespace (database.collection) of the collection.
+	 * @param sub Specification of operation and callback object.
+	 * @return true if subscription was successful. false otherwise.
+	 **/
+	boolean subscribe(String namespace, BlackboardSubscription sub) {
+		OplogRegistration registration = new OplogRegistration(namespace, sub,
+				oplogLatency, dispatchLatency, materializedDocuments);
 		
-		// Attempt to create a new thread for the current subscriptions.
-		boolean creationSuccessfull = createNewMonitorThread();
-		if (!creationSuccessfull) {
-			subscriptions.remove(sub);
+		boolean registrationSuccessfull = oplogMultiplexer.register(registration);
+		if (registrationSuccessfull) {
+			synchronized (registrations) {
+				registrations.add(registration);
+			}
 		}
 		
-		return creationSuccessfull;
+		return registrationSuccessfull;
 	}
 	
 	/**
@@ -563,74 +743,46 @@ public class BlackboardClient {
 	 * @param sub Subscription that should be removed.
 	 **/
 	public void unsubscribe(BlackboardSubscription sub) {
-		// Only create a new thread if a subscription was actually removed.
-		if (subscriptions.remove(sub)) {
-			if (subscriptions.size() > 0) {
-				createNewMonitorThread();
-			} else if (oplogMonitorThread != null) {
-				oplogMonitorThread.interrupt();
-			}
-		}
+		unsubscribe(null, sub);
 	}
 	
 	/**
-	 * Closes and cleans up any open resources for this client.
-	 * Should be called before disposing of the BlackboardClient object.
+	 * Removes the specified subscription from the specified namespace.
+	 * 
+	 * @param namespace The namespace (database.collection) of the collection, or null to match any namespace.
+	 * @param sub Subscription that should be removed.
 	 **/
-	public void close() {
+	void unsubscribe(String namespace, BlackboardSubscription sub) {
+		OplogRegistration removed = null;
+		synchronized (registrations) {
+			for (OplogRegistration registration : registrations) {
+				if (registration.getSubscription().equals(sub)
+						&& (namespace == null || registration.getNamespace().equals(namespace))) {
+					removed = registration;
+					break;
+				}
+			}
+			registrations.remove(removed);
+		}
 		
-		// Stop the monitor thread.
-		if (oplogMonitorThread != null) {
-			oplogMonitorThread.interrupt();
+		if (removed != null) {
+			oplogMultiplexer.unregister(removed);
 		}
 	}
-
+	
 	/**
-	 * Attempts to create and start a new monitor thread.
-	 * If creation of a new thread fails, the old thread will be kept alive.
-	 * @return true if the new thread was created successfully, false otherwise.
+	 * Closes and cleans up any open resources for this client.
+	 * Should be called before disposing of the BlackboardClient object.
 	 **/
-	private boolean createNewMonitorThread() {
-		OplogMonitorThread newThread = null;
-		
-		// Create a query that will select all documents matching one of the queries of the subscribers within the
-		// selected database/collection combination.
-		DBObject[] subs = new DBObject[subscriptions.size()];
-		for (int i = 0 ; i < subscriptions.size() ; ++i) {
-			subs[i] = subscriptions.get(i).getQuery();
-		}
-		
-		DBObject query = 
-				// If namespace is current database and collection.
-				QueryBuilder.start("ns").is(currentDatabase.getName() + "." + currentCollection.getName())
-				// And it matches one of the subscriptions
-				.and(QueryBuilder.start().or(subs).get()).get();
-
-		try {
-			if (oplogUser != null) {
-				newThread = new OplogMonitorThread(
-						mongo,
-						OPLOG_DATABASE_NAME,
-						OPLOG_COLLECTION_NAME,
-						oplogUser,
-						oplogPassword,
-						query);
-			} else {
-				newThread = new OplogMonitorThread(mongo, OPLOG_DATABASE_NAME, OPLOG_COLLECTION_NAME, query);
-			}
-		} catch (MongoException ex) {
-			// This can happen when the database has not been configured properly and the Oplog collection does not exist.
-			// Creating a tailed cursor on a non-existing collection throws a MongoException.
-			return false;
+	public void close() {
+		// Remove the subscriptions of this client from the shared oplog tail.
+		ArrayList<OplogRegistration> removed;
+		synchronized (registrations) {
+			removed = new ArrayList<OplogRegistration>(registrations);
+			registrations.clear();
 		}
-		
-		if (oplogMonitorThread != null) {
-			oplogMonitorThread.interrupt();
+		for (OplogRegistration registration : removed) {
+			oplogMultiplexer.unregister(registration);
 		}
-		oplogMonitorThread = newThread;
-		oplogMonitorThread.setSubscriptions(subscriptions);
-		oplogMonitorThread.start();
-		
-		return true;
 	}
-}
\ No newline at end of file
+}
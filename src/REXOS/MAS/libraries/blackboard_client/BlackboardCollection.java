@@ -0,0 +1,433 @@
+/**
+ * @file src/REXOS/MAS/libraries/blackboard_client/BlackboardCollection.java
+ * @brief Thread-safe handle to a single blackboard collection.
+ * @date Created: 2013-10-18
+ *
+ * @section LICENSE
+ * License: newBSD
+ *
+ * Copyright © 2013, HU University of Applied Sciences Utrecht.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * - Neither the name of the HU University of Applied Sciences Utrecht nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE HU UNIVERSITY OF APPLIED SCIENCES UTRECHT
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+package libraries.blackboard_client;
+
+import java.util.List;
+
+import libraries.blackboard_client.data_classes.BlackboardSubscription;
+import libraries.blackboard_client.data_classes.GeneralMongoException;
+import libraries.blackboard_client.data_classes.InvalidJSONException;
+import libraries.blackboard_client.data_classes.OplogEntry;
+
+import org.bson.types.ObjectId;
+
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.MongoException;
+import com.mongodb.QueryBuilder;
+import com.mongodb.WriteConcern;
+import com.mongodb.WriteResult;
+
+/**
+ * Handle to a single collection of a blackboard, obtained from {@link BlackboardClient#getCollection(String, String)}.
+ * A handle is bound to its collection for its whole lifetime and has no mutable state of its own, so it can be
+ * shared between threads. All handles of a client share the connection pool and the oplog tail of that client.
+ * Writes that do not specify a write concern use the default write concern of the client.
+ **/
+public class BlackboardCollection {
+	/**
+	 * @var BlackboardClient client
+	 * The client this handle was obtained from.
+	 **/
+	private final BlackboardClient client;
+	
+	/**
+	 * @var DBCollection collection
+	 * The collection this handle is bound to.
+	 **/
+	private final DBCollection collection;
+	
+	/**
+	 * Constructs a handle to the specified collection.
+	 * @param client The client this handle was obtained from.
+	 * @param collection The collection this handle is bound to.
+	 **/
+	BlackboardCollection(BlackboardClient client, DBCollection collection) {
+		this.client = client;
+		this.collection = collection;
+	}
+	
+	/**
+	 * Returns the client this handle was obtained from.
+	 * @return The client of this handle.
+	 **/
+	public BlackboardClient getClient() {
+		return client;
+	}
+	
+	/**
+	 * Returns the name of the collection.
+	 * @return The name of the collection.
+	 **/
+	public String getName() {
+		return collection.getName();
+	}
+	
+	/**
+	 * Returns the namespace (database.collection) of the collection.
+	 * @return The namespace of the collection.
+	 **/
+	public String getFullName() {
+		return collection.getFullName();
+	}
+	
+	/**
+	 * Inserts a document into the collection.
+	 * 
+	 * @param obj DBObject representing the document to be inserted.
+	 * @return ObjectId of the inserted object.
+	 * @throws GeneralMongoException A MongoException occurred.
+	 **/
+	public ObjectId insertDocument(DBObject obj) throws GeneralMongoException {
+		return insertDocument(obj, client.getWriteConcern());
+	}
+	
+	/**
+	 * Inserts a document into the collection using the specified write concern.
+	 * 
+	 * @param obj DBObject representing the document to be inserted.
+	 * @param concern The write concern for this insert.
+	 * @return ObjectId of the inserted object.
+	 * @throws GeneralMongoException A MongoException occurred.
+	 **/
+	public ObjectId insertDocument(DBObject obj, WriteConcern concern) throws GeneralMongoException {
+		try {
+			collection.insert(obj, concern);
+		} catch (MongoException mongoException) {
+			throw new GeneralMongoException("An error occurred attempting to insert.", mongoException);
+		}
+		return ObjectId.massageToObjectId(obj.get("_id"));
+	}
+	
+	/**
+	 * Inserts a document into the collection.
+	 * Does not wait for the server to perform write to disk, nor does it check for errors other than networks errors.
+	 * 
+	 * @param obj DBObject representing the document to be inserted.
+	 * @return ObjectId of the inserted object.
+	 * @throws GeneralMongoException A MongoException occurred.
+	 **/
+	public ObjectId insertDocumentUnsafe(DBObject obj) throws GeneralMongoException {
+		return insertDocument(obj, WriteConcern.NORMAL);
+	}
+	
+	/**
+	 * Inserts a document into the collection using JSON format.
+	 *
+	 * @param json JSON String representing the document to be inserted.
+	 * @return ObjectId of the inserted object.
+	 * @throws InvalidJSONException The provided JSON contains errors.
+	 * @throws GeneralMongoException A MongoException occurred.
+	 **/
+	public ObjectId insertDocument(String json) throws InvalidJSONException, GeneralMongoException {
+		return insertDocument(BlackboardClient.parseJSONWithCheckedException(json));
+	}
+	
+	/**
+	 * Inserts a number of documents into the collection.
+	 * 
+	 * @param objs DBObjects that should be inserted into the database.
+	 * @throws GeneralMongoException A MongoException occurred.
+	 **/
+	public void insertDocuments(DBObject... objs) throws GeneralMongoException {
+		insertDocuments(client.getWriteConcern(), objs);
+	}
+	
+	/**
+	 * Inserts a number of documents into the collection using the specified write concern.
+	 * 
+	 * @param concern The write concern for this insert.
+	 * @param objs DBObjects that should be inserted into the database.
+	 * @throws GeneralMongoException A MongoException occurred.
+	 **/
+	public void insertDocuments(WriteConcern concern, DBObject... objs) throws GeneralMongoException {
+		try {
+			collection.insert(objs, concern);
+		} catch (MongoException mongoException) {
+			throw new GeneralMongoException("An error occurred attempting to insert.", mongoException);
+		}
+	}
+	
+	/**
+	 * Inserts a number of documents into the collection.
+	 * Does not wait for the server to perform write to disk, nor does it check for errors other than networks errors.
+	 *
+	 * @param objs DBObjects that should be inserted into the database.
+	 * @throws GeneralMongoException A MongoException occurred.
+	 **/
+	public void insertDocumentsUnsafe(DBObject... objs) throws GeneralMongoException {
+		insertDocuments(WriteConcern.NORMAL, objs);
+	}
+	
+	/**
+	 * Creates a write-behind batch on the collection, using the configured maximum size and delay of the client.
+	 * 
+	 * @return The created batch.
+	 **/
+	public BlackboardBatch createBatch() {
+		return client.createBatch(collection);
+	}
+	
+	/**
+	 * Creates a write-behind batch on the collection.
+	 * 
+	 * @param maxSize The amount of pending writes at which the batch is flushed.
+	 * @param maxDelay The maximum time in milliseconds a write stays pending. A value of 0 or less only flushes on size or commit.
+	 * @return The created batch.
+	 **/
+	public BlackboardBatch createBatch(int maxSize, long maxDelay) {
+		return client.createBatch(collection, maxSize, maxDelay);
+	}
+	
+	/**
+	 * Removes all documents matching the provided query from the collection.
+	 * 
+	 * @param query DBObject representing the query used for deleting documents.
+	 * @return The amount of records that have been removed.
+	 * @throws GeneralMongoException A MongoException occurred.
+	 **/
+	public int removeDocuments(DBObject query) throws GeneralMongoException {
+		return removeDocuments(query, client.getWriteConcern());
+	}
+	
+	/**
+	 * Removes all documents matching the provided query from the collection using the specified write concern.
+	 * 
+	 * @param query DBObject representing the query used for deleting documents.
+	 * @param concern The write concern for this remove.
+	 * @return The amount of records that have been removed, or -1 if the write concern does not wait for the server.
+	 * @throws GeneralMongoException A MongoException occurred.
+	 **/
+	public int removeDocuments(DBObject query, WriteConcern concern) throws GeneralMongoException {
+		try {
+			WriteResult res = collection.remove(query, concern);
+			return concern.callGetLastError() ? res.getN() : -1;
+		} catch (MongoException mongoException) {
+			throw new GeneralMongoException("An error occurred attempting to remove.", mongoException);
+		}
+	}
+	
+	/**
+	 * Removes all documents matching the provided query from the collection.
+	 * Does not wait for the server to perform write to disk, nor does it check for errors other than networks errors.
+	 *
+	 * @param query DBObject representing the query used for deleting documents.
+	 * @throws GeneralMongoException A MongoException occurred.
+	 **/
+	public void removeDocumentsUnsafe(DBObject query) throws GeneralMongoException {
+		removeDocuments(query, WriteConcern.NORMAL);
+	}
+	
+	/**
+	 * Removes all documents matching the provided query from the collection.
+	 *
+	 * @param queryAsJSON JSON serialization of an Object 
+	 * @return The amount of records that have been removed.
+	 * @throws InvalidJSONException The provided JSON contains errors.
+	 * @throws GeneralMongoException A MongoException occurred.
+	 **/
+	public int removeDocuments(String queryAsJSON) throws InvalidJSONException, GeneralMongoException {
+		return removeDocuments(BlackboardClient.parseJSONWithCheckedException(queryAsJSON));
+	}
+	
+	/**
+	 * Retrieves the document corresponding to the given ObjectId.
+	 *
+	 * @param objId ObjectId of the requested object.
+	 * @return The object corresponding to the given id, or null if no such object was found.
+	 * @throws GeneralMongoException A MongoException occurred.
+	 **/
+	public DBObject findDocumentById(ObjectId objId) throws GeneralMongoException {
+		try {
+			return collection.findOne(QueryBuilder.start("_id").is(objId).get());
+		} catch (MongoException mongoException){
+			throw new GeneralMongoException("An error occurred attempting to find.", mongoException);
+		}
+	}
+	
+	/**
+	 * Retrieves the target document of an oplog entry, as it was after the operation.
+	 * The document carried by the entry is used when available; otherwise it is read from the collection.
+	 *
+	 * @param entry The oplog entry of which the target document is requested.
+	 * @return The target document, or null if no such document was found.
+	 * @throws GeneralMongoException A MongoException occurred.
+	 **/
+	public DBObject findDocument(OplogEntry entry) throws GeneralMongoException {
+		if (entry.getDocument() != null) {
+			return entry.getDocument();
+		}
+		return findDocumentById(entry.getTargetObjectId());
+	}
+	
+	/**
+	 * Retrieves all documents matching the provided query from the collection.
+	 *
+	 * @param query DBObject representing the query.
+	 * @return List of all documents matching the query.
+	 * @throws GeneralMongoException A MongoException occurred.
+	 **/
+	public List<DBObject> findDocuments(DBObject query) throws GeneralMongoException {
+		try {
+			return collection.find(query).toArray();
+		} catch (MongoException mongoException) {
+			throw new GeneralMongoException("An error occurred attempting to execute find query.", mongoException);
+		}
+	}
+	
+	/**
+	 * Retrieves all documents matching the provided query from the collection.
+	 *
+	 * @param queryAsJSON JSON string representing the query.
+	 * @return List of all documents matching the query.
+	 * @throws InvalidJSONException The provided JSON contains errors.
+	 * @throws GeneralMongoException A MongoException occurred.
+	 **/
+	public List<DBObject> findDocuments(String queryAsJSON) throws InvalidJSONException, GeneralMongoException {
+		return findDocuments(BlackboardClient.parseJSONWithCheckedException(queryAsJSON));
+	}
+	
+	/**
+	 * Finds the distinct values for a specified field across the collection.
+	 *
+	 * @param distinctField The field for which to return the distinct values.
+	 * @param query DBObject representing the query.
+	 * @return Object array containing the distinct values of the specified field.
+	 * @throws GeneralMongoException A MongoException occurred.
+	 **/
+	public Object[] findDistinctValues(String distinctField, DBObject query) throws GeneralMongoException {
+		try {
+			return collection.distinct(distinctField, query).toArray(); 
+		} catch (MongoException mongoException) {
+			throw new GeneralMongoException("An error occurred attempting to execute distinct query.", mongoException);
+		}
+	}
+	
+	/**
+	 * Finds the distinct values for a specified field across the collection.
+	 *
+	 * @param distinctField The field for which to return the distinct values.
+	 * @param queryAsJSON JSON string representing the query.
+	 * @return Object array containing the distinct values of the specified field.
+	 * @throws InvalidJSONException The provided JSON contains errors.
+	 * @throws GeneralMongoException A MongoException occurred.
+	 **/
+	public Object[] findDistinctValues(String distinctField, String queryAsJSON) throws InvalidJSONException, GeneralMongoException {
+		return findDistinctValues(distinctField, BlackboardClient.parseJSONWithCheckedException(queryAsJSON));
+	}
+	
+	/**
+	 * Updates all documents matching the provided search query within the collection.
+	 * Documents are updated according to the query specified in updateQuery.
+	 * 
+	 * @param searchQuery The query that should be used to select the target documents.
+	 * @param updateQuery The query that should be used to update the target documents.
+	 * @return The amount of documents that have been updated.
+	 * @throws GeneralMongoException A MongoException occurred.
+	 **/
+	public int updateDocuments(DBObject searchQuery, DBObject updateQuery) throws GeneralMongoException {
+		return updateDocuments(searchQuery, updateQuery, client.getWriteConcern());
+	}
+	
+	/**
+	 * Updates all documents matching the provided search query within the collection using the specified write concern.
+	 * Documents are updated according to the query specified in updateQuery.
+	 * 
+	 * @param searchQuery The query that should be used to select the target documents.
+	 * @param updateQuery The query that should be used to update the target documents.
+	 * @param concern The write concern for this update.
+	 * @return The amount of documents that have been updated, or -1 if the write concern does not wait for the server.
+	 * @throws GeneralMongoException A MongoException occurred.
+	 **/
+	public int updateDocuments(DBObject searchQuery, DBObject updateQuery, WriteConcern concern) throws GeneralMongoException {
+		try {
+			WriteResult res = collection.update(searchQuery, updateQuery, false, true, concern);
+			return concern.callGetLastError() ? res.getN() : -1;
+		} catch (MongoException mongoException) {
+			throw new GeneralMongoException("An error occurred attempting to update.", mongoException);
+		}
+	}
+	
+	/**
+	 * Updates all documents matching the provided search query within the collection.
+	 * Documents are updated according to the query specified in updateQuery.
+	 * Does not wait for the server to perform write to disk, nor does it check for errors other than networks errors.
+	 * 
+	 * @param searchQuery The query that should be used to select the target documents.
+	 * @param updateQuery The query that should be used to update the target documents.
+	 * @throws GeneralMongoException A MongoException occurred.
+	 **/
+	public void updateDocumentsUnsafe(DBObject searchQuery, DBObject updateQuery) throws GeneralMongoException {
+		updateDocuments(searchQuery, updateQuery, WriteConcern.NORMAL);
+	}
+	
+	/**
+	 * Updates all documents matching the provided search query within the collection.
+	 * Documents are updated according to the query specified in updateQuery.
+	 *
+	 * @param searchQueryAsJSON JSON serialization of the query that should be used to select the target documents.
+	 * @param updateQueryAsJSON JSON serialization of the query that should be used to update the target documents.
+	 * @return The amount of documents that have been updated.
+	 * @throws InvalidJSONException The provided JSON contains errors.
+	 * @throws GeneralMongoException A MongoException occurred.
+	 **/
+	public int updateDocuments(String searchQueryAsJSON, String updateQueryAsJSON) throws InvalidJSONException, GeneralMongoException {
+		DBObject searchQuery = BlackboardClient.parseJSONWithCheckedException(searchQueryAsJSON);
+		DBObject updateQuery = BlackboardClient.parseJSONWithCheckedException(updateQueryAsJSON);
+		return updateDocuments(searchQuery, updateQuery);
+	}
+	
+	/**
+	 * Subscribes to the specified CRUD operation in the collection.
+	 * Whether the delivered entries carry the resulting document depends on the client setting at the time of subscribing.
+	 * 
+	 * @param sub Specification of operation and callback object.
+	 * @return true if subscription was successful. false otherwise.
+	 **/
+	public boolean subscribe(BlackboardSubscription sub) {
+		return client.subscribe(collection.getFullName(), sub);
+	}
+	
+	/**
+	 * Removes the specified subscription from the collection.
+	 * 
+	 * @param sub Subscription that should be removed.
+	 **/
+	public void unsubscribe(BlackboardSubscription sub) {
+		client.unsubscribe(collection.getFullName(), sub);
+	}
+	
+	/**
+	 * Returns a string representation of this handle.
+	 * @return The namespace of the collection.
+	 **/
+	@Override
+	public String toString() {
+		return collection.getFullName();
+	}
+}
@@ -0,0 +1,319 @@
+/**
+ * @file src/REXOS/MAS/libraries/blackboard_client/MaterializedView.java
+ * @brief Local view of a collection kept up to date from the oplog.
+ * @date Created: 2013-10-18
+ *
+ * @section LICENSE
+ * License: newBSD
+ *
+ * Copyright © 2013, HU University of Applied Sciences Utrecht.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * - Neither the name of the HU University of Applied Sciences Utrecht nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE HU UNIVERSITY OF APPLIED SCIENCES UTRECHT
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+package libraries.blackboard_client;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import libraries.blackboard_client.data_classes.OplogEntry;
+import libraries.utillities.log.LogLevel;
+import libraries.utillities.log.Logger;
+
+import org.bson.types.BSONTimestamp;
+
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import com.mongodb.MongoException;
+
+/**
+ * Local copy of the documents in a single collection, kept up to date from the oplog entries of its namespace.
+ * The view is seeded with a single query when it is registered, after which every insert, update and delete is
+ * applied in-process. Updates are recorded in the oplog as $set / $unset operations or as a replacement document,
+ * so every entry can be applied without reading the document from the database.
+ *
+ * The seed records the newest oplog timestamp read before the query. Entries up to that timestamp are already
+ * contained in the seed and are not applied again, so an older entry can never regress a document. Entries written
+ * while the query ran may be applied a second time; oplog entries are idempotent, so the view converges to the state
+ * of the collection once those entries have been replayed.
+ *
+ * A view is seeded before it is handed to the oplog monitor thread and from then on only accessed by that thread,
+ * so it does not need any synchronization.
+ * Documents handed out are copies, so subscribers can never modify the view.
+ **/
+class MaterializedView {
+	/**
+	 * @var String ID_FIELD
+	 * Name of the id field of a document.
+	 **/
+	private static final String ID_FIELD = "_id";
+
+	/**
+	 * @var String SET_OPERATOR
+	 * Update operator with which changed fields are recorded in the oplog.
+	 **/
+	private static final String SET_OPERATOR = "$set";
+
+	/**
+	 * @var String UNSET_OPERATOR
+	 * Update operator with which removed fields are recorded in the oplog.
+	 **/
+	private static final String UNSET_OPERATOR = "$unset";
+
+	/**
+	 * @var DBCollection collection
+	 * The collection this view mirrors.
+	 **/
+	private DBCollection collection;
+
+	/**
+	 * @var HashMap<Object, BasicDBObject> documents
+	 * The documents in the collection, indexed by their id.
+	 **/
+	private HashMap<Object, BasicDBObject> documents;
+
+	/**
+	 * @var BSONTimestamp seedTimestamp
+	 * The newest oplog timestamp before the view was seeded, or null if the view has not been seeded.
+	 **/
+	private BSONTimestamp seedTimestamp;
+
+	/**
+	 * Constructs an empty view on the specified collection.
+	 * @param collection The collection this view mirrors.
+	 **/
+	public MaterializedView(DBCollection collection) {
+		this.collection = collection;
+		this.documents = new HashMap<Object, BasicDBObject>();
+		this.seedTimestamp = null;
+	}
+
+	/**
+	 * Applies an oplog entry of the namespace of this view and returns the resulting document.
+	 * An entry that is already contained in the seed is not applied; the current document is returned instead.
+	 * @param entry The oplog entry that should be applied.
+	 * @return A copy of the target document after the operation, or null if the document was deleted or is unknown.
+	 **/
+	public DBObject apply(OplogEntry entry) {
+		BasicDBObject document = null;
+		DBObject updateDocument = entry.getUpdateDocument();
+		if (!isAfterSeed(entry.getTimestamp())) {
+			switch (entry.getOperation()) {
+				case INSERT:
+				case DELETE:
+					document = documents.get(updateDocument.get(ID_FIELD));
+					break;
+				case UPDATE:
+					document = documents.get(entry.getUpdateCriteria().get(ID_FIELD));
+					break;
+				default:
+					break;
+			}
+			return document == null ? null : (DBObject)document.copy();
+		}
+
+		switch (entry.getOperation()) {
+			case INSERT:
+				document = copyOf(updateDocument);
+				documents.put(document.get(ID_FIELD), document);
+				break;
+			case UPDATE:
+				Object id = entry.getUpdateCriteria().get(ID_FIELD);
+				if (updateDocument.containsField(SET_OPERATOR) || updateDocument.containsField(UNSET_OPERATOR)) {
+					document = documents.get(id);
+					if (document != null) {
+						applyModifiers(document, updateDocument);
+					}
+				} else {
+					document = copyOf(updateDocument);
+					document.put(ID_FIELD, id);
+					documents.put(id, document);
+				}
+				break;
+			case DELETE:
+				documents.remove(updateDocument.get(ID_FIELD));
+				break;
+			default:
+				break;
+		}
+		return document == null ? null : (DBObject)document.copy();
+	}
+
+	/**
+	 * Fills the view with the current contents of the collection. When the collection can not be read the view
+	 * starts empty; documents are then only known once they are inserted or replaced.
+	 * @param newestTimestamp The newest oplog timestamp, read before calling this method.
+	 **/
+	public void seed(BSONTimestamp newestTimestamp) {
+		seedTimestamp = newestTimestamp;
+		DBCursor cursor = null;
+		try {
+			cursor = collection.find();
+			while (cursor.hasNext()) {
+				DBObject document = cursor.next();
+				documents.put(document.get(ID_FIELD), copyOf(document));
+			}
+		} catch (MongoException ex) {
+			Logger.log(LogLevel.ERROR, "Could not seed materialized view of %s:\n%s\n", collection.getFullName(), ex.getMessage());
+		} finally {
+			if (cursor != null) {
+				cursor.close();
+			}
+		}
+	}
+
+	/**
+	 * Checks whether an oplog entry was written after the view was seeded.
+	 * @param timestamp The timestamp of the oplog entry.
+	 * @return true if the entry is newer than the seed or the view has not been seeded, false otherwise.
+	 **/
+	private boolean isAfterSeed(BSONTimestamp timestamp) {
+		if (seedTimestamp == null || timestamp == null) {
+			return true;
+		} else if (timestamp.getTime() != seedTimestamp.getTime()) {
+			return timestamp.getTime() > seedTimestamp.getTime();
+		}
+		return timestamp.getInc() > seedTimestamp.getInc();
+	}
+
+	/**
+	 * Makes a deep copy of a document, so the view never shares embedded documents with an oplog entry.
+	 * @param document The document that should be copied.
+	 * @return The copy of the document.
+	 **/
+	private static BasicDBObject copyOf(DBObject document) {
+		if (document instanceof BasicDBObject) {
+			return (BasicDBObject)((BasicDBObject)document).copy();
+		}
+		return (BasicDBObject)new BasicDBObject(document.toMap()).copy();
+	}
+
+	/**
+	 * Makes a deep copy of a field value if it is an embedded document or array.
+	 * @param value The value that should be copied.
+	 * @return The copy of the value, or the value itself if it is immutable.
+	 **/
+	private static Object copyValue(Object value) {
+		if (value instanceof BasicDBObject) {
+			return ((BasicDBObject)value).copy();
+		} else if (value instanceof BasicDBList) {
+			return ((BasicDBList)value).copy();
+		}
+		return value;
+	}
+
+	/**
+	 * Applies the $set and $unset operators of an update to the document.
+	 * @param document The document that should be updated.
+	 * @param modifiers The update document containing the operators.
+	 **/
+	private static void applyModifiers(BasicDBObject document, DBObject modifiers) {
+		DBObject set = (DBObject)modifiers.get(SET_OPERATOR);
+		if (set != null) {
+			for (String path : set.keySet()) {
+				setPath(document, path, copyValue(set.get(path)));
+			}
+		}
+
+		DBObject unset = (DBObject)modifiers.get(UNSET_OPERATOR);
+		if (unset != null) {
+			for (String path : unset.keySet()) {
+				unsetPath(document, path);
+			}
+		}
+	}
+
+	/**
+	 * Sets the value at a dotted path, creating the intermediate documents when needed.
+	 * @param document The document in which the value should be set.
+	 * @param path The dotted path of the field.
+	 * @param value The new value of the field.
+	 **/
+	private static void setPath(BasicDBObject document, String path, Object value) {
+		String[] keys = path.split("\\.");
+		Object parent = document;
+		for (int i = 0; i < keys.length - 1; i++) {
+			Object child = getChild(parent, keys[i]);
+			if (child == null) {
+				child = new BasicDBObject();
+				putChild(parent, keys[i], child);
+			}
+			parent = child;
+		}
+		putChild(parent, keys[keys.length - 1], value);
+	}
+
+	/**
+	 * Removes the value at a dotted path. Missing intermediate documents are ignored.
+	 * @param document The document from which the value should be removed.
+	 * @param path The dotted path of the field.
+	 **/
+	private static void unsetPath(BasicDBObject document, String path) {
+		String[] keys = path.split("\\.");
+		Object parent = document;
+		for (int i = 0; i < keys.length - 1 && parent != null; i++) {
+			parent = getChild(parent, keys[i]);
+		}
+		if (parent instanceof List) {
+			// Unsetting an array element sets it to null rather than shrinking the array.
+			putChild(parent, keys[keys.length - 1], null);
+		} else if (parent instanceof Map) {
+			((Map<?, ?>)parent).remove(keys[keys.length - 1]);
+		}
+	}
+
+	/**
+	 * Returns the child of an embedded document or array.
+	 * @param parent The embedded document or array.
+	 * @param key The field name or array index.
+	 * @return The child or null if it does not exist.
+	 **/
+	private static Object getChild(Object parent, String key) {
+		if (parent instanceof List) {
+			List<?> list = (List<?>)parent;
+			int index = Integer.parseInt(key);
+			return index < list.size() ? list.get(index) : null;
+		} else if (parent instanceof Map) {
+			return ((Map<?, ?>)parent).get(key);
+		}
+		return null;
+	}
+
+	/**
+	 * Sets the child of an embedded document or array. Arrays are padded with null values like MongoDB does.
+	 * @param parent The embedded document or array.
+	 * @param key The field name or array index.
+	 * @param value The new value of the child.
+	 **/
+	@SuppressWarnings("unchecked")
+	private static void putChild(Object parent, String key, Object value) {
+		if (parent instanceof List) {
+			List<Object> list = (List<Object>)parent;
+			int index = Integer.parseInt(key);
+			while (list.size() <= index) {
+				list.add(null);
+			}
+			list.set(index, value);
+		} else if (parent instanceof Map) {
+			((Map<String, Object>)parent).put(key, value);
+		}
+	}
+}
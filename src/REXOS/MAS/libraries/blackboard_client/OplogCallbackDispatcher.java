@@ -0,0 +1,390 @@
+/**
+ * @file src/REXOS/MAS/libraries/blackboard_client/OplogCallbackDispatcher.java
+ * @brief Executes blackboard callbacks on a bounded pool of worker threads.
+ * @date Created: 2013-10-18
+ *
+ * @section LICENSE
+ * License: newBSD
+ *
+ * Copyright © 2013, HU University of Applied Sciences Utrecht.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * - Neither the name of the HU University of Applied Sciences Utrecht nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE HU UNIVERSITY OF APPLIED SCIENCES UTRECHT
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+package libraries.blackboard_client;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import libraries.blackboard_client.data_classes.BlackboardSubscriber;
+import libraries.blackboard_client.data_classes.OplogEntry;
+import libraries.utillities.log.LogLevel;
+import libraries.utillities.log.Logger;
+import libraries.utillities.metrics.LatencyHistogram;
+import libraries.utillities.metrics.MetricsReporter;
+
+import org.bson.types.BSONTimestamp;
+
+/**
+ * Simple data object used to store information about a callback.
+ */
+class Callback {
+	/**
+	 * @var OplogRegistration registration
+	 * The registration of the subscriber that should receive a callback.
+	 */
+	OplogRegistration registration;
+
+	/**
+	 * @var OplogEntry entry
+	 * The OplogEntry describing the event that triggered this callback.
+	 */
+	OplogEntry entry;
+
+	/**
+	 * @var long receivedAt
+	 * Value of System.nanoTime() at the moment the entry was read from the oplog.
+	 */
+	long receivedAt;
+
+	/**
+	 * @var long queuedAt
+	 * Value of System.nanoTime() at the moment the callback was queued.
+	 */
+	long queuedAt;
+
+	/**
+	 * Constructs a callback with the specified registration and entry.
+	 *
+	 * @param registration The registration of the subscriber that should receive a callback.
+	 * @param entry The OplogEntry describing the event that triggered this callback.
+	 * @param receivedAt Value of System.nanoTime() at the moment the entry was read from the oplog.
+	 *
+	 */
+	public Callback(OplogRegistration registration, OplogEntry entry, long receivedAt) {
+		this.registration = registration;
+		this.entry = entry;
+		this.receivedAt = receivedAt;
+		this.queuedAt = System.nanoTime();
+	}
+
+	/**
+	 * Returns the subscriber for this callback.
+	 * @return The subscriber for this callback.
+	 */
+	public BlackboardSubscriber getSubscriber() {
+		return registration.getSubscription().getSubscriber();
+	}
+
+	/**
+	 * Returns the registration for this callback.
+	 * @return The registration for this callback.
+	 */
+	public OplogRegistration getRegistration() {
+		return registration;
+	}
+
+	/**
+	 * Returns the entry for this callback.
+	 *
+	 * @return The entry for this callback.
+	 */
+	public OplogEntry getEntry() {
+		return entry;
+	}
+
+	/**
+	 * Returns the value of System.nanoTime() at the moment the entry was read from the oplog.
+	 *
+	 * @return The moment the entry was read from the oplog.
+	 */
+	public long getReceivedAt() {
+		return receivedAt;
+	}
+
+	/**
+	 * Returns the value of System.nanoTime() at the moment the callback was queued.
+	 *
+	 * @return The moment the callback was queued.
+	 */
+	public long getQueuedAt() {
+		return queuedAt;
+	}
+}
+
+/**
+ * Executes the callbacks for blackboard subscriptions on a pool of worker threads.
+ * Callbacks for the same subscriber are executed one at a time in the order in which the oplog entries were read,
+ * while callbacks for different subscribers run concurrently. The amount of pending callbacks is bounded;
+ * when the limit is reached the oplog monitor blocks until a worker has handled a callback.
+ **/
+public class OplogCallbackDispatcher {
+	/**
+	 * @var int DEFAULT_WORKER_COUNT
+	 * The amount of worker threads used when none has been configured.
+	 **/
+	static final int DEFAULT_WORKER_COUNT = 4;
+
+	/**
+	 * @var int DEFAULT_QUEUE_CAPACITY
+	 * The maximum amount of pending callbacks used when none has been configured.
+	 **/
+	static final int DEFAULT_QUEUE_CAPACITY = 1000;
+
+	/**
+	 * @var int MAX_CALLBACKS_PER_RUN
+	 * The maximum amount of callbacks a worker handles for one subscriber before giving other subscribers a turn.
+	 **/
+	private static final int MAX_CALLBACKS_PER_RUN = 16;
+
+	/**
+	 * Queue of pending callbacks for a single subscriber. At most one worker drains a queue at any time,
+	 * which guarantees the callbacks for a subscriber are executed in FIFO order.
+	 **/
+	private class SubscriberQueue implements Runnable {
+		/**
+		 * @var BlackboardSubscriber subscriber
+		 * The subscriber this queue belongs to.
+		 **/
+		private BlackboardSubscriber subscriber;
+
+		/**
+		 * @var ArrayDeque<Callback> callbacks
+		 * The pending callbacks, guarded by the dispatcher.
+		 **/
+		private ArrayDeque<Callback> callbacks;
+
+		/**
+		 * Constructs an empty queue for the specified subscriber.
+		 * @param subscriber The subscriber this queue belongs to.
+		 **/
+		public SubscriberQueue(BlackboardSubscriber subscriber) {
+			this.subscriber = subscriber;
+			this.callbacks = new ArrayDeque<Callback>();
+		}
+
+		/**
+		 * Handles the pending callbacks of the subscriber.
+		 **/
+		@Override
+		public void run() {
+			int handled = 0;
+			while (true) {
+				Callback callback;
+				synchronized (OplogCallbackDispatcher.this) {
+					if (handled == MAX_CALLBACKS_PER_RUN && !callbacks.isEmpty() && !workers.isShutdown()) {
+						// Let the other subscribers have a turn first.
+						workers.execute(this);
+						return;
+					}
+					
+					callback = callbacks.poll();
+					if (callback == null) {
+						queues.remove(subscriber);
+						return;
+					}
+				}
+
+				execute(callback);
+				handled++;
+			}
+		}
+	}
+
+	/**
+	 * @var HashMap<BlackboardSubscriber, SubscriberQueue> queues
+	 * The queues of the subscribers with pending callbacks. A queue is present in this map exactly when it has been
+	 * handed to a worker.
+	 **/
+	private HashMap<BlackboardSubscriber, SubscriberQueue> queues;
+
+	/**
+	 * @var ExecutorService workers
+	 * The worker threads executing the callbacks.
+	 **/
+	private ExecutorService workers;
+
+	/**
+	 * @var Semaphore capacity
+	 * Limits the amount of pending callbacks.
+	 **/
+	private Semaphore capacity;
+
+	/**
+	 * @var AtomicInteger queueDepth
+	 * The current amount of pending callbacks.
+	 **/
+	private AtomicInteger queueDepth;
+
+	/**
+	 * @var AtomicInteger maxQueueDepth
+	 * The largest amount of pending callbacks seen so far.
+	 **/
+	private AtomicInteger maxQueueDepth;
+
+	/**
+	 * @var LatencyHistogram waitTime
+	 * Time in microseconds a callback spends in the queue before it is executed.
+	 **/
+	private LatencyHistogram waitTime;
+
+	/**
+	 * Constructs a dispatcher and starts its worker threads.
+	 *
+	 * @param workerCount The amount of worker threads.
+	 * @param queueCapacity The maximum amount of pending callbacks.
+	 */
+	public OplogCallbackDispatcher(int workerCount, int queueCapacity) {
+		if (workerCount <= 0) {
+			workerCount = DEFAULT_WORKER_COUNT;
+		}
+		if (queueCapacity <= 0) {
+			queueCapacity = DEFAULT_QUEUE_CAPACITY;
+		}
+
+		this.queues = new HashMap<BlackboardSubscriber, SubscriberQueue>();
+		this.capacity = new Semaphore(queueCapacity);
+		this.queueDepth = new AtomicInteger();
+		this.maxQueueDepth = new AtomicInteger();
+		this.waitTime = MetricsReporter.register(new LatencyHistogram("oplog callback queue wait", "us"));
+		this.workers = Executors.newFixedThreadPool(workerCount, new ThreadFactory() {
+			private AtomicInteger threadNumber = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "OplogCallbackWorker-" + threadNumber.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Queues a callback for the subscriber of the registration.
+	 * Blocks while the maximum amount of pending callbacks has been reached.
+	 *
+	 * @param registration The registration of the subscriber that should receive a callback.
+	 * @param entry The OplogEntry describing the event that triggered this callback.
+	 * @param receivedAt Value of System.nanoTime() at the moment the entry was read from the oplog.
+	 * @throws InterruptedException The calling thread was interrupted while waiting for space in the queue.
+	 */
+	public void addCallback(OplogRegistration registration, OplogEntry entry, long receivedAt) throws InterruptedException {
+		BlackboardSubscriber subscriber = registration.getSubscription().getSubscriber();
+		capacity.acquire();
+
+		int depth = queueDepth.incrementAndGet();
+		int currentMax = maxQueueDepth.get();
+		while (depth > currentMax && !maxQueueDepth.compareAndSet(currentMax, depth)) {
+			currentMax = maxQueueDepth.get();
+		}
+
+		synchronized (this) {
+			SubscriberQueue queue = queues.get(subscriber);
+			if (queue == null) {
+				queue = new SubscriberQueue(subscriber);
+				queue.callbacks.add(new Callback(registration, entry, receivedAt));
+				queues.put(subscriber, queue);
+				schedule(queue);
+			} else {
+				queue.callbacks.add(new Callback(registration, entry, receivedAt));
+			}
+		}
+	}
+
+	/**
+	 * Hands the queue to a worker. Should be called while holding the lock on this dispatcher.
+	 *
+	 * @param queue The queue that should be drained.
+	 */
+	private void schedule(SubscriberQueue queue) {
+		try {
+			workers.execute(queue);
+		} catch (RejectedExecutionException ex) {
+			// The dispatcher has been shut down, the pending callbacks will not be delivered.
+			int dropped = queue.callbacks.size();
+			queue.callbacks.clear();
+			queues.remove(queue.subscriber);
+			queueDepth.addAndGet(-dropped);
+			capacity.release(dropped);
+		}
+	}
+
+	/**
+	 * Executes a single callback and records its metrics.
+	 *
+	 * @param callback The callback that should be executed.
+	 */
+	private void execute(Callback callback) {
+		queueDepth.decrementAndGet();
+		capacity.release();
+
+		long now = System.nanoTime();
+		waitTime.record((now - callback.getQueuedAt()) / 1000);
+		callback.getRegistration().getDispatchLatency().record((now - callback.getReceivedAt()) / 1000);
+		BSONTimestamp timestamp = callback.getEntry().getTimestamp();
+		if (timestamp != null) {
+			callback.getRegistration().getOplogLatency().record(System.currentTimeMillis() - timestamp.getTime() * 1000L);
+		}
+
+		try {
+			callback.getSubscriber().onMessage(callback.getEntry().getOperation(), callback.getEntry());
+		} catch (RuntimeException ex) {
+			// Do not let a faulty subscriber take down the worker thread.
+			Logger.log(LogLevel.ERROR, "%s thrown by subscriber callback:\n%s\n", ex.getClass().getName(), ex.getMessage());
+		}
+	}
+
+	/**
+	 * Returns the current amount of pending callbacks.
+	 *
+	 * @return The current amount of pending callbacks.
+	 */
+	public int getQueueDepth() {
+		return queueDepth.get();
+	}
+
+	/**
+	 * Returns the largest amount of pending callbacks seen so far.
+	 *
+	 * @return The largest amount of pending callbacks seen so far.
+	 */
+	public int getMaxQueueDepth() {
+		return maxQueueDepth.get();
+	}
+
+	/**
+	 * Returns the histogram of the time in microseconds callbacks spend in the queue.
+	 *
+	 * @return The queue wait time histogram.
+	 */
+	public LatencyHistogram getWaitTimeHistogram() {
+		return waitTime;
+	}
+
+	/**
+	 * Stops the dispatcher after the pending callbacks have been handled.
+	 */
+	public synchronized void shutdown() {
+		workers.shutdown();
+	}
+}
@@ -30,145 +30,396 @@
 package libraries.blackboard_client;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
-import libraries.blackboard_client.data_classes.BlackboardSubscription;
 import libraries.blackboard_client.data_classes.OplogEntry;
 import libraries.utillities.log.LogLevel;
 import libraries.utillities.log.Logger;
 
+import org.bson.types.BSONTimestamp;
+
+import com.mongodb.BasicDBObject;
 import com.mongodb.Bytes;
 import com.mongodb.DB;
 import com.mongodb.DBCollection;
 import com.mongodb.DBCursor;
 import com.mongodb.DBObject;
 import com.mongodb.Mongo;
-import com.mongodb.MongoException;
 import com.mongodb.MongoInterruptedException;
+import com.mongodb.QueryBuilder;
 
 /**
- * Class for the tailed oplog cursor thread within the client
+ * Class for the tailed oplog cursor thread within the client.
+ * The cursor is opened with the await data option, which means a call to hasNext blocks on the server until
+ * new entries are available. Entries are therefore dispatched as soon as they arrive instead of being picked up
+ * by a polling loop.
+ *
+ * The cursor selects the entries of the monitored namespaces only; the subscriptions themselves are evaluated
+ * in-process. Adding or removing a subscription in a namespace that is already monitored therefore does not touch
+ * the cursor at all. When the set of namespaces changes, the cursor is reopened by this thread. Namespaces that were
+ * tailed by the previous cursor resume after the last entry it returned, a namespace that was added resumes after the
+ * moment it started being monitored, so no entries are lost during the swap.
  **/
 class OplogMonitorThread extends Thread {
-	
+
 	/**
-	 * @var int POLL_INTERVAL
-	 * The interval between two checks for new documents in milliseconds. Note that this interval is not used
-	 * when there are multiple documents available. In this case all documents will be retrieved after which
-	 * the thread will sleep for this interval when no more documents are available.
+	 * @var int DEFAULT_MAX_AWAIT_TIME
+	 * The default maximum time in milliseconds the thread waits before reopening a cursor that has died.
 	 **/
-	private static final int POLL_INTERVAL = 100;
+	static final int DEFAULT_MAX_AWAIT_TIME = 1000;
 
 	private DB database;
+
+	/**
+	 * @var DBCollection collection
+	 * The oplog collection that is being tailed.
+	 **/
+	private DBCollection collection;
+
 	/**
 	 * @var DBCursor tailedCursor
-	 * Tailed cursor for this thread.
+	 * Tailed cursor for this thread. Guarded by cursorLock.
 	 **/
 	private DBCursor tailedCursor;
-	
+
+	/**
+	 * @var Object cursorLock
+	 * Lock guarding the opening and closing of the tailed cursor.
+	 **/
+	private final Object cursorLock = new Object();
+
+	/**
+	 * @var boolean restartRequested
+	 * Whether the cursor has been closed on purpose because the monitored namespaces changed.
+	 **/
+	private volatile boolean restartRequested;
+
 	/**
-	 * @var BlackboardSubscription subscriptions[]
-	 * Link between subscribed topic name and MongoDbs BasicDBObjects
+	 * @var BSONTimestamp lastTimestamp
+	 * Timestamp of the last entry read from the cursor. Used to resume the namespaces tailed by that cursor when it
+	 * has to be reopened. Only accessed by the monitor thread.
 	 **/
-	private BlackboardSubscription[] subscriptions;
-	
+	private BSONTimestamp lastTimestamp;
+
+	/**
+	 * @var Map<String, BSONTimestamp> resumeTimestamps
+	 * For each namespace selected by the current cursor the timestamp after which it was resumed, advanced by the
+	 * entries read for that namespace. Only accessed by the monitor thread.
+	 **/
+	private Map<String, BSONTimestamp> resumeTimestamps = new HashMap<String, BSONTimestamp>();
+
+	/**
+	 * @var int maxAwaitTime
+	 * The maximum time in milliseconds the thread waits before reopening a cursor that has died.
+	 **/
+	private int maxAwaitTime = DEFAULT_MAX_AWAIT_TIME;
+
+	/**
+	 * @var Map<String, OplogRegistration[]> registrations
+	 * The registrations this monitor routes entries to, indexed by namespace. Replaced as a whole on every change.
+	 **/
+	private volatile Map<String, OplogRegistration[]> registrations;
+
+	/**
+	 * @var Map<String, BSONTimestamp> namespaceStarts
+	 * For each monitored namespace the oplog timestamp at the moment it was first monitored.
+	 * Entries older than this timestamp are never delivered for that namespace. Replaced as a whole on every change.
+	 **/
+	private volatile Map<String, BSONTimestamp> namespaceStarts;
+
 	/**
-	 * @var OplogCallbackThread callbackThread
-	 * Thread used for executing callbacks.
+	 * @var Map<String, MaterializedView> views
+	 * The materialized views that are kept up to date, indexed by namespace. Replaced as a whole on every change.
+	 **/
+	private volatile Map<String, MaterializedView> views;
+
+	/**
+	 * @var OplogCallbackDispatcher callbackDispatcher
+	 * Dispatcher used for executing callbacks. The dispatcher is owned by the multiplexer and outlives this monitor thread.
 	 */
-	OplogCallbackThread callbackThread;
-	
+	OplogCallbackDispatcher callbackDispatcher;
+
 	/**
 	 * Constructor of OplogMonitorThread.
 	 * @param mongo The Mongo database connection that should be used.
 	 * @param oplogDBName The database in which the oplog collection resides.
 	 * @param oplogCollectionName The name of the oplog collection.
-	 * @param query The query that will be used in the tailed cursor.
+	 * @param callbackDispatcher The dispatcher that will execute the callbacks.
 	 **/
-	public OplogMonitorThread(Mongo mongo, String oplogDBName, String oplogCollectionName, DBObject query) {
+	public OplogMonitorThread(Mongo mongo, String oplogDBName, String oplogCollectionName,
+			OplogCallbackDispatcher callbackDispatcher) {
 		database = mongo.getDB(oplogDBName);
-		DBCollection collection = database.getCollection(oplogCollectionName);
-		
-		tailedCursor = collection.find(query);
-		tailedCursor.addOption(Bytes.QUERYOPTION_TAILABLE);
-		tailedCursor.addOption(Bytes.QUERYOPTION_AWAITDATA);
-		tailedCursor.skip(tailedCursor.size());
-		callbackThread = new OplogCallbackThread();
+		collection = database.getCollection(oplogCollectionName);
+		this.callbackDispatcher = callbackDispatcher;
+		this.registrations = new HashMap<String, OplogRegistration[]>();
+		this.namespaceStarts = new HashMap<String, BSONTimestamp>();
+		this.views = new HashMap<String, MaterializedView>();
+		setDaemon(true);
 	}
-	
+
 	/**
-	 * Constructs a tailed cursor for the specified query on the oplog collection.
+	 * Constructs a tailed cursor thread on the oplog collection.
 	 * This constructor should be used when user authentication is required.
-	 * 
+	 *
 	 * @param mongo The Mongo database connection that should be used.
 	 * @param oplogDBName The database in which the oplog collection resides.
 	 * @param oplogCollectionName The name of the oplog collection.
 	 * @param username Username that will be used to authenticate with the oplog database. This user should have read access.
 	 * @param password The password belonging to the specified user.
-	 * @param query The query that will be used in the tailed cursor.
+	 * @param callbackDispatcher The dispatcher that will execute the callbacks.
 	 **/
 	public OplogMonitorThread(Mongo mongo, String oplogDBName, String oplogCollectionName,
-		String username, String password, DBObject query) {
-		database = mongo.getDB(oplogDBName);
+		String username, String password, OplogCallbackDispatcher callbackDispatcher) {
+		this(mongo, oplogDBName, oplogCollectionName, callbackDispatcher);
 		database.authenticate(username, password.toCharArray());
-		DBCollection collection = database.getCollection(oplogCollectionName);
-		
-		tailedCursor = collection.find(query);
-		tailedCursor.addOption(Bytes.QUERYOPTION_TAILABLE);
-		tailedCursor.addOption(Bytes.QUERYOPTION_AWAITDATA);
-		tailedCursor.skip(tailedCursor.size());
-		callbackThread = new OplogCallbackThread();
 	}
-	
-	/**.requestStart()
-	 * Sets the subscriptions that are used for the query of this oplog monitor.
-	 * @param subscriptions ArrayList containing all the subscriptions this monitor will subscribe to.
-	 **/
-	public void setSubscriptions(ArrayList<BlackboardSubscription> subscriptions) {
-		this.subscriptions = new BlackboardSubscription[subscriptions.size()];
-		subscriptions.toArray(this.subscriptions);
+
+	/**
+	 * Returns the timestamp of the newest entry in the oplog. This is a single indexed lookup, regardless of the
+	 * size of the oplog.
+	 * @return The timestamp of the newest entry in the oplog, or null if the oplog is empty or does not exist.
+	 **/
+	public BSONTimestamp getNewestTimestamp() {
+		DBCursor cursor = collection.find().sort(new BasicDBObject("$natural", -1)).limit(1);
+		try {
+			if (cursor.hasNext()) {
+				return (BSONTimestamp)cursor.next().get(OplogEntry.TIMESTAMP_FIELD);
+			}
+			return null;
+		} finally {
+			cursor.close();
+		}
+	}
+
+	/**
+	 * Compares two oplog timestamps.
+	 * @param a The first timestamp.
+	 * @param b The second timestamp.
+	 * @return The latest of the two timestamps. If one of them is null the other one is returned.
+	 **/
+	private static BSONTimestamp latest(BSONTimestamp a, BSONTimestamp b) {
+		if (a == null) {
+			return b;
+		} else if (b == null) {
+			return a;
+		} else if (a.getTime() != b.getTime()) {
+			return a.getTime() > b.getTime() ? a : b;
+		}
+		return a.getInc() >= b.getInc() ? a : b;
+	}
+
+	/**
+	 * Opens a tailable, await data cursor selecting the entries of the monitored namespaces.
+	 * A namespace that was selected by the previous cursor starts after the last entry that cursor returned, because
+	 * the cursor returns entries in oplog order, or after the last entry read for the namespace if that is later.
+	 * A namespace that was not selected by the previous cursor starts after the moment it started being monitored,
+	 * regardless of how far the previous cursor got with the other namespaces.
+	 * The earliest of those timestamps is also selected at the top level of the query with the oplog replay option,
+	 * so the server starts at that entry instead of scanning the whole oplog every time the cursor is reopened.
+	 * @return The opened cursor.
+	 **/
+	private DBCursor openCursor() {
+		Map<String, BSONTimestamp> starts = namespaceStarts;
+		HashMap<String, BSONTimestamp> newResumeTimestamps = new HashMap<String, BSONTimestamp>();
+		ArrayList<DBObject> namespaceQueries = new ArrayList<DBObject>();
+		BSONTimestamp earliestResume = null;
+		boolean bounded = true;
+		for (Map.Entry<String, BSONTimestamp> start : starts.entrySet()) {
+			QueryBuilder namespaceQuery = QueryBuilder.start(OplogEntry.NAMESPACE_FIELD).is(start.getKey());
+			BSONTimestamp resumeAfter;
+			if (resumeTimestamps.containsKey(start.getKey())) {
+				resumeAfter = latest(latest(resumeTimestamps.get(start.getKey()), lastTimestamp), start.getValue());
+			} else {
+				resumeAfter = start.getValue();
+			}
+			newResumeTimestamps.put(start.getKey(), resumeAfter);
+			if (resumeAfter != null) {
+				namespaceQuery.and(OplogEntry.TIMESTAMP_FIELD).greaterThan(resumeAfter);
+				if (earliestResume == null || latest(earliestResume, resumeAfter) == earliestResume) {
+					earliestResume = resumeAfter;
+				}
+			} else {
+				bounded = false;
+			}
+			namespaceQueries.add(namespaceQuery.get());
+		}
+
+		resumeTimestamps = newResumeTimestamps;
+
+		QueryBuilder query = QueryBuilder.start();
+		bounded &= earliestResume != null;
+		if (bounded) {
+			query.put(OplogEntry.TIMESTAMP_FIELD).greaterThan(earliestResume);
+		}
+		query.or(namespaceQueries.toArray(new DBObject[namespaceQueries.size()]));
+		DBCursor cursor = collection.find(query.get());
+		cursor.addOption(Bytes.QUERYOPTION_TAILABLE);
+		cursor.addOption(Bytes.QUERYOPTION_AWAITDATA);
+		if (bounded) {
+			cursor.addOption(Bytes.QUERYOPTION_OPLOGREPLAY);
+		}
+		return cursor;
+	}
+
+	/**
+	 * Sets the maximum time in milliseconds this thread waits before reopening a cursor that has died,
+	 * for example because the oplog rolled over or the query did not match any entries yet.
+	 * @param maxAwaitTime The maximum wait time in milliseconds.
+	 **/
+	public void setMaxAwaitTime(int maxAwaitTime) {
+		if (maxAwaitTime > 0) {
+			this.maxAwaitTime = maxAwaitTime;
+		}
+	}
+
+	/**
+	 * Sets the registrations this oplog monitor routes entries to. If the set of monitored namespaces changed,
+	 * the cursor is reopened by the monitor thread; otherwise the running cursor is left untouched.
+	 * @param registrations List containing all the registrations this monitor will route entries to.
+	 * @param namespaceStarts For each namespace the oplog timestamp at the moment it was first monitored.
+	 * @param views The materialized views that should be kept up to date, indexed by namespace.
+	 **/
+	public void setRegistrations(List<OplogRegistration> registrations, Map<String, BSONTimestamp> namespaceStarts,
+			Map<String, MaterializedView> views) {
+		HashMap<String, ArrayList<OplogRegistration>> byNamespace = new HashMap<String, ArrayList<OplogRegistration>>();
+		for (OplogRegistration registration : registrations) {
+			ArrayList<OplogRegistration> list = byNamespace.get(registration.getNamespace());
+			if (list == null) {
+				list = new ArrayList<OplogRegistration>();
+				byNamespace.put(registration.getNamespace(), list);
+			}
+			list.add(registration);
+		}
+
+		HashMap<String, OplogRegistration[]> newRegistrations = new HashMap<String, OplogRegistration[]>();
+		for (String namespace : byNamespace.keySet()) {
+			ArrayList<OplogRegistration> list = byNamespace.get(namespace);
+			newRegistrations.put(namespace, list.toArray(new OplogRegistration[list.size()]));
+		}
+
+		boolean namespacesChanged = !this.namespaceStarts.keySet().equals(namespaceStarts.keySet());
+		this.registrations = newRegistrations;
+		this.namespaceStarts = new HashMap<String, BSONTimestamp>(namespaceStarts);
+		this.views = new HashMap<String, MaterializedView>(views);
+
+		if (namespacesChanged) {
+			requestRestart();
+		}
+	}
+
+	/**
+	 * Closes the current cursor so the monitor thread reopens it with the current set of namespaces.
+	 * The blocked hasNext call of the monitor thread returns once the server notices the cursor was killed.
+	 **/
+	private void requestRestart() {
+		synchronized (cursorLock) {
+			restartRequested = true;
+			closeCursor();
+		}
+	}
+
+	/**
+	 * Stops this thread.
+	 **/
+	public void shutdown() {
+		interrupt();
+		synchronized (cursorLock) {
+			closeCursor();
+		}
 	}
 
 	/**
 	 * Run method for the TailedCursorThread.
-	 * This will check for changes within the cursor and calls the onMessage method of its subscriber.
+	 * Blocks on the tailed cursor until new entries are available and hands them to the callback dispatcher
+	 * as soon as they arrive. Entries of namespaces with a materialized view are applied to the view first, so
+	 * they carry the resulting document. Blocks while the dispatcher has no room for more callbacks.
+	 * If the cursor dies it is reopened after the last seen entry.
 	 */
 	@Override
 	public void run() {
 		try{
-			do {
-				while (!Thread.interrupted() && tailedCursor.hasNext()) {
-					OplogEntry entry = new OplogEntry(tailedCursor.next());
-	
-					for (BlackboardSubscription sub : subscriptions) {
-						if (sub.matchesWithEntry(entry)) {
-							callbackThread.addCallback(sub.getSubscriber(), entry);
+			while (!isInterrupted()) {
+				DBCursor cursor;
+				synchronized (cursorLock) {
+					restartRequested = false;
+					tailedCursor = openCursor();
+					cursor = tailedCursor;
+				}
+
+				try {
+					while (!isInterrupted() && cursor.hasNext()) {
+						DBObject next = cursor.next();
+						long receivedAt = System.nanoTime();
+						OplogEntry entry = new OplogEntry(next);
+						lastTimestamp = entry.getTimestamp();
+						if (resumeTimestamps.containsKey(entry.getNamespace())) {
+							resumeTimestamps.put(entry.getNamespace(), entry.getTimestamp());
 						}
+
+						MaterializedView view = views.get(entry.getNamespace());
+						if (view != null) {
+							entry = new OplogEntry(next, view.apply(entry));
+						}
+
+						OplogRegistration[] candidates = registrations.get(entry.getNamespace());
+						if (candidates != null) {
+							for (OplogRegistration registration : candidates) {
+								if (registration.matchesWithEntry(entry)) {
+									callbackDispatcher.addCallback(registration, entry, receivedAt);
+								}
+							}
+						}
+					}
+				} catch (MongoInterruptedException ex) {
+					throw ex;
+				} catch (RuntimeException ex) {
+					/*
+					 * Closing the cursor from another thread (to restart or stop the monitor) makes the blocked
+					 * hasNext call fail. Anything else means the cursor was lost and has to be reopened.
+					 */
+					if (!restartRequested && !isInterrupted()) {
+						Logger.log(LogLevel.ERROR, "OplogMonitorThread lost its cursor due to %s:\n%s\n", ex.getClass().getName(), ex.getMessage());
+					}
+				}
+
+				synchronized (cursorLock) {
+					if (tailedCursor == cursor) {
+						closeCursor();
 					}
 				}
-				Thread.sleep(POLL_INTERVAL);
-			} while (!Thread.interrupted() && tailedCursor.getCursorId() != 0);
-		} catch (MongoInterruptedException | MongoException.CursorNotFound | InterruptedException ex) {
+
+				// hasNext only returns false when the cursor has died, reopen it after a short wait.
+				if (!restartRequested) {
+					Thread.sleep(maxAwaitTime);
+				}
+			}
+		} catch (MongoInterruptedException | InterruptedException ex) {
 			/*
 			 * MongoInterruptedException is thrown by Mongo when interrupt is called while blocking on the
 			 * tailedCursor's hasNext method. When this happens, return from the run method to kill the thread.
 			 */
-			
-			/*
-			 * MongoException.CursorNotFound indicates the cursor was killed while blocking on hasNext.
-			 * We purposely kill the cursor when the OplogMonitorThread is interrupted, thus expect this to happen.
-			 */
-			Logger.log(LogLevel.ERROR,"OplogMonitorThread ending due to %s:\n%s\n", ex.getClass().getName(), ex.getMessage());
+			Logger.log(LogLevel.NOTIFICATION, "OplogMonitorThread ending due to %s\n", ex.getClass().getName());
 		} finally {
-			try {
-				if (tailedCursor != null) {
-					tailedCursor.close();
-				}
-			} catch (Throwable t) {
-				// If closing the cursor throws something, it's most likely not something we can fix.
-				Logger.log(LogLevel.ERROR, "%s thrown while closing cursor:\n%s\n", t.getClass().getName(), t.getMessage());
+			synchronized (cursorLock) {
+				closeCursor();
+			}
+		}
+	}
+
+	/**
+	 * Closes the tailed cursor if it is open. Should be called while holding the cursor lock.
+	 **/
+	private void closeCursor() {
+		try {
+			if (tailedCursor != null) {
+				tailedCursor.close();
 			}
-			//
+		} catch (Throwable t) {
+			// If closing the cursor throws something, it's most likely not something we can fix.
+			Logger.log(LogLevel.ERROR, "%s thrown while closing cursor:\n%s\n", t.getClass().getName(), t.getMessage());
 		}
-		callbackThread.shutdown();
+		tailedCursor = null;
 	}
 }
@@ -0,0 +1,307 @@
+/**
+ * @file src/REXOS/MAS/libraries/blackboard_client/OplogMultiplexer.java
+ * @brief Shared oplog tail for all clients connected to a MongoDB host.
+ * @date Created: 2013-10-18
+ *
+ * @section LICENSE
+ * License: newBSD
+ *
+ * Copyright © 2013, HU University of Applied Sciences Utrecht.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * - Neither the name of the HU University of Applied Sciences Utrecht nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE HU UNIVERSITY OF APPLIED SCIENCES UTRECHT
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+package libraries.blackboard_client;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Hashtable;
+
+import libraries.blackboard_client.data_classes.MongoDBConnection;
+
+import org.bson.types.BSONTimestamp;
+
+import com.mongodb.DBCollection;
+import com.mongodb.Mongo;
+import com.mongodb.MongoException;
+import com.mongodb.ServerAddress;
+
+import configuration.Configuration;
+import configuration.ConfigurationFiles;
+
+/**
+ * Tails the oplog of a single MongoDB host on behalf of all BlackboardClients connected to that host.
+ * Every subscription made by a client is registered here, a single tailed cursor selects the entries of all
+ * monitored namespaces and the entries are routed in-process to the matching subscribers. The amount of cursors on
+ * the oplog therefore no longer grows with the amount of clients and subscriptions.
+ *
+ * The monitor thread is started for the first registration and keeps running until the last one is removed.
+ * Registrations can be added and removed while it is running without losing any entries.
+ **/
+class OplogMultiplexer {
+	/**
+	 * @var String OPLOG_COLLECTION_NAME
+	 * Operation log collection name of MongoDB.
+	 **/
+	private static final String OPLOG_COLLECTION_NAME = "oplog.rs";
+
+	/**
+	 * @var String OPLOG_DATABASE_NAME
+	 * Local database name of MongoDB.
+	 **/
+	private static final String OPLOG_DATABASE_NAME = "local";
+
+	/**
+	 * @var Hashtable<ServerAddress, OplogMultiplexer> multiplexers
+	 * The multiplexer for each host.
+	 **/
+	private static Hashtable<ServerAddress, OplogMultiplexer> multiplexers = new Hashtable<>();
+
+	/**
+	 * @var Mongo mongo
+	 * Connection object to MongoDB.
+	 **/
+	private Mongo mongo;
+
+	/**
+	 * @var String oplogUser
+	 * The username for the oplog database.
+	 **/
+	private String oplogUser = null;
+
+	/**
+	 * @var String oplogPassword
+	 * The password to be used for the oplog database.
+	 **/
+	private String oplogPassword = null;
+
+	/**
+	 * @var ArrayList<OplogRegistration> registrations
+	 * All registered subscriptions for this host.
+	 **/
+	private ArrayList<OplogRegistration> registrations;
+
+	/**
+	 * @var HashMap<String, BSONTimestamp> namespaceStarts
+	 * For each monitored namespace the newest oplog timestamp at the moment the namespace was first registered.
+	 **/
+	private HashMap<String, BSONTimestamp> namespaceStarts;
+
+	/**
+	 * @var HashMap<String, MaterializedView> views
+	 * The materialized view of each namespace in which at least one registration requires the resulting documents.
+	 **/
+	private HashMap<String, MaterializedView> views;
+
+	/**
+	 * @var OplogMonitorThread oplogMonitorThread
+	 * Thread for tracking tailable cursor on operation log of MongoDB
+	 **/
+	private OplogMonitorThread oplogMonitorThread;
+
+	/**
+	 * @var OplogCallbackDispatcher callbackDispatcher
+	 * Dispatcher executing the callbacks for all registrations of this host.
+	 **/
+	private OplogCallbackDispatcher callbackDispatcher;
+
+	/**
+	 * @var int oplogMaxAwaitTime
+	 * The maximum time in milliseconds the oplog monitor waits before reopening a cursor that has died.
+	 **/
+	private int oplogMaxAwaitTime;
+
+	/**
+	 * Constructs the multiplexer for the specified connection.
+	 * @param connection The connection to the host whose oplog will be tailed.
+	 **/
+	private OplogMultiplexer(MongoDBConnection connection) {
+		this.mongo = connection.getMongoClient();
+		this.registrations = new ArrayList<OplogRegistration>();
+		this.namespaceStarts = new HashMap<String, BSONTimestamp>();
+		this.views = new HashMap<String, MaterializedView>();
+
+		this.oplogMaxAwaitTime = Configuration.getPropertyInt(ConfigurationFiles.MONGO_DB_PROPERTIES, "oplogMaxAwaitTime");
+		int callbackWorkers = Configuration.getPropertyInt(ConfigurationFiles.MONGO_DB_PROPERTIES, "oplogCallbackWorkers");
+		int callbackQueueCapacity = Configuration.getPropertyInt(ConfigurationFiles.MONGO_DB_PROPERTIES, "oplogCallbackQueueCapacity");
+		this.callbackDispatcher = new OplogCallbackDispatcher(callbackWorkers, callbackQueueCapacity);
+	}
+
+	/**
+	 * Returns the multiplexer for the host of the specified connection.
+	 * @param connection The connection to the host.
+	 * @return The multiplexer for the host.
+	 **/
+	public static synchronized OplogMultiplexer getInstanceForConnection(MongoDBConnection connection) {
+		OplogMultiplexer multiplexer = multiplexers.get(connection.getServerAddress());
+		if (multiplexer == null) {
+			multiplexer = new OplogMultiplexer(connection);
+			multiplexers.put(connection.getServerAddress(), multiplexer);
+		}
+		return multiplexer;
+	}
+
+	/**
+	 * Sets the username and password that will be used for connecting to the Oplog database.
+	 * Only the first credentials set for a host are used, since the oplog is shared by all clients of that host.
+	 * @param username Username for the oplog database.
+	 * @param password Password for the oplog database.
+	 **/
+	public synchronized void setOplogCredentials(String username, String password) {
+		if (oplogUser == null) {
+			this.oplogUser = username;
+			this.oplogPassword = password;
+		}
+	}
+
+	/**
+	 * Returns the dispatcher executing the callbacks for all registrations of this host.
+	 * @return The callback dispatcher of this host.
+	 **/
+	public OplogCallbackDispatcher getCallbackDispatcher() {
+		return callbackDispatcher;
+	}
+
+	/**
+	 * Returns the amount of subscriptions registered for this host.
+	 * @return The amount of registered subscriptions.
+	 **/
+	public synchronized int getRegistrationCount() {
+		return registrations.size();
+	}
+
+	/**
+	 * Registers a subscription. When the namespace of the subscription is already monitored this only updates the
+	 * in-process routing; otherwise the tailed cursor is widened, starting at the current end of the oplog.
+	 * Registrations that require the resulting documents share a single materialized view per namespace, which is
+	 * seeded here so the monitor thread never has to query the collection.
+	 * @param registration The registration that should be added.
+	 * @return true if the registration was added, false if the oplog could not be tailed.
+	 **/
+	public synchronized boolean register(OplogRegistration registration) {
+		String namespace = registration.getNamespace();
+		boolean newNamespace = !namespaceStarts.containsKey(namespace);
+		MaterializedView view = null;
+		BSONTimestamp newest = null;
+		try {
+			if (oplogMonitorThread == null) {
+				oplogMonitorThread = createMonitorThread();
+			}
+
+			if (newNamespace || (registration.isMaterialized() && !views.containsKey(namespace))) {
+				newest = oplogMonitorThread.getNewestTimestamp();
+				if (newest == null) {
+					// The oplog does not exist, which happens when the database has not been configured as a replica set.
+					stopMonitorThreadIfIdle();
+					return false;
+				}
+				if (registration.isMaterialized() && !views.containsKey(namespace)) {
+					view = new MaterializedView(getCollection(namespace));
+					view.seed(newest);
+				}
+			}
+		} catch (MongoException ex) {
+			stopMonitorThreadIfIdle();
+			return false;
+		}
+
+		if (newNamespace) {
+			namespaceStarts.put(namespace, newest);
+		}
+		registrations.add(registration);
+		if (view != null) {
+			views.put(namespace, view);
+		}
+		oplogMonitorThread.setRegistrations(registrations, namespaceStarts, views);
+		if (oplogMonitorThread.getState() == Thread.State.NEW) {
+			oplogMonitorThread.start();
+		}
+		return true;
+	}
+
+	/**
+	 * Removes a registration. The tailed cursor is only reopened when no registrations are left for its namespace.
+	 * @param registration The registration that should be removed.
+	 **/
+	public synchronized void unregister(OplogRegistration registration) {
+		if (registrations.remove(registration)) {
+			boolean namespaceInUse = false;
+			boolean viewInUse = false;
+			for (OplogRegistration other : registrations) {
+				if (other.getNamespace().equals(registration.getNamespace())) {
+					namespaceInUse = true;
+					viewInUse |= other.isMaterialized();
+				}
+			}
+			if (!namespaceInUse) {
+				namespaceStarts.remove(registration.getNamespace());
+			}
+			if (!viewInUse) {
+				views.remove(registration.getNamespace());
+			}
+
+			if (registrations.size() > 0) {
+				oplogMonitorThread.setRegistrations(registrations, namespaceStarts, views);
+			} else {
+				stopMonitorThreadIfIdle();
+			}
+		}
+	}
+
+	/**
+	 * Returns the collection for the specified namespace.
+	 * @param namespace The namespace (database.collection) of the collection.
+	 * @return The collection for the namespace.
+	 **/
+	private DBCollection getCollection(String namespace) {
+		int separator = namespace.indexOf('.');
+		return mongo.getDB(namespace.substring(0, separator)).getCollection(namespace.substring(separator + 1));
+	}
+
+	/**
+	 * Creates a monitor thread for the oplog of this host. The thread is not started.
+	 * @return The created monitor thread.
+	 **/
+	private OplogMonitorThread createMonitorThread() {
+		OplogMonitorThread thread;
+		if (oplogUser != null) {
+			thread = new OplogMonitorThread(
+					mongo,
+					OPLOG_DATABASE_NAME,
+					OPLOG_COLLECTION_NAME,
+					oplogUser,
+					oplogPassword,
+					callbackDispatcher);
+		} else {
+			thread = new OplogMonitorThread(mongo, OPLOG_DATABASE_NAME, OPLOG_COLLECTION_NAME, callbackDispatcher);
+		}
+		thread.setMaxAwaitTime(oplogMaxAwaitTime);
+		return thread;
+	}
+
+	/**
+	 * Stops the monitor thread when there are no registrations left.
+	 **/
+	private void stopMonitorThreadIfIdle() {
+		if (registrations.isEmpty() && oplogMonitorThread != null) {
+			oplogMonitorThread.shutdown();
+			oplogMonitorThread = null;
+			namespaceStarts.clear();
+			views.clear();
+		}
+	}
+}
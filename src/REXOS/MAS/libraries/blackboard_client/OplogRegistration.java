@@ -0,0 +1,134 @@
+/**
+ * @file src/REXOS/MAS/libraries/blackboard_client/OplogRegistration.java
+ * @brief A subscription bound to a namespace and the client that made it.
+ * @date Created: 2013-10-18
+ *
+ * @section LICENSE
+ * License: newBSD
+ *
+ * Copyright © 2013, HU University of Applied Sciences Utrecht.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * - Neither the name of the HU University of Applied Sciences Utrecht nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE HU UNIVERSITY OF APPLIED SCIENCES UTRECHT
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+package libraries.blackboard_client;
+
+import libraries.blackboard_client.data_classes.BlackboardSubscription;
+import libraries.blackboard_client.data_classes.OplogEntry;
+import libraries.utillities.metrics.LatencyHistogram;
+
+/**
+ * Couples a subscription to the namespace it was made in and to the client that made it.
+ * Registrations are routed by the {@link OplogMultiplexer} of the host.
+ **/
+class OplogRegistration {
+	/**
+	 * @var String namespace
+	 * The namespace (database.collection) the subscription applies to.
+	 **/
+	private String namespace;
+
+	/**
+	 * @var BlackboardSubscription subscription
+	 * The subscription that was made.
+	 **/
+	private BlackboardSubscription subscription;
+
+	/**
+	 * @var LatencyHistogram oplogLatency
+	 * Histogram of the owning client in which the time between the oplog timestamp and the callback is recorded.
+	 **/
+	private LatencyHistogram oplogLatency;
+
+	/**
+	 * @var LatencyHistogram dispatchLatency
+	 * Histogram of the owning client in which the time between reading the entry and the callback is recorded.
+	 **/
+	private LatencyHistogram dispatchLatency;
+
+	/**
+	 * @var boolean materialized
+	 * Whether the entries delivered for this registration should carry the resulting document.
+	 **/
+	private boolean materialized;
+
+	/**
+	 * Constructs a registration for the subscription in the specified namespace.
+	 * @param namespace The namespace (database.collection) the subscription applies to.
+	 * @param subscription The subscription that was made.
+	 * @param oplogLatency Histogram in which the time between the oplog timestamp and the callback is recorded.
+	 * @param dispatchLatency Histogram in which the time between reading the entry and the callback is recorded.
+	 * @param materialized Whether the entries delivered for this registration should carry the resulting document.
+	 **/
+	public OplogRegistration(String namespace, BlackboardSubscription subscription,
+			LatencyHistogram oplogLatency, LatencyHistogram dispatchLatency, boolean materialized) {
+		this.namespace = namespace;
+		this.subscription = subscription;
+		this.oplogLatency = oplogLatency;
+		this.dispatchLatency = dispatchLatency;
+		this.materialized = materialized;
+	}
+
+	/**
+	 * Returns the namespace the subscription applies to.
+	 * @return The namespace the subscription applies to.
+	 **/
+	public String getNamespace() {
+		return namespace;
+	}
+
+	/**
+	 * Returns the subscription of this registration.
+	 * @return The subscription of this registration.
+	 **/
+	public BlackboardSubscription getSubscription() {
+		return subscription;
+	}
+
+	/**
+	 * Returns the histogram in which the time between the oplog timestamp and the callback is recorded.
+	 * @return The oplog latency histogram of the owning client.
+	 **/
+	public LatencyHistogram getOplogLatency() {
+		return oplogLatency;
+	}
+
+	/**
+	 * Returns the histogram in which the time between reading the entry and the callback is recorded.
+	 * @return The dispatch latency histogram of the owning client.
+	 **/
+	public LatencyHistogram getDispatchLatency() {
+		return dispatchLatency;
+	}
+
+	/**
+	 * Returns whether the entries delivered for this registration should carry the resulting document.
+	 * @return Whether a materialized view of the namespace is required.
+	 **/
+	public boolean isMaterialized() {
+		return materialized;
+	}
+
+	/**
+	 * Returns whether the entry, which is known to be in the namespace of this registration, matches the subscription.
+	 * @param entry The oplog entry.
+	 * @return Whether or not the entry matches the subscription.
+	 **/
+	public boolean matchesWithEntry(OplogEntry entry) {
+		return subscription.matchesWithEntry(entry);
+	}
+}
@@ -100,7 +100,7 @@ public class MongoDBConnection {
 	 * @return A {@link MongoDBConnection} instance for the specified host.
 	 * @throws MongoConnectionException Connecting to the database server failed.
 	 **/
-	public static MongoDBConnection getInstanceForHost(ServerAddress address) throws GeneralMongoException {
+	public static synchronized MongoDBConnection getInstanceForHost(ServerAddress address) throws GeneralMongoException {
 		if (!databaseConnections.containsKey(address)) {
 			databaseConnections.put(address, new MongoDBConnection(address));
 		}
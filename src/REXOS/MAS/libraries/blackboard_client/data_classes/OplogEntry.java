@@ -31,6 +31,7 @@
 
 package libraries.blackboard_client.data_classes;
 
+import org.bson.types.BSONTimestamp;
 import org.bson.types.ObjectId;
 
 import com.mongodb.BasicDBObject;
@@ -82,13 +83,29 @@ public class OplogEntry {
 	 * Internal DBObject representation of the oplog entry.
 	 **/
 	private DBObject oplogEntry;
+	
+	/**
+	 * @var DBObject document
+	 * The target document as it was after the operation, or null if it is not known.
+	 **/
+	private DBObject document;
 
 	/**
 	 * Construct an OplogEntry object based on the specified entry.
 	 * @param oplogEntry The DBObject containing the oplog data.
 	 **/
 	public OplogEntry(DBObject oplogEntry) {
+		this(oplogEntry, null);
+	}
+	
+	/**
+	 * Construct an OplogEntry object based on the specified entry and the resulting target document.
+	 * @param oplogEntry The DBObject containing the oplog data.
+	 * @param document The target document as it was after the operation.
+	 **/
+	public OplogEntry(DBObject oplogEntry, DBObject document) {
 		this.oplogEntry = oplogEntry;
+		this.document = document;
 	}
 	
 	/**
@@ -108,6 +125,15 @@ public class OplogEntry {
 		return oplogEntry.get(NAMESPACE_FIELD).toString();
 	}
 	
+	/**
+	 * Returns the timestamp of this oplog entry.
+	 * Note that the time part of an oplog timestamp has a resolution of seconds.
+	 * @return the timestamp of this oplog entry.
+	 **/
+	public BSONTimestamp getTimestamp() {
+		return (BSONTimestamp)oplogEntry.get(TIMESTAMP_FIELD);
+	}
+	
 	/**
 	 * Returns the update query (i.e. the query that was used to update the target documents) of this oplog entry.
 	 * @return the update query of this oplog entry.
@@ -124,6 +150,17 @@ public class OplogEntry {
 		return (DBObject)oplogEntry.get(UPDATE_CRITERIA_FIELD);
 	}
 
+	/**
+	 * Returns the target document as it was right after the operation (the post-image).
+	 * This is only available when the subscription was made with materialized documents enabled on the client;
+	 * the document is then taken from the local view of the collection without querying the database.
+	 * The same document is shared by all subscribers of this entry and should not be modified.
+	 * @return The target document after the operation, or null if it was deleted or is not available.
+	 **/
+	public DBObject getDocument() {
+		return document;
+	}
+
 	/**
 	 * Returns a JSON serialization of the oplog entry.
 	 * @return A JSON serialization of the oplog entry.
@@ -29,26 +29,15 @@
  **/
 package libraries.dynamicloader;
 
-import java.io.ByteArrayOutputStream;
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
 import java.net.URLConnection;
-import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
 
 /**
  * Contains all data required to instantiate an object of a class.
  **/
 class DynamicClassData {
-	/**
-	 * @var boolean loaderNeedsRefresh
-	 * Indicates whether or not the class data has changed since creating the last SoftwareClassLoader.
-	 **/
-	private boolean classDataChanged = true;
-	
 	/**
 	 * @var long lastModified
 	 * Timestamp indicating when the class data was last updated.
@@ -62,14 +51,20 @@ class DynamicClassData {
 	private DynamicClassDescription description;
 	
 	/**
-	 * @var byte[] classData
-	 * The classdata of the class represented by this SoftwareData object.
+	 * @var String loadedLocation
+	 * The jar location the class data was last loaded from, or null if no class data was loaded yet.
+	 **/
+	private String loadedLocation;
+	
+	/**
+	 * @var String loadedJar
+	 * The name of the stored jar the class data was last loaded from, which identifies its content.
 	 **/
-	private byte[] classData;
+	private String loadedJar;
 	
 	/**
 	 * @var SoftwareClassLoader loader
-	 * Current instance of the DynamicClassLoader for this class.
+	 * Current instance of the DynamicClassLoader for this class, loading all classes in the jar of the class.
 	 **/
 	private DynamicClassLoader loader;
 	
@@ -114,24 +109,9 @@ class DynamicClassData {
 				throw new InstantiateClassException("Failed to retrieve software.", ex);
 			}
 		}
-		if (classDataChanged) {
-			setLoader(new DynamicClassLoader(DynamicClassData.class.getClassLoader()));
-			loader.registerClass(description.getClassName(), classData);
-			classDataChanged = false;
-		}
 		return loader;
 	}
 	
-	/**
-	 * Sets the byte[] containing class data for this object.
-	 * The array is not copied and should be preallocated.
-	 * @param classData The class data that should be used.
-	 **/
-	private void setClassData(byte[] classData) {
-		this.classData = classData;
-		classDataChanged = true;
-	}
-	
 	/**
 	 * Sets the description that will be used for this object.
 	 * @param description The description that will be used for this object.
@@ -139,7 +119,8 @@ class DynamicClassData {
 	public void setDescription(DynamicClassDescription description) {
 		if (!description.equals(this.description)) {
 			this.lastModified = 0;
-			classDataChanged = true;
+			this.loadedLocation = null;
+			this.loadedJar = null;
 		}
 		this.description = description;
 	}
@@ -161,73 +142,60 @@ class DynamicClassData {
 	}
 	
 	/**
-	 * Extract data for a given class from the specified jar file.
-	 * @param jar JarFile containing the class data.
-	 * @param className Fully qualified name of the class that should be extracted.
-	 * @return Byte array containing the data for the specified class.
-	 * @throws IOException Reading from the JarFile failed.
+	 * Creates a loader for the classes in a jar in the jar store.
+	 * @param storedJar The jar containing the class data.
+	 * @param location The location the jar was downloaded from.
+	 * @throws IOException Reading from the jar failed or the jar does not contain the described class.
 	 **/
-	private byte[] extractClassDataFromJar(JarFile jar, String className) throws IOException {
-		// Convert classname to  in jar.
-		String pathInJar = className.replace('.', '/').concat(".class");
-		JarEntry entry = jar.getJarEntry(pathInJar);
-		if (entry == null) {
-			throw new IOException("Path " + pathInJar + " not found in jarfile.");
+	private void loadClassDataFromStore(JarStore.StoredJar storedJar, String location) throws IOException {
+		DynamicClassLoader newLoader = new DynamicClassLoader(DynamicClassData.class.getClassLoader(), storedJar.getFile(),
+				description.getClassName());
+		if (!newLoader.isClassRegistered(description.getClassName())) {
+			throw new IOException("Class " + description.getClassName() + " not found in jarfile.");
 		}
-		InputStream inStream = jar.getInputStream(entry);
-		
-		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-		int b;
-		while ((b = inStream.read()) != -1) {
-			buffer.write(b);
-		}
-		
-		return buffer.toByteArray();
+		setLoader(newLoader);
+		setLastModified(storedJar.getLastModified());
+		loadedLocation = location;
+		loadedJar = storedJar.getFile().getName();
 	}
 	
 	/**
 	 * Attempts to update the stored class data to the latest version if available.
+	 * The first time a jar location is used, the version in the jar store is used if there is one, without contacting
+	 * the location. Otherwise the jar is downloaded into the jar store if it was modified since it was last loaded.
 	 * @throws IOException Retrieving an updated version of the class data failed.
 	 **/
 	private void updateClassData() throws IOException {
-		JarFile jarFile = null;
-		URL jarLocationURL = new URL(description.getJarLocation());
-		URLConnection con = jarLocationURL.openConnection();
+		JarStore store = JarStore.getInstance();
+		String location = description.getJarLocation();
+		if (!location.equals(loadedLocation)) {
+			JarStore.StoredJar storedJar = store.get(location);
+			if (storedJar != null) {
+				loadClassDataFromStore(storedJar, location);
+				return;
+			}
+		}
+		
+		URLConnection con = new URL(location).openConnection();
 		
 		// Set last modified date so new data is only obtained when something has actually changed.
 		con.setIfModifiedSince(lastModified);
 		con.connect();
 		InputStream inputStream = con.getInputStream();
-		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-		
-		int data;
-		while ((data = inputStream.read()) != -1) {
-			buffer.write(data);
+		JarStore.StoredJar storedJar;
+		try {
+			storedJar = store.put(location, inputStream, con.getLastModified());
 		}
-		inputStream.close();
-		
-		if (buffer.size() > 1) {
-			int lastSlashPos = jarLocationURL.getPath().lastIndexOf('/');
-			String jarFileName = jarLocationURL.getPath().substring(lastSlashPos > -1 ? lastSlashPos + 1 : 0);
-			File file = new File(jarFileName);
-			file.deleteOnExit();
-			FileOutputStream fos = new FileOutputStream(file);
-			try {
-				fos.write(buffer.toByteArray());
-			}
-			finally {
-				fos.close();
-			}
-			jarFile = new JarFile(file);
+		finally {
+			inputStream.close();
 		}
 		
-		if (jarFile != null) {
-			try {
-				setClassData(extractClassDataFromJar(jarFile, description.getClassName()));
-				setLastModified(con.getLastModified());
-			}
-			finally {
-				jarFile.close();
+		if (storedJar != null) {
+			if (location.equals(loadedLocation) && storedJar.getFile().getName().equals(loadedJar)) {
+				// The same content was downloaded again, the current class data is still valid.
+				setLastModified(storedJar.getLastModified());
+			} else {
+				loadClassDataFromStore(storedJar, location);
 			}
 		}
 	}
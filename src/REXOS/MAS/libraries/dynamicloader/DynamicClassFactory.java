@@ -29,12 +29,25 @@
  **/
 package libraries.dynamicloader;
 
+import java.util.Collection;
 import java.util.Hashtable;
+import java.util.LinkedHashMap;
+
+import libraries.utillities.log.LogLevel;
+import libraries.utillities.log.Logger;
+import configuration.Configuration;
+import configuration.ConfigurationFiles;
 
 /**
  * Generic class for loading class data from a remote server based on a description.
  **/
 public class DynamicClassFactory<T> {
+	/**
+	 * @var int DEFAULT_PRELOAD_THREADS
+	 * The maximum amount of software preloaded at the same time, if not configured.
+	 **/
+	private static final int DEFAULT_PRELOAD_THREADS = 4;
+	
 	/**
 	 * @var Hashtable<Long, DynamicClassData> softwareCache
 	 * A cache holding the DynamicClassData for each id.
@@ -43,30 +56,46 @@ public class DynamicClassFactory<T> {
 	
 	private Class<T> type;
 	
+	/**
+	 * @var int preloadThreads
+	 * The maximum amount of software preloaded at the same time.
+	 **/
+	private int preloadThreads;
+	
 	/**
 	 * Constructs a new DynamicClassFactory.
 	 **/
 	public DynamicClassFactory(Class<T> type) {
 		this.type = type;
 		softwareCache = new Hashtable<Long, DynamicClassData>();
+		
+		int threads = Configuration.getPropertyInt(ConfigurationFiles.KNOWLEDGE_DB_PROPERTIES, "softwarePreloadThreads");
+		preloadThreads = threads > 0 ? threads : DEFAULT_PRELOAD_THREADS;
 	}
 	
 	/**
 	 * Returns a DynamicClassLoader for the given description.
+	 * Software may be loaded on several threads at once, e.g. while preloading or revalidating. Loading different
+	 * software runs concurrently, loading the same software is serialized on its DynamicClassData.
 	 * @param description DynamicClassDescription containing the relevant information for the software.
 	 * @return A DynamicClassLoader that is able to create an object for the given description.
 	 * @throws InstantiateClassException No loader could be created.
 	 **/
 	private DynamicClassLoader getClassLoader(DynamicClassDescription description) throws InstantiateClassException {
-		DynamicClassData entry = softwareCache.get(description.getId());
-		if (entry == null) {
-			entry = new DynamicClassData(description);
-			softwareCache.put(description.getId(), entry);
+		DynamicClassData entry;
+		synchronized (softwareCache) {
+			entry = softwareCache.get(description.getId());
+			if (entry == null) {
+				entry = new DynamicClassData(description);
+				softwareCache.put(description.getId(), entry);
+			}
+		}
+		synchronized (entry) {
+			// Update the description.
+			entry.setDescription(description);
+			
+			return entry.getLoader();
 		}
-		// Update the description.
-		entry.setDescription(description);
-		
-		return entry.getLoader();
 	}
 	
 	/**
@@ -119,4 +148,22 @@ public class DynamicClassFactory<T> {
 		}
 		return objToReturn;
 	}
+	
+	/**
+	 * Loads the software for the specified keys into the cache concurrently and logs the load time of every key.
+	 * @param cache The cache the software is loaded into.
+	 * @param keys The keys for which software should be loaded.
+	 * @param kind What the keys identify, e.g. "module", used in the log messages.
+	 **/
+	public <K> void preload(SoftwareCache<K, T> cache, Collection<K> keys, String kind) {
+		LinkedHashMap<K, Long> loadTimes = cache.preload(keys, preloadThreads);
+		for (K key : keys) {
+			Long loadTime = loadTimes.get(key);
+			if (loadTime != null) {
+				Logger.log(LogLevel.NOTIFICATION, "Loaded software for %s %s in %d ms", kind, key, loadTime);
+			} else {
+				Logger.log(LogLevel.ERROR, "No software could be loaded for %s %s", kind, key);
+			}
+		}
+	}
 }
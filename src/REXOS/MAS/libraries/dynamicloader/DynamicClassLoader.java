@@ -29,19 +29,65 @@
  **/
 package libraries.dynamicloader;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
 
 /**
  * Custom class loader.
+ * A loader constructed for a jar registers every class in the jar, so modules consisting of several classes, including
+ * inner classes, can be loaded. Classes are defined on first use and the resulting Class objects are reused by later
+ * loads. Resources in the jar are served from the jar file.
+ * Only the described class, its nested classes and classes registered separately are loaded by this loader first.
+ * Every other class is delegated to the parent first, so a jar that bundles a type of the host (e.g. Module) does
+ * not define it a second time.
+ * The jar is read once while constructing the loader and not kept open, so a replaced loader is collected together with
+ * the last object of its classes.
  **/
 public class DynamicClassLoader extends ClassLoader {
+	static {
+		registerAsParallelCapable();
+	}
 	
 	/**
 	 * @var HashMap<String,byte[]> registeredClasses
-	 * The classes that have been registered for loading for this object.
+	 * The classes that have been registered for loading for this object and have not been defined yet. Guarded by this.
 	 **/
 	HashMap<String, byte[]> registeredClasses;
 	
+	/**
+	 * @var HashMap<String, Class<?>> definedClasses
+	 * The registered classes that have been defined. Guarded by this.
+	 **/
+	private HashMap<String, Class<?>> definedClasses;
+	
+	/**
+	 * @var HashSet<String> childFirstClasses
+	 * The names of the classes that are defined by this loader even if the parent can load them. Guarded by this.
+	 **/
+	private HashSet<String> childFirstClasses;
+	
+	/**
+	 * @var File jar
+	 * The jar file containing the registered classes and resources, or null if the classes were registered separately.
+	 **/
+	private File jar;
+	
+	/**
+	 * @var HashSet<String> resources
+	 * The paths of the resources in the jar file.
+	 **/
+	private HashSet<String> resources;
+	
 	/**
 	 * Constructs a new DynamicClassLoader object.
 	 * @param parent The parent class loader that should be used.
@@ -49,6 +95,53 @@ public class DynamicClassLoader extends ClassLoader {
 	public DynamicClassLoader(ClassLoader parent) {
 		super(parent);
 		registeredClasses = new HashMap<String, byte[]>();
+		definedClasses = new HashMap<String, Class<?>>();
+		childFirstClasses = new HashSet<String>();
+		resources = new HashSet<String>();
+	}
+	
+	/**
+	 * Constructs a new DynamicClassLoader object for all classes and resources in a jar file.
+	 * @param parent The parent class loader that should be used.
+	 * @param jar The jar file containing the classes and resources.
+	 * @param describedClass The name of the class the jar is loaded for, which is loaded from the jar first.
+	 * @throws IOException Reading the jar file failed.
+	 **/
+	public DynamicClassLoader(ClassLoader parent, File jar, String describedClass) throws IOException {
+		this(parent);
+		this.jar = jar;
+		childFirstClasses.add(describedClass);
+		
+		JarFile jarFile = new JarFile(jar);
+		try {
+			byte[] chunk = new byte[8192];
+			Enumeration<JarEntry> entries = jarFile.entries();
+			while (entries.hasMoreElements()) {
+				JarEntry entry = entries.nextElement();
+				if (entry.isDirectory()) {
+					continue;
+				}
+				String path = entry.getName();
+				if (path.endsWith(".class")) {
+					InputStream inStream = jarFile.getInputStream(entry);
+					try {
+						ByteArrayOutputStream buffer = new ByteArrayOutputStream(entry.getSize() > 0 ? (int)entry.getSize() : 8192);
+						int read;
+						while ((read = inStream.read(chunk)) != -1) {
+							buffer.write(chunk, 0, read);
+						}
+						String name = path.substring(0, path.length() - ".class".length()).replace('/', '.');
+						registeredClasses.put(name, buffer.toByteArray());
+					} finally {
+						inStream.close();
+					}
+				} else {
+					resources.add(path);
+				}
+			}
+		} finally {
+			jarFile.close();
+		}
 	}
 	
 	/**
@@ -56,8 +149,8 @@ public class DynamicClassLoader extends ClassLoader {
 	 * @param name The name of the class.
 	 * @return Whether or not the specified class has been registered for loading.
 	 **/
-	public boolean isClassRegistered(String name) {
-		return registeredClasses.containsKey(name);
+	public synchronized boolean isClassRegistered(String name) {
+		return registeredClasses.containsKey(name) || definedClasses.containsKey(name);
 	}
 	
 	/**
@@ -65,22 +158,93 @@ public class DynamicClassLoader extends ClassLoader {
 	 * @param name The name of the class.
 	 * @param data A byte[] containing the definition of the class. (i.e. contents of the .class file)
 	 **/
-	public void registerClass(String name, byte[] data) {
+	public synchronized void registerClass(String name, byte[] data) {
 		registeredClasses.put(name, data);
+		childFirstClasses.add(name);
+	}
+	
+	/**
+	 * Checks whether a class is loaded by this loader before asking the parent.
+	 * Nested classes follow the class they are nested in. Guarded by this.
+	 * @param name The name of the class.
+	 * @return Whether or not the class is loaded by this loader first.
+	 **/
+	private boolean isChildFirst(String name) {
+		int nested = name.indexOf('$');
+		return childFirstClasses.contains(name) || (nested > 0 && childFirstClasses.contains(name.substring(0, nested)));
 	}
 	
 	/**
 	 * Attempts to load the class corresponding to the given name.
+	 * The described class and separately registered classes are defined by this loader the first time they are loaded.
+	 * Other classes are loaded by the parent, and only defined by this loader when the parent can not find them.
 	 * @param name The name of the class
 	 * @return The resulting Class object.
 	 * @see java.lang.ClassLoader#loadClass(java.lang.String)
 	 **/
 	public Class<?> loadClass(String name) throws ClassNotFoundException {
-		if (!registeredClasses.containsKey(name)) {
-			return super.loadClass(name);
+		synchronized (getClassLoadingLock(name)) {
+			byte[] classData;
+			boolean childFirst;
+			synchronized (this) {
+				Class<?> cls = definedClasses.get(name);
+				if (cls != null) {
+					return cls;
+				}
+				classData = registeredClasses.get(name);
+				childFirst = isChildFirst(name);
+			}
+			if (classData == null) {
+				return super.loadClass(name);
+			}
+			if (!childFirst) {
+				try {
+					return super.loadClass(name);
+				} catch (ClassNotFoundException ex) {
+					// Only the jar contains the class, so it is defined below.
+				}
+			}
+			
+			Class<?> cls = defineClass(name, classData, 0, classData.length);
+			synchronized (this) {
+				// The definition is no longer needed once the class is defined.
+				registeredClasses.remove(name);
+				definedClasses.put(name, cls);
+			}
+			return cls;
 		}
-		
-		byte[] classData = registeredClasses.get(name);
-		return defineClass(name, classData, 0, classData.length);
+	}
+	
+	/**
+	 * Returns the URL of a resource in the jar file.
+	 * @param name The path of the resource.
+	 * @return The URL of the resource, or null if the jar file does not contain it.
+	 * @see java.lang.ClassLoader#findResource(java.lang.String)
+	 **/
+	@Override
+	protected URL findResource(String name) {
+		if (jar == null || !resources.contains(name)) {
+			return null;
+		}
+		try {
+			return new URL("jar:" + jar.toURI().toURL() + "!/" + name);
+		} catch (MalformedURLException ex) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Returns the URLs of a resource in the jar file.
+	 * @param name The path of the resource.
+	 * @return The URL of the resource, or no URLs if the jar file does not contain it.
+	 * @see java.lang.ClassLoader#findResources(java.lang.String)
+	 **/
+	@Override
+	protected Enumeration<URL> findResources(String name) {
+		URL url = findResource(name);
+		if (url == null) {
+			return Collections.emptyEnumeration();
+		}
+		return Collections.enumeration(Collections.singletonList(url));
 	}
 }
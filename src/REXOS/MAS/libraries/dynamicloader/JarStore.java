@@ -0,0 +1,327 @@
+/**
+ * @file src/REXOS/MAS/libraries/dynamicloader/JarStore.java
+ * @brief Local content-addressed store of downloaded jar files.
+ * @date Created: 2013-10-18
+ *
+ * @section LICENSE
+ * License: newBSD
+ *
+ * Copyright © 2013, HU University of Applied Sciences Utrecht.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * - Neither the name of the HU University of Applied Sciences Utrecht nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE HU UNIVERSITY OF APPLIED SCIENCES UTRECHT
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+package libraries.dynamicloader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Properties;
+
+import libraries.utillities.log.LogLevel;
+import libraries.utillities.log.Logger;
+
+/**
+ * Local store of downloaded jar files shared by all dynamic class factories in the JVM.
+ * Jars are stored once per content under the SHA-256 hash of their bytes, so the same jar published at several
+ * locations is stored once. An index maps every jar location to the hash and last modified timestamp of the version
+ * last downloaded from it. Both the jars and the index are kept on disk, so a restarted JVM can load its software
+ * without downloading it again.
+ **/
+class JarStore {
+	/**
+	 * @var String STORE_DIRECTORY
+	 * The directory, relative to the working directory, in which the jars are stored.
+	 **/
+	private static final String STORE_DIRECTORY = "jar_store";
+
+	/**
+	 * @var String INDEX_FILE
+	 * The name of the file in the store directory mapping jar locations to stored jars.
+	 **/
+	private static final String INDEX_FILE = "index.properties";
+
+	/**
+	 * @var int BUFFER_SIZE
+	 * The size of the buffers used to transfer jars.
+	 **/
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * @var JarStore instance
+	 * The store shared by all dynamic class factories in the JVM.
+	 **/
+	private static JarStore instance;
+
+	/**
+	 * A version of a jar in the store.
+	 **/
+	static class StoredJar {
+		/**
+		 * @var File file
+		 * The file containing the jar.
+		 **/
+		private File file;
+
+		/**
+		 * @var long lastModified
+		 * The last modified timestamp reported by the location of the jar.
+		 **/
+		private long lastModified;
+
+		/**
+		 * Constructs a stored jar.
+		 * @param file The file containing the jar.
+		 * @param lastModified The last modified timestamp reported by the location of the jar.
+		 **/
+		StoredJar(File file, long lastModified) {
+			this.file = file;
+			this.lastModified = lastModified;
+		}
+
+		/**
+		 * Returns the file containing the jar.
+		 * @return The file containing the jar.
+		 **/
+		File getFile() {
+			return file;
+		}
+
+		/**
+		 * Returns the last modified timestamp reported by the location of the jar.
+		 * @return The last modified timestamp.
+		 **/
+		long getLastModified() {
+			return lastModified;
+		}
+	}
+
+	/**
+	 * @var File directory
+	 * The directory in which the jars and the index are stored.
+	 **/
+	private File directory;
+
+	/**
+	 * @var HashMap<String, StoredJar> index
+	 * The latest stored version of the jar by its location. Guarded by this.
+	 **/
+	private HashMap<String, StoredJar> index;
+
+	/**
+	 * Constructs a store in the specified directory, reading the index left by earlier runs.
+	 * @param directory The directory in which the jars and the index are stored.
+	 **/
+	private JarStore(File directory) {
+		this.directory = directory;
+		this.index = new HashMap<String, StoredJar>();
+		readIndex();
+	}
+
+	/**
+	 * Returns the store shared by all dynamic class factories in the JVM.
+	 * @return The jar store.
+	 **/
+	static synchronized JarStore getInstance() {
+		if (instance == null) {
+			instance = new JarStore(new File(STORE_DIRECTORY));
+		}
+		return instance;
+	}
+
+	/**
+	 * Returns the latest stored version of the jar downloaded from a location.
+	 * @param location The location of the jar.
+	 * @return The stored jar, or null if no jar from the location is stored.
+	 **/
+	synchronized StoredJar get(String location) {
+		StoredJar jar = index.get(location);
+		if (jar != null && !jar.getFile().isFile()) {
+			index.remove(location);
+			return null;
+		}
+		return jar;
+	}
+
+	/**
+	 * Streams a jar into the store and records it as the latest version from its location.
+	 * The jar is written to a temporary file while its hash is computed, and then moved to the file named after the
+	 * hash, unless a jar with the same content is already stored.
+	 * @param location The location of the jar.
+	 * @param inputStream The contents of the jar. Not closed by this method.
+	 * @param lastModified The last modified timestamp reported by the location of the jar.
+	 * @return The stored jar, or null if the stream was empty.
+	 * @throws IOException Reading the jar or writing it to the store failed.
+	 **/
+	StoredJar put(String location, InputStream inputStream, long lastModified) throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Unable to create jar store " + directory);
+		}
+
+		MessageDigest digest = newDigest();
+		File temporaryFile = File.createTempFile("download", ".tmp", directory);
+		long size = 0;
+		try {
+			DigestInputStream in = new DigestInputStream(inputStream, digest);
+			OutputStream out = new BufferedOutputStream(new FileOutputStream(temporaryFile), BUFFER_SIZE);
+			try {
+				byte[] buffer = new byte[BUFFER_SIZE];
+				int read;
+				while ((read = in.read(buffer)) != -1) {
+					out.write(buffer, 0, read);
+					size += read;
+				}
+			} finally {
+				out.close();
+			}
+
+			if (size == 0) {
+				return null;
+			}
+
+			File file = new File(directory, toHex(digest.digest()) + ".jar");
+			if (!file.isFile()) {
+				move(temporaryFile, file);
+			}
+			StoredJar jar = new StoredJar(file, lastModified);
+			synchronized (this) {
+				index.put(location, jar);
+				writeIndex();
+			}
+			return jar;
+		} finally {
+			temporaryFile.delete();
+		}
+	}
+
+	/**
+	 * Moves a file, atomically if the file system supports it, so no other process sees a partially written jar.
+	 * @param source The file that should be moved.
+	 * @param target The destination of the file.
+	 * @throws IOException Moving the file failed.
+	 **/
+	private void move(File source, File target) throws IOException {
+		try {
+			Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException ex) {
+			Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Reads the index left by earlier runs. Entries of which the jar no longer exists are skipped.
+	 **/
+	private void readIndex() {
+		File file = new File(directory, INDEX_FILE);
+		if (!file.isFile()) {
+			return;
+		}
+		Properties properties = new Properties();
+		try {
+			InputStream in = new BufferedInputStream(new FileInputStream(file));
+			try {
+				properties.load(in);
+			} finally {
+				in.close();
+			}
+		} catch (IOException ex) {
+			Logger.log(LogLevel.WARNING, "Reading the jar store index failed, starting with an empty index.", ex);
+			return;
+		}
+
+		for (String location : properties.stringPropertyNames()) {
+			String[] value = properties.getProperty(location).split(" ");
+			if (value.length == 2) {
+				File jarFile = new File(directory, value[0]);
+				if (jarFile.isFile()) {
+					try {
+						index.put(location, new StoredJar(jarFile, Long.parseLong(value[1])));
+					} catch (NumberFormatException ex) {
+						Logger.log(LogLevel.WARNING, "Skipping malformed jar store index entry for " + location);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes the index to a temporary file and moves it over the previous index, so the index on disk is never partial.
+	 * Failures are logged, the jars stay usable in this run.
+	 **/
+	private void writeIndex() {
+		Properties properties = new Properties();
+		for (String location : index.keySet()) {
+			StoredJar jar = index.get(location);
+			properties.setProperty(location, jar.getFile().getName() + " " + jar.getLastModified());
+		}
+		try {
+			File temporaryFile = File.createTempFile("index", ".tmp", directory);
+			try {
+				OutputStream out = new BufferedOutputStream(new FileOutputStream(temporaryFile));
+				try {
+					properties.store(out, "Jar location = stored jar and last modified timestamp");
+				} finally {
+					out.close();
+				}
+				move(temporaryFile, new File(directory, INDEX_FILE));
+			} finally {
+				temporaryFile.delete();
+			}
+		} catch (IOException ex) {
+			Logger.log(LogLevel.WARNING, "Writing the jar store index failed.", ex);
+		}
+	}
+
+	/**
+	 * Returns a new SHA-256 digest.
+	 * @return The digest.
+	 **/
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException ex) {
+			// Every Java platform is required to support SHA-256.
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	/**
+	 * Returns the hexadecimal representation of a hash.
+	 * @param hash The bytes of the hash.
+	 * @return The lowercase hexadecimal representation.
+	 **/
+	private static String toHex(byte[] hash) {
+		StringBuilder builder = new StringBuilder(hash.length * 2);
+		for (byte b : hash) {
+			builder.append(Character.forDigit((b >> 4) & 0xF, 16));
+			builder.append(Character.forDigit(b & 0xF, 16));
+		}
+		return builder.toString();
+	}
+}
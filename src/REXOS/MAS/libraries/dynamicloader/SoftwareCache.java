@@ -0,0 +1,396 @@
+/**
+ * @file src/REXOS/MAS/libraries/dynamicloader/SoftwareCache.java
+ * @brief Cache of dynamically loaded software that revalidates in the background.
+ * @date Created: 2013-10-18
+ *
+ * @section LICENSE
+ * License: newBSD
+ *
+ * Copyright © 2013, HU University of Applied Sciences Utrecht.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * - Neither the name of the HU University of Applied Sciences Utrecht nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE HU UNIVERSITY OF APPLIED SCIENCES UTRECHT
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+package libraries.dynamicloader;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import libraries.utillities.log.LogLevel;
+import libraries.utillities.log.Logger;
+
+/**
+ * Cache of dynamically loaded software instances that never blocks a lookup on I/O once an instance is cached.
+ * Looking up an instance returns the cached instance immediately. When the instance was validated longer ago than the
+ * revalidation interval, or revalidateAll was called, the loader is asked for the latest version on a background
+ * thread. A newer version found by the background thread is swapped in by the next lookup, on the thread of the
+ * caller, which is also the thread on which the loader is told about the update.
+ * Only the first lookup of a key loads synchronously, because there is nothing to return yet.
+ *
+ * @param <K> The type of the key of the software, e.g. the id of a module.
+ * @param <T> The type of the software instances.
+ **/
+public class SoftwareCache<K, T> {
+	/**
+	 * Loads the software for a key.
+	 *
+	 * @param <K> The type of the key of the software.
+	 * @param <T> The type of the software instances.
+	 **/
+	public interface Loader<K, T> {
+		/**
+		 * Returns the latest version of the software. Called on the thread of the caller for the first lookup of a key
+		 * and on a background thread for revalidations.
+		 * @param key The key of the software.
+		 * @param current The cached instance, or null if there is none.
+		 * @return The current instance if it is up to date, a new instance if it is not, or null if no software could be loaded.
+		 **/
+		public T load(K key, T current);
+
+		/**
+		 * Called on the thread of a lookup when a revalidation replaced the cached instance.
+		 * @param key The key of the software.
+		 * @param oldInstance The instance that was replaced.
+		 * @param newInstance The instance that replaced it.
+		 **/
+		public void updated(K key, T oldInstance, T newInstance);
+	}
+
+	/**
+	 * Cached instance of the software for a key.
+	 **/
+	private class Entry {
+		/**
+		 * @var T instance
+		 * The instance returned by lookups. Guarded by this entry.
+		 **/
+		private T instance;
+
+		/**
+		 * @var T pending
+		 * A newer instance found by a revalidation that has not been swapped in yet. Guarded by this entry.
+		 **/
+		private T pending;
+
+		/**
+		 * @var long validatedAt
+		 * The moment in milliseconds the instance was last validated. Guarded by this entry.
+		 **/
+		private long validatedAt;
+
+		/**
+		 * @var long validatedGeneration
+		 * The value of the generation of the cache when the instance was last validated. Guarded by this entry.
+		 **/
+		private long validatedGeneration;
+
+		/**
+		 * @var boolean revalidating
+		 * Whether a revalidation of the instance is running. Guarded by this entry.
+		 **/
+		private boolean revalidating;
+	}
+
+	/**
+	 * @var ExecutorService revalidator
+	 * The threads on which the instances of all caches are revalidated.
+	 **/
+	private static final ExecutorService revalidator = Executors.newFixedThreadPool(2, new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "SoftwareRevalidation");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	/**
+	 * @var Loader<K, T> loader
+	 * Loads the software for a key.
+	 **/
+	private Loader<K, T> loader;
+
+	/**
+	 * @var long revalidationInterval
+	 * The time in milliseconds after which a cached instance is revalidated.
+	 **/
+	private long revalidationInterval;
+
+	/**
+	 * @var ConcurrentHashMap<K, Entry> entries
+	 * The cached instances by their key.
+	 **/
+	private ConcurrentHashMap<K, Entry> entries;
+
+	/**
+	 * @var AtomicLong generation
+	 * Incremented by revalidateAll, so every instance validated before is revalidated by its next lookup.
+	 **/
+	private AtomicLong generation;
+
+	/**
+	 * @var AtomicLong hits
+	 * The amount of lookups answered from the cache.
+	 **/
+	private AtomicLong hits;
+
+	/**
+	 * @var AtomicLong misses
+	 * The amount of lookups that had to load the software.
+	 **/
+	private AtomicLong misses;
+
+	/**
+	 * @var AtomicLong revalidations
+	 * The amount of background revalidations.
+	 **/
+	private AtomicLong revalidations;
+
+	/**
+	 * @var AtomicLong updates
+	 * The amount of revalidations that found a newer version.
+	 **/
+	private AtomicLong updates;
+
+	/**
+	 * Constructs an empty cache.
+	 * @param loader Loads the software for a key.
+	 * @param revalidationInterval The time in milliseconds after which a cached instance is revalidated.
+	 **/
+	public SoftwareCache(Loader<K, T> loader, long revalidationInterval) {
+		this.loader = loader;
+		this.revalidationInterval = revalidationInterval;
+		this.entries = new ConcurrentHashMap<K, Entry>();
+		this.generation = new AtomicLong();
+		this.hits = new AtomicLong();
+		this.misses = new AtomicLong();
+		this.revalidations = new AtomicLong();
+		this.updates = new AtomicLong();
+	}
+
+	/**
+	 * Returns the software for a key, loading it if it is not cached yet.
+	 * @param key The key of the software.
+	 * @return The cached instance of the software, or null if no software could be loaded.
+	 **/
+	public T get(K key) {
+		Entry entry = entries.get(key);
+		if (entry == null) {
+			misses.incrementAndGet();
+			long loadGeneration = generation.get();
+			T instance = loader.load(key, null);
+			if (instance != null) {
+				entry = new Entry();
+				entry.instance = instance;
+				entry.validatedAt = System.currentTimeMillis();
+				entry.validatedGeneration = loadGeneration;
+				entries.put(key, entry);
+			}
+			return instance;
+		}
+
+		hits.incrementAndGet();
+		T oldInstance = null;
+		T newInstance;
+		synchronized (entry) {
+			if (entry.pending != null) {
+				oldInstance = entry.instance;
+				entry.instance = entry.pending;
+				entry.pending = null;
+			}
+			newInstance = entry.instance;
+			if (!entry.revalidating && (System.currentTimeMillis() - entry.validatedAt >= revalidationInterval
+					|| entry.validatedGeneration != generation.get())) {
+				entry.revalidating = true;
+				revalidator.execute(new Revalidation(key, entry));
+			}
+		}
+		if (oldInstance != null) {
+			loader.updated(key, oldInstance, newInstance);
+		}
+		return newInstance;
+	}
+
+	/**
+	 * Loads the software for several keys concurrently, so the first lookups of the keys are answered from the cache.
+	 * Blocks until the software for every key is loaded or failed to load.
+	 * @param keys The keys of the software that should be loaded.
+	 * @param maxThreads The maximum amount of keys loaded at the same time.
+	 * @return The time in milliseconds it took to load the software, by key, in the order of the keys. Keys for which
+	 *         no software could be loaded are left out.
+	 **/
+	public LinkedHashMap<K, Long> preload(Collection<K> keys, int maxThreads) {
+		LinkedHashMap<K, Long> loadTimes = new LinkedHashMap<K, Long>();
+		if (keys.isEmpty()) {
+			return loadTimes;
+		}
+
+		ExecutorService preloader = Executors.newFixedThreadPool(Math.max(1, Math.min(maxThreads, keys.size())),
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable, "SoftwarePreload");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		try {
+			ArrayList<K> submittedKeys = new ArrayList<K>();
+			ArrayList<Future<Long>> loads = new ArrayList<Future<Long>>();
+			for (final K key : keys) {
+				submittedKeys.add(key);
+				loads.add(preloader.submit(new Callable<Long>() {
+					@Override
+					public Long call() {
+						long start = System.nanoTime();
+						T instance = get(key);
+						return instance != null ? (System.nanoTime() - start) / 1000000 : null;
+					}
+				}));
+			}
+
+			for (int i = 0; i < loads.size(); i++) {
+				try {
+					Long loadTime = loads.get(i).get();
+					if (loadTime != null) {
+						loadTimes.put(submittedKeys.get(i), loadTime);
+					}
+				} catch (ExecutionException ex) {
+					Logger.log(LogLevel.ERROR, "Loading software " + submittedKeys.get(i) + " failed.", ex.getCause());
+				}
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		} finally {
+			preloader.shutdownNow();
+		}
+		return loadTimes;
+	}
+
+	/**
+	 * Makes the next lookup of every cached instance revalidate it, e.g. because the knowledge database changed.
+	 **/
+	public void revalidateAll() {
+		generation.incrementAndGet();
+	}
+
+	/**
+	 * Returns the amount of lookups answered from the cache.
+	 * @return The amount of cache hits.
+	 **/
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	/**
+	 * Returns the amount of lookups that had to load the software.
+	 * @return The amount of cache misses.
+	 **/
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	/**
+	 * Returns the amount of background revalidations.
+	 * @return The amount of revalidations.
+	 **/
+	public long getRevalidationCount() {
+		return revalidations.get();
+	}
+
+	/**
+	 * Returns the amount of revalidations that found a newer version.
+	 * @return The amount of updates.
+	 **/
+	public long getUpdateCount() {
+		return updates.get();
+	}
+
+	/**
+	 * Returns the counts of this cache, e.g. for logging.
+	 * @return The hit, miss, revalidation and update counts.
+	 **/
+	@Override
+	public String toString() {
+		return "hits=" + getHitCount() + " misses=" + getMissCount() + " revalidations=" + getRevalidationCount()
+				+ " updates=" + getUpdateCount();
+	}
+
+	/**
+	 * Revalidates a cached instance on a background thread.
+	 **/
+	private class Revalidation implements Runnable {
+		/**
+		 * @var K key
+		 * The key of the software.
+		 **/
+		private K key;
+
+		/**
+		 * @var Entry entry
+		 * The entry of the software.
+		 **/
+		private Entry entry;
+
+		/**
+		 * Constructs a revalidation.
+		 * @param key The key of the software.
+		 * @param entry The entry of the software.
+		 **/
+		Revalidation(K key, Entry entry) {
+			this.key = key;
+			this.entry = entry;
+		}
+
+		/**
+		 * Asks the loader for the latest version and stores it as pending when it differs from the cached instance.
+		 **/
+		@Override
+		public void run() {
+			revalidations.incrementAndGet();
+			long validatedGeneration = generation.get();
+			T current;
+			synchronized (entry) {
+				current = entry.pending != null ? entry.pending : entry.instance;
+			}
+			T latest = null;
+			try {
+				latest = loader.load(key, current);
+			} catch (RuntimeException ex) {
+				Logger.log(LogLevel.ERROR, "Revalidating software " + key + " failed.", ex);
+			}
+			synchronized (entry) {
+				if (latest != null && latest != current) {
+					updates.incrementAndGet();
+					entry.pending = latest;
+				}
+				entry.validatedAt = System.currentTimeMillis();
+				entry.validatedGeneration = validatedGeneration;
+				entry.revalidating = false;
+			}
+		}
+	}
+}
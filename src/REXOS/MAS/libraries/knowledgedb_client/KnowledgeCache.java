@@ -0,0 +1,344 @@
+/**
+ * @file src/REXOS/MAS/libraries/knowledgedb_client/KnowledgeCache.java
+ * @brief A read-through cache for knowledge database queries.
+ * @date Created: 2013-10-18
+ * @section LICENSE
+ * License: newBSD
+ * Copyright © 2013, HU University of Applied Sciences Utrecht.
+ * All rights reserved.
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * - Neither the name of the HU University of Applied Sciences Utrecht nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE HU UNIVERSITY OF APPLIED SCIENCES UTRECHT
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+package libraries.knowledgedb_client;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import configuration.Configuration;
+import configuration.ConfigurationFiles;
+
+/**
+ * A read-through cache for select queries on the knowledge database.
+ * The knowledge database changes rarely, so the result of a query is kept for a configurable time and served from
+ * memory afterwards. Results are keyed by query and parameters, the least recently used results are evicted when the
+ * cache is full. Any update query executed through the KnowledgeDBClient invalidates the whole cache.
+ **/
+public class KnowledgeCache {
+    /**
+     * @var int DEFAULT_MAX_SIZE
+     *
+     * The amount of results kept when no maximum size has been configured.
+     **/
+    private static final int DEFAULT_MAX_SIZE = 1024;
+
+    /**
+     * @var long DEFAULT_TIME_TO_LIVE
+     *
+     * The time in milliseconds a result is kept when no time to live has been configured.
+     **/
+    private static final long DEFAULT_TIME_TO_LIVE = 60000;
+
+    /**
+     * The key of a cached result, consisting of the query and its parameters.
+     * Parameters are compared by their string value, since that is what is sent to the database.
+     **/
+    private static class Key {
+        /**
+         * @var String query
+         *
+         * The query of the result.
+         **/
+        private final String query;
+
+        /**
+         * @var String[] parameters
+         *
+         * The string values of the parameters of the query.
+         **/
+        private final String[] parameters;
+
+        /**
+         * Constructs the key for a query with parameters.
+         *
+         * @param query The query.
+         * @param parameters The parameters of the query.
+         **/
+        public Key(String query, Object[] parameters) {
+            this.query = query;
+            this.parameters = new String[parameters.length];
+            for (int i = 0; i < parameters.length; i++) {
+                this.parameters[i] = parameters[i].toString();
+            }
+        }
+
+        /**
+         * @see Object#hashCode()
+         **/
+        @Override
+        public int hashCode() {
+            return 31 * query.hashCode() + Arrays.hashCode(parameters);
+        }
+
+        /**
+         * @see Object#equals(Object)
+         **/
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return query.equals(other.query) && Arrays.equals(parameters, other.parameters);
+        }
+    }
+
+    /**
+     * A cached result together with the moment it expires.
+     **/
+    private static class Entry {
+        /**
+         * @var Row[] rows
+         *
+         * The rows returned by the query.
+         **/
+        private final Row[] rows;
+
+        /**
+         * @var long expiresAt
+         *
+         * The value of System.nanoTime() after which the result may no longer be used.
+         **/
+        private final long expiresAt;
+
+        /**
+         * Constructs an entry for the result of a query.
+         *
+         * @param rows The rows returned by the query.
+         * @param expiresAt The value of System.nanoTime() after which the result may no longer be used.
+         **/
+        public Entry(Row[] rows, long expiresAt) {
+            this.rows = rows;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * @var KnowledgeDBClient client
+     *
+     * The client used to execute queries for results that are not cached.
+     **/
+    private final KnowledgeDBClient client;
+
+    /**
+     * @var int maxSize
+     *
+     * The maximum amount of cached results.
+     **/
+    private final int maxSize;
+
+    /**
+     * @var long timeToLive
+     *
+     * The time in nanoseconds a result is kept.
+     **/
+    private final long timeToLive;
+
+    /**
+     * @var LinkedHashMap<Key, Entry> entries
+     *
+     * The cached results in least recently used order. Guarded by this.
+     **/
+    private final LinkedHashMap<Key, Entry> entries;
+
+    /**
+     * @var long generation
+     *
+     * Incremented on every invalidation, so a result loaded during an invalidation is not cached. Guarded by this.
+     **/
+    private long generation;
+
+    /**
+     * @var AtomicLong hits
+     *
+     * The amount of queries answered from the cache.
+     **/
+    private final AtomicLong hits;
+
+    /**
+     * @var AtomicLong misses
+     *
+     * The amount of queries that had to be executed on the knowledge database.
+     **/
+    private final AtomicLong misses;
+
+    /**
+     * @var AtomicLong evictions
+     *
+     * The amount of results removed because the cache was full.
+     **/
+    private final AtomicLong evictions;
+
+    /**
+     * Constructs a cache for the specified client. The size and time to live are read from the knowledge database
+     * configuration.
+     *
+     * @param client The client used to execute queries for results that are not cached.
+     **/
+    KnowledgeCache(KnowledgeDBClient client) {
+        this.client = client;
+
+        int size = Configuration.getPropertyInt(ConfigurationFiles.KNOWLEDGE_DB_PROPERTIES, "cacheMaxSize");
+        maxSize = size > 0 ? size : DEFAULT_MAX_SIZE;
+        int ttl = Configuration.getPropertyInt(ConfigurationFiles.KNOWLEDGE_DB_PROPERTIES, "cacheTimeToLive");
+        timeToLive = (ttl >= 0 ? ttl : DEFAULT_TIME_TO_LIVE) * 1000000L;
+
+        entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+        hits = new AtomicLong();
+        misses = new AtomicLong();
+        evictions = new AtomicLong();
+    }
+
+    /**
+     * Returns the result of a select query, executing it only if no valid result is cached.
+     * The returned array is a copy, so callers may modify it.
+     *
+     * @param query The query to be executed, usually one of the Queries constants.
+     * @param parameters The parameters for the query in a consecutive order.
+     *
+     * @return The rows returned by the query.
+     * @throws KnowledgeException Reading from the knowledge database failed.
+     **/
+    public Row[] executeSelectQuery(String query, Object... parameters) throws KnowledgeException {
+        Key key = new Key(query, parameters);
+        long loadGeneration;
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                if (System.nanoTime() - entry.expiresAt < 0) {
+                    hits.incrementAndGet();
+                    return entry.rows.clone();
+                }
+                entries.remove(key);
+            }
+            loadGeneration = generation;
+        }
+
+        misses.incrementAndGet();
+        Row[] rows = client.executeSelectQuery(query, parameters);
+
+        synchronized (this) {
+            if (loadGeneration == generation && timeToLive > 0) {
+                entries.put(key, new Entry(rows, System.nanoTime() + timeToLive));
+                evictEntries();
+            }
+        }
+        return rows.clone();
+    }
+
+    /**
+     * Removes the least recently used results until the cache is within its bounds. Must hold the lock on this.
+     **/
+    private void evictEntries() {
+        Iterator<Map.Entry<Key, Entry>> iterator = entries.entrySet().iterator();
+        while (entries.size() > maxSize && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * Removes the cached result of a query with the specified parameters.
+     *
+     * @param query The query of the result.
+     * @param parameters The parameters of the query.
+     **/
+    public synchronized void invalidate(String query, Object... parameters) {
+        entries.remove(new Key(query, parameters));
+        generation++;
+    }
+
+    /**
+     * Removes the cached results of a query for all parameters.
+     *
+     * @param query The query of the results.
+     **/
+    public synchronized void invalidateQuery(String query) {
+        Iterator<Key> iterator = entries.keySet().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().query.equals(query)) {
+                iterator.remove();
+            }
+        }
+        generation++;
+    }
+
+    /**
+     * Removes all cached results.
+     **/
+    public synchronized void invalidateAll() {
+        entries.clear();
+        generation++;
+    }
+
+    /**
+     * Returns the amount of invalidations so far. Holders of data derived from cached results can compare it to the
+     * value they last saw to notice the knowledge database changed.
+     *
+     * @return The generation of the cache.
+     **/
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Returns the amount of queries answered from the cache.
+     *
+     * @return The amount of cache hits.
+     **/
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the amount of queries that had to be executed on the knowledge database.
+     *
+     * @return The amount of cache misses.
+     **/
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the amount of results removed because the cache was full.
+     *
+     * @return The amount of evictions.
+     **/
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * Returns the amount of results currently cached, including expired results that have not been removed yet.
+     *
+     * @return The amount of cached results.
+     **/
+    public synchronized int getSize() {
+        return entries.size();
+    }
+}
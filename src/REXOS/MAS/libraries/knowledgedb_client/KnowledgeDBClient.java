@@ -26,8 +26,8 @@
  **/
 package libraries.knowledgedb_client;
 
-import java.io.FileInputStream;
-import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -35,7 +35,14 @@ import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
-import java.util.Properties;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import libraries.utillities.metrics.LatencyHistogram;
+import libraries.utillities.metrics.MetricsReporter;
 
 import com.mysql.jdbc.Connection;
 import com.mysql.jdbc.JDBC4PreparedStatement;
@@ -45,9 +52,33 @@ import configuration.ConfigurationFiles;
 
 /**
  * A client to communicate with knowledge database.
+ * Queries are executed on a pool of connections, so agents in the same JVM no longer wait for each other's queries.
+ * Every connection keeps its prepared statements, which means a query from Queries is only prepared once per
+ * connection. The execution time of every query is recorded per query.
  **/
 public class KnowledgeDBClient {
     
+    /**
+     * @var int DEFAULT_POOL_SIZE
+     *
+     * The amount of connections used when no pool size has been configured.
+     **/
+    private static final int DEFAULT_POOL_SIZE = 4;
+
+    /**
+     * @var long CONNECTION_WAIT_INTERVAL
+     *
+     * The time in milliseconds a thread waits for a returned connection before checking whether it may open one.
+     **/
+    private static final long CONNECTION_WAIT_INTERVAL = 200;
+
+    /**
+     * @var String OTHER_QUERIES
+     *
+     * The name under which the execution time of queries that are not a Queries constant is recorded.
+     **/
+    private static final String OTHER_QUERIES = "other queries";
+
     /**
      * @var rexos.libraries.knowledgedb_client.KnowledgeDBClient client
      *
@@ -56,11 +87,54 @@ public class KnowledgeDBClient {
     private static KnowledgeDBClient client;
 
     /**
-     * @var Connection connection
+     * @var HashMap<String, String> queryNames
      *
-     * The mysql connection.
+     * The name of every constant in Queries, keyed by its query.
      **/
-    private Connection connection;
+    private static HashMap<String, String> queryNames;
+
+    /**
+     * @var String url
+     *
+     * The JDBC url of the knowledge database.
+     **/
+    private String url;
+
+    /**
+     * @var int poolSize
+     *
+     * The maximum amount of connections in the pool.
+     **/
+    private int poolSize;
+
+    /**
+     * @var int openConnections
+     *
+     * The amount of connections currently opened by the pool. Guarded by this.
+     **/
+    private int openConnections;
+
+    /**
+     * @var LinkedBlockingQueue<PooledConnection> idleConnections
+     *
+     * The connections that are currently not in use.
+     **/
+    private LinkedBlockingQueue<PooledConnection> idleConnections;
+
+    /**
+     * @var ConcurrentHashMap<String, LatencyHistogram> queryLatencies
+     *
+     * The execution time of the queries in microseconds, keyed by the name of their Queries constant. Queries that
+     * are not a constant share a single histogram, so dynamically built queries do not grow the map.
+     **/
+    private ConcurrentHashMap<String, LatencyHistogram> queryLatencies;
+
+    /**
+     * @var KnowledgeCache cache
+     *
+     * The read-through cache for select queries on this client.
+     **/
+    private KnowledgeCache cache;
 
     /**
      * Get current rexos.libraries.knowledgedb_client.KnowledgeDBClient instance.
@@ -77,24 +151,186 @@ public class KnowledgeDBClient {
     }
 
     /**
-     * Private constructor to create a mysql connection.
+     * Private constructor to create the connection pool. The first connection is opened immediately.
      * @throws KnowledgeException Creating a connection to the knowledge database has failed.
      **/
     private KnowledgeDBClient() throws KnowledgeException {
-        try {
+        url = "jdbc:mysql://" + Configuration.getProperty(ConfigurationFiles.KNOWLEDGE_DB_PROPERTIES, "host") +
+        		":" + Configuration.getProperty(ConfigurationFiles.KNOWLEDGE_DB_PROPERTIES, "port")
+                + "/" + Configuration.getProperty(ConfigurationFiles.KNOWLEDGE_DB_PROPERTIES, "db");
 
-            String url = "jdbc:mysql://" + Configuration.getProperty(ConfigurationFiles.KNOWLEDGE_DB_PROPERTIES, "host") +
-            		":" + Configuration.getProperty(ConfigurationFiles.KNOWLEDGE_DB_PROPERTIES, "port")
-                    + "/" + Configuration.getProperty(ConfigurationFiles.KNOWLEDGE_DB_PROPERTIES, "db");
+        poolSize = Configuration.getPropertyInt(ConfigurationFiles.KNOWLEDGE_DB_PROPERTIES, "connectionPoolSize");
+        if (poolSize <= 0) {
+            poolSize = DEFAULT_POOL_SIZE;
+        }
 
-            connection = (Connection) DriverManager.getConnection(url,
+        idleConnections = new LinkedBlockingQueue<PooledConnection>();
+        queryLatencies = new ConcurrentHashMap<String, LatencyHistogram>();
+        cache = new KnowledgeCache(this);
+
+        synchronized (this) {
+            openConnections++;
+        }
+        idleConnections.add(openConnection());
+    }
+
+    /**
+     * Opens a new connection to the knowledge database.
+     * @return The opened connection.
+     * @throws KnowledgeException Creating a connection to the knowledge database has failed.
+     **/
+    private PooledConnection openConnection() throws KnowledgeException {
+        try {
+            Connection connection = (Connection) DriverManager.getConnection(url,
             		Configuration.getProperty(ConfigurationFiles.KNOWLEDGE_DB_PROPERTIES, "username"), 
             		Configuration.getProperty(ConfigurationFiles.KNOWLEDGE_DB_PROPERTIES, "password"));
+            return new PooledConnection(connection);
         } catch (SQLException ex) {
+            synchronized (this) {
+                openConnections--;
+            }
             throw new KnowledgeException("Failed to connect to the knowledge server.", ex);
         }
     }
 
+    /**
+     * Takes a connection from the pool. A new connection is opened when none is idle and the pool is not full,
+     * otherwise this waits until another thread returns a connection. While waiting the pool is checked again at
+     * every interval, so a slot freed by a connection that could not be replaced is used to open a new connection.
+     * @return The connection that may be used by the calling thread.
+     * @throws KnowledgeException Creating a connection to the knowledge database has failed.
+     **/
+    private PooledConnection acquireConnection() throws KnowledgeException {
+        PooledConnection connection = idleConnections.poll();
+        while (connection == null) {
+            boolean mayOpen;
+            synchronized (this) {
+                mayOpen = openConnections < poolSize;
+                if (mayOpen) {
+                    openConnections++;
+                }
+            }
+            if (mayOpen) {
+                return openConnection();
+            }
+
+            try {
+                connection = idleConnections.poll(CONNECTION_WAIT_INTERVAL, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new KnowledgeException("Interrupted while waiting for a knowledge database connection.", ex);
+            }
+        }
+        return connection;
+    }
+
+    /**
+     * Returns a connection to the pool. A broken connection is closed and replaced. If it cannot be replaced its slot
+     * is freed, and a waiting thread opens a connection itself at its next check.
+     * @param connection The connection that is no longer used by the calling thread.
+     * @param broken Whether the connection failed and should not be used again.
+     **/
+    private void releaseConnection(PooledConnection connection, boolean broken) {
+        if (!broken) {
+            idleConnections.add(connection);
+            return;
+        }
+
+        connection.close();
+        try {
+            idleConnections.add(openConnection());
+        } catch (KnowledgeException ex) {
+            // openConnection has released the slot, a waiting or the next caller will try again.
+        }
+    }
+
+    /**
+     * Returns whether the exception means the connection itself has failed.
+     * @param ex The exception thrown while using the connection.
+     * @return true if the SQL state indicates a connection exception.
+     **/
+    private static boolean isConnectionFailure(SQLException ex) {
+        return ex.getSQLState() != null && ex.getSQLState().startsWith("08");
+    }
+
+    /**
+     * Returns the name under which the execution time of the query is recorded.
+     * @param query The query.
+     * @return The name of the Queries constant for the query, or OTHER_QUERIES if it is not a constant.
+     **/
+    private static synchronized String getQueryName(String query) {
+        if (queryNames == null) {
+            queryNames = new HashMap<String, String>();
+            for (Field field : Queries.class.getFields()) {
+                if (Modifier.isStatic(field.getModifiers()) && field.getType() == String.class) {
+                    try {
+                        queryNames.put((String) field.get(null), field.getName());
+                    } catch (IllegalAccessException e) {
+                        // Public constants are always accessible.
+                    }
+                }
+            }
+        }
+
+        String name = queryNames.get(query);
+        return name != null ? name : OTHER_QUERIES;
+    }
+
+    /**
+     * Records the execution time of a query.
+     * @param query The query that was executed.
+     * @param startTime The value of System.nanoTime() when the execution started.
+     **/
+    private void recordQueryTime(String query, long startTime) {
+        String name = getQueryName(query);
+        LatencyHistogram histogram = queryLatencies.get(name);
+        if (histogram == null) {
+            histogram = new LatencyHistogram(name, "us");
+            LatencyHistogram existing = queryLatencies.putIfAbsent(name, histogram);
+            if (existing != null) {
+                histogram = existing;
+            } else {
+                MetricsReporter.register(histogram);
+            }
+        }
+        histogram.record((System.nanoTime() - startTime) / 1000);
+    }
+
+    /**
+     * Returns the histogram with the execution times of the query, in microseconds.
+     * @param query The query, usually one of the Queries constants.
+     * @return The histogram of the query, or null if the query has not been executed yet.
+     **/
+    public LatencyHistogram getQueryLatencyHistogram(String query) {
+        return queryLatencies.get(getQueryName(query));
+    }
+
+    /**
+     * Returns the histograms with the execution times of all executed queries, in microseconds.
+     * Each histogram is named after the Queries constant of its query; other queries share one histogram.
+     * @return The histograms of all executed queries.
+     **/
+    public Collection<LatencyHistogram> getQueryLatencyHistograms() {
+        return new ArrayList<LatencyHistogram>(queryLatencies.values());
+    }
+
+    /**
+     * Returns the read-through cache for select queries. Every update query executed through this client
+     * invalidates the cache.
+     * @return The cache of this client.
+     **/
+    public KnowledgeCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Returns the maximum amount of connections in the pool.
+     * @return The size of the connection pool.
+     **/
+    public int getPoolSize() {
+        return poolSize;
+    }
+
     /**
      * Creates an array of rows from the given ResultSet.
      * @param result The ResultSet that needs to be converted.
@@ -146,18 +382,24 @@ public class KnowledgeDBClient {
      * @throws KnowledgeException Reading from the knowledge database failed.
      **/
     public Row[] executeSelectQuery(String query) throws KnowledgeException {
+    	PooledConnection connection = acquireConnection();
+    	boolean broken = false;
     	Statement statement = null;
     	ResultSet result = null;
     	Row[] rows = null;
+    	long startTime = System.nanoTime();
     	try {
 	        statement = connection.createStatement();
 	        result = statement.executeQuery(query);
 	        rows = createRowArrayFromResultSet(result);
     	} catch (SQLException ex) {
+    		broken = isConnectionFailure(ex);
     		throw new KnowledgeException("Error reading from the knowledge database.", ex);
     	} finally {
     		if (result != null)	try { result.close(); } catch (SQLException e) {}
     		if (statement != null)	try { statement.close(); } catch (SQLException e) {}
+    		releaseConnection(connection, broken);
+    		recordQueryTime(query, startTime);
     	}
         
     	return rows;
@@ -165,6 +407,7 @@ public class KnowledgeDBClient {
 
     /**
      * Executes a single query statement with parameters.
+     * The statement is prepared once per pooled connection and reused afterwards.
      *
      * @param query The query to be executed.
      * @param parameters The parameters for the query in a consecutive order.
@@ -173,11 +416,13 @@ public class KnowledgeDBClient {
      * @throws KnowledgeException Reading from the knowledge database failed.
      **/
     public Row[] executeSelectQuery(String query, Object... parameters) throws KnowledgeException {
-        PreparedStatement statement = null;
+    	PooledConnection connection = acquireConnection();
+    	boolean broken = false;
         ResultSet result = null;
         Row[] rows = null;
+        long startTime = System.nanoTime();
     	try {
-			statement = connection.prepareStatement(query);
+			PreparedStatement statement = connection.prepareStatement(query, false);
 
 			for (int i = 0; i < parameters.length; i++) {
 			    statement.setString(i + 1, parameters[i].toString());
@@ -186,10 +431,12 @@ public class KnowledgeDBClient {
 			result = statement.executeQuery();
 	        rows = createRowArrayFromResultSet(result);
 		} catch (SQLException ex) {
+			broken = isConnectionFailure(ex);
     		throw new KnowledgeException("Error reading from the knowledge database.", ex);
 		} finally {
 			if (result != null)	try { result.close(); } catch (SQLException e) {}
-    		if (statement != null)	try { statement.close(); } catch (SQLException e) {}
+			releaseConnection(connection, broken);
+			recordQueryTime(query, startTime);
 		}
     	
     	return rows;
@@ -205,11 +452,12 @@ public class KnowledgeDBClient {
      * @throws KnowledgeException Reading from the knowledge database failed.
      **/
     public int executeUpdateQuery(String query) throws KnowledgeException{
-        return executeUpdateQuery(query, (Object) null);
+        return executeUpdateQuery(query, new Object[0]);
     }
 
     /**
      * Executes an insert or update query.
+     * The statement is prepared once per pooled connection and reused afterwards.
      *
      * @param query The insert or update query.
      * @param parameters The parameters for the query in a consecutive order.
@@ -218,11 +466,13 @@ public class KnowledgeDBClient {
      * @throws KnowledgeException Reading from the knowledge database failed.
      **/
     public int executeUpdateQuery(String query, Object... parameters) throws KnowledgeException {
-    	PreparedStatement statement = null;
+    	PooledConnection connection = acquireConnection();
+    	boolean broken = false;
     	ResultSet result = null;
     	int queryReturnValue = 0;
+    	long startTime = System.nanoTime();
         try {
-			statement = connection.prepareStatement(query, Statement.RETURN_GENERATED_KEYS);
+			PreparedStatement statement = connection.prepareStatement(query, true);
 
 			if (parameters != null) {
 			    for (int i = 0; i < parameters.length; i++) {
@@ -238,13 +488,16 @@ public class KnowledgeDBClient {
 			} else {
 				queryReturnValue = 0;
 			}
+			cache.invalidateAll();
 		} catch (SQLException ex) {
+			broken = isConnectionFailure(ex);
 			throw new KnowledgeException("Error reading from the knowledge database.", ex);
 		} finally {
 			if (result != null)	try { result.close(); } catch (SQLException e) {}
-    		if (statement != null)	try { statement.close(); } catch (SQLException e) {}
+			releaseConnection(connection, broken);
+			recordQueryTime(query, startTime);
 		}
         
         return queryReturnValue;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,131 @@
+/**
+ * @file src/REXOS/MAS/libraries/knowledgedb_client/PooledConnection.java
+ * @brief A pooled knowledge database connection with its prepared statements.
+ * @date Created: 2013-10-18
+ * @section LICENSE
+ * License: newBSD
+ * Copyright © 2013, HU University of Applied Sciences Utrecht.
+ * All rights reserved.
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * - Neither the name of the HU University of Applied Sciences Utrecht nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE HU UNIVERSITY OF APPLIED SCIENCES UTRECHT
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+package libraries.knowledgedb_client;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.mysql.jdbc.Connection;
+
+/**
+ * A connection of the KnowledgeDBClient pool, together with the statements prepared on it.
+ * A pooled connection is used by one thread at a time, so its prepared statements can be reused without locking.
+ **/
+class PooledConnection {
+    /**
+     * @var int MAX_CACHED_STATEMENTS
+     *
+     * The maximum amount of prepared statements kept per connection. The least recently used statement is closed
+     * when more are needed, so queries built at runtime can not exhaust the server.
+     **/
+    private static final int MAX_CACHED_STATEMENTS = 64;
+
+    /**
+     * @var Connection connection
+     *
+     * The mysql connection.
+     **/
+    private final Connection connection;
+
+    /**
+     * @var LinkedHashMap<String, PreparedStatement> statements
+     *
+     * The prepared statements of this connection, keyed by query, in least recently used order.
+     **/
+    private final LinkedHashMap<String, PreparedStatement> statements;
+
+    /**
+     * Constructs a pooled connection around the specified connection.
+     *
+     * @param connection The mysql connection.
+     **/
+    PooledConnection(Connection connection) {
+        this.connection = connection;
+        this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true);
+    }
+
+    /**
+     * Returns the prepared statement for the query, preparing it the first time it is used on this connection.
+     * The parameters of a reused statement are cleared.
+     *
+     * @param query The query of the statement, usually one of the Queries constants.
+     * @param returnGeneratedKeys Whether the statement should return the keys generated by an insert.
+     *
+     * @return The prepared statement for the query.
+     * @throws SQLException Preparing the statement failed.
+     **/
+    PreparedStatement prepareStatement(String query, boolean returnGeneratedKeys) throws SQLException {
+        String key = (returnGeneratedKeys ? "K" : "S") + query;
+        PreparedStatement statement = statements.get(key);
+        if (statement == null) {
+            if (returnGeneratedKeys) {
+                statement = connection.prepareStatement(query, Statement.RETURN_GENERATED_KEYS);
+            } else {
+                statement = connection.prepareStatement(query);
+            }
+            statements.put(key, statement);
+            evictStatements();
+        } else {
+            statement.clearParameters();
+        }
+        return statement;
+    }
+
+    /**
+     * Creates a plain statement for a query without parameters. The caller should close the statement.
+     *
+     * @return The created statement.
+     * @throws SQLException Creating the statement failed.
+     **/
+    Statement createStatement() throws SQLException {
+        return connection.createStatement();
+    }
+
+    /**
+     * Closes the least recently used statements until the cache is within its bounds.
+     **/
+    private void evictStatements() {
+        Iterator<Map.Entry<String, PreparedStatement>> iterator = statements.entrySet().iterator();
+        while (statements.size() > MAX_CACHED_STATEMENTS && iterator.hasNext()) {
+            PreparedStatement eldest = iterator.next().getValue();
+            iterator.remove();
+            try { eldest.close(); } catch (SQLException e) {}
+        }
+    }
+
+    /**
+     * Closes all prepared statements and the connection itself.
+     **/
+    void close() {
+        for (PreparedStatement statement : statements.values()) {
+            try { statement.close(); } catch (SQLException e) {}
+        }
+        statements.clear();
+        try { connection.close(); } catch (SQLException e) {}
+    }
+}
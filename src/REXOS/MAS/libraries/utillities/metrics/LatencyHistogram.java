@@ -0,0 +1,218 @@
+/**
+ * @file src/REXOS/MAS/libraries/utillities/metrics/LatencyHistogram.java
+ * @brief Lock free histogram for latency measurements.
+ * @date Created: 2013-10-18
+ *
+ * @section LICENSE
+ * License: newBSD
+ *
+ * Copyright © 2013, HU University of Applied Sciences Utrecht.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * - Neither the name of the HU University of Applied Sciences Utrecht nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE HU UNIVERSITY OF APPLIED SCIENCES UTRECHT
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+package libraries.utillities.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free histogram for latency measurements.
+ * Values are stored in power-of-two buckets, which keeps recording cheap enough to be used on hot paths
+ * while still giving a usable indication of the distribution.
+ **/
+public class LatencyHistogram {
+	/**
+	 * @var int BUCKET_COUNT
+	 * Amount of buckets. Bucket i holds the values in the range [2^(i-1), 2^i), bucket 0 holds the value 0
+	 * and the last bucket holds everything that does not fit in the other buckets.
+	 **/
+	private static final int BUCKET_COUNT = 40;
+
+	/**
+	 * @var String name
+	 * Name of the measured quantity, used when printing the histogram.
+	 **/
+	private String name;
+
+	/**
+	 * @var String unit
+	 * Unit of the recorded values, used when printing the histogram.
+	 **/
+	private String unit;
+
+	/**
+	 * @var AtomicLongArray buckets
+	 * The amount of recorded values per bucket.
+	 **/
+	private AtomicLongArray buckets;
+
+	/**
+	 * @var AtomicLong count
+	 * Total amount of recorded values.
+	 **/
+	private AtomicLong count;
+
+	/**
+	 * @var AtomicLong sum
+	 * Sum of all recorded values.
+	 **/
+	private AtomicLong sum;
+
+	/**
+	 * @var AtomicLong max
+	 * Largest recorded value.
+	 **/
+	private AtomicLong max;
+
+	/**
+	 * Constructs an empty histogram.
+	 * @param name Name of the measured quantity.
+	 * @param unit Unit of the recorded values.
+	 **/
+	public LatencyHistogram(String name, String unit) {
+		this.name = name;
+		this.unit = unit;
+		this.buckets = new AtomicLongArray(BUCKET_COUNT);
+		this.count = new AtomicLong();
+		this.sum = new AtomicLong();
+		this.max = new AtomicLong();
+	}
+
+	/**
+	 * Records a single value. Negative values (e.g. caused by clock differences between hosts) are recorded as 0.
+	 * @param value The value to record.
+	 **/
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+
+		buckets.incrementAndGet(getBucketIndex(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+
+		long currentMax = max.get();
+		while (value > currentMax && !max.compareAndSet(currentMax, value)) {
+			currentMax = max.get();
+		}
+	}
+
+	/**
+	 * Returns the index of the bucket the value belongs to.
+	 * @param value The (non negative) value.
+	 * @return The index of the bucket.
+	 **/
+	private static int getBucketIndex(long value) {
+		int index = 64 - Long.numberOfLeadingZeros(value);
+		return Math.min(index, BUCKET_COUNT - 1);
+	}
+
+	/**
+	 * Returns the upper bound (exclusive) of the specified bucket.
+	 * @param index The index of the bucket.
+	 * @return The upper bound of the bucket.
+	 **/
+	private static long getBucketUpperBound(int index) {
+		if (index == BUCKET_COUNT - 1) {
+			return Long.MAX_VALUE;
+		}
+		return 1L << index;
+	}
+
+	/**
+	 * Returns the name of this histogram.
+	 * @return The name of this histogram.
+	 **/
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns the amount of recorded values.
+	 * @return The amount of recorded values.
+	 **/
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * Returns the mean of the recorded values.
+	 * @return The mean of the recorded values, or 0 if nothing has been recorded.
+	 **/
+	public double getMean() {
+		long currentCount = count.get();
+		if (currentCount == 0) {
+			return 0;
+		}
+		return (double) sum.get() / currentCount;
+	}
+
+	/**
+	 * Returns the largest recorded value.
+	 * @return The largest recorded value.
+	 **/
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * Returns an upper bound for the specified percentile.
+	 * Because values are stored in power-of-two buckets the returned value is the upper bound of the bucket
+	 * in which the percentile falls, capped at the largest recorded value.
+	 * @param percentile The percentile in the range [0, 100].
+	 * @return The upper bound for the percentile, or 0 if nothing has been recorded.
+	 **/
+	public long getPercentile(double percentile) {
+		long currentCount = count.get();
+		if (currentCount == 0) {
+			return 0;
+		}
+
+		long threshold = (long) Math.ceil(currentCount * (percentile / 100.0));
+		long seen = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			seen += buckets.get(i);
+			if (seen >= threshold) {
+				return Math.min(getBucketUpperBound(i) - 1, max.get());
+			}
+		}
+		return max.get();
+	}
+
+	/**
+	 * Clears all recorded values.
+	 **/
+	public void reset() {
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			buckets.set(i, 0);
+		}
+		count.set(0);
+		sum.set(0);
+		max.set(0);
+	}
+
+	/**
+	 * Returns a short summary of the recorded values.
+	 * @return A short summary of the recorded values.
+	 **/
+	@Override
+	public String toString() {
+		return String.format("%s: count=%d mean=%.1f%s p50=%d%s p99=%d%s max=%d%s", name, getCount(),
+				getMean(), unit, getPercentile(50), unit, getPercentile(99), unit, getMax(), unit);
+	}
+}
@@ -0,0 +1,129 @@
+/**
+ * @file src/REXOS/MAS/libraries/utillities/metrics/MetricsReporter.java
+ * @brief Periodically logs the registered histograms.
+ * @date Created: 2013-10-18
+ *
+ * @section LICENSE
+ * License: newBSD
+ *
+ * Copyright © 2013, HU University of Applied Sciences Utrecht.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+ * - Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+ * - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+ * - Neither the name of the HU University of Applied Sciences Utrecht nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE HU UNIVERSITY OF APPLIED SCIENCES UTRECHT
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT
+ * OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ **/
+package libraries.utillities.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import libraries.utillities.log.LogLevel;
+import libraries.utillities.log.Logger;
+
+/**
+ * Periodically logs the registered histograms of this process, and once more when the process shuts down.
+ * Histograms that have not recorded any values are left out. Histograms are only weakly referenced, so a histogram
+ * is no longer reported once the object it belongs to is collected.
+ **/
+public class MetricsReporter {
+	/**
+	 * @var long REPORT_INTERVAL
+	 * The time in milliseconds between two reports.
+	 **/
+	private static final long REPORT_INTERVAL = 60000;
+
+	/**
+	 * @var Set<LatencyHistogram> histograms
+	 * The registered histograms. Guarded by itself.
+	 **/
+	private static final Set<LatencyHistogram> histograms =
+			Collections.newSetFromMap(new WeakHashMap<LatencyHistogram, Boolean>());
+
+	/**
+	 * @var ScheduledExecutorService reporter
+	 * The thread writing the periodic reports, started when the first histogram is registered.
+	 **/
+	private static ScheduledExecutorService reporter;
+
+	/**
+	 * Registers a histogram so it is included in the reports.
+	 * @param histogram The histogram that should be reported.
+	 * @return The registered histogram.
+	 **/
+	public static LatencyHistogram register(LatencyHistogram histogram) {
+		synchronized (histograms) {
+			histograms.add(histogram);
+			if (reporter == null) {
+				start();
+			}
+		}
+		return histogram;
+	}
+
+	/**
+	 * Logs every registered histogram that has recorded values.
+	 **/
+	public static void report() {
+		ArrayList<LatencyHistogram> reported;
+		synchronized (histograms) {
+			reported = new ArrayList<LatencyHistogram>(histograms);
+		}
+		for (LatencyHistogram histogram : reported) {
+			if (histogram.getCount() > 0) {
+				Logger.log(LogLevel.INFORMATION, histogram);
+			}
+		}
+	}
+
+	/**
+	 * Starts the periodic reports and registers the final report at shutdown. Guarded by histograms.
+	 **/
+	private static void start() {
+		reporter = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "MetricsReporter");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		reporter.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				report();
+			}
+		}, REPORT_INTERVAL, REPORT_INTERVAL, TimeUnit.MILLISECONDS);
+
+		Runtime.getRuntime().addShutdownHook(new Thread("MetricsReporter shutdown") {
+			@Override
+			public void run() {
+				report();
+			}
+		});
+	}
+
+	/**
+	 * Reports are only written through the static methods.
+	 **/
+	private MetricsReporter() {
+	}
+}